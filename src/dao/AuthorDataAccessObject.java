@@ -1,22 +1,18 @@
 package dao;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.PushbackReader;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Path;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import model.Author;
+import util.LongObjectMap;
 /**
  * A class to read Authors from and write them to the database (CSV file)
  * @author Jonathan Lovelace
@@ -25,106 +21,115 @@ import model.Author;
 public final class AuthorDataAccessObject implements DataAccessObject<Author> {
 
 	/**
-	 * The file the table is stored in.
+	 * The storage the table is kept in.
 	 */
-	private final Path filename;
+	private final TableStore store;
+
+	/**
+	 * The IDs in use in the table.
+	 */
+	private final TableIds ids;
 
 	/**
 	 * Construct the DAO.
 	 * @param filename the file the table is or will be stored in.
 	 */
 	public AuthorDataAccessObject(final String filename) {
-		this.filename = Paths.get(filename);
+		this(new CSVTableStore(Paths.get(filename)));
+	}
+
+	/**
+	 * Construct the DAO.
+	 * @param store the storage the table is or will be kept in.
+	 */
+	public AuthorDataAccessObject(final TableStore store) {
+		this.store = store;
+		ids = new TableIds(store);
+	}
+
+	/**
+	 * Convert an author to a record for the table.
+	 *
+	 * @param entity an author
+	 * @return the record representing it
+	 */
+	private static List<String> toRecord(final Author entity) {
+		return Arrays.asList(Long.toString(entity.getId()), entity.getName());
+	}
+
+	/**
+	 * Convert a record from the table to an author.
+	 *
+	 * @param record the fields of the record
+	 * @return the author it represents
+	 */
+	private static Author toAuthor(final List<String> record) {
+		return new Author(Long.parseLong(record.get(0)), record.get(1));
 	}
 
-	// TODO: keep a cache of IDs that have been used, to make save() idempotent on
-	// repeated calls
 	@Override
 	public void save(final Author entity) throws IOException {
-		try (PrintWriter out = new PrintWriter(
-				Files.newBufferedWriter(filename, StandardOpenOption.APPEND,
-						StandardOpenOption.CREATE))) {
-			out.println(Stream.of(Long.toString(entity.getId()), entity.getName())
-					.map(CSVHelper::quoteCSV).collect(Collectors.joining(",")));
-		}
+		ids.save(toRecord(entity));
+	}
+
+	@Override
+	public void saveAll(final Collection<? extends Author> entities) throws IOException {
+		ids.saveAll(entities.stream().map(AuthorDataAccessObject::toRecord)
+				.collect(Collectors.toList()));
 	}
 
 	@Override
 	public void delete(final Author entity) throws IOException {
-		final List<List<String>> table = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					break;
-				} else if (!Long.toString(entity.getId()).equals(record.get(0))) {
-					table.add(record);
-				}
-			}
-		}
-		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(filename))) {
-			for (final List<String> record : table) {
-				out.println(record.stream().map(CSVHelper::quoteCSV)
-						.collect(Collectors.joining(",")));
-			}
-		}
+		ids.remove(entity.getId());
+	}
+
+	@Override
+	public int deduplicate() throws IOException {
+		return ids.deduplicate();
 	}
 
 	@Override
 	public void update(final Author entity) throws IOException {
-		final List<List<String>> table = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					break;
-				} else if (Long.toString(entity.getId()).equals(record.get(0))) {
-					table.add(Arrays.asList(Long.toString(entity.getId()),
-							entity.getName()));
-				} else {
-					table.add(record);
-				}
-			}
-		}
-		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(filename))) {
-			for (final List<String> record : table) {
-				out.println(record.stream().map(CSVHelper::quoteCSV)
-						.collect(Collectors.joining(",")));
-			}
-		}
+		store.replace(entity.getId(), toRecord(entity));
 	}
 
 	@Override
 	public Optional<Author> find(final long id) throws IOException {
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					return Optional.empty();
-				} else if (Long.toString(id).equals(record.get(0))) {
-					return Optional.of(new Author(Long.parseLong(record.get(0)),
-							record.get(1)));
-				}
+		return store.find(id).map(AuthorDataAccessObject::toAuthor);
+	}
+
+	@Override
+	public List<Author> findByIds(final Collection<Long> ids) throws IOException {
+		final LongObjectMap<List<String>> found = store.findByIds(
+				ids.stream().mapToLong(Long::longValue).toArray());
+		final List<Author> retval = new ArrayList<>(found.size());
+		for (final long id : ids) {
+			// Removing each record as it is used skips IDs given more than once
+			final List<String> record = found.remove(id);
+			if (record != null) {
+				retval.add(toAuthor(record));
 			}
 		}
+		return retval;
+	}
+
+	@Override
+	public boolean mightContainName(final String name) throws IOException {
+		return store.mightContain(1, name);
 	}
 
 	@Override
 	public List<Author> findAll() throws IOException {
-		final List<Author> retval = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					return retval;
-				} else {
-					retval.add(new Author(Long.parseLong(record.get(0)),
-							record.get(1)));
-				}
-			}
-		} catch (FileNotFoundException|NoSuchFileException except) {
-			return new ArrayList<>();
+		try (Stream<Author> stream = stream()) {
+			return stream.collect(Collectors.toList());
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
 		}
 	}
 
+	@Override
+	public Stream<Author> stream() throws IOException {
+		return store.records().map(AuthorDataAccessObject::toAuthor);
+	}
+
 }
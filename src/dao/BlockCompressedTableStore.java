@@ -0,0 +1,776 @@
+package dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A table stored as a sequence of independently Deflate-compressed blocks of CSV
+ * records. Each block has a header recording its size, the number of records in
+ * it, and the smallest and largest ID among them; on first use we read just the
+ * headers to build an index of the blocks, so that {@link #find(long)} only has
+ * to decompress the block(s) whose ID range covers the requested ID, while
+ * {@link #records()} decompresses the blocks one after another (or in parallel).
+ *
+ * <p>Nothing already in the file is ever overwritten except a block's marker,
+ * so a crash can lose only what was being written. New records are written in
+ * new blocks at the end of the file; once the small blocks at the end add up
+ * to {@link #BLOCK_SIZE} bytes (uncompressed), or there are
+ * {@link #MAX_SMALL_BLOCKS} of them, they are merged into one new block and
+ * the old ones marked dead. Changing or removing a record likewise writes a new
+ * copy of its block at the end of the file and only then marks the old one
+ * dead. A block written to take the place of others records in its header the
+ * part of the file they occupy, so if we crash before marking them dead, they
+ * are marked dead when the file is next read rather than being read alongside
+ * their replacement. Once dead blocks take up more space than live ones, the
+ * file is compacted. This means that after updates, records are not
+ * necessarily returned in the order they were added.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BlockCompressedTableStore implements TableStore {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(BlockCompressedTableStore.class.getName());
+	/**
+	 * The marker at the start of the header of a live block.
+	 */
+	private static final int LIVE_BLOCK = 0x424C4B31;
+	/**
+	 * The marker at the start of the header of a block that has been superseded.
+	 */
+	private static final int DEAD_BLOCK = 0;
+	/**
+	 * The marker at the start of the header of a live block that replaces the
+	 * blocks in part of the file.
+	 */
+	private static final int REPLACING_BLOCK = 0x424C4B52;
+	/**
+	 * The marker at the start of the header of a block that replaced others and
+	 * has since been superseded itself.
+	 */
+	private static final int DEAD_REPLACING_BLOCK = 1;
+	/**
+	 * The size of a block header: marker, compressed size, uncompressed size,
+	 * record count, minimum ID, and maximum ID.
+	 */
+	private static final int HEADER_SIZE = 32;
+	/**
+	 * The size of the header of a block that replaces others: the usual header,
+	 * then the start and end of the part of the file holding the blocks it
+	 * replaces.
+	 */
+	private static final int REPLACING_HEADER_SIZE = HEADER_SIZE + 16;
+	/**
+	 * The uncompressed size beyond which we stop adding records to a block.
+	 */
+	private static final int BLOCK_SIZE = 1 << 16;
+	/**
+	 * The most blocks smaller than {@link #BLOCK_SIZE} to let accumulate at the
+	 * end of the file before merging them.
+	 */
+	private static final int MAX_SMALL_BLOCKS = 64;
+
+	/**
+	 * The file the table is stored in.
+	 */
+	private final Path filename;
+	/**
+	 * The live blocks in the file, in file order, or null if the index has not
+	 * been read yet.
+	 */
+	private List<Block> index;
+	/**
+	 * The total size of the dead blocks in the file.
+	 */
+	private long deadBytes;
+
+	/**
+	 * @param filename the file the table is or will be stored in.
+	 */
+	public BlockCompressedTableStore(final Path filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * The index entry describing one block of the file.
+	 */
+	private static final class Block {
+		/**
+		 * Where in the file the block (its header) begins.
+		 */
+		private final long offset;
+		/**
+		 * The size of its header.
+		 */
+		private final int headerSize;
+		/**
+		 * The size of the compressed data.
+		 */
+		private final int compressedSize;
+		/**
+		 * The size of the data once decompressed.
+		 */
+		private final int rawSize;
+		/**
+		 * The smallest ID of any record in the block.
+		 */
+		private final long minId;
+		/**
+		 * The largest ID of any record in the block.
+		 */
+		private final long maxId;
+
+		Block(final long offset, final int headerSize, final int compressedSize,
+				final int rawSize, final long minId, final long maxId) {
+			this.offset = offset;
+			this.headerSize = headerSize;
+			this.compressedSize = compressedSize;
+			this.rawSize = rawSize;
+			this.minId = minId;
+			this.maxId = maxId;
+		}
+
+		/**
+		 * @return the size of the block, including its header, in the file
+		 */
+		long size() {
+			return headerSize + compressedSize;
+		}
+
+		/**
+		 * @param id an ID number
+		 * @return whether a record with that ID could be in this block
+		 */
+		boolean covers(final long id) {
+			return minId <= id && id <= maxId;
+		}
+	}
+
+	/**
+	 * Get the index of live blocks, reading the block headers from the file if we
+	 * haven't done so yet. If the file ends with an incomplete block (as after a
+	 * crash in the middle of writing), it is discarded. Any live block that a
+	 * later live block replaces (as after a crash between writing a block's
+	 * replacement and marking it dead) is marked dead.
+	 *
+	 * @return the index
+	 * @throws IOException on I/O error, or if a block header before the end of
+	 *                     the file is corrupt
+	 */
+	private List<Block> index() throws IOException {
+		if (index != null) {
+			return index;
+		}
+		final List<Block> retval = new ArrayList<>();
+		long dead = 0;
+		if (Files.exists(filename)) {
+			try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				final long size = channel.size();
+				final ByteBuffer header = ByteBuffer.allocate(REPLACING_HEADER_SIZE);
+				long offset = 0;
+				while (offset < size) {
+					if (offset + HEADER_SIZE > size) {
+						LOGGER.warning("Discarding incomplete block at end of " + filename);
+						channel.truncate(offset);
+						break;
+					}
+					header.clear();
+					header.limit(HEADER_SIZE);
+					readFully(channel, header, offset);
+					header.flip();
+					final int marker = header.getInt();
+					final int compressedSize = header.getInt();
+					final int rawSize = header.getInt();
+					header.getInt(); // record count
+					final long minId = header.getLong();
+					final long maxId = header.getLong();
+					final int headerSize;
+					if (marker == LIVE_BLOCK || marker == DEAD_BLOCK) {
+						headerSize = HEADER_SIZE;
+					} else if (marker == REPLACING_BLOCK || marker == DEAD_REPLACING_BLOCK) {
+						headerSize = REPLACING_HEADER_SIZE;
+					} else {
+						throw new IOException("Corrupt block header at offset " + offset
+								+ " in " + filename);
+					}
+					if (compressedSize < 0 || rawSize < 0) {
+						throw new IOException("Corrupt block header at offset " + offset
+								+ " in " + filename);
+					} else if (offset + headerSize + compressedSize > size) {
+						LOGGER.warning("Discarding incomplete block at end of " + filename);
+						channel.truncate(offset);
+						break;
+					}
+					final Block block = new Block(offset, headerSize, compressedSize, rawSize,
+							minId, maxId);
+					if (marker == LIVE_BLOCK) {
+						retval.add(block);
+					} else if (marker == REPLACING_BLOCK) {
+						header.clear();
+						header.limit(REPLACING_HEADER_SIZE - HEADER_SIZE);
+						readFully(channel, header, offset + HEADER_SIZE);
+						header.flip();
+						final long replacedStart = header.getLong();
+						final long replacedEnd = header.getLong();
+						for (final ListIterator<Block> iter = retval.listIterator();
+								iter.hasNext();) {
+							final Block replaced = iter.next();
+							if (replaced.offset >= replacedStart
+									&& replaced.offset < replacedEnd) {
+								LOGGER.warning("Marking dead a block left behind by its "
+										+ "replacement in " + filename);
+								writeMarker(channel, replaced);
+								dead += replaced.size();
+								iter.remove();
+							}
+						}
+						retval.add(block);
+					} else {
+						dead += block.size();
+					}
+					offset += block.size();
+				}
+			}
+		}
+		index = retval;
+		deadBytes = dead;
+		return retval;
+	}
+
+	/**
+	 * Fill a buffer from a channel, starting at the given position.
+	 *
+	 * @param channel  the channel to read from
+	 * @param buffer   the buffer to fill
+	 * @param position where in the channel to start reading
+	 * @throws IOException on I/O error, or if the channel ends first
+	 */
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+			final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, current);
+			if (count < 0) {
+				throw new IOException("Unexpected end of compressed table");
+			}
+			current += count;
+		}
+	}
+
+	/**
+	 * Read and decompress a block.
+	 *
+	 * @param block the block to read
+	 * @return the records in it
+	 * @throws IOException on I/O error or if the block is corrupt
+	 */
+	private List<List<String>> readBlock(final Block block) throws IOException {
+		try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ)) {
+			return decodeBlock(readCompressed(channel, block), block.rawSize);
+		}
+	}
+
+	/**
+	 * Read the compressed contents of a block.
+	 *
+	 * @param channel the file to read from
+	 * @param block   the block to read
+	 * @return its compressed data
+	 * @throws IOException on I/O error
+	 */
+	private static byte[] readCompressed(final FileChannel channel, final Block block)
+			throws IOException {
+		final ByteBuffer compressed = ByteBuffer.allocate(block.compressedSize);
+		readFully(channel, compressed, block.offset + block.headerSize);
+		return compressed.array();
+	}
+
+	/**
+	 * Decompress a block's contents.
+	 *
+	 * @param compressed the compressed data
+	 * @param rawSize    its size once decompressed
+	 * @return the records in it
+	 * @throws IOException if the block is corrupt
+	 */
+	private static List<List<String>> decodeBlock(final byte[] compressed,
+			final int rawSize) throws IOException {
+		final byte[] raw = new byte[rawSize];
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int count = 0;
+			while (count < raw.length && !inflater.finished()) {
+				final int inflated = inflater.inflate(raw, count, raw.length - count);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated block in compressed table");
+				}
+				count += inflated;
+			}
+			if (count < raw.length) {
+				throw new IOException("Short block in compressed table");
+			}
+		} catch (final DataFormatException except) {
+			throw new IOException("Corrupt block in compressed table", except);
+		} finally {
+			inflater.end();
+		}
+		final List<List<String>> retval = new ArrayList<>();
+		try (PushbackReader in = new PushbackReader(
+				new StringReader(new String(raw, StandardCharsets.UTF_8)))) {
+			while (true) {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					return retval;
+				}
+				retval.add(record);
+			}
+		}
+	}
+
+	/**
+	 * Compress a list of records into a block, including its header.
+	 *
+	 * @param records       the records to put in the block
+	 * @param replacedStart the start of the part of the file holding the blocks
+	 *                      this one replaces
+	 * @param replacedEnd   the end of that part of the file; if no greater than
+	 *                      the start, the block replaces nothing
+	 * @return the block's header and compressed contents
+	 */
+	private static ByteBuffer encodeBlock(final List<List<String>> records,
+			final long replacedStart, final long replacedEnd) {
+		final byte[] raw = records.stream()
+				.map(record -> CSVHelper.formatCSVRecord(record) + '\n')
+				.collect(Collectors.joining()).getBytes(StandardCharsets.UTF_8);
+		final Deflater deflater = new Deflater();
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+				raw.length / 2 + 64);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			final byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				final int count = deflater.deflate(buffer);
+				compressed.write(buffer, 0, count);
+			}
+		} finally {
+			deflater.end();
+		}
+		final long minId = records.stream().mapToLong(BlockCompressedTableStore::idOf)
+				.min().orElse(0L);
+		final long maxId = records.stream().mapToLong(BlockCompressedTableStore::idOf)
+				.max().orElse(0L);
+		final boolean replacing = replacedEnd > replacedStart;
+		final ByteBuffer retval = ByteBuffer.allocate(
+				(replacing ? REPLACING_HEADER_SIZE : HEADER_SIZE) + compressed.size());
+		retval.putInt(replacing ? REPLACING_BLOCK : LIVE_BLOCK).putInt(compressed.size())
+				.putInt(raw.length).putInt(records.size()).putLong(minId).putLong(maxId);
+		if (replacing) {
+			retval.putLong(replacedStart).putLong(replacedEnd);
+		}
+		retval.put(compressed.toByteArray());
+		retval.flip();
+		return retval;
+	}
+
+	/**
+	 * @param record a record
+	 * @return its ID
+	 */
+	private static long idOf(final List<String> record) {
+		return Long.parseLong(record.get(0));
+	}
+
+	/**
+	 * Write a block to the file at the given position, truncating anything after
+	 * it.
+	 *
+	 * @param channel the file to write to
+	 * @param records the records to put in the block
+	 * @param offset  where in the file to write it
+	 * @return the index entry for the new block
+	 * @throws IOException on I/O error
+	 */
+	private static Block writeBlock(final FileChannel channel,
+			final List<List<String>> records, final long offset) throws IOException {
+		return writeBlock(channel, records, offset, 0, 0);
+	}
+
+	/**
+	 * Write a block that replaces the blocks in part of the file to the file at
+	 * the given position, truncating anything after it.
+	 *
+	 * @param channel       the file to write to
+	 * @param records       the records to put in the block
+	 * @param offset        where in the file to write it
+	 * @param replacedStart the start of the part of the file holding the blocks
+	 *                      it replaces
+	 * @param replacedEnd   the end of that part of the file
+	 * @return the index entry for the new block
+	 * @throws IOException on I/O error
+	 */
+	private static Block writeBlock(final FileChannel channel,
+			final List<List<String>> records, final long offset,
+			final long replacedStart, final long replacedEnd) throws IOException {
+		final ByteBuffer block = encodeBlock(records, replacedStart, replacedEnd);
+		channel.truncate(offset);
+		long position = offset;
+		while (block.hasRemaining()) {
+			position += channel.write(block, position);
+		}
+		block.rewind();
+		final int headerSize = block.getInt() == REPLACING_BLOCK
+				? REPLACING_HEADER_SIZE : HEADER_SIZE;
+		final int compressedSize = block.getInt();
+		final int rawSize = block.getInt();
+		block.getInt();
+		return new Block(offset, headerSize, compressedSize, rawSize, block.getLong(),
+				block.getLong());
+	}
+
+	/**
+	 * Mark a block dead, so that it is skipped when the file is next read.
+	 *
+	 * @param channel the file
+	 * @param block   the block to mark
+	 * @throws IOException on I/O error
+	 */
+	private void markDead(final FileChannel channel, final Block block)
+			throws IOException {
+		writeMarker(channel, block);
+		deadBytes += block.size();
+	}
+
+	/**
+	 * Overwrite a block's marker with the one saying it is dead.
+	 *
+	 * @param channel the file
+	 * @param block   the block to mark
+	 * @throws IOException on I/O error
+	 */
+	private static void writeMarker(final FileChannel channel, final Block block)
+			throws IOException {
+		final ByteBuffer marker = ByteBuffer.allocate(4).putInt(0,
+				block.headerSize == HEADER_SIZE ? DEAD_BLOCK : DEAD_REPLACING_BLOCK);
+		channel.write(marker, block.offset);
+	}
+
+	/**
+	 * Replace a block with one containing the given records, by appending the new
+	 * block (recording that it replaces the old one) and then marking the old one
+	 * dead.
+	 *
+	 * @param position the position of the block in the index
+	 * @param records  its new contents; if empty, the block is simply removed
+	 * @throws IOException on I/O error
+	 */
+	private void rewriteBlock(final int position, final List<List<String>> records)
+			throws IOException {
+		final Block old = index.get(position);
+		try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			if (!records.isEmpty()) {
+				index.add(writeBlock(channel, records, channel.size(), old.offset,
+						old.offset + old.size()));
+				// The new copy must be on disk before the old one stops counting.
+				channel.force(false);
+			}
+			markDead(channel, old);
+		}
+		index.remove(position);
+		compactIfWasteful();
+	}
+
+	/**
+	 * If the blocks at the end of the file are small and either add up to a full
+	 * block or are too many, merge them into one new block, recording that it
+	 * replaces every block from the first of them on.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void mergeSmallBlocks() throws IOException {
+		int first = index.size();
+		long rawSize = 0;
+		while (first > 0 && index.get(first - 1).rawSize < BLOCK_SIZE) {
+			first--;
+			rawSize += index.get(first).rawSize;
+		}
+		final int count = index.size() - first;
+		if (count < 2 || (rawSize < BLOCK_SIZE && count < MAX_SMALL_BLOCKS)) {
+			return;
+		}
+		final List<Block> small = new ArrayList<>(index.subList(first, index.size()));
+		try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			final List<List<String>> records = new ArrayList<>();
+			for (final Block block : small) {
+				records.addAll(decodeBlock(readCompressed(channel, block), block.rawSize));
+			}
+			final long end = channel.size();
+			final Block merged = writeBlock(channel, records, end, small.get(0).offset,
+					end);
+			channel.force(false);
+			for (final Block block : small) {
+				markDead(channel, block);
+			}
+			index.subList(first, index.size()).clear();
+			index.add(merged);
+		}
+		compactIfWasteful();
+	}
+
+	/**
+	 * Compact the file if dead blocks take up more of it than live ones.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void compactIfWasteful() throws IOException {
+		final long liveBytes = index.stream().mapToLong(Block::size).sum();
+		if (deadBytes > BLOCK_SIZE && deadBytes > liveBytes) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrite the file without any dead blocks, repacking the live records into as
+	 * few blocks as possible.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void compact() throws IOException {
+		final List<List<String>> records = new ArrayList<>();
+		for (final Block block : index()) {
+			records.addAll(readBlock(block));
+		}
+		rewrite(records);
+	}
+
+	/**
+	 * Replace the contents of the table, packing the records into as few blocks as
+	 * possible. The new file is written under a temporary name and then moved over
+	 * the old one.
+	 *
+	 * @param records the new contents of the table
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public synchronized void rewrite(final List<List<String>> records)
+			throws IOException {
+		prepareRewrite(records).commit();
+	}
+
+	/**
+	 * Write the new file under its temporary name and force it to disk;
+	 * committing moves it over the old one, and aborting deletes it.
+	 */
+	@Override
+	public synchronized StagedRewrite prepareRewrite(final List<List<String>> records)
+			throws IOException {
+		final Path temp = filename.resolveSibling(filename.getFileName() + ".tmp");
+		final List<Block> newIndex = new ArrayList<>();
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			List<List<String>> pending = new ArrayList<>();
+			int pendingSize = 0;
+			for (final List<String> record : records) {
+				pending.add(record);
+				pendingSize += CSVHelper.formatCSVRecord(record).length() + 1;
+				if (pendingSize >= BLOCK_SIZE) {
+					newIndex.add(writeBlock(channel, pending, channel.size()));
+					pending = new ArrayList<>();
+					pendingSize = 0;
+				}
+			}
+			if (!pending.isEmpty()) {
+				newIndex.add(writeBlock(channel, pending, channel.size()));
+			}
+			channel.force(true);
+		}
+		return new StagedRewrite() {
+			@Override
+			public void commit() throws IOException {
+				synchronized (BlockCompressedTableStore.this) {
+					Files.move(temp, filename, StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					index = newIndex;
+					deadBytes = 0;
+				}
+			}
+
+			@Override
+			public void abort() throws IOException {
+				Files.deleteIfExists(temp);
+			}
+		};
+	}
+
+	/**
+	 * Stream the records in the table. The compressed blocks are all read while
+	 * holding the lock, so that the stream sees the table as it was when it was
+	 * opened even if the file is compacted or rewritten while it is consumed;
+	 * they are then decompressed one after another (or in parallel) as the stream
+	 * is consumed.
+	 */
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		final List<Block> blocks;
+		final List<byte[]> contents = new ArrayList<>();
+		synchronized (this) {
+			blocks = new ArrayList<>(index());
+			if (!blocks.isEmpty()) {
+				try (FileChannel channel = FileChannel.open(filename,
+						StandardOpenOption.READ)) {
+					for (final Block block : blocks) {
+						contents.add(readCompressed(channel, block));
+					}
+				}
+			}
+		}
+		return IntStream.range(0, blocks.size()).boxed().flatMap(i -> {
+			try {
+				return decodeBlock(contents.get(i), blocks.get(i).rawSize).stream();
+			} catch (final IOException except) {
+				throw new UncheckedIOException(except);
+			}
+		});
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		if (!Files.exists(filename)) {
+			throw new NoSuchFileException(filename.toString());
+		}
+		for (final Block block : index()) {
+			if (block.covers(id)) {
+				for (final List<String> record : readBlock(block)) {
+					if (idOf(record) == id) {
+						return Optional.of(record);
+					}
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	@Override
+	public synchronized void append(final List<String> record) throws IOException {
+		appendAll(Collections.singletonList(record));
+	}
+
+	/**
+	 * Add records to the table in new blocks at the end of the file, each written
+	 * once rather than rewritten for every record, then merge the small blocks at
+	 * the end if there are enough of them.
+	 */
+	@Override
+	public synchronized void appendAll(final List<List<String>> records)
+			throws IOException {
+		if (records.isEmpty()) {
+			return;
+		}
+		final List<Block> blocks = index();
+		try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			long offset = channel.size();
+			List<List<String>> pending = new ArrayList<>();
+			int pendingSize = 0;
+			for (final List<String> record : records) {
+				pending.add(record);
+				pendingSize += CSVHelper.formatCSVRecord(record).length() + 1;
+				if (pendingSize >= BLOCK_SIZE) {
+					final Block block = writeBlock(channel, pending, offset);
+					blocks.add(block);
+					offset = block.offset + block.size();
+					pending = new ArrayList<>();
+					pendingSize = 0;
+				}
+			}
+			if (!pending.isEmpty()) {
+				blocks.add(writeBlock(channel, pending, offset));
+			}
+		}
+		mergeSmallBlocks();
+	}
+
+	/**
+	 * Change or remove the record(s) with the given ID.
+	 *
+	 * @param id          the ID to look for
+	 * @param replacement the record to replace it with, or null to remove it
+	 * @throws IOException on I/O error
+	 */
+	private void modify(final long id, final List<String> replacement)
+			throws IOException {
+		if (!Files.exists(filename)) {
+			throw new NoSuchFileException(filename.toString());
+		}
+		final List<Block> blocks = index();
+		// Iterate over a copy, since rewriting a block reorders the index.
+		for (final Block block : new ArrayList<>(blocks)) {
+			if (!block.covers(id)) {
+				continue;
+			}
+			final List<List<String>> records = readBlock(block);
+			boolean changed = false;
+			for (final ListIterator<List<String>> iter = records.listIterator();
+					iter.hasNext();) {
+				if (idOf(iter.next()) == id) {
+					if (replacement == null || changed) {
+						iter.remove();
+					} else {
+						iter.set(replacement);
+					}
+					changed = true;
+				}
+			}
+			if (changed) {
+				rewriteBlock(index.indexOf(block), records);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void replace(final long id, final List<String> record)
+			throws IOException {
+		modify(id, record);
+	}
+
+	@Override
+	public synchronized void remove(final long id) throws IOException {
+		modify(id, null);
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return OptionalLong.of(TableSnapshot.fingerprint(filename));
+	}
+}
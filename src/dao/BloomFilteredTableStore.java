@@ -0,0 +1,236 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import util.BloomFilter;
+import util.LongObjectMap;
+
+/**
+ * A table store that keeps {@link BloomFilter Bloom filters} of the IDs, and
+ * optionally of the (normalized) values of one other field such as a name, in
+ * another store, so that looking up a record that isn't there usually costs no
+ * I/O at all: {@link #find(long)} returns at once when the ID filter rules the
+ * ID out, and {@link #mightContain(int, String)} lets the layers above skip a
+ * search by name in the same way.
+ *
+ * <p>The filters are built by reading the table once, on first use; they are
+ * then maintained as records are added or replaced, and rebuilt from scratch
+ * whenever the table is rewritten (as when it is compacted). Since values
+ * cannot be removed from a Bloom filter, removing a record leaves its ID and
+ * name in the filters until then, which costs only an occasional unnecessary
+ * lookup. If many more records are added than the filters were sized for, they
+ * are rebuilt, larger, the next time they are consulted.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BloomFilteredTableStore implements TableStore, Closeable {
+	/**
+	 * The false-positive rate to size the filters for.
+	 */
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+	/**
+	 * The smallest number of records to size the filters for.
+	 */
+	private static final int MINIMUM_CAPACITY = 1024;
+
+	/**
+	 * The underlying store.
+	 */
+	private final TableStore delegate;
+	/**
+	 * The index of the field whose values to filter, or -1 for none.
+	 */
+	private final int keyField;
+	/**
+	 * The filter of IDs, or null if it needs to be (re)built.
+	 */
+	private BloomFilter ids;
+	/**
+	 * The filter of normalized key-field values, or null if not yet built or
+	 * there is no key field.
+	 */
+	private BloomFilter keys;
+
+	/**
+	 * @param delegate the underlying store
+	 * @param keyField the index of a field (other than the ID) whose values to
+	 *                 keep a filter of, or -1 to filter only IDs
+	 */
+	public BloomFilteredTableStore(final TableStore delegate, final int keyField) {
+		this.delegate = delegate;
+		this.keyField = keyField;
+	}
+
+	/**
+	 * Normalize a value for the key-field filter, so that filtering is
+	 * insensitive to case and surrounding whitespace.
+	 *
+	 * @param value a value of the key field
+	 * @return its normalized form
+	 */
+	static String normalize(final String value) {
+		return value.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Rebuild the filters from a collection of records.
+	 *
+	 * @param records the records
+	 * @param count   how many records there are, or an estimate
+	 */
+	private void build(final Iterable<List<String>> records, final int count) {
+		final int capacity = Math.max(MINIMUM_CAPACITY, count * 2);
+		ids = new BloomFilter(capacity, FALSE_POSITIVE_RATE);
+		keys = keyField < 0 ? null : new BloomFilter(capacity, FALSE_POSITIVE_RATE);
+		boolean built = false;
+		try {
+			for (final List<String> record : records) {
+				add(record);
+			}
+			built = true;
+		} finally {
+			// A partly-built filter would rule out records that are there.
+			if (!built) {
+				ids = null;
+			}
+		}
+	}
+
+	/**
+	 * Make sure the filters are built and not saturated, reading the underlying
+	 * table to (re)build them if necessary.
+	 *
+	 * @throws IOException on I/O error while reading the table
+	 */
+	private void ensureFilters() throws IOException {
+		if (ids != null && !ids.isSaturated()) {
+			return;
+		}
+		final int previous = ids == null ? 0 : ids.getAdded();
+		ids = null;
+		try (Stream<List<String>> records = delegate.records()) {
+			build(records::iterator, previous);
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+	}
+
+	/**
+	 * Add a record's ID and key to the filters.
+	 *
+	 * @param record the record
+	 */
+	private void add(final List<String> record) {
+		ids.add(Long.parseLong(record.get(0)));
+		if (keys != null && keyField < record.size()) {
+			keys.add(normalize(record.get(keyField)));
+		}
+	}
+
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		return delegate.records();
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		ensureFilters();
+		if (!ids.mightContain(id)) {
+			return Optional.empty();
+		}
+		return delegate.find(id);
+	}
+
+	/**
+	 * Find the records with the given IDs, asking the underlying store only for
+	 * those the filter doesn't rule out.
+	 */
+	@Override
+	public synchronized LongObjectMap<List<String>> findByIds(final long[] ids)
+			throws IOException {
+		ensureFilters();
+		return delegate.findByIds(Arrays.stream(ids).filter(this.ids::mightContain)
+				.toArray());
+	}
+
+	/**
+	 * Check whether any record might have the given value in the given field,
+	 * ignoring case and surrounding whitespace. This answers without I/O (once the
+	 * filters are built) if the field is the one this store filters.
+	 *
+	 * @param field the index of the field
+	 * @param value the value to look for
+	 * @return false if no record has that value in that field, true if some
+	 *         record might
+	 * @throws IOException on I/O error while building the filters
+	 */
+	@Override
+	public synchronized boolean mightContain(final int field, final String value)
+			throws IOException {
+		if (field != keyField) {
+			return delegate.mightContain(field, value);
+		}
+		ensureFilters();
+		return keys.mightContain(normalize(value));
+	}
+
+	@Override
+	public synchronized void append(final List<String> record) throws IOException {
+		delegate.append(record);
+		if (ids != null) {
+			add(record);
+		}
+	}
+
+	@Override
+	public synchronized void appendAll(final List<List<String>> records)
+			throws IOException {
+		delegate.appendAll(records);
+		if (ids != null) {
+			for (final List<String> record : records) {
+				add(record);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void replace(final long id, final List<String> record)
+			throws IOException {
+		delegate.replace(id, record);
+		if (ids != null) {
+			add(record);
+		}
+	}
+
+	@Override
+	public synchronized void remove(final long id) throws IOException {
+		delegate.remove(id);
+	}
+
+	@Override
+	public synchronized void rewrite(final List<List<String>> records)
+			throws IOException {
+		delegate.rewrite(records);
+		build(records, records.size());
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return delegate.fingerprint();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (delegate instanceof Closeable) {
+			((Closeable) delegate).close();
+		}
+	}
+}
@@ -1,24 +1,25 @@
 package dao;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.PushbackReader;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Path;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import model.Author;
 import model.Book;
 import model.Publisher;
+import util.LongObjectMap;
+import util.LongSet;
 
 /**
  * A class to read Books from and write them to the database (CSV file)
@@ -27,9 +28,20 @@ import model.Publisher;
 public final class BookDataAccessObject implements DataAccessObject<Book> {
 
 	/**
-	 * The file the table is stored in.
+	 * How many records {@link #stream()} reads before looking up their authors
+	 * and publishers.
 	 */
-	private final Path filename;
+	private static final int STREAM_BATCH_SIZE = 1024;
+
+	/**
+	 * The storage the table is kept in.
+	 */
+	private final TableStore store;
+
+	/**
+	 * The IDs in use in the table.
+	 */
+	private final TableIds ids;
 
 	/**
 	 * The DAO that manages the author table.
@@ -52,115 +64,232 @@ public final class BookDataAccessObject implements DataAccessObject<Book> {
 	public BookDataAccessObject(final String filename,
 			final DataAccessObject<Author> authorDAO,
 			final DataAccessObject<Publisher> publisherDAO) {
-		this.filename = Paths.get(filename);
+		this(new CSVTableStore(Paths.get(filename)), authorDAO, publisherDAO);
+	}
+
+	/**
+	 * Constructing the DAO for the book table requires the storage to look in and
+	 * references to the author and publisher table DAOs.
+	 *
+	 * @param store the storage the book table is kept in
+	 * @param authorDAO the author-table DAO
+	 * @param publisherDAO the publisher-table DAO
+	 */
+	public BookDataAccessObject(final TableStore store,
+			final DataAccessObject<Author> authorDAO,
+			final DataAccessObject<Publisher> publisherDAO) {
+		this.store = store;
+		ids = new TableIds(store);
 		this.authorDAO = authorDAO;
 		this.publisherDAO = publisherDAO;
 	}
 
 	/**
-	 * Store a book in the database.
+	 * Convert a book to a record for the table.
 	 *
-	 * <p>TODO: keep a cache of IDs that have been used, to make this idempotent on
-	 * repeated calls
+	 * @param entity a book
+	 * @return the record representing it
+	 */
+	private static List<String> toRecord(final Book entity) {
+		return Arrays.asList(Long.toString(entity.getId()),
+				Long.toString(entity.getAuthor().getId()),
+				Long.toString(entity.getPublisher().getId()), entity.getTitle(),
+				entity.getIsbn());
+	}
+
+	/**
+	 * Store a book in the database, replacing the record of any book with the same
+	 * ID.
 	 *
 	 * @param entity the book to save
 	 */
 	@Override
 	public void save(final Book entity) throws IOException {
-		try (PrintWriter out = new PrintWriter(
-				Files.newBufferedWriter(filename, StandardOpenOption.APPEND,
-						StandardOpenOption.CREATE))) {
-			out.println(Stream
-					.of(entity.getId(), entity.getAuthor().getId(),
-							entity.getPublisher().getId(), entity.getTitle(),
-							entity.getIsbn())
-					.map(Object::toString).map(CSVHelper::quoteCSV)
-					.collect(Collectors.joining(",")));
-		}
+		ids.save(toRecord(entity));
+	}
+
+	@Override
+	public void saveAll(final Collection<? extends Book> entities) throws IOException {
+		ids.saveAll(entities.stream().map(BookDataAccessObject::toRecord)
+				.collect(Collectors.toList()));
 	}
 
 	@Override
 	public void delete(final Book entity) throws IOException {
-		final List<List<String>> table = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					break;
-				} else if (!Long.toString(entity.getId()).equals(record.get(0))) {
-					table.add(record);
-				}
-			}
-		}
-		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(filename))) {
-			for (final List<String> record : table) {
-				out.println(record.stream().map(CSVHelper::quoteCSV)
-						.collect(Collectors.joining(",")));
-			}
-		}
+		ids.remove(entity.getId());
+	}
+
+	@Override
+	public int deduplicate() throws IOException {
+		return ids.deduplicate();
 	}
 
 	@Override
 	public void update(final Book entity) throws IOException {
-		final List<List<String>> table = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					break;
-				} else if (Long.toString(entity.getId()).equals(record.get(0))) {
-					table.add(Arrays.asList(Long.toString(entity.getId()),
-							Long.toString(entity.getAuthor().getId()),
-							Long.toString(entity.getPublisher().getId()),
-							entity.getTitle(), entity.getIsbn()));
-				} else {
-					table.add(record);
-				}
-			}
+		store.replace(entity.getId(), toRecord(entity));
+	}
+
+	/**
+	 * Convert records from the table into Books, looking up their authors and
+	 * publishers all at once.
+	 *
+	 * @param records the records
+	 * @return the books they represent, in the same order
+	 * @throws IOException on I/O error while looking up the authors or publishers,
+	 *                     or if one is missing
+	 */
+	private List<Book> toBooks(final List<List<String>> records) throws IOException {
+		final LongSet authorIds = new LongSet();
+		final LongSet publisherIds = new LongSet();
+		for (final List<String> record : records) {
+			authorIds.add(Long.parseLong(record.get(1)));
+			publisherIds.add(Long.parseLong(record.get(2)));
+		}
+		final LongObjectMap<Author> authors = new LongObjectMap<>();
+		for (final Author author : authorDAO.findByIds(boxed(authorIds))) {
+			authors.put(author.getId(), author);
 		}
-		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(filename))) {
-			for (final List<String> record : table) {
-				out.println(record.stream().map(CSVHelper::quoteCSV)
-						.collect(Collectors.joining(",")));
+		final LongObjectMap<Publisher> publishers = new LongObjectMap<>();
+		for (final Publisher publisher : publisherDAO.findByIds(boxed(publisherIds))) {
+			publishers.put(publisher.getId(), publisher);
+		}
+		final List<Book> retval = new ArrayList<>(records.size());
+		for (final List<String> record : records) {
+			final Author author = authors.get(Long.parseLong(record.get(1)));
+			final Publisher publisher = publishers.get(Long.parseLong(record.get(2)));
+			if (author == null || publisher == null) {
+				throw new IOException("Book " + record.get(0)
+						+ " refers to a missing author or publisher");
 			}
+			retval.add(new Book(Long.parseLong(record.get(0)), author, publisher,
+					record.get(3), record.get(4)));
 		}
+		return retval;
+	}
+
+	/**
+	 * @param ids a set of IDs
+	 * @return them as a list, in ascending order
+	 */
+	private static List<Long> boxed(final LongSet ids) {
+		return Arrays.stream(ids.toSortedArray()).boxed().collect(Collectors.toList());
 	}
 
 	@Override
 	public Optional<Book> find(final long id) throws IOException {
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					return Optional.empty();
-				} else if (Long.toString(id).equals(record.get(0))) {
-					return Optional.of(new Book(Long.parseLong(record.get(0)),
-							authorDAO.find(Long.parseLong(record.get(1))).get(),
-							publisherDAO.find(Long.parseLong(record.get(2))).get(),
-							record.get(3), record.get(4)));
-				}
+		final Optional<List<String>> record = store.find(id);
+		if (record.isPresent()) {
+			return Optional.of(toBooks(Collections.singletonList(record.get())).get(0));
+		} else {
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public List<Book> findByIds(final Collection<Long> ids) throws IOException {
+		final LongObjectMap<List<String>> found = store.findByIds(
+				ids.stream().mapToLong(Long::longValue).toArray());
+		final List<List<String>> records = new ArrayList<>(found.size());
+		for (final long id : ids) {
+			// Removing each record as it is used skips IDs given more than once
+			final List<String> record = found.remove(id);
+			if (record != null) {
+				records.add(record);
 			}
 		}
+		return toBooks(records);
 	}
 
 	@Override
 	public List<Book> findAll() throws IOException {
-		final List<Book> retval = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					return retval;
-				} else {
-					retval.add(new Book(Long.parseLong(record.get(0)),
-							authorDAO.find(Long.parseLong(record.get(1))).get(),
-							publisherDAO.find(Long.parseLong(record.get(2))).get(),
-							record.get(3), record.get(4)));
+		try (Stream<Book> stream = stream()) {
+			return stream.collect(Collectors.toList());
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+	}
+
+	/**
+	 * Stream the books, reading records a batch at a time so that each batch's
+	 * authors and publishers are looked up together. The stream splits wherever
+	 * the store's stream of records does, so if it is made parallel the batches
+	 * are read and looked up in parallel.
+	 */
+	@Override
+	public Stream<Book> stream() throws IOException {
+		final Stream<List<String>> records = store.records();
+		return StreamSupport.stream(new BatchSpliterator(records.spliterator()),
+				records.isParallel()).onClose(records::close);
+	}
+
+	/**
+	 * A spliterator that turns records into books a batch at a time, and splits
+	 * by splitting the spliterator of records beneath it.
+	 */
+	private final class BatchSpliterator implements Spliterator<Book> {
+		/**
+		 * The records not yet read.
+		 */
+		private final Spliterator<List<String>> source;
+		/**
+		 * The books of the batch being handed out.
+		 */
+		private List<Book> batch = Collections.emptyList();
+		/**
+		 * The index in it of the next book to hand out.
+		 */
+		private int next;
+
+		/**
+		 * @param source the records to read
+		 */
+		BatchSpliterator(final Spliterator<List<String>> source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super Book> action) {
+			if (next == batch.size()) {
+				final List<List<String>> records = new ArrayList<>(STREAM_BATCH_SIZE);
+				while (records.size() < STREAM_BATCH_SIZE && source.tryAdvance(records::add)) {
+					// Keep reading until the batch is full
+				}
+				if (records.isEmpty()) {
+					return false;
 				}
+				try {
+					batch = toBooks(records);
+				} catch (final IOException except) {
+					throw new UncheckedIOException(except);
+				}
+				next = 0;
 			}
-		} catch (FileNotFoundException|NoSuchFileException except) {
-			return new ArrayList<>();
+			action.accept(batch.get(next++));
+			return true;
+		}
+
+		/**
+		 * Split off the first part of the records not yet read, unless part of a
+		 * batch is still to be handed out, since it comes before them.
+		 */
+		@Override
+		public Spliterator<Book> trySplit() {
+			if (next < batch.size()) {
+				return null;
+			}
+			final Spliterator<List<String>> prefix = source.trySplit();
+			return prefix == null ? null : new BatchSpliterator(prefix);
 		}
-	}
 
+		@Override
+		public long estimateSize() {
+			final long size = source.estimateSize();
+			return size == Long.MAX_VALUE ? size : size + batch.size() - next;
+		}
+
+		@Override
+		public int characteristics() {
+			return (source.characteristics() & Spliterator.ORDERED) | Spliterator.NONNULL;
+		}
+	}
 }
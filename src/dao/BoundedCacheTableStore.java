@@ -0,0 +1,236 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+import util.TinyLfuCache;
+
+/**
+ * A table store that keeps the most useful records of another store in a
+ * {@link TinyLfuCache} of bounded size, for tables too large to keep in memory
+ * whole (as {@link CachedTableStore} does) but whose lookups mostly go to a
+ * small set of popular records. Only lookups by ID go through the cache; scans
+ * of the whole table go straight to the underlying store, so they neither
+ * benefit from the cache nor flush it. Changes are written through to the
+ * underlying store and the changed records dropped from the cache, to be
+ * reloaded the next time they are asked for. A record read from the underlying
+ * store is only cached if no record that might be it has been changed since
+ * before it was read, so a change made while a lookup is in progress can't be
+ * hidden behind the stale copy that lookup read.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BoundedCacheTableStore implements TableStore, Closeable {
+	/**
+	 * The logger to use, to report statistics.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(BoundedCacheTableStore.class.getName());
+	/**
+	 * How many groups ("stripes") of IDs, by ID modulo this, have their changes
+	 * counted separately. Must be a power of two.
+	 */
+	private static final int STRIPES = 64;
+
+	/**
+	 * The underlying store.
+	 */
+	private final TableStore delegate;
+	/**
+	 * The cached records, by ID.
+	 */
+	private final TinyLfuCache<List<String>> cache;
+	/**
+	 * For each stripe of IDs, how many times a record in it has been dropped
+	 * from the cache because it changed. Guarded by the cache's lock.
+	 */
+	private final long[] generations = new long[STRIPES];
+	/**
+	 * What to call the table when reporting statistics.
+	 */
+	private final String name;
+
+	/**
+	 * @param delegate     the underlying store
+	 * @param maximumBytes roughly how much memory the cached records may take up
+	 * @param name         what to call the table when reporting statistics
+	 */
+	public BoundedCacheTableStore(final TableStore delegate, final long maximumBytes,
+			final String name) {
+		this.delegate = delegate;
+		cache = new TinyLfuCache<>(maximumBytes, BoundedCacheTableStore::weigh);
+		this.name = name;
+	}
+
+	/**
+	 * Estimate how much memory a record takes up: the list, and for each field a
+	 * reference, a String object, and its characters.
+	 *
+	 * @param record a record
+	 * @return its approximate size in bytes
+	 */
+	static int weigh(final List<String> record) {
+		int retval = 32 + 8 * record.size();
+		for (final String field : record) {
+			retval += 40 + 2 * field.length();
+		}
+		return retval;
+	}
+
+	/**
+	 * @return the cache, for its statistics
+	 */
+	public TinyLfuCache<List<String>> getCache() {
+		return cache;
+	}
+
+	/**
+	 * @param id the ID of a record
+	 * @return the stripe it is in
+	 */
+	private static int stripe(final long id) {
+		return (int) (id & (STRIPES - 1));
+	}
+
+	/**
+	 * @return how many times each stripe's records have been changed so far
+	 */
+	private long[] generations() {
+		synchronized (cache) {
+			return generations.clone();
+		}
+	}
+
+	/**
+	 * Cache a record read from the underlying store, unless a record in its
+	 * stripe has been changed since before it was read.
+	 *
+	 * @param before the stripes' change counts from before it was read
+	 * @param id     its ID
+	 * @param record the record
+	 */
+	private void load(final long[] before, final long id, final List<String> record) {
+		synchronized (cache) {
+			if (generations[stripe(id)] == before[stripe(id)]) {
+				cache.put(id, record);
+			}
+		}
+	}
+
+	/**
+	 * Drop a changed record from the cache, and count the change so that no
+	 * lookup already in progress caches what it read before it.
+	 *
+	 * @param id the ID of the record
+	 */
+	private void invalidate(final long id) {
+		synchronized (cache) {
+			generations[stripe(id)]++;
+			cache.invalidate(id);
+		}
+	}
+
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		return delegate.records();
+	}
+
+	@Override
+	public Optional<List<String>> find(final long id) throws IOException {
+		final List<String> cached = cache.get(id);
+		if (cached != null) {
+			return Optional.of(cached);
+		}
+		final long[] before = generations();
+		final Optional<List<String>> retval = delegate.find(id);
+		retval.ifPresent(record -> load(before, id, record));
+		return retval;
+	}
+
+	@Override
+	public LongObjectMap<List<String>> findByIds(final long[] ids) throws IOException {
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>(ids.length);
+		final long[] missing = new long[ids.length];
+		int count = 0;
+		for (final long id : ids) {
+			final List<String> cached = cache.get(id);
+			if (cached == null) {
+				missing[count] = id;
+				count++;
+			} else {
+				retval.put(id, cached);
+			}
+		}
+		if (count > 0) {
+			final long[] before = generations();
+			delegate.findByIds(Arrays.copyOf(missing, count)).forEach((id, record) -> {
+				load(before, id, record);
+				retval.put(id, record);
+			});
+		}
+		return retval;
+	}
+
+	@Override
+	public void append(final List<String> record) throws IOException {
+		delegate.append(record);
+		invalidate(Long.parseLong(record.get(0)));
+	}
+
+	@Override
+	public void appendAll(final List<List<String>> records) throws IOException {
+		delegate.appendAll(records);
+		for (final List<String> record : records) {
+			invalidate(Long.parseLong(record.get(0)));
+		}
+	}
+
+	@Override
+	public void replace(final long id, final List<String> record) throws IOException {
+		delegate.replace(id, record);
+		invalidate(id);
+	}
+
+	@Override
+	public void remove(final long id) throws IOException {
+		delegate.remove(id);
+		invalidate(id);
+	}
+
+	@Override
+	public void rewrite(final List<List<String>> records) throws IOException {
+		delegate.rewrite(records);
+		synchronized (cache) {
+			for (int i = 0; i < STRIPES; i++) {
+				generations[i]++;
+			}
+			cache.clear();
+		}
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return delegate.fingerprint();
+	}
+
+	/**
+	 * Report the cache's statistics and close the underlying store, if it needs
+	 * closing.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void close() throws IOException {
+		LOGGER.info("Cache for " + name + ": " + cache);
+		if (delegate instanceof Closeable) {
+			((Closeable) delegate).close();
+		}
+	}
+}
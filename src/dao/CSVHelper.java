@@ -2,9 +2,15 @@ package dao;
 
 import java.io.IOException;
 import java.io.PushbackReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * A class containing helper code for working with CSV files.
@@ -23,6 +29,41 @@ public final class CSVHelper {
 	 * The character used to quote fields in CSV.
 	 */
 	private static final char QUOTE_CHAR = '"';
+	/**
+	 * The warning logged when a file ends just after an opening quote.
+	 */
+	private static final String UNCLOSED_QUOTE_WARNING =
+			"File ended with a non-closing non-doubled quote";
+	/**
+	 * The warning logged for a doubled quote outside a quoted field.
+	 */
+	private static final String STRAY_QUOTE_WARNING =
+			"Apparent doubled quote character outside quoted region";
+	/**
+	 * A 1 in each byte of a long.
+	 */
+	private static final long ONES = 0x0101010101010101L;
+	/**
+	 * All but the high bit of each byte of a long.
+	 */
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+	/**
+	 * A quote character in every byte of a long.
+	 */
+	private static final long QUOTES = ONES * QUOTE_CHAR;
+	/**
+	 * A comma in every byte of a long.
+	 */
+	private static final long COMMAS = ONES * ',';
+	/**
+	 * A line feed in every byte of a long.
+	 */
+	private static final long NEWLINES = ONES * '\n';
+	/**
+	 * A carriage return in every byte of a long.
+	 */
+	private static final long RETURNS = ONES * '\r';
+
 	private CSVHelper() {
 		// Do not instantiate
 	}
@@ -47,6 +88,16 @@ public final class CSVHelper {
 		}
 	}
 
+	/**
+	 * Format a record as a line of CSV (without the line terminator).
+	 *
+	 * @param record the fields of the record
+	 * @return the fields, each quoted as needed, separated by commas
+	 */
+	public static String formatCSVRecord(final List<String> record) {
+		return record.stream().map(CSVHelper::quoteCSV).collect(Collectors.joining(","));
+	}
+
 	/**
 	 * Read a record from a CSV file. We require a {@link PushbackReader} because we
 	 * need to be able to "peek" to distinguish between the close-quote ending a
@@ -73,7 +124,7 @@ public final class CSVHelper {
 				final int next = in.read();
 				if (next == -1) {
 					if (!inQuotes) {
-						LOGGER.warning("File ended with a non-closing non-doubled quote");
+						LOGGER.warning(UNCLOSED_QUOTE_WARNING);
 					}
 					retval.add(buffer.toString());
 					return retval;
@@ -81,7 +132,7 @@ public final class CSVHelper {
 					if (!inQuotes) {
 						// TODO: Somehow avoid false-positive warning when properly-quoted
 						// field begins with a quote character
-						LOGGER.warning("Apparent doubled qoute character outside quoted region");
+						LOGGER.warning(STRAY_QUOTE_WARNING);
 					}
 					buffer.append('"');
 				} else {
@@ -99,4 +150,196 @@ public final class CSVHelper {
 			}
 		}
 	}
+
+	/**
+	 * Find the bytes of a word that equal those of a pattern, without branching
+	 * on each byte. Adding 0x7F to the low seven bits of a byte of the difference
+	 * sets its high bit unless they were all zero, and this never carries into
+	 * the next byte, so unlike the usual subtraction trick there are no false
+	 * positives.
+	 *
+	 * @param word    eight bytes of input
+	 * @param pattern a byte repeated eight times
+	 * @return a word with the high bit set in exactly the bytes where the input
+	 *         equals the pattern
+	 */
+	static long matches(final long word, final long pattern) {
+		final long difference = word ^ pattern;
+		return ~(((difference & LOW_BITS) + LOW_BITS) | difference | LOW_BITS);
+	}
+
+	/**
+	 * Find the next quote, comma, CR, or LF, looking at eight bytes at a time.
+	 *
+	 * @param data  the bytes, wrapped in little-endian order, so that the first
+	 *              byte of each word is its least significant
+	 * @param from  where to start looking
+	 * @param to    where to stop looking
+	 * @param quoteOnly whether to look only for quotes, as inside a quoted field
+	 * @return the offset of the first such character, or {@code to} if none
+	 */
+	static int nextStructural(final ByteBuffer data, final int from, final int to,
+			final boolean quoteOnly) {
+		int pos = from;
+		while (pos + Long.BYTES <= to) {
+			final long word = data.getLong(pos);
+			long found = matches(word, QUOTES);
+			if (!quoteOnly) {
+				found |= matches(word, COMMAS) | matches(word, NEWLINES)
+						| matches(word, RETURNS);
+			}
+			if (found != 0) {
+				return pos + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+			pos += Long.BYTES;
+		}
+		for (; pos < to; pos++) {
+			final byte ch = data.get(pos);
+			if (ch == QUOTE_CHAR || (!quoteOnly
+					&& (ch == ',' || ch == '\n' || ch == '\r'))) {
+				return pos;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Count the quote characters in a range of a buffer, eight bytes at a time.
+	 *
+	 * @param data the bytes, in little-endian order
+	 * @param from the start of the range (inclusive)
+	 * @param to   the end of the range (exclusive)
+	 * @return the number of quotes in the range
+	 */
+	static int countQuotes(final ByteBuffer data, final int from, final int to) {
+		int retval = 0;
+		int pos = from;
+		for (; pos + Long.BYTES <= to; pos += Long.BYTES) {
+			retval += Long.bitCount(matches(data.getLong(pos), QUOTES));
+		}
+		for (; pos < to; pos++) {
+			if (data.get(pos) == QUOTE_CHAR) {
+				retval++;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * The bytes of a field that had to be assembled piece by piece, because it
+	 * contained quotes.
+	 */
+	private static final class FieldBuffer {
+		/**
+		 * The bytes so far.
+		 */
+		private byte[] bytes = new byte[64];
+		/**
+		 * How many of them are in use.
+		 */
+		private int length;
+
+		/**
+		 * @param source the array to copy from
+		 * @param offset where to start copying
+		 * @param count  how many bytes to copy
+		 */
+		void append(final byte[] source, final int offset, final int count) {
+			if (length + count > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+			}
+			System.arraycopy(source, offset, bytes, length, count);
+			length += count;
+		}
+
+		/**
+		 * @return the field, decoded
+		 */
+		String finish() {
+			final String retval = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			length = 0;
+			return retval;
+		}
+	}
+
+	/**
+	 * Parse every record in a range of UTF-8 CSV, with the same results as calling
+	 * {@link #readCSVRecord(PushbackReader)} until it returns an empty record, but
+	 * much faster: instead of examining one character at a time, this finds the
+	 * next quote, comma, or line break eight bytes at a time (see
+	 * {@link #matches(long, long)}), and decodes each field straight from the
+	 * input bytes. Only fields containing quotes are copied piece by piece, and
+	 * inside quotes only quotes are searched for. This relies on those
+	 * characters never occurring within a multi-byte UTF-8 sequence.
+	 *
+	 * @param data   the bytes to parse
+	 * @param from   where to start (the beginning of a record)
+	 * @param to     where to stop
+	 * @param action what to do with each record
+	 */
+	public static void readCSVRecords(final byte[] data, final int from, final int to,
+			final Consumer<? super List<String>> action) {
+		final ByteBuffer words = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		final FieldBuffer quoted = new FieldBuffer();
+		int pos = from;
+		while (pos < to) {
+			final List<String> record = new ArrayList<>();
+			boolean endOfRecord = false;
+			while (!endOfRecord) {
+				final int start = pos;
+				boolean inQuotes = false;
+				boolean pieced = false;
+				while (true) {
+					final int next = nextStructural(words, pos, to, inQuotes);
+					if (next >= to) {
+						final String field;
+						if (pieced) {
+							quoted.append(data, pos, to - pos);
+							field = quoted.finish();
+						} else {
+							field = new String(data, start, to - start, StandardCharsets.UTF_8);
+						}
+						if (!record.isEmpty() || !field.isEmpty()) {
+							record.add(field);
+							action.accept(record);
+						}
+						return;
+					}
+					final byte ch = data[next];
+					if (ch == QUOTE_CHAR) {
+						quoted.append(data, pos, next - pos);
+						pieced = true;
+						if (next + 1 >= to) {
+							if (!inQuotes) {
+								LOGGER.warning(UNCLOSED_QUOTE_WARNING);
+							}
+							record.add(quoted.finish());
+							action.accept(record);
+							return;
+						} else if (data[next + 1] == QUOTE_CHAR) {
+							if (!inQuotes) {
+								LOGGER.warning(STRAY_QUOTE_WARNING);
+							}
+							quoted.append(data, next, 1);
+							pos = next + 2;
+						} else {
+							inQuotes = !inQuotes;
+							pos = next + 1;
+						}
+						continue;
+					}
+					if (pieced) {
+						quoted.append(data, pos, next - pos);
+						record.add(quoted.finish());
+					} else {
+						record.add(new String(data, start, next - start, StandardCharsets.UTF_8));
+					}
+					pos = next + 1;
+					endOfRecord = ch != ',';
+					break;
+				}
+			}
+			action.accept(record);
+		}
+	}
 }
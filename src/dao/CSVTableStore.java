@@ -0,0 +1,171 @@
+package dao;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.PushbackReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+/**
+ * A table stored as a CSV file, one record per line.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CSVTableStore implements TableStore {
+	/**
+	 * The file the table is stored in.
+	 */
+	private final Path filename;
+
+	/**
+	 * @param filename the file the table is or will be stored in.
+	 */
+	public CSVTableStore(final Path filename) {
+		this.filename = filename;
+	}
+
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		return ParallelCSVScanner.records(filename);
+	}
+
+	@Override
+	public Optional<List<String>> find(final long id) throws IOException {
+		final String key = Long.toString(id);
+		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
+			while (true) {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					return Optional.empty();
+				} else if (key.equals(record.get(0))) {
+					return Optional.of(record);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void append(final List<String> record) throws IOException {
+		try (PrintWriter out = new PrintWriter(
+				Files.newBufferedWriter(filename, StandardOpenOption.APPEND,
+						StandardOpenOption.CREATE))) {
+			out.println(CSVHelper.formatCSVRecord(record));
+		}
+	}
+
+	@Override
+	public void appendAll(final List<List<String>> records) throws IOException {
+		try (PrintWriter out = new PrintWriter(
+				Files.newBufferedWriter(filename, StandardOpenOption.APPEND,
+						StandardOpenOption.CREATE))) {
+			for (final List<String> record : records) {
+				out.println(CSVHelper.formatCSVRecord(record));
+			}
+			out.flush();
+			if (out.checkError()) {
+				throw new IOException("Error writing " + filename);
+			}
+		}
+	}
+
+	@Override
+	public void replace(final long id, final List<String> replacement)
+			throws IOException {
+		final String key = Long.toString(id);
+		final List<List<String>> table = new ArrayList<>();
+		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
+			while (true) {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					break;
+				} else if (key.equals(record.get(0))) {
+					table.add(replacement);
+				} else {
+					table.add(record);
+				}
+			}
+		}
+		rewrite(table);
+	}
+
+	@Override
+	public void remove(final long id) throws IOException {
+		final String key = Long.toString(id);
+		final List<List<String>> table = new ArrayList<>();
+		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
+			while (true) {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					break;
+				} else if (!key.equals(record.get(0))) {
+					table.add(record);
+				}
+			}
+		}
+		rewrite(table);
+	}
+
+	/**
+	 * Overwrite the file with the given records. They are written to a temporary
+	 * file, which is forced to disk and then moved over the table, so a crash
+	 * partway through leaves the old contents intact.
+	 *
+	 * @param table the records to write
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void rewrite(final List<List<String>> table) throws IOException {
+		prepareRewrite(table).commit();
+	}
+
+	/**
+	 * Write the records to the temporary file and force it to disk; committing
+	 * moves it over the table, and aborting deletes it.
+	 */
+	@Override
+	public StagedRewrite prepareRewrite(final List<List<String>> table)
+			throws IOException {
+		final Path temp = filename.resolveSibling(filename.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				PrintWriter out = new PrintWriter(new BufferedWriter(
+						Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1)))) {
+			for (final List<String> record : table) {
+				out.println(CSVHelper.formatCSVRecord(record));
+			}
+			out.flush();
+			if (out.checkError()) {
+				throw new IOException("Error writing " + temp);
+			}
+			channel.force(true);
+		}
+		return new StagedRewrite() {
+			@Override
+			public void commit() throws IOException {
+				Files.move(temp, filename, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+
+			@Override
+			public void abort() throws IOException {
+				Files.deleteIfExists(temp);
+			}
+		};
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return OptionalLong.of(TableSnapshot.fingerprint(filename));
+	}
+}
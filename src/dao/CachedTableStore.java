@@ -0,0 +1,241 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+
+/**
+ * A table store that keeps a copy of every record of another store in memory,
+ * so reads never touch the disk; changes are written through to the
+ * underlying store and then applied to the copy. The copy is loaded on first
+ * use, and if a {@link TableSnapshot} of the underlying table exists and its
+ * fingerprint still matches, it is loaded from that instead of by parsing the
+ * table. A new snapshot is written on {@link #close()}, or on demand with
+ * {@link #writeSnapshot()}.
+ *
+ * <p>Records are cached by ID, so if the underlying table contains duplicate
+ * IDs only the last of each is kept.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CachedTableStore implements TableStore, Closeable {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(CachedTableStore.class.getName());
+	/**
+	 * The underlying store.
+	 */
+	private final TableStore delegate;
+	/**
+	 * Where to keep the snapshot, or null not to use one.
+	 */
+	private final Path snapshot;
+	/**
+	 * The cached records, by ID, or null if not yet loaded.
+	 */
+	private LongObjectMap<List<String>> cache;
+	/**
+	 * Whether the cache holds anything the snapshot doesn't.
+	 */
+	private boolean dirty;
+
+	/**
+	 * @param delegate the underlying store
+	 * @param snapshot where to keep a snapshot of the table, or null not to use
+	 *                 one
+	 */
+	public CachedTableStore(final TableStore delegate, final Path snapshot) {
+		this.delegate = delegate;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * @param record a record
+	 * @return its ID
+	 */
+	private static long idOf(final List<String> record) {
+		return Long.parseLong(record.get(0));
+	}
+
+	/**
+	 * Get the cache, loading it if necessary.
+	 *
+	 * @return the cache
+	 * @throws IOException on I/O error
+	 */
+	private LongObjectMap<List<String>> cache() throws IOException {
+		if (cache != null) {
+			return cache;
+		}
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		final OptionalLong fingerprint = delegate.fingerprint();
+		Optional<List<List<String>>> fromSnapshot = Optional.empty();
+		if (snapshot != null && fingerprint.isPresent()) {
+			fromSnapshot = TableSnapshot.read(snapshot, fingerprint.getAsLong());
+		}
+		if (fromSnapshot.isPresent()) {
+			for (final List<String> record : fromSnapshot.get()) {
+				retval.put(idOf(record), record);
+			}
+			dirty = false;
+		} else {
+			try (Stream<List<String>> records = delegate.records()) {
+				for (final List<String> record : records.collect(Collectors.toList())) {
+					retval.put(idOf(record), record);
+				}
+			} catch (final UncheckedIOException except) {
+				throw except.getCause();
+			}
+			dirty = true;
+		}
+		cache = retval;
+		return retval;
+	}
+
+	/**
+	 * Write a snapshot of the table as it now is.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void writeSnapshot() throws IOException {
+		if (snapshot == null) {
+			return;
+		}
+		final OptionalLong fingerprint = delegate.fingerprint();
+		if (fingerprint.isPresent()) {
+			TableSnapshot.write(snapshot, fingerprint.getAsLong(), cache().values());
+			dirty = false;
+		}
+	}
+
+	@Override
+	public synchronized Stream<List<String>> records() throws IOException {
+		return cache().values().stream();
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		return Optional.ofNullable(cache().get(id));
+	}
+
+	@Override
+	public synchronized LongObjectMap<List<String>> findByIds(final long[] ids)
+			throws IOException {
+		final LongObjectMap<List<String>> current = cache();
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (final long id : ids) {
+			final List<String> record = current.get(id);
+			if (record != null) {
+				retval.put(id, record);
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public synchronized void append(final List<String> record) throws IOException {
+		final LongObjectMap<List<String>> current = cache();
+		delegate.append(record);
+		current.put(idOf(record), record);
+		dirty = true;
+	}
+
+	@Override
+	public synchronized void appendAll(final List<List<String>> records)
+			throws IOException {
+		final LongObjectMap<List<String>> current = cache();
+		delegate.appendAll(records);
+		for (final List<String> record : records) {
+			current.put(idOf(record), record);
+		}
+		dirty = true;
+	}
+
+	@Override
+	public synchronized void replace(final long id, final List<String> record)
+			throws IOException {
+		final LongObjectMap<List<String>> current = cache();
+		delegate.replace(id, record);
+		if (current.containsKey(id)) {
+			current.put(id, record);
+		}
+		dirty = true;
+	}
+
+	@Override
+	public synchronized void remove(final long id) throws IOException {
+		final LongObjectMap<List<String>> current = cache();
+		delegate.remove(id);
+		current.remove(id);
+		dirty = true;
+	}
+
+	@Override
+	public synchronized void rewrite(final List<List<String>> records)
+			throws IOException {
+		prepareRewrite(records).commit();
+	}
+
+	@Override
+	public StagedRewrite prepareRewrite(final List<List<String>> records)
+			throws IOException {
+		final StagedRewrite staged = delegate.prepareRewrite(records);
+		return new StagedRewrite() {
+			@Override
+			public void commit() throws IOException {
+				synchronized (CachedTableStore.this) {
+					staged.commit();
+					final LongObjectMap<List<String>> replacement = new LongObjectMap<>();
+					for (final List<String> record : records) {
+						replacement.put(idOf(record), record);
+					}
+					cache = replacement;
+					dirty = true;
+				}
+			}
+
+			@Override
+			public void abort() throws IOException {
+				staged.abort();
+			}
+		};
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return delegate.fingerprint();
+	}
+
+	/**
+	 * Close the underlying store, if it needs closing, and then (since closing it
+	 * may have changed its files) write a fresh snapshot if the cache has changed
+	 * since the last one.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (delegate instanceof Closeable) {
+			((Closeable) delegate).close();
+		}
+		if (cache != null && dirty) {
+			try {
+				writeSnapshot();
+			} catch (final IOException except) {
+				LOGGER.log(Level.WARNING, "Failed to write snapshot", except);
+			}
+		}
+	}
+}
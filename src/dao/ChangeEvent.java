@@ -0,0 +1,80 @@
+package dao;
+
+/**
+ * A notification that a record in a table was added, changed, or removed.
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <T> the type of object stored in the table
+ */
+public final class ChangeEvent<T> {
+	/**
+	 * The kinds of change.
+	 */
+	public enum Type {
+		/**
+		 * A record was added; there is no "before" object.
+		 */
+		INSERT,
+		/**
+		 * A record was changed; "before" is its previous state, if it was found.
+		 */
+		UPDATE,
+		/**
+		 * A record was removed; there is no "after" object.
+		 */
+		DELETE
+	}
+
+	/**
+	 * What kind of change this was.
+	 */
+	private final Type type;
+	/**
+	 * The object as it was before the change, or null if there was none.
+	 */
+	private final T before;
+	/**
+	 * The object as it is after the change, or null if it was removed.
+	 */
+	private final T after;
+	/**
+	 * The position of this change in the sequence of changes to the table.
+	 */
+	private final long sequence;
+
+	/**
+	 * @param type     what kind of change this was
+	 * @param before   the object before the change, or null if none
+	 * @param after    the object after the change, or null if removed
+	 * @param sequence the position of the change in the sequence of changes
+	 */
+	public ChangeEvent(final Type type, final T before, final T after,
+			final long sequence) {
+		this.type = type;
+		this.before = before;
+		this.after = after;
+		this.sequence = sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public T getBefore() {
+		return before;
+	}
+
+	public T getAfter() {
+		return after;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s #%d: %s -> %s", type, sequence, before, after);
+	}
+}
@@ -0,0 +1,256 @@
+package dao;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The source of {@link ChangeEvent change events} for a table. Consumers can
+ * either register a {@link ChangeListener}, which is called synchronously for
+ * every change, or {@link #subscribe(int) subscribe}, which gives them a bounded
+ * queue of events to consume at their own pace. When a subscriber's queue is
+ * full, publishing blocks until it makes room (or cancels), so a slow consumer
+ * slows down writers rather than missing events or exhausting memory.
+ *
+ * <p>Events are delivered in sequence order by one thread at a time. A writer
+ * that finds another thread delivering leaves its event for that thread to
+ * deliver rather than waiting, so a subscriber can write to the table in
+ * response to an event without deadlocking against a writer waiting for room
+ * in that subscriber's queue. (If no one else is delivering, though, the
+ * subscriber delivers its own event, so it must not write back while its own
+ * queue is full.)
+ *
+ * <p>(This is the same contract as a {@code java.util.concurrent.Flow}
+ * publisher with a fixed demand, but that API isn't available on the Java
+ * version we target.)
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <T> the type of object stored in the table
+ */
+public final class ChangeFeed<T> {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ChangeFeed.class.getName());
+	/**
+	 * The registered listeners.
+	 */
+	private final List<ChangeListener<T>> listeners = new CopyOnWriteArrayList<>();
+	/**
+	 * The active subscriptions.
+	 */
+	private final List<Subscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+	/**
+	 * The sequence number of the most recent event.
+	 */
+	private long sequence;
+	/**
+	 * Events recorded but not yet delivered, in sequence order.
+	 */
+	private final Queue<ChangeEvent<T>> pending = new ConcurrentLinkedQueue<>();
+	/**
+	 * Held by the thread delivering events.
+	 */
+	private final ReentrantLock delivering = new ReentrantLock();
+
+	/**
+	 * A consumer's queue of events.
+	 *
+	 * @param <T> the type of object stored in the table
+	 */
+	public static final class Subscription<T> implements AutoCloseable {
+		/**
+		 * The feed this subscribes to.
+		 */
+		private final ChangeFeed<T> feed;
+		/**
+		 * Events not yet consumed.
+		 */
+		private final BlockingQueue<ChangeEvent<T>> queue;
+		/**
+		 * Whether the subscriber has cancelled.
+		 */
+		private volatile boolean cancelled;
+
+		Subscription(final ChangeFeed<T> feed, final int capacity) {
+			this.feed = feed;
+			queue = new ArrayBlockingQueue<>(capacity);
+		}
+
+		/**
+		 * Add an event to the queue, waiting for room if it is full.
+		 *
+		 * @param event the event
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		void offer(final ChangeEvent<T> event) throws InterruptedException {
+			while (!cancelled && !queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+				// Keep waiting for the consumer to make room
+			}
+		}
+
+		/**
+		 * Take the next event, waiting for one if necessary.
+		 *
+		 * @return the next event
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public ChangeEvent<T> take() throws InterruptedException {
+			return queue.take();
+		}
+
+		/**
+		 * Take the next event, waiting up to the given time for one.
+		 *
+		 * @param timeout how long to wait
+		 * @param unit    the unit of the timeout
+		 * @return the next event, or null if none arrived in time
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public ChangeEvent<T> poll(final long timeout, final TimeUnit unit)
+				throws InterruptedException {
+			return queue.poll(timeout, unit);
+		}
+
+		/**
+		 * Stop receiving events. Any events still queued are discarded.
+		 */
+		@Override
+		public void close() {
+			cancelled = true;
+			feed.subscriptions.remove(this);
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Register a listener to be called for every change.
+	 *
+	 * @param listener the listener
+	 */
+	public void addListener(final ChangeListener<T> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop calling a listener.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public void removeListener(final ChangeListener<T> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Start queueing changes for a consumer.
+	 *
+	 * @param capacity how many events to queue before making writers wait
+	 * @return the subscription
+	 */
+	public Subscription<T> subscribe(final int capacity) {
+		final Subscription<T> retval = new Subscription<>(this, capacity);
+		subscriptions.add(retval);
+		return retval;
+	}
+
+	/**
+	 * Tell listeners and subscribers about a change. Callers must ensure that
+	 * changes are published in the order they were made.
+	 *
+	 * @param type   what kind of change it was
+	 * @param before the object before the change, or null if none
+	 * @param after  the object after the change, or null if removed
+	 * @return the event that was published
+	 */
+	public ChangeEvent<T> publish(final ChangeEvent.Type type, final T before,
+			final T after) {
+		final ChangeEvent<T> event = record(type, before, after);
+		deliver();
+		return event;
+	}
+
+	/**
+	 * Number a change and queue it for delivery by {@link #deliver()}. This is
+	 * for callers that must number changes while holding a lock, but shouldn't
+	 * hold it while delivering them.
+	 *
+	 * @param type   what kind of change it was
+	 * @param before the object before the change, or null if none
+	 * @param after  the object after the change, or null if removed
+	 * @return the event
+	 */
+	synchronized ChangeEvent<T> record(final ChangeEvent.Type type, final T before,
+			final T after) {
+		sequence++;
+		final ChangeEvent<T> event = new ChangeEvent<>(type, before, after, sequence);
+		pending.add(event);
+		return event;
+	}
+
+	/**
+	 * Deliver queued events to listeners and subscribers, in order, unless
+	 * another thread is already doing so, in which case it will deliver them.
+	 */
+	void deliver() {
+		do {
+			if (!delivering.tryLock()) {
+				return;
+			}
+			try {
+				for (ChangeEvent<T> event = pending.poll(); event != null;
+						event = pending.poll()) {
+					deliver(event);
+				}
+			} finally {
+				delivering.unlock();
+			}
+			// An event queued just before we let go would otherwise be stranded.
+		} while (!pending.isEmpty());
+	}
+
+	/**
+	 * Deliver one event to every listener and subscriber.
+	 *
+	 * @param event the event
+	 */
+	private void deliver(final ChangeEvent<T> event) {
+		for (final ChangeListener<T> listener : listeners) {
+			try {
+				listener.onChange(event);
+			} catch (final RuntimeException except) {
+				LOGGER.log(Level.WARNING, "Change listener failed", except);
+			}
+		}
+		for (final Subscription<T> subscription : subscriptions) {
+			try {
+				subscription.offer(event);
+			} catch (final InterruptedException except) {
+				Thread.currentThread().interrupt();
+				LOGGER.log(Level.WARNING, "Interrupted delivering change event", except);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return whether any listeners or subscribers are registered
+	 */
+	public boolean isObserved() {
+		return !listeners.isEmpty() || !subscriptions.isEmpty();
+	}
+
+	/**
+	 * @return the sequence number of the most recent change
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+}
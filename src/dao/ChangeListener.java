@@ -0,0 +1,19 @@
+package dao;
+
+/**
+ * An interface for objects that want to be told about changes to a table.
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <T> the type of object stored in the table
+ */
+@FunctionalInterface
+public interface ChangeListener<T> {
+	/**
+	 * Handle a change to the table. This is called on the thread that made the
+	 * change, after it has been made, so it should return quickly.
+	 *
+	 * @param event the change
+	 */
+	void onChange(ChangeEvent<T> event);
+}
@@ -1,8 +1,14 @@
 package dao;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import util.LongSet;
 
 /**
  * An interface for data-access objects for the library-management system
@@ -17,14 +23,29 @@ import java.util.Optional;
  */
 public interface DataAccessObject<T> {
 	/**
-	 * Add a new object to the database. If it (or another with the same ID) is
-	 * already in the database, behavior is undefined.
+	 * Add an object to the database. If another with the same ID is already in
+	 * the database, implementations should replace it, so that saving an object
+	 * twice is harmless.
 	 *
 	 * @param entity the object to add to the database.
 	 * @throws IOException on I/O error while writing
 	 */
 	void save(T entity) throws IOException;
 
+	/**
+	 * Add many new objects to the database at once, which implementations should
+	 * make much faster than calling {@link #save(Object)} for each. Objects with
+	 * the same IDs as any already in the database replace them.
+	 *
+	 * @param entities the objects to add to the database
+	 * @throws IOException on I/O error while writing
+	 */
+	default void saveAll(final Collection<? extends T> entities) throws IOException {
+		for (final T entity : entities) {
+			save(entity);
+		}
+	}
+
 	/**
 	 * Remove an object from the database, ignoring relational constraints.
 	 *
@@ -58,6 +79,44 @@ public interface DataAccessObject<T> {
 	 */
 	Optional<T> find(long id) throws IOException;
 
+	/**
+	 * Find the objects with the given ID numbers. Implementations should do this
+	 * in one pass over the table (or one lookup per ID in an index) rather than
+	 * one search per ID; the default simply calls {@link #find(long)} for each.
+	 *
+	 * @param ids the ID numbers to look for
+	 * @return the objects with those IDs, in the order the IDs were given (each
+	 *         only once), skipping IDs not in the table
+	 * @throws IOException on I/O error while reading
+	 */
+	default List<T> findByIds(final Collection<Long> ids) throws IOException {
+		final LongSet seen = new LongSet(ids.size());
+		final List<T> retval = new ArrayList<>();
+		for (final long id : ids) {
+			if (seen.add(id)) {
+				final Optional<T> found = find(id);
+				if (found.isPresent()) {
+					retval.add(found.get());
+				}
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Check, as cheaply as possible, whether any object in the table might have
+	 * the given name (ignoring case and surrounding whitespace), so that searches
+	 * for names that aren't there can be skipped. A false result must be reliable,
+	 * but a true one need not be; the default always answers true.
+	 *
+	 * @param name the name to look for
+	 * @return false if no object has that name, true if some object might
+	 * @throws IOException on I/O error
+	 */
+	default boolean mightContainName(final String name) throws IOException {
+		return true;
+	}
+
 	/**
 	 * Produce a list of all objects in (this table of) the database.
 	 *
@@ -65,4 +124,31 @@ public interface DataAccessObject<T> {
 	 * @throws IOException if file not found or on other I/O error while reading
 	 */
 	List<T> findAll() throws IOException;
+
+	/**
+	 * Produce a stream of all objects in (this table of) the database, in the same
+	 * order as {@link #findAll()}. Implementations backed by files may return a
+	 * stream that can be split efficiently when made {@link Stream#parallel()
+	 * parallel}; the default simply streams the result of {@link #findAll()}.
+	 * Errors that occur while the stream is being consumed are reported as
+	 * {@link UncheckedIOException}.
+	 *
+	 * @return a stream of the objects in the database.
+	 * @throws IOException on I/O error while starting to read
+	 */
+	default Stream<T> stream() throws IOException {
+		return findAll().stream();
+	}
+
+	/**
+	 * Repair the table if it has more than one record with the same ID, as earlier
+	 * versions left when an object was saved more than once, keeping the last
+	 * (most recently saved) record with each ID. The default does nothing.
+	 *
+	 * @return how many records were removed
+	 * @throws IOException on I/O error
+	 */
+	default int deduplicate() throws IOException {
+		return 0;
+	}
 }
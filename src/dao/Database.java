@@ -0,0 +1,110 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+
+/**
+ * The DAOs for the tables of an open database, as produced by
+ * {@link StorageConfiguration#open()}, and what has to be closed when done with
+ * them.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class Database implements Closeable {
+	/**
+	 * The DAO for the authors table.
+	 */
+	private final DataAccessObject<Author> authors;
+	/**
+	 * The DAO for the publishers table.
+	 */
+	private final DataAccessObject<Publisher> publishers;
+	/**
+	 * The DAO for the books table.
+	 */
+	private final DataAccessObject<Book> books;
+	/**
+	 * The storage to close.
+	 */
+	private final List<Closeable> resources;
+
+	/**
+	 * @param authors    the DAO for the authors table
+	 * @param publishers the DAO for the publishers table
+	 * @param books      the DAO for the books table
+	 * @param resources  the storage to close
+	 */
+	public Database(final DataAccessObject<Author> authors,
+			final DataAccessObject<Publisher> publishers,
+			final DataAccessObject<Book> books, final List<Closeable> resources) {
+		this.authors = authors;
+		this.publishers = publishers;
+		this.books = books;
+		this.resources = new ArrayList<>(resources);
+	}
+
+	/**
+	 * @return the DAO for the authors table
+	 */
+	public DataAccessObject<Author> getAuthors() {
+		return authors;
+	}
+
+	/**
+	 * @return the DAO for the publishers table
+	 */
+	public DataAccessObject<Publisher> getPublishers() {
+		return publishers;
+	}
+
+	/**
+	 * @return the DAO for the books table
+	 */
+	public DataAccessObject<Book> getBooks() {
+		return books;
+	}
+
+	/**
+	 * Close everything, even if closing something fails.
+	 *
+	 * @param resources the things to close
+	 * @param failure   an exception to add any errors to, or null
+	 * @throws IOException the first error, if there was no exception to add it to
+	 */
+	static void closeAll(final List<Closeable> resources, final Exception failure)
+			throws IOException {
+		IOException first = null;
+		for (final Closeable resource : resources) {
+			try {
+				resource.close();
+			} catch (final IOException except) {
+				if (failure != null) {
+					failure.addSuppressed(except);
+				} else if (first == null) {
+					first = except;
+				} else {
+					first.addSuppressed(except);
+				}
+			}
+		}
+		if (first != null) {
+			throw first;
+		}
+	}
+
+	/**
+	 * Close the tables, checkpointing logs and writing snapshots as needed.
+	 *
+	 * @throws IOException the first error closing any of them
+	 */
+	@Override
+	public void close() throws IOException {
+		closeAll(resources, null);
+	}
+}
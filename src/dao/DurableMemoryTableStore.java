@@ -0,0 +1,529 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import dao.WriteAheadLog.Entry;
+import dao.WriteAheadLog.Operation;
+import util.ConcurrentLongObjectMap;
+import util.LongObjectMap;
+
+/**
+ * A table kept entirely in memory, in a {@link ConcurrentLongObjectMap}, so
+ * that finding, adding, replacing and removing a record each take constant
+ * time and threads working on different records rarely contend, but which
+ * survives restarts. Each change is applied in memory and queued in a
+ * {@link WriteAheadLog}, but callers don't wait for it to reach the disk (use
+ * {@link #flush()} for that); every {@link #snapshotThreshold} changes, and
+ * every {@link #snapshotPeriod} milliseconds if anything has changed, a
+ * background thread writes a {@link TableSnapshot} of the whole table, after
+ * which the log can be discarded.
+ *
+ * <p>The logs are numbered: "books.mem.3.wal" holds the changes made after the
+ * snapshot in "books.mem" whose fingerprint is 3. Taking a snapshot switches
+ * new changes to the next log before the snapshot is written, so writers only
+ * wait while the table is copied, and a crash at any point leaves a snapshot
+ * and the logs needed to bring it up to date. On startup the newest snapshot
+ * that has a log is loaded and the logs from then on are replayed.
+ *
+ * <p>Records are kept by ID, so appending a record whose ID is already in use
+ * replaces it, and they are not kept in any particular order.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class DurableMemoryTableStore implements TableStore, Closeable {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(DurableMemoryTableStore.class.getName());
+	/**
+	 * The default number of changes between snapshots.
+	 */
+	public static final int DEFAULT_SNAPSHOT_THRESHOLD = 10_000;
+	/**
+	 * The default time between snapshots, if anything has changed, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_SNAPSHOT_PERIOD = 60_000;
+
+	/**
+	 * The snapshot file.
+	 */
+	private final Path file;
+	/**
+	 * How many changes to allow between snapshots.
+	 */
+	private final int snapshotThreshold;
+	/**
+	 * How long to allow between snapshots, in milliseconds.
+	 */
+	private final long snapshotPeriod;
+	/**
+	 * Held (shared) while changing the table, and exclusively while switching
+	 * logs or replacing the whole table.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * The records, by ID, or null if not yet loaded.
+	 */
+	private volatile ConcurrentLongObjectMap<List<String>> records;
+	/**
+	 * The log changes are currently written to.
+	 */
+	private WriteAheadLog log;
+	/**
+	 * The number of the current log.
+	 */
+	private long generation;
+	/**
+	 * The number of changes since the last snapshot.
+	 */
+	private final AtomicLong changes = new AtomicLong();
+	/**
+	 * The first error writing the log, if any, to report to the next caller.
+	 */
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	/**
+	 * The thread that writes snapshots, once the table is loaded.
+	 */
+	private ScheduledExecutorService snapshotter;
+
+	/**
+	 * @param file the file to keep snapshots of the table in; logs are kept
+	 *             alongside it
+	 */
+	public DurableMemoryTableStore(final Path file) {
+		this(file, DEFAULT_SNAPSHOT_THRESHOLD, DEFAULT_SNAPSHOT_PERIOD);
+	}
+
+	/**
+	 * @param file              the file to keep snapshots of the table in; logs
+	 *                          are kept alongside it
+	 * @param snapshotThreshold how many changes to allow between snapshots
+	 * @param snapshotPeriod    how long to allow between snapshots, if anything
+	 *                          has changed, in milliseconds
+	 */
+	public DurableMemoryTableStore(final Path file, final int snapshotThreshold,
+			final long snapshotPeriod) {
+		this.file = file;
+		this.snapshotThreshold = snapshotThreshold;
+		this.snapshotPeriod = snapshotPeriod;
+	}
+
+	/**
+	 * @param record a record
+	 * @return its ID
+	 */
+	private static long idOf(final List<String> record) {
+		return Long.parseLong(record.get(0));
+	}
+
+	/**
+	 * @param number the number of a log
+	 * @return the file it is kept in
+	 */
+	private Path logFile(final long number) {
+		return file.resolveSibling(file.getFileName() + "." + number + ".wal");
+	}
+
+	/**
+	 * @return the numbers of the logs on disk, in ascending order
+	 * @throws IOException on I/O error
+	 */
+	private List<Long> logNumbers() throws IOException {
+		final String prefix = file.getFileName() + ".";
+		final List<Long> retval = new ArrayList<>();
+		try (DirectoryStream<Path> logs = Files.newDirectoryStream(
+				file.toAbsolutePath().getParent(), prefix + "*.wal")) {
+			for (final Path log : logs) {
+				final String name = log.getFileName().toString();
+				try {
+					retval.add(Long.parseLong(name.substring(prefix.length(),
+							name.length() - ".wal".length())));
+				} catch (final NumberFormatException except) {
+					LOGGER.fine("Ignoring unrelated file " + log);
+				}
+			}
+		}
+		Collections.sort(retval);
+		return retval;
+	}
+
+	/**
+	 * Get the records, loading them if necessary.
+	 *
+	 * @return the records
+	 * @throws IOException on I/O error
+	 */
+	private ConcurrentLongObjectMap<List<String>> map() throws IOException {
+		final ConcurrentLongObjectMap<List<String>> current = records;
+		if (current != null) {
+			return current;
+		}
+		lock.writeLock().lock();
+		try {
+			if (records == null) {
+				load();
+			}
+			return records;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Load the newest usable snapshot, replay the logs written since, and start
+	 * the snapshot thread. The caller must hold the write lock.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void load() throws IOException {
+		final List<Long> numbers = logNumbers();
+		final ConcurrentLongObjectMap<List<String>> loaded = new ConcurrentLongObjectMap<>();
+		long base = -1;
+		for (int i = numbers.size() - 1; i >= 0 && base < 0; i--) {
+			final Optional<List<List<String>>> snapshot = TableSnapshot.read(file,
+					numbers.get(i));
+			if (snapshot.isPresent()) {
+				for (final List<String> record : snapshot.get()) {
+					loaded.put(idOf(record), record);
+				}
+				base = numbers.get(i);
+			}
+		}
+		long replayed = 0;
+		WriteAheadLog current = null;
+		for (final long number : numbers) {
+			if (number < base) {
+				continue;
+			}
+			if (current != null) {
+				current.close();
+			}
+			current = new WriteAheadLog(logFile(number));
+			for (final Entry entry : current.open()) {
+				apply(loaded, entry.getOperation(), entry.getId(), entry.getRecord());
+				replayed++;
+			}
+			generation = number;
+		}
+		if (current == null) {
+			generation = Math.max(base, 0);
+			current = new WriteAheadLog(logFile(generation));
+			current.open();
+		}
+		log = current;
+		records = loaded;
+		changes.set(replayed);
+		snapshotter = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, "Snapshot writer for " + file);
+			thread.setDaemon(true);
+			return thread;
+		});
+		snapshotter.scheduleWithFixedDelay(this::backgroundSnapshot, snapshotPeriod,
+				snapshotPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Apply a logged change.
+	 *
+	 * @param map       the records to apply it to
+	 * @param operation the kind of change
+	 * @param id        the ID of the affected record
+	 * @param record    the record affected
+	 */
+	private static void apply(final ConcurrentLongObjectMap<List<String>> map,
+			final Operation operation, final long id, final List<String> record) {
+		switch (operation) {
+		case APPEND:
+			map.put(id, record);
+			break;
+		case REPLACE:
+			map.compute(id, old -> old == null ? null : record);
+			break;
+		case REMOVE:
+			map.remove(id);
+			break;
+		default:
+			throw new IllegalStateException("Unhandled operation " + operation);
+		}
+	}
+
+	/**
+	 * Throw any error from writing the log in the background.
+	 *
+	 * @throws IOException if writing the log has failed
+	 */
+	private void checkFailure() throws IOException {
+		final Throwable cause = failure.get();
+		if (cause != null) {
+			throw new IOException("Writing the log for " + file + " failed", cause);
+		}
+	}
+
+	/**
+	 * Queue a change in the log, without waiting for it to reach the disk. The
+	 * caller must hold the read lock and the lock on the record's segment.
+	 *
+	 * @param operation the kind of change
+	 * @param record    the record affected
+	 */
+	private void logChange(final Operation operation, final List<String> record) {
+		final CompletableFuture<Long> durable = log.submit(operation, record);
+		durable.whenComplete((sequence, error) -> {
+			if (error != null) {
+				failure.compareAndSet(null, error);
+			}
+		});
+	}
+
+	/**
+	 * Count a change, and start a snapshot if it is time.
+	 */
+	private void changed() {
+		if (changes.incrementAndGet() % snapshotThreshold == 0) {
+			snapshotter.execute(this::backgroundSnapshot);
+		}
+	}
+
+	/**
+	 * Make a change: apply it to the record with the given ID and log it, both
+	 * with that record's segment locked so that the log sees changes to it in
+	 * the order they were made.
+	 *
+	 * @param operation the kind of change
+	 * @param id        the ID of the affected record
+	 * @param record    the record affected
+	 * @throws IOException on I/O error
+	 */
+	private void change(final Operation operation, final long id,
+			final List<String> record) throws IOException {
+		checkFailure();
+		map();
+		final boolean[] applied = { false };
+		lock.readLock().lock();
+		try {
+			records.compute(id, old -> {
+				if (operation != Operation.APPEND && old == null) {
+					return null;
+				}
+				logChange(operation, record);
+				applied[0] = true;
+				return operation == Operation.REMOVE ? null : record;
+			});
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (applied[0]) {
+			changed();
+		}
+	}
+
+	/**
+	 * Wait until every change so far is on disk, at least in the log.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public void flush() throws IOException {
+		map();
+		final WriteAheadLog current;
+		lock.readLock().lock();
+		try {
+			current = log;
+		} finally {
+			lock.readLock().unlock();
+		}
+		current.sync();
+		checkFailure();
+	}
+
+	/**
+	 * Write a snapshot from the snapshot thread, logging rather than throwing any
+	 * error.
+	 */
+	private void backgroundSnapshot() {
+		try {
+			if (changes.get() > 0) {
+				snapshot();
+			}
+		} catch (final IOException | RuntimeException except) {
+			LOGGER.log(Level.SEVERE, "Failed to write a snapshot of " + file, except);
+		}
+	}
+
+	/**
+	 * Write a snapshot of the table now and discard the logs it makes obsolete.
+	 * Writers are held up only while the table is copied and the next log is
+	 * started.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void snapshot() throws IOException {
+		final ConcurrentLongObjectMap<List<String>> map = map();
+		final List<List<String>> contents;
+		final WriteAheadLog previous;
+		final long number;
+		lock.writeLock().lock();
+		try {
+			contents = map.values();
+			previous = log;
+			number = startNextLog();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		finishSnapshot(previous, number, contents);
+	}
+
+	/**
+	 * Switch changes to a new log. The caller must hold the write lock.
+	 *
+	 * @return the number of the new log
+	 * @throws IOException on I/O error
+	 */
+	private long startNextLog() throws IOException {
+		final WriteAheadLog next = new WriteAheadLog(logFile(generation + 1));
+		next.open();
+		log = next;
+		generation++;
+		changes.set(0);
+		return generation;
+	}
+
+	/**
+	 * Write the snapshot to go with a new log, then delete the older logs.
+	 *
+	 * @param previous the log changes were written to before
+	 * @param number   the number of the new log
+	 * @param contents the records as of when it was started
+	 * @throws IOException on I/O error
+	 */
+	private void finishSnapshot(final WriteAheadLog previous, final long number,
+			final List<List<String>> contents) throws IOException {
+		previous.close();
+		TableSnapshot.write(file, number, contents);
+		for (final long old : logNumbers()) {
+			if (old < number) {
+				Files.deleteIfExists(logFile(old));
+			}
+		}
+	}
+
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		return map().values().stream();
+	}
+
+	@Override
+	public Optional<List<String>> find(final long id) throws IOException {
+		return Optional.ofNullable(map().get(id));
+	}
+
+	@Override
+	public LongObjectMap<List<String>> findByIds(final long[] ids) throws IOException {
+		final ConcurrentLongObjectMap<List<String>> map = map();
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (final long id : ids) {
+			final List<String> record = map.get(id);
+			if (record != null) {
+				retval.put(id, record);
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public void append(final List<String> record) throws IOException {
+		change(Operation.APPEND, idOf(record), record);
+	}
+
+	@Override
+	public void replace(final long id, final List<String> record) throws IOException {
+		change(Operation.REPLACE, id, record);
+	}
+
+	@Override
+	public void remove(final long id) throws IOException {
+		change(Operation.REMOVE, id, Collections.singletonList(Long.toString(id)));
+	}
+
+	/**
+	 * Replacing the whole table isn't logged; instead a snapshot of the
+	 * replacement is written before any other change can be made.
+	 */
+	@Override
+	public synchronized void rewrite(final List<List<String>> replacement)
+			throws IOException {
+		checkFailure();
+		map();
+		lock.writeLock().lock();
+		try {
+			final ConcurrentLongObjectMap<List<String>> map = new ConcurrentLongObjectMap<>(
+					replacement.size());
+			for (final List<String> record : replacement) {
+				map.put(idOf(record), record);
+			}
+			final WriteAheadLog previous = log;
+			final long number = startNextLog();
+			records = map;
+			finishSnapshot(previous, number, map.values());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Stop the snapshot thread, write a final snapshot if anything has changed
+	 * (or failed to be logged), and close the log.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void close() throws IOException {
+		final ScheduledExecutorService thread;
+		synchronized (this) {
+			if (records == null) {
+				return;
+			}
+			thread = snapshotter;
+		}
+		thread.shutdown();
+		try {
+			thread.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a snapshot");
+		}
+		synchronized (this) {
+			try {
+				if (changes.get() > 0 || failure.get() != null) {
+					snapshot();
+					// The snapshot holds everything the log might have lost
+					failure.set(null);
+				}
+			} finally {
+				log.close();
+				records = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A writer that appends data to a file on behalf of many threads, forcing it to
+ * disk once per batch rather than once per write ("group commit"). Callers
+ * {@link #submit(ByteBuffer) submit} data and get back a future that completes
+ * once that data is durable; a single background thread takes everything
+ * queued so far, appends it with one gathering write, calls
+ * {@link FileChannel#force(boolean)} once, and then completes all of the
+ * batch's futures. The more concurrent writers there are, the larger the
+ * batches, so throughput is no longer capped by the latency of one fsync per
+ * write.
+ *
+ * <p>Data is written in the order it was submitted. If writing or forcing a
+ * batch fails, the file is truncated back to where the batch began, so that
+ * later batches don't follow a torn entry that would stop a reader (such as
+ * recovery from a {@link WriteAheadLog}) from seeing them; if even that fails,
+ * every later write fails too.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class GroupCommitWriter implements Closeable {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(GroupCommitWriter.class.getName());
+	/**
+	 * The most writes to put in one batch.
+	 */
+	private static final int MAX_BATCH = 1024;
+
+	/**
+	 * A write waiting to be made.
+	 */
+	private static final class Pending {
+		/**
+		 * The data to write, or null to tell the writer thread to stop.
+		 */
+		private final ByteBuffer data;
+		/**
+		 * Completed when the data is durable.
+		 */
+		private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+		Pending(final ByteBuffer data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * The file to append to.
+	 */
+	private final FileChannel channel;
+	/**
+	 * Writes waiting for the writer thread.
+	 */
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+	/**
+	 * The writer thread.
+	 */
+	private final Thread thread;
+	/**
+	 * Whether {@link #close()} has been called.
+	 */
+	private volatile boolean closed;
+	/**
+	 * The number of batches written so far.
+	 */
+	private final AtomicLong batches = new AtomicLong();
+	/**
+	 * The number of writes completed so far.
+	 */
+	private final AtomicLong writes = new AtomicLong();
+	/**
+	 * The error that left the end of the file in an unknown state, or null if
+	 * there has been none. Only used by the writer thread.
+	 */
+	private IOException broken;
+
+	/**
+	 * Start a writer for the given file. The caller remains responsible for
+	 * closing the file, after closing this writer.
+	 *
+	 * @param channel the file to append to
+	 * @param name    a name for the writer thread
+	 */
+	public GroupCommitWriter(final FileChannel channel, final String name) {
+		this.channel = channel;
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queue data to be appended to the file.
+	 *
+	 * @param data the data to write
+	 * @return a future that completes when the data is durable, or completes
+	 *         exceptionally if writing it failed
+	 */
+	public CompletableFuture<Void> submit(final ByteBuffer data) {
+		if (closed) {
+			throw new IllegalStateException("Writer is closed");
+		}
+		final Pending pending = new Pending(data);
+		queue.add(pending);
+		return pending.durable;
+	}
+
+	/**
+	 * Wait until everything submitted so far is durable.
+	 *
+	 * @throws IOException if writing any of it failed
+	 */
+	public void sync() throws IOException {
+		await(submit(ByteBuffer.allocate(0)));
+	}
+
+	/**
+	 * Wait for a future returned by {@link #submit(ByteBuffer)} (or derived from
+	 * one), converting its failure into the I/O exception that caused it.
+	 *
+	 * @param <T>    the type of the future's value
+	 * @param future the future to wait for
+	 * @return its value
+	 * @throws IOException if the write failed, or if we were interrupted while
+	 *                     waiting
+	 */
+	public static <T> T await(final CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a write");
+		} catch (final ExecutionException except) {
+			final Throwable cause = except.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else {
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	/**
+	 * The writer thread's main loop.
+	 */
+	private void run() {
+		final List<Pending> batch = new ArrayList<>();
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (final InterruptedException except) {
+				LOGGER.log(Level.FINE, "Group-commit writer interrupted", except);
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			boolean stop = false;
+			final List<ByteBuffer> buffers = new ArrayList<>(batch.size());
+			for (final Pending pending : batch) {
+				if (pending.data == null) {
+					stop = true;
+				} else if (pending.data.hasRemaining()) {
+					buffers.add(pending.data);
+				}
+			}
+			long start = -1;
+			try {
+				if (broken != null) {
+					throw new IOException("An earlier failed write could not be undone",
+							broken);
+				}
+				if (!buffers.isEmpty()) {
+					final ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+					start = channel.size();
+					channel.position(start);
+					while (array[array.length - 1].hasRemaining()) {
+						channel.write(array);
+					}
+					channel.force(false);
+					batches.incrementAndGet();
+				}
+				// Counted first, so that a caller woken by its future sees its write
+				writes.addAndGet(buffers.size());
+				for (final Pending pending : batch) {
+					pending.durable.complete(null);
+				}
+			} catch (final IOException except) {
+				LOGGER.log(Level.SEVERE, "Failed to write batch", except);
+				if (start >= 0) {
+					undo(start, except);
+				}
+				for (final Pending pending : batch) {
+					pending.durable.completeExceptionally(except);
+				}
+			}
+			batch.clear();
+			if (stop) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Remove whatever part of a failed batch reached the file.
+	 *
+	 * @param start   the size of the file before the batch
+	 * @param failure why the batch failed
+	 */
+	private void undo(final long start, final IOException failure) {
+		try {
+			channel.truncate(start);
+			channel.force(false);
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE,
+					"Failed to remove a partial batch; refusing further writes", except);
+			except.addSuppressed(failure);
+			broken = except;
+		}
+	}
+
+	/**
+	 * @return the number of batches written so far
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * @return the number of writes made durable so far
+	 */
+	public long getWriteCount() {
+		return writes.get();
+	}
+
+	/**
+	 * Finish writing everything already submitted, then stop the writer thread.
+	 *
+	 * @throws IOException if interrupted while waiting for the thread to finish
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.add(new Pending(null));
+		try {
+			thread.join();
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for writer to finish");
+		}
+	}
+}
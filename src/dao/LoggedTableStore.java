@@ -0,0 +1,479 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import dao.WriteAheadLog.Entry;
+import dao.WriteAheadLog.Operation;
+import util.LongObjectMap;
+
+/**
+ * A table store that records changes in a {@link WriteAheadLog} instead of
+ * writing them to the underlying table right away. Changes since the last
+ * checkpoint are kept in memory and applied on top of the underlying table
+ * when reading; every {@link #checkpointInterval} changes (and on
+ * {@link #close()}), the merged contents are written to the underlying table
+ * with {@link TableStore#rewrite(List)} and the log is emptied. On startup,
+ * only the entries logged since the last checkpoint are replayed, so both the
+ * cost of a write and the time to recover are bounded by the size of the log
+ * rather than of the table.
+ *
+ * <p>Because replaying an entry only ever sets (or clears) the record for its
+ * ID, replaying entries that had in fact already been checkpointed (if we crash
+ * between rewriting the table and emptying the log) is harmless.
+ *
+ * <p>A change is applied to the overlay as soon as it is queued in the log, but
+ * if the log then fails to write it, it is undone before the error reaches the
+ * caller, and a checkpoint waits until every queued change has either reached
+ * the log or been undone, so a change that was never durable is never written
+ * to the table.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class LoggedTableStore implements TableStore, Closeable {
+	/**
+	 * The default number of changes between checkpoints.
+	 */
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+	/**
+	 * Placeholder for a record that has been removed.
+	 */
+	private static final List<String> TOMBSTONE = Collections.emptyList();
+
+	/**
+	 * What the overlay held for a record's ID before a change since the last
+	 * checkpoint, so that the change can be undone if logging it fails.
+	 */
+	private static final class Undo {
+		/**
+		 * The ID of the changed record.
+		 */
+		final long id;
+		/**
+		 * What {@link LoggedTableStore#inserted} held for it, or null.
+		 */
+		final List<String> inserted;
+		/**
+		 * What {@link LoggedTableStore#modified} held for it, or null.
+		 */
+		final List<String> modified;
+		/**
+		 * The change to the same ID before this one, or null.
+		 */
+		final Undo previous;
+		/**
+		 * Whether logging the change failed. A failed change is undone once every
+		 * later change to the same ID has also been undone.
+		 */
+		boolean failed;
+
+		/**
+		 * @param id       the ID of the changed record
+		 * @param inserted what the inserted-records map held for it, or null
+		 * @param modified what the modified-records map held for it, or null
+		 * @param previous the change to the same ID before this one, or null
+		 */
+		Undo(final long id, final List<String> inserted, final List<String> modified,
+				final Undo previous) {
+			this.id = id;
+			this.inserted = inserted;
+			this.modified = modified;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * The underlying table.
+	 */
+	private final TableStore table;
+	/**
+	 * The log of changes not yet applied to the table.
+	 */
+	private final WriteAheadLog log;
+	/**
+	 * How many changes to allow between checkpoints.
+	 */
+	private final int checkpointInterval;
+	/**
+	 * Records added since the last checkpoint, by ID.
+	 */
+	private final LongObjectMap<List<String>> inserted = new LongObjectMap<>();
+	/**
+	 * Replacements for, or {@link #TOMBSTONE tombstones} marking the removal of,
+	 * records in the underlying table, by ID.
+	 */
+	private final LongObjectMap<List<String>> modified = new LongObjectMap<>();
+	/**
+	 * The most recent change to each record since the last checkpoint, by ID.
+	 */
+	private final LongObjectMap<Undo> latest = new LongObjectMap<>();
+	/**
+	 * The number of changes since the last checkpoint.
+	 */
+	private int pendingChanges;
+	/**
+	 * The number of changes applied to the overlay but not yet known to have
+	 * reached the log.
+	 */
+	private int inFlight;
+	/**
+	 * Whether we have opened the log and replayed it yet.
+	 */
+	private boolean recovered;
+
+	/**
+	 * @param table the underlying table
+	 * @param log   the log to record changes in
+	 */
+	public LoggedTableStore(final TableStore table, final WriteAheadLog log) {
+		this(table, log, DEFAULT_CHECKPOINT_INTERVAL);
+	}
+
+	/**
+	 * @param table              the underlying table
+	 * @param log                the log to record changes in
+	 * @param checkpointInterval how many changes to allow between checkpoints
+	 */
+	public LoggedTableStore(final TableStore table, final WriteAheadLog log,
+			final int checkpointInterval) {
+		this.table = table;
+		this.log = log;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Open the log and replay any changes since the last checkpoint, if we
+	 * haven't already.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void recover() throws IOException {
+		if (!recovered) {
+			for (final Entry entry : log.open()) {
+				apply(entry.getOperation(), entry.getId(), entry.getRecord());
+			}
+			recovered = true;
+		}
+	}
+
+	/**
+	 * Apply a change to the in-memory overlay.
+	 *
+	 * @param operation the kind of change
+	 * @param id        the ID of the affected record
+	 * @param record    the record affected
+	 */
+	private void apply(final Operation operation, final long id,
+			final List<String> record) {
+		switch (operation) {
+		case APPEND:
+			inserted.put(id, record);
+			break;
+		case REPLACE:
+			if (inserted.containsKey(id)) {
+				inserted.put(id, record);
+			}
+			modified.put(id, record);
+			break;
+		case REMOVE:
+			inserted.remove(id);
+			modified.put(id, TOMBSTONE);
+			break;
+		default:
+			throw new IllegalStateException("Unhandled operation " + operation);
+		}
+		pendingChanges++;
+	}
+
+	/**
+	 * Apply a change that has just been queued in the log, remembering what it
+	 * replaced in case logging it fails. The caller must hold the lock, and must
+	 * later pass the result to {@link #settle(Undo, boolean)}.
+	 *
+	 * @param operation the kind of change
+	 * @param id        the ID of the affected record
+	 * @param record    the record affected
+	 * @return how to undo the change
+	 */
+	private Undo applyQueued(final Operation operation, final long id,
+			final List<String> record) {
+		final Undo undo = new Undo(id, inserted.get(id), modified.get(id),
+				latest.get(id));
+		apply(operation, id, record);
+		latest.put(id, undo);
+		inFlight++;
+		return undo;
+	}
+
+	/**
+	 * Note that a queued change has reached the log, or that it failed to, in
+	 * which case undo it (and any failed changes to the same ID before it) unless
+	 * a later change to the same ID is still in place. The caller must hold the
+	 * lock.
+	 *
+	 * @param undo   how to undo the change
+	 * @param failed whether logging the change failed
+	 */
+	private void settle(final Undo undo, final boolean failed) {
+		if (failed) {
+			undo.failed = true;
+			pendingChanges--;
+			Undo current = latest.get(undo.id);
+			while (current != null && current.failed) {
+				restore(current.id, inserted, current.inserted);
+				restore(current.id, modified, current.modified);
+				current = current.previous;
+				if (current == null) {
+					latest.remove(undo.id);
+				} else {
+					latest.put(undo.id, current);
+				}
+			}
+		}
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * Put back what a map held for an ID.
+	 *
+	 * @param id    the ID
+	 * @param map   the map
+	 * @param value what it held, or null if nothing
+	 */
+	private static void restore(final long id, final LongObjectMap<List<String>> map,
+			final List<String> value) {
+		if (value == null) {
+			map.remove(id);
+		} else {
+			map.put(id, value);
+		}
+	}
+
+	/**
+	 * Wait until every change applied to the overlay has either reached the log
+	 * or been undone. The caller must hold the lock.
+	 *
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	private void awaitSettled() throws InterruptedIOException {
+		while (inFlight > 0) {
+			try {
+				wait();
+			} catch (final InterruptedException except) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted waiting for logged changes to settle");
+			}
+		}
+	}
+
+	/**
+	 * Log a change, apply it, and checkpoint if it is time. A replacement for a
+	 * record that isn't in the table is ignored, not logged. The change is queued
+	 * in the log and applied to the in-memory overlay while holding the lock, so
+	 * that the order of the log matches the order in which changes are applied,
+	 * but we wait for the log entry to reach the disk after releasing it, so that
+	 * concurrent writers can share one force of the log. (This does mean that
+	 * other threads may see a change very slightly before it is durable; if it
+	 * never becomes durable, it is undone before we throw.)
+	 *
+	 * @param operation the kind of change
+	 * @param id        the ID of the affected record
+	 * @param record    the record affected
+	 * @throws IOException on I/O error
+	 */
+	private void change(final Operation operation, final long id,
+			final List<String> record) throws IOException {
+		final CompletableFuture<Long> durable;
+		final Undo undo;
+		synchronized (this) {
+			recover();
+			if (operation == Operation.REPLACE && !find(id).isPresent()) {
+				// As in the underlying table, replacing a missing record does nothing
+				return;
+			}
+			durable = log.submit(operation, record);
+			undo = applyQueued(operation, id, record);
+		}
+		try {
+			GroupCommitWriter.await(durable);
+		} catch (final IOException except) {
+			synchronized (this) {
+				settle(undo, true);
+			}
+			throw except;
+		}
+		synchronized (this) {
+			settle(undo, false);
+			if (pendingChanges >= checkpointInterval) {
+				checkpoint();
+			}
+		}
+	}
+
+	/**
+	 * Write all changes since the last checkpoint to the underlying table, then
+	 * empty the log.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void checkpoint() throws IOException {
+		recover();
+		awaitSettled();
+		if (pendingChanges == 0) {
+			return;
+		}
+		final List<List<String>> merged;
+		try (Stream<List<String>> stream = records()) {
+			merged = stream.collect(Collectors.toList());
+		}
+		table.rewrite(merged);
+		log.checkpoint();
+		inserted.clear();
+		modified.clear();
+		latest.clear();
+		pendingChanges = 0;
+	}
+
+	@Override
+	public synchronized Stream<List<String>> records() throws IOException {
+		recover();
+		final LongObjectMap<List<String>> changes = new LongObjectMap<>(modified);
+		final List<List<String>> added = inserted.values();
+		return Stream.concat(table.records()
+				.map(record -> changes.getOrDefault(Long.parseLong(record.get(0)), record))
+				.filter(record -> record != TOMBSTONE), added.stream());
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		recover();
+		if (inserted.containsKey(id)) {
+			return Optional.of(inserted.get(id));
+		} else if (modified.containsKey(id)) {
+			final List<String> record = modified.get(id);
+			if (record == TOMBSTONE) {
+				return Optional.empty();
+			} else {
+				return Optional.of(record);
+			}
+		} else {
+			return table.find(id);
+		}
+	}
+
+	@Override
+	public void append(final List<String> record) throws IOException {
+		change(Operation.APPEND, Long.parseLong(record.get(0)), record);
+	}
+
+	/**
+	 * Log and apply every record before waiting for any of them to reach the disk,
+	 * so that the whole batch shares as few forces of the log as possible. If any
+	 * fail to reach the log, those are undone before we throw.
+	 */
+	@Override
+	public void appendAll(final List<List<String>> records) throws IOException {
+		final List<CompletableFuture<Long>> durable = new ArrayList<>(records.size());
+		final List<Undo> undos = new ArrayList<>(records.size());
+		synchronized (this) {
+			recover();
+			for (final List<String> record : records) {
+				durable.add(log.submit(Operation.APPEND, record));
+				undos.add(applyQueued(Operation.APPEND, Long.parseLong(record.get(0)),
+						record));
+			}
+		}
+		IOException failure = null;
+		final boolean[] failed = new boolean[durable.size()];
+		for (int i = 0; i < durable.size(); i++) {
+			try {
+				GroupCommitWriter.await(durable.get(i));
+			} catch (final IOException except) {
+				failed[i] = true;
+				if (failure == null) {
+					failure = except;
+				}
+			}
+		}
+		synchronized (this) {
+			for (int i = undos.size() - 1; i >= 0; i--) {
+				settle(undos.get(i), failed[i]);
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			if (pendingChanges >= checkpointInterval) {
+				checkpoint();
+			}
+		}
+	}
+
+	@Override
+	public void replace(final long id, final List<String> record)
+			throws IOException {
+		change(Operation.REPLACE, id, record);
+	}
+
+	@Override
+	public void remove(final long id) throws IOException {
+		change(Operation.REMOVE, id, Collections.singletonList(Long.toString(id)));
+	}
+
+	@Override
+	public synchronized void rewrite(final List<List<String>> records)
+			throws IOException {
+		recover();
+		awaitSettled();
+		table.rewrite(records);
+		log.checkpoint();
+		inserted.clear();
+		modified.clear();
+		latest.clear();
+		pendingChanges = 0;
+	}
+
+	/**
+	 * The fingerprint of a logged table covers both the underlying table and the
+	 * log.
+	 */
+	@Override
+	public synchronized OptionalLong fingerprint() throws IOException {
+		final OptionalLong tableFingerprint = table.fingerprint();
+		if (tableFingerprint.isPresent()) {
+			return OptionalLong.of(tableFingerprint.getAsLong() * 31
+					+ TableSnapshot.fingerprint(log.getFilename()));
+		} else {
+			return tableFingerprint;
+		}
+	}
+
+	/**
+	 * Checkpoint any outstanding changes and close the log and the table.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (recovered) {
+				checkpoint();
+			}
+			log.close();
+		} finally {
+			if (table instanceof Closeable) {
+				((Closeable) table).close();
+			}
+		}
+	}
+}
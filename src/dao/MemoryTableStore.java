@@ -0,0 +1,76 @@
+package dao;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+
+/**
+ * A table kept only in memory, for tests and scratch databases; its contents
+ * are lost when the process exits. Records are kept by ID, in the order they
+ * were first added, so adding a record whose ID is already in use replaces it.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class MemoryTableStore implements TableStore {
+	/**
+	 * The records, by ID.
+	 */
+	private final LongObjectMap<List<String>> records = new LongObjectMap<>();
+
+	/**
+	 * @param record a record
+	 * @return its ID
+	 */
+	private static long idOf(final List<String> record) {
+		return Long.parseLong(record.get(0));
+	}
+
+	@Override
+	public synchronized Stream<List<String>> records() {
+		return records.values().stream();
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) {
+		return Optional.ofNullable(records.get(id));
+	}
+
+	@Override
+	public synchronized LongObjectMap<List<String>> findByIds(final long[] ids) {
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (final long id : ids) {
+			final List<String> record = records.get(id);
+			if (record != null) {
+				retval.put(id, record);
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public synchronized void append(final List<String> record) {
+		records.put(idOf(record), record);
+	}
+
+	@Override
+	public synchronized void replace(final long id, final List<String> record) {
+		if (records.containsKey(id)) {
+			records.put(id, record);
+		}
+	}
+
+	@Override
+	public synchronized void remove(final long id) {
+		records.remove(id);
+	}
+
+	@Override
+	public synchronized void rewrite(final List<List<String>> replacement) {
+		records.clear();
+		for (final List<String> record : replacement) {
+			records.put(idOf(record), record);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package dao;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+
+/**
+ * A wrapper around a data-access object that publishes a {@link ChangeEvent} to
+ * its {@link ChangeFeed} for every change made through it, so that caches,
+ * indexes, and other derived views can be kept up to date incrementally instead
+ * of re-reading the whole table.
+ *
+ * <p>Changes made through this object are serialized, so that event sequence
+ * numbers reflect the order in which the changes were made, but events are
+ * delivered after the lock is released, so that a subscriber that writes back
+ * to the table while a writer waits for room in its queue doesn't deadlock. Looking up the
+ * "before" state of an updated or deleted object costs an extra
+ * {@link DataAccessObject#find(long)}, so it is skipped while nothing is
+ * listening. Events hold the objects as passed to and returned by the DAO, not
+ * copies.
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <T> the type of object stored in the table
+ */
+public final class ObservableDataAccessObject<T> implements DataAccessObject<T> {
+	/**
+	 * The DAO that actually accesses the table.
+	 */
+	private final DataAccessObject<T> delegate;
+	/**
+	 * How to get an object's ID.
+	 */
+	private final ToLongFunction<T> idOf;
+	/**
+	 * Where changes are published.
+	 */
+	private final ChangeFeed<T> feed = new ChangeFeed<>();
+
+	/**
+	 * @param delegate the DAO that actually accesses the table
+	 * @param idOf     how to get an object's ID
+	 */
+	public ObservableDataAccessObject(final DataAccessObject<T> delegate,
+			final ToLongFunction<T> idOf) {
+		this.delegate = delegate;
+		this.idOf = idOf;
+	}
+
+	/**
+	 * @return the feed to which changes to the table are published
+	 */
+	public ChangeFeed<T> getChangeFeed() {
+		return feed;
+	}
+
+	/**
+	 * Look up the current state of an object, if anyone would care.
+	 *
+	 * @param entity the object
+	 * @return the stored version of it, or null if not found or not needed
+	 * @throws IOException on I/O error
+	 */
+	private T before(final T entity) throws IOException {
+		if (feed.isObserved()) {
+			return delegate.find(idOf.applyAsLong(entity)).orElse(null);
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public void save(final T entity) throws IOException {
+		synchronized (this) {
+			final T before = before(entity);
+			delegate.save(entity);
+			if (before == null) {
+				feed.record(ChangeEvent.Type.INSERT, null, entity);
+			} else {
+				feed.record(ChangeEvent.Type.UPDATE, before, entity);
+			}
+		}
+		feed.deliver();
+	}
+
+	/**
+	 * Look up the current state of several objects, if anyone would care.
+	 *
+	 * @param entities the objects
+	 * @return the stored versions of those that were found, by ID, or nothing if
+	 *         not needed
+	 * @throws IOException on I/O error
+	 */
+	private LongObjectMap<T> beforeAll(final Collection<? extends T> entities)
+			throws IOException {
+		final LongObjectMap<T> retval = new LongObjectMap<>();
+		if (feed.isObserved()) {
+			for (final T found : delegate.findByIds(entities.stream()
+					.map(idOf::applyAsLong).collect(Collectors.toList()))) {
+				retval.put(idOf.applyAsLong(found), found);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Save several objects, publishing an insert or an update for each as
+	 * {@link #save(Object)} would. If an object appears more than once, each
+	 * later copy's "before" is the one before it.
+	 */
+	@Override
+	public void saveAll(final Collection<? extends T> entities) throws IOException {
+		synchronized (this) {
+			final LongObjectMap<T> before = beforeAll(entities);
+			delegate.saveAll(entities);
+			for (final T entity : entities) {
+				final T previous = before.put(idOf.applyAsLong(entity), entity);
+				if (previous == null) {
+					feed.record(ChangeEvent.Type.INSERT, null, entity);
+				} else {
+					feed.record(ChangeEvent.Type.UPDATE, previous, entity);
+				}
+			}
+		}
+		feed.deliver();
+	}
+
+	/**
+	 * Delete an object. The event's "before" is the stored version of it if that
+	 * was looked up and found, and otherwise the object as passed in, so that
+	 * consumers can always tell which ID was deleted.
+	 */
+	@Override
+	public void delete(final T entity) throws IOException {
+		synchronized (this) {
+			final T before = before(entity);
+			delegate.delete(entity);
+			feed.record(ChangeEvent.Type.DELETE, before == null ? entity : before, null);
+		}
+		feed.deliver();
+	}
+
+	@Override
+	public void update(final T entity) throws IOException {
+		synchronized (this) {
+			final T before = before(entity);
+			delegate.update(entity);
+			feed.record(ChangeEvent.Type.UPDATE, before, entity);
+		}
+		feed.deliver();
+	}
+
+	@Override
+	public Optional<T> find(final long id) throws IOException {
+		return delegate.find(id);
+	}
+
+	@Override
+	public List<T> findByIds(final Collection<Long> ids) throws IOException {
+		return delegate.findByIds(ids);
+	}
+
+	@Override
+	public boolean mightContainName(final String name) throws IOException {
+		return delegate.mightContainName(name);
+	}
+
+	@Override
+	public List<T> findAll() throws IOException {
+		return delegate.findAll();
+	}
+
+	@Override
+	public Stream<T> stream() throws IOException {
+		return delegate.stream();
+	}
+
+	@Override
+	public synchronized int deduplicate() throws IOException {
+		return delegate.deduplicate();
+	}
+}
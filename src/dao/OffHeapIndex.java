@@ -0,0 +1,191 @@
+package dao;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A hash table from IDs to non-negative numbers (such as offsets), kept in a
+ * direct buffer outside the Java heap. Collisions are resolved by linear
+ * probing, and removals shift later entries back rather than leaving
+ * tombstones, so lookups stay short however many removals there have been.
+ * Not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ */
+final class OffHeapIndex {
+	/**
+	 * The value marking an empty slot.
+	 */
+	static final long ABSENT = -1L;
+	/**
+	 * The size of a slot: an eight-byte key followed by an eight-byte value.
+	 */
+	private static final int SLOT_SIZE = 16;
+	/**
+	 * The most slots a table can have, given that a buffer can hold at most 2GB.
+	 */
+	private static final int MAX_CAPACITY = 1 << 26;
+
+	/**
+	 * The slots.
+	 */
+	private ByteBuffer table;
+	/**
+	 * The number of slots; always a power of two.
+	 */
+	private int capacity;
+	/**
+	 * The number of entries.
+	 */
+	private int size;
+
+	/**
+	 * @param expected the number of entries expected
+	 */
+	OffHeapIndex(final int expected) {
+		int initial = 16;
+		while (initial < MAX_CAPACITY && initial * 3 < expected * 4) {
+			initial <<= 1;
+		}
+		allocate(initial);
+	}
+
+	/**
+	 * Replace the table with an empty one of the given size.
+	 *
+	 * @param slots the number of slots
+	 */
+	private void allocate(final int slots) {
+		capacity = slots;
+		table = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+		for (int i = 0; i < slots; i++) {
+			table.putLong(i * SLOT_SIZE + 8, ABSENT);
+		}
+		size = 0;
+	}
+
+	/**
+	 * @param key a key
+	 * @return the slot it would ideally go in
+	 */
+	private int home(final long key) {
+		final long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & (capacity - 1);
+	}
+
+	private long keyAt(final int slot) {
+		return table.getLong(slot * SLOT_SIZE);
+	}
+
+	private long valueAt(final int slot) {
+		return table.getLong(slot * SLOT_SIZE + 8);
+	}
+
+	private void set(final int slot, final long key, final long value) {
+		table.putLong(slot * SLOT_SIZE, key);
+		table.putLong(slot * SLOT_SIZE + 8, value);
+	}
+
+	/**
+	 * @param key a key
+	 * @return the slot holding it, or the empty slot where it would go
+	 */
+	private int find(final long key) {
+		int slot = home(key);
+		while (valueAt(slot) != ABSENT && keyAt(slot) != key) {
+			slot = (slot + 1) & (capacity - 1);
+		}
+		return slot;
+	}
+
+	/**
+	 * @param key a key
+	 * @return the value stored for it, or {@link #ABSENT} if none
+	 */
+	long get(final long key) {
+		return valueAt(find(key));
+	}
+
+	/**
+	 * Store a value for a key, replacing any already stored.
+	 *
+	 * @param key   the key
+	 * @param value the value, which must not be negative
+	 */
+	void put(final long key, final long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Values must not be negative");
+		}
+		int slot = find(key);
+		if (valueAt(slot) == ABSENT) {
+			if ((size + 1) * 4 > capacity * 3) {
+				grow();
+				slot = find(key);
+			}
+			size++;
+		}
+		set(slot, key, value);
+	}
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param key the key
+	 * @return the value that was stored for it, or {@link #ABSENT} if none
+	 */
+	long remove(final long key) {
+		int hole = find(key);
+		final long retval = valueAt(hole);
+		if (retval == ABSENT) {
+			return ABSENT;
+		}
+		final int mask = capacity - 1;
+		int slot = (hole + 1) & mask;
+		while (valueAt(slot) != ABSENT) {
+			final int ideal = home(keyAt(slot));
+			// Move the entry back into the hole unless its home lies cyclically
+			// after the hole and at or before its current slot.
+			if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+				set(hole, keyAt(slot), valueAt(slot));
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		set(hole, 0L, ABSENT);
+		size--;
+		return retval;
+	}
+
+	/**
+	 * Double the size of the table.
+	 */
+	private void grow() {
+		if (capacity >= MAX_CAPACITY) {
+			throw new IllegalStateException("Index is full");
+		}
+		final ByteBuffer old = table;
+		final int oldCapacity = capacity;
+		allocate(capacity << 1);
+		for (int i = 0; i < oldCapacity; i++) {
+			final long value = old.getLong(i * SLOT_SIZE + 8);
+			if (value != ABSENT) {
+				final long key = old.getLong(i * SLOT_SIZE);
+				set(find(key), key, value);
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Remove every entry.
+	 */
+	void clear() {
+		allocate(16);
+	}
+}
@@ -0,0 +1,483 @@
+package dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import util.LongObjectMap;
+
+/**
+ * A table store that, like {@link CachedTableStore}, keeps a copy of every
+ * record of another store in memory and writes changes through to it, but
+ * keeps the copy outside the Java heap: records are encoded into direct
+ * buffers, and an {@link OffHeapIndex} maps each ID to its record's offset. A
+ * record is only decoded into Java objects when it is read, so the heap (and
+ * the garbage collector's work) stays roughly the same size however large the
+ * table grows. (The amount of direct memory available is limited by the JVM's
+ * -XX:MaxDirectMemorySize option, which defaults to the maximum heap size.)
+ *
+ * <p>Each record is stored in a slot consisting of the slot's length, the
+ * record's ID and number of remaining fields as variable-length integers, and
+ * each field as a variable-length byte count followed by that many bytes of
+ * UTF-8. A replacement that fits in the old record's slot overwrites it in
+ * place; otherwise the old slot is abandoned and the record is added at the
+ * end, so it will then come last in {@link #records()}. Abandoned slots are
+ * reclaimed by compacting the store once they take up more space than the live
+ * records. If the underlying table contains duplicate IDs, only the last record
+ * with each is kept.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class OffHeapTableStore implements TableStore, Closeable {
+	/**
+	 * The size of each buffer records are stored in.
+	 */
+	private static final int SEGMENT_SIZE = 1 << 22;
+	/**
+	 * The size of the length at the start of each slot.
+	 */
+	private static final int SLOT_HEADER_SIZE = 4;
+
+	/**
+	 * The underlying store.
+	 */
+	private final TableStore delegate;
+	/**
+	 * The buffers records are stored in, or null if not yet loaded.
+	 */
+	private List<ByteBuffer> segments;
+	/**
+	 * The offset of each record's slot, by ID. An offset is the index of its
+	 * segment in the upper 32 bits and its position within the segment in the
+	 * lower 32.
+	 */
+	private OffHeapIndex index = new OffHeapIndex(1024);
+	/**
+	 * The number of bytes in slots that are no longer used.
+	 */
+	private long deadBytes;
+	/**
+	 * The number of bytes in all slots.
+	 */
+	private long totalBytes;
+	/**
+	 * Incremented every time the store is compacted, which moves every record, so
+	 * that streams in progress can tell their positions are no longer valid.
+	 */
+	private int generation;
+
+	/**
+	 * @param delegate the underlying store
+	 */
+	public OffHeapTableStore(final TableStore delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @param record a record
+	 * @return its ID
+	 */
+	private static long idOf(final List<String> record) {
+		return Long.parseLong(record.get(0));
+	}
+
+	/**
+	 * Load the records from the underlying store, if we haven't yet.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	private void load() throws IOException {
+		if (segments != null) {
+			return;
+		}
+		segments = new ArrayList<>();
+		try (Stream<List<String>> records = delegate.records()) {
+			final Iterator<List<String>> iterator = records.iterator();
+			while (iterator.hasNext()) {
+				store(iterator.next());
+			}
+		} catch (final UncheckedIOException except) {
+			segments = null;
+			index.clear();
+			throw except.getCause();
+		}
+	}
+
+	/**
+	 * Encode a record's body.
+	 *
+	 * @param record the record
+	 * @return the encoded record
+	 */
+	private static byte[] encode(final List<String> record) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TableSnapshot.writeVarLong(out, idOf(record));
+		TableSnapshot.writeVarLong(out, record.size() - 1);
+		for (final String field : record.subList(1, record.size())) {
+			final byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+			TableSnapshot.writeVarLong(out, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param offset an offset
+	 * @return a view of the segment it is in, positioned at it
+	 */
+	private ByteBuffer at(final long offset) {
+		final ByteBuffer retval = segments.get((int) (offset >>> 32)).duplicate();
+		retval.position((int) offset);
+		return retval;
+	}
+
+	/**
+	 * Decode the record in the slot at the given offset.
+	 *
+	 * @param offset the offset of the slot
+	 * @return the record
+	 */
+	private List<String> decode(final long offset) {
+		final ByteBuffer buffer = at(offset);
+		buffer.position(buffer.position() + SLOT_HEADER_SIZE);
+		final long id = TableSnapshot.readVarLong(buffer);
+		final int fields = (int) TableSnapshot.readVarLong(buffer);
+		final List<String> record = new ArrayList<>(fields + 1);
+		record.add(Long.toString(id));
+		for (int i = 0; i < fields; i++) {
+			final byte[] bytes = new byte[(int) TableSnapshot.readVarLong(buffer)];
+			buffer.get(bytes);
+			final String field = new String(bytes, StandardCharsets.UTF_8);
+			record.add(field);
+		}
+		return record;
+	}
+
+	/**
+	 * Copy a slot to the end of a list of buffers, adding a buffer if the last one
+	 * doesn't have room for it.
+	 *
+	 * @param target the buffers to add it to
+	 * @param slot   the slot, from its position to its limit
+	 * @return its offset in its new place
+	 */
+	private static long appendSlot(final List<ByteBuffer> target, final ByteBuffer slot) {
+		ByteBuffer segment = target.isEmpty() ? null : target.get(target.size() - 1);
+		if (segment == null || segment.remaining() < slot.remaining()) {
+			segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, slot.remaining()));
+			target.add(segment);
+		}
+		final long offset = ((long) (target.size() - 1) << 32) | segment.position();
+		segment.put(slot);
+		return offset;
+	}
+
+	/**
+	 * @param segment  a buffer
+	 * @param position the position of a slot in it
+	 * @return the ID of the record in that slot
+	 */
+	private static long idAt(final ByteBuffer segment, final int position) {
+		final ByteBuffer body = segment.duplicate();
+		body.position(position + SLOT_HEADER_SIZE);
+		return TableSnapshot.readVarLong(body);
+	}
+
+	/**
+	 * Add a record in a new slot at the end, and point the index at it.
+	 *
+	 * @param record the record
+	 */
+	private void store(final List<String> record) {
+		final long id = idOf(record);
+		final byte[] body = encode(record);
+		final ByteBuffer slot = ByteBuffer.allocate(SLOT_HEADER_SIZE + body.length);
+		slot.putInt(slot.capacity()).put(body).flip();
+		final long offset = appendSlot(segments, slot);
+		totalBytes += slot.capacity();
+		final long old = index.get(id);
+		if (old != OffHeapIndex.ABSENT) {
+			deadBytes += at(old).getInt();
+		}
+		index.put(id, offset);
+	}
+
+	/**
+	 * Put a record in the store, overwriting its old slot if it fits there.
+	 *
+	 * @param record the record
+	 */
+	private void storeInPlace(final List<String> record) {
+		final long offset = index.get(idOf(record));
+		if (offset != OffHeapIndex.ABSENT) {
+			final byte[] body = encode(record);
+			final ByteBuffer slot = at(offset);
+			if (slot.getInt(slot.position()) >= SLOT_HEADER_SIZE + body.length) {
+				slot.position(slot.position() + SLOT_HEADER_SIZE);
+				slot.put(body);
+				return;
+			}
+		}
+		store(record);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Compact the store if abandoned slots take up more room than live ones.
+	 */
+	private void compactIfNeeded() {
+		if (deadBytes > SEGMENT_SIZE && deadBytes * 2 > totalBytes) {
+			compact();
+		}
+	}
+
+	/**
+	 * Copy the live records into new buffers, in order, dropping abandoned slots.
+	 */
+	public synchronized void compact() {
+		if (segments == null) {
+			return;
+		}
+		final List<ByteBuffer> newSegments = new ArrayList<>();
+		final OffHeapIndex newIndex = new OffHeapIndex(index.size());
+		long newTotal = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			final ByteBuffer segment = segments.get(i);
+			int position = 0;
+			while (position < segment.position()) {
+				final int slotSize = segment.getInt(position);
+				final long id = idAt(segment, position);
+				if (index.get(id) == (((long) i << 32) | position)) {
+					final ByteBuffer slot = segment.duplicate();
+					slot.limit(position + slotSize).position(position);
+					newIndex.put(id, appendSlot(newSegments, slot));
+					newTotal += slotSize;
+				}
+				position += slotSize;
+			}
+		}
+		segments = newSegments;
+		index = newIndex;
+		totalBytes = newTotal;
+		deadBytes = 0;
+		generation++;
+	}
+
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		synchronized (this) {
+			load();
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+				new RecordIterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * An iterator over the live records, in the order of their slots, decoding
+	 * each as it is reached.
+	 */
+	private final class RecordIterator implements Iterator<List<String>> {
+		/**
+		 * The generation of the store when iteration began.
+		 */
+		private final int expectedGeneration;
+		/**
+		 * The index of the current segment.
+		 */
+		private int segment;
+		/**
+		 * The position in the current segment.
+		 */
+		private int position;
+		/**
+		 * The next record, if it has been found.
+		 */
+		private List<String> next;
+
+		RecordIterator() {
+			synchronized (OffHeapTableStore.this) {
+				expectedGeneration = generation;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			synchronized (OffHeapTableStore.this) {
+				if (generation != expectedGeneration || segments == null) {
+					throw new ConcurrentModificationException("Store was compacted");
+				}
+				while (segment < segments.size()) {
+					final ByteBuffer current = segments.get(segment);
+					if (position >= current.position()) {
+						if (segment == segments.size() - 1) {
+							return false;
+						}
+						segment++;
+						position = 0;
+						continue;
+					}
+					final long offset = ((long) segment << 32) | position;
+					final long id = idAt(current, position);
+					position += current.getInt(position);
+					if (index.get(id) == offset) {
+						next = decode(offset);
+						return true;
+					}
+				}
+				return false;
+			}
+		}
+
+		@Override
+		public List<String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final List<String> retval = next;
+			next = null;
+			return retval;
+		}
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		load();
+		final long offset = index.get(id);
+		if (offset == OffHeapIndex.ABSENT) {
+			return Optional.empty();
+		} else {
+			return Optional.of(decode(offset));
+		}
+	}
+
+	@Override
+	public synchronized LongObjectMap<List<String>> findByIds(final long[] ids)
+			throws IOException {
+		load();
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (final long id : ids) {
+			final long offset = index.get(id);
+			if (offset != OffHeapIndex.ABSENT && !retval.containsKey(id)) {
+				retval.put(id, decode(offset));
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public synchronized void append(final List<String> record) throws IOException {
+		load();
+		delegate.append(record);
+		store(record);
+		compactIfNeeded();
+	}
+
+	@Override
+	public synchronized void appendAll(final List<List<String>> records)
+			throws IOException {
+		load();
+		delegate.appendAll(records);
+		for (final List<String> record : records) {
+			store(record);
+		}
+		compactIfNeeded();
+	}
+
+	@Override
+	public synchronized void replace(final long id, final List<String> record)
+			throws IOException {
+		load();
+		delegate.replace(id, record);
+		if (index.get(id) != OffHeapIndex.ABSENT) {
+			storeInPlace(record);
+		}
+	}
+
+	@Override
+	public synchronized void remove(final long id) throws IOException {
+		load();
+		delegate.remove(id);
+		final long offset = index.remove(id);
+		if (offset != OffHeapIndex.ABSENT) {
+			deadBytes += at(offset).getInt();
+			compactIfNeeded();
+		}
+	}
+
+	@Override
+	public synchronized void rewrite(final List<List<String>> records)
+			throws IOException {
+		prepareRewrite(records).commit();
+	}
+
+	@Override
+	public StagedRewrite prepareRewrite(final List<List<String>> records)
+			throws IOException {
+		final StagedRewrite staged = delegate.prepareRewrite(records);
+		return new StagedRewrite() {
+			@Override
+			public void commit() throws IOException {
+				synchronized (OffHeapTableStore.this) {
+					staged.commit();
+					segments = new ArrayList<>();
+					index = new OffHeapIndex(records.size());
+					deadBytes = 0;
+					totalBytes = 0;
+					generation++;
+					for (final List<String> record : records) {
+						store(record);
+					}
+				}
+			}
+
+			@Override
+			public void abort() throws IOException {
+				staged.abort();
+			}
+		};
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return delegate.fingerprint();
+	}
+
+	/**
+	 * @return the number of records in the store, or -1 if not yet loaded
+	 */
+	public synchronized int size() {
+		return segments == null ? -1 : index.size();
+	}
+
+	/**
+	 * Release the buffers and close the underlying store, if it needs closing.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		segments = null;
+		index.clear();
+		generation++;
+		if (delegate instanceof Closeable) {
+			((Closeable) delegate).close();
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package dao;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A helper class for scanning a CSV table in parallel. The file is split into
+ * byte ranges, each of which is then moved forward to the next record boundary
+ * (taking quoted newlines into account), and the resulting chunks are exposed
+ * as a {@link Spliterator} that parallel streams can split across the
+ * fork/join pool.
+ *
+ * <p>This relies on the structural characters (quote, comma, CR, LF) being
+ * single bytes that never occur inside a multi-byte UTF-8 sequence, so the
+ * file can be split without decoding it first, and each chunk parsed by
+ * {@link CSVHelper#readCSVRecords(byte[], int, int, Consumer)} straight from its
+ * bytes.
+ *
+ * <p>The file is kept open while the stream is consumed, and each chunk is read
+ * into the heap only when it is reached, so however large the table only a few
+ * chunks are in memory at once. It is read rather than memory-mapped because a
+ * file that is mapped can't be replaced on some platforms, and truncating it
+ * would crash a reader of the mapping. Since {@link CSVTableStore} only ever
+ * appends to the file or replaces it with a new one, the stream still sees the
+ * table as it was when it was opened: appended records lie past the last chunk,
+ * and the replaced file stays readable through the open handle. The file is
+ * closed once the last chunk has been read, or when the stream is closed.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class ParallelCSVScanner {
+	/**
+	 * Files smaller than this are not worth splitting.
+	 */
+	private static final int MIN_CHUNK_SIZE = 1 << 16;
+	/**
+	 * The largest chunk we want to decode in one go.
+	 */
+	private static final int MAX_CHUNK_SIZE = 1 << 23;
+	/**
+	 * The largest chunk we can read into a single array; if a file can't be split
+	 * into chunks this small, it is scanned sequentially instead.
+	 */
+	private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+	/**
+	 * How much of the file to read at a time while looking for chunk boundaries.
+	 */
+	private static final int WINDOW_SIZE = 1 << 16;
+
+	private ParallelCSVScanner() {
+		// Do not instantiate
+	}
+
+	/**
+	 * Stream the records in a CSV file. The stream is sequential, but it can be
+	 * made parallel with {@link Stream#parallel()}, in which case the chunks of
+	 * the file will be parsed concurrently; the encounter order is always the
+	 * order of the records in the file. I/O errors while reading a chunk are
+	 * reported as {@link UncheckedIOException}.
+	 *
+	 * @param file the file to read
+	 * @return a stream of the records in it, or an empty stream if the file does
+	 *         not exist
+	 * @throws IOException on I/O error opening the file
+	 */
+	public static Stream<List<String>> records(final Path file) throws IOException {
+		return records(file, MIN_CHUNK_SIZE);
+	}
+
+	/**
+	 * Stream the records in a CSV file, splitting it into chunks of roughly at
+	 * least the given size. Exposed for testing, so that small files can be split.
+	 *
+	 * @param file         the file to read
+	 * @param minChunkSize the smallest chunk (in bytes) worth parsing on its own
+	 * @return a stream of the records in it
+	 * @throws IOException on I/O error opening the file
+	 */
+	static Stream<List<String>> records(final Path file, final int minChunkSize)
+			throws IOException {
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (final FileNotFoundException|NoSuchFileException except) {
+			return Stream.empty();
+		}
+		try {
+			final long size = channel.size();
+			if (size == 0) {
+				channel.close();
+				return Stream.empty();
+			}
+			final long[] bounds = findBoundaries(channel, size, minChunkSize);
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				if (bounds[i + 1] - bounds[i] > MAX_BUFFER_SIZE) {
+					// A chunk too big to read into a single array; fall back to a
+					// sequential scan.
+					channel.close();
+					return sequentialRecords(file);
+				}
+			}
+			final Chunks chunks = new Chunks(file, channel, bounds);
+			return StreamSupport.stream(new ChunkSpliterator(chunks), false)
+					.onClose(chunks::close);
+		} catch (final IOException|RuntimeException except) {
+			try {
+				channel.close();
+			} catch (final IOException inner) {
+				except.addSuppressed(inner);
+			}
+			if (except instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) except).getCause();
+			}
+			throw except;
+		}
+	}
+
+	/**
+	 * Read the file one record at a time, for files that can't be split into
+	 * chunks small enough to read into memory.
+	 *
+	 * @param file the file to read
+	 * @return a stream of its records
+	 * @throws IOException on I/O error opening the file
+	 */
+	private static Stream<List<String>> sequentialRecords(final Path file)
+			throws IOException {
+		final PushbackReader in = new PushbackReader(Files.newBufferedReader(file));
+		return StreamSupport.stream(new ReaderSpliterator(in), false).onClose(() -> {
+			try {
+				in.close();
+			} catch (final IOException except) {
+				throw new UncheckedIOException(except);
+			}
+		});
+	}
+
+	/**
+	 * Fill a buffer from the given position in a file.
+	 *
+	 * @param channel  the file
+	 * @param buffer   the buffer to fill up to its limit
+	 * @param position where in the file to start reading
+	 * @throws IOException on I/O error, or if the file ends first
+	 */
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+			final long position) throws IOException {
+		final long start = position - buffer.position();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, start + buffer.position()) < 0) {
+				throw new EOFException("File ended at " + (start + buffer.position())
+						+ ", before the " + (start + buffer.limit()) + " bytes expected");
+			}
+		}
+	}
+
+	/**
+	 * Split the file into chunks that each begin at the start of a record. We
+	 * first count the quote characters in each nominal range in parallel, so that
+	 * we know whether each range begins inside a quoted field, and then (again in
+	 * parallel) move each range's start forward to the first line break outside
+	 * quotes. The file is read a window at a time for both, so this needs little
+	 * memory however large it is.
+	 *
+	 * @param channel      the file
+	 * @param size         its size
+	 * @param minChunkSize the smallest chunk worth parsing on its own
+	 * @return the offsets at which chunks begin, followed by the end of the file
+	 */
+	private static long[] findBoundaries(final FileChannel channel, final long size,
+			final int minChunkSize) {
+		final int count = (int) Math.max(1,
+				Math.max(Math.min(ForkJoinPool.getCommonPoolParallelism() * 4,
+						size / minChunkSize), size / MAX_CHUNK_SIZE));
+		final long[] nominal = new long[count + 1];
+		for (int i = 0; i <= count; i++) {
+			nominal[i] = size * i / count;
+		}
+		final int[] quotes = IntStream.range(0, count).parallel()
+				.map(i -> countQuotes(channel, nominal[i], nominal[i + 1])).toArray();
+		final boolean[] startsInQuotes = new boolean[count];
+		for (int i = 1; i < count; i++) {
+			startsInQuotes[i] = startsInQuotes[i - 1] ^ ((quotes[i - 1] & 1) != 0);
+		}
+		final long[] aligned = IntStream.range(0, count).parallel()
+				.mapToLong(i -> i == 0 ? 0
+						: nextRecordStart(channel, nominal[i], size, startsInQuotes[i]))
+				.toArray();
+		return LongStream.concat(LongStream.of(aligned), LongStream.of(size)).distinct()
+				.toArray();
+	}
+
+	/**
+	 * Count the quote characters in a range of the file.
+	 *
+	 * @param channel the file
+	 * @param from    the start of the range (inclusive)
+	 * @param to      the end of the range (exclusive)
+	 * @return the number of quotes in the range
+	 * @throws UncheckedIOException on I/O error
+	 */
+	private static int countQuotes(final FileChannel channel, final long from,
+			final long to) {
+		final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		int retval = 0;
+		try {
+			for (long pos = from; pos < to; pos += window.limit()) {
+				window.clear();
+				window.limit((int) Math.min(WINDOW_SIZE, to - pos));
+				readFully(channel, window, pos);
+				retval += CSVHelper.countQuotes(window, 0, window.limit());
+			}
+		} catch (final IOException except) {
+			throw new UncheckedIOException(except);
+		}
+		return retval;
+	}
+
+	/**
+	 * Find the start of the first record beginning at or after the given offset.
+	 * A record ends at a CR or LF outside quotes, as in
+	 * {@link CSVHelper#readCSVRecord(PushbackReader)}. Because
+	 * {@link #findBoundaries} computes the candidate offsets in increasing order,
+	 * and this only ever moves forward, the results are never out of order.
+	 *
+	 * @param channel  the file
+	 * @param from     where to start looking
+	 * @param size     the size of the file
+	 * @param inQuotes whether that position is inside a quoted field
+	 * @return the offset just past the first unquoted line break at or after
+	 *         {@code from}, or the end of the file if there is none
+	 * @throws UncheckedIOException on I/O error
+	 */
+	private static long nextRecordStart(final FileChannel channel, final long from,
+			final long size, final boolean inQuotes) {
+		final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+		boolean quoted = inQuotes;
+		try {
+			for (long pos = from; pos < size; pos += window.limit()) {
+				window.clear();
+				window.limit((int) Math.min(WINDOW_SIZE, size - pos));
+				readFully(channel, window, pos);
+				for (int i = 0; i < window.limit(); i++) {
+					final byte ch = window.get(i);
+					if (ch == '"') {
+						quoted = !quoted;
+					} else if (!quoted && (ch == '\n' || ch == '\r')) {
+						return pos + i + 1;
+					}
+				}
+			}
+		} catch (final IOException except) {
+			throw new UncheckedIOException(except);
+		}
+		return size;
+	}
+
+	/**
+	 * The chunks of an open file, shared by the spliterators a stream of it is
+	 * split into. Each chunk is read exactly once, so the file is closed after the
+	 * last of them is read.
+	 */
+	private static final class Chunks {
+		/**
+		 * The name of the file, for error messages.
+		 */
+		private final Path file;
+		/**
+		 * The open file.
+		 */
+		private final FileChannel channel;
+		/**
+		 * The chunk boundaries: chunk {@code i} covers
+		 * {@code [bounds[i], bounds[i+1])}.
+		 */
+		final long[] bounds;
+		/**
+		 * How many chunks haven't been read yet.
+		 */
+		private final AtomicInteger unread;
+
+		Chunks(final Path file, final FileChannel channel, final long[] bounds) {
+			this.file = file;
+			this.channel = channel;
+			this.bounds = bounds;
+			unread = new AtomicInteger(bounds.length - 1);
+		}
+
+		/**
+		 * Read a chunk, closing the file if it was the last one.
+		 *
+		 * @param index which chunk
+		 * @return its contents
+		 * @throws UncheckedIOException on I/O error, including the file having been
+		 *                              truncated since the stream was opened
+		 */
+		byte[] read(final int index) {
+			final byte[] retval = new byte[(int) (bounds[index + 1] - bounds[index])];
+			try {
+				readFully(channel, ByteBuffer.wrap(retval), bounds[index]);
+			} catch (final IOException except) {
+				throw new UncheckedIOException("Error reading " + file, except);
+			}
+			if (unread.decrementAndGet() == 0) {
+				close();
+			}
+			return retval;
+		}
+
+		/**
+		 * Close the file.
+		 *
+		 * @throws UncheckedIOException on I/O error
+		 */
+		void close() {
+			try {
+				channel.close();
+			} catch (final IOException except) {
+				throw new UncheckedIOException(except);
+			}
+		}
+	}
+
+	/**
+	 * A spliterator over the records in a range of chunks of a file. It splits by
+	 * handing off half of its remaining chunks; a single chunk is read and parsed
+	 * all at once when it is first reached.
+	 */
+	private static final class ChunkSpliterator implements Spliterator<List<String>> {
+		/**
+		 * The chunks of the file.
+		 */
+		private final Chunks chunks;
+		/**
+		 * The index of the next chunk to parse.
+		 */
+		private int lo;
+		/**
+		 * One past the index of the last chunk this spliterator covers.
+		 */
+		private final int hi;
+		/**
+		 * The records of the current chunk that haven't been handed out yet.
+		 */
+		private List<List<String>> pending = Collections.emptyList();
+		/**
+		 * The index of the next record in {@link #pending}.
+		 */
+		private int pendingIndex;
+
+		ChunkSpliterator(final Chunks chunks) {
+			this(chunks, 0, chunks.bounds.length - 1);
+		}
+
+		private ChunkSpliterator(final Chunks chunks, final int lo, final int hi) {
+			this.chunks = chunks;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		/**
+		 * Read and parse the next chunk into {@link #pending}.
+		 *
+		 * @return false if there are no chunks left
+		 */
+		private boolean parseNextChunk() {
+			if (lo >= hi) {
+				return false;
+			}
+			final byte[] contents = chunks.read(lo);
+			final List<List<String>> records = new ArrayList<>();
+			CSVHelper.readCSVRecords(contents, 0, contents.length, records::add);
+			lo++;
+			pending = records;
+			pendingIndex = 0;
+			return true;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super List<String>> action) {
+			while (pendingIndex >= pending.size()) {
+				if (!parseNextChunk()) {
+					return false;
+				}
+			}
+			action.accept(pending.get(pendingIndex));
+			pendingIndex++;
+			return true;
+		}
+
+		@Override
+		public Spliterator<List<String>> trySplit() {
+			if (pendingIndex < pending.size() || hi - lo < 2) {
+				return null;
+			}
+			final int mid = (lo + hi) >>> 1;
+			final Spliterator<List<String>> prefix = new ChunkSpliterator(chunks, lo, mid);
+			lo = mid;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			// Rough guess at the number of records, assuming about 64 bytes each.
+			return (chunks.bounds[hi] - chunks.bounds[lo]) / 64 + pending.size()
+					- pendingIndex;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/**
+	 * A non-splitting spliterator reading records from a stream one at a time.
+	 */
+	private static final class ReaderSpliterator implements Spliterator<List<String>> {
+		/**
+		 * The stream to read from.
+		 */
+		private final PushbackReader in;
+
+		ReaderSpliterator(final PushbackReader in) {
+			this.in = in;
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super List<String>> action) {
+			try {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					return false;
+				}
+				action.accept(record);
+				return true;
+			} catch (final IOException except) {
+				throw new UncheckedIOException(except);
+			}
+		}
+
+		@Override
+		public Spliterator<List<String>> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+	}
+}
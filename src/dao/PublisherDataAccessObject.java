@@ -1,121 +1,106 @@
 package dao;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.PushbackReader;
-import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Path;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import model.Publisher;
+import util.LongObjectMap;
 
 public final class PublisherDataAccessObject implements DataAccessObject<Publisher> {
 
-	private final Path filename;
+	private final TableStore store;
+	private final TableIds ids;
 
 	public PublisherDataAccessObject(final String filename) {
-		this.filename = Paths.get(filename);
+		this(new CSVTableStore(Paths.get(filename)));
+	}
+
+	public PublisherDataAccessObject(final TableStore store) {
+		this.store = store;
+		ids = new TableIds(store);
+	}
+
+	private static List<String> toRecord(final Publisher entity) {
+		return Arrays.asList(Long.toString(entity.getId()), entity.getName(),
+				entity.getAddress(), entity.getPhone());
+	}
+
+	private static Publisher toPublisher(final List<String> record) {
+		return new Publisher(Long.parseLong(record.get(0)), record.get(1),
+				record.get(2), record.get(3));
 	}
 
-	// TODO: keep a cache of IDs that have been used, to make save() idempotent on
-	// repeated calls
 	@Override
 	public void save(final Publisher entity) throws IOException {
-		try (PrintWriter out = new PrintWriter(
-				Files.newBufferedWriter(filename, StandardOpenOption.APPEND,
-						StandardOpenOption.CREATE))) {
-			out.println(Stream
-					.of(Long.toString(entity.getId()), entity.getName(),
-							entity.getAddress(), entity.getPhone())
-					.map(CSVHelper::quoteCSV).collect(Collectors.joining(",")));
-		}
+		ids.save(toRecord(entity));
+	}
+
+	@Override
+	public void saveAll(final Collection<? extends Publisher> entities) throws IOException {
+		ids.saveAll(entities.stream().map(PublisherDataAccessObject::toRecord)
+				.collect(Collectors.toList()));
 	}
 
 	@Override
 	public void delete(final Publisher entity) throws IOException {
-		final List<List<String>> table = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					break;
-				} else if (!Long.toString(entity.getId()).equals(record.get(0))) {
-					table.add(record);
-				}
-			}
-		}
-		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(filename))) {
-			for (final List<String> record : table) {
-				out.println(record.stream().map(CSVHelper::quoteCSV)
-						.collect(Collectors.joining(",")));
-			}
-		}
+		ids.remove(entity.getId());
+	}
+
+	@Override
+	public int deduplicate() throws IOException {
+		return ids.deduplicate();
 	}
 
 	@Override
 	public void update(final Publisher entity) throws IOException {
-		final List<List<String>> table = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					break;
-				} else if (Long.toString(entity.getId()).equals(record.get(0))) {
-					table.add(Arrays.asList(Long.toString(entity.getId()),
-							entity.getName(), entity.getAddress(), entity.getPhone()));
-				} else {
-					table.add(record);
-				}
-			}
-		}
-		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(filename))) {
-			for (final List<String> record : table) {
-				out.println(record.stream().map(CSVHelper::quoteCSV)
-						.collect(Collectors.joining(",")));
-			}
-		}
+		store.replace(entity.getId(), toRecord(entity));
 	}
 
 	@Override
 	public Optional<Publisher> find(final long id) throws IOException {
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					return Optional.empty();
-				} else if (Long.toString(id).equals(record.get(0))) {
-					return Optional.of(new Publisher(Long.parseLong(record.get(0)),
-							record.get(1), record.get(2), record.get(3)));
-				}
+		return store.find(id).map(PublisherDataAccessObject::toPublisher);
+	}
+
+	@Override
+	public List<Publisher> findByIds(final Collection<Long> ids) throws IOException {
+		final LongObjectMap<List<String>> found = store.findByIds(
+				ids.stream().mapToLong(Long::longValue).toArray());
+		final List<Publisher> retval = new ArrayList<>(found.size());
+		for (final long id : ids) {
+			// Removing each record as it is used skips IDs given more than once
+			final List<String> record = found.remove(id);
+			if (record != null) {
+				retval.add(toPublisher(record));
 			}
 		}
+		return retval;
+	}
+
+	@Override
+	public boolean mightContainName(final String name) throws IOException {
+		return store.mightContain(1, name);
 	}
 
 	@Override
 	public List<Publisher> findAll() throws IOException {
-		final List<Publisher> retval = new ArrayList<>();
-		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(filename))) {
-			while (true) {
-				final List<String> record = CSVHelper.readCSVRecord(in);
-				if (record.isEmpty()) {
-					return retval;
-				} else {
-					retval.add(new Publisher(Long.parseLong(record.get(0)), record.get(1),
-							record.get(2), record.get(3)));
-				}
-			}
-		} catch (FileNotFoundException|NoSuchFileException except) {
-			return new ArrayList<>();
+		try (Stream<Publisher> stream = stream()) {
+			return stream.collect(Collectors.toList());
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
 		}
 	}
 
+	@Override
+	public Stream<Publisher> stream() throws IOException {
+		return store.records().map(PublisherDataAccessObject::toPublisher);
+	}
+
 }
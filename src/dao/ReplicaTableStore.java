@@ -0,0 +1,321 @@
+package dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import dao.WriteAheadLog.Entry;
+import util.LongObjectMap;
+
+/**
+ * A read-only, in-memory copy of a table that another process (the primary)
+ * is writing, kept up to date by calling {@link #refresh()}. If the primary
+ * keeps a {@link WriteAheadLog} of the table (see {@link LoggedTableStore}),
+ * each refresh reads only the entries added to the log since the last one and
+ * applies them to the copy; when the primary checkpoints, emptying the log, the
+ * copy is reloaded from the table. Without a log, the copy is reloaded whenever
+ * the table's {@link TableStore#fingerprint() fingerprint} changes. The files
+ * may be the primary's own or copies of them shipped to another directory, as
+ * long as the log is copied after the table.
+ *
+ * <p>The copy may briefly reflect a change to the table before a change logged
+ * earlier, if the primary checkpoints while a refresh is in progress; the next
+ * refresh puts this right.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class ReplicaTableStore implements TableStore {
+	/**
+	 * The primary's table.
+	 */
+	private final TableStore table;
+	/**
+	 * The primary's log of changes to the table, or null if it doesn't keep one.
+	 */
+	private final Path logFile;
+	/**
+	 * The records, by ID, or null if not yet loaded.
+	 */
+	private LongObjectMap<List<String>> records;
+	/**
+	 * The checkpoint sequence number in the log's header when we last loaded the
+	 * table, or -1 if there was no log.
+	 */
+	private long checkpoint = -1;
+	/**
+	 * The fingerprint of the table when we last loaded it.
+	 */
+	private OptionalLong fingerprint = OptionalLong.empty();
+	/**
+	 * Where in the log to read the next entry.
+	 */
+	private long logPosition = WriteAheadLog.HEADER_SIZE;
+	/**
+	 * The sequence number of the last log entry applied.
+	 */
+	private long appliedSequence;
+	/**
+	 * When the last log entry applied was logged by the primary, in milliseconds
+	 * since the epoch, or 0 if none has been.
+	 */
+	private long appliedTimestamp;
+	/**
+	 * When the last refresh began, in milliseconds since the epoch, or 0 if there
+	 * hasn't been one: the copy has every change the primary made before then.
+	 */
+	private long syncedAt;
+
+	/**
+	 * @param table   the primary's table (opened only for reading)
+	 * @param logFile the primary's log of changes to the table, or null if it
+	 *                doesn't keep one
+	 */
+	public ReplicaTableStore(final TableStore table, final Path logFile) {
+		this.table = table;
+		this.logFile = logFile;
+	}
+
+	/**
+	 * Bring the copy up to date with the primary's files.
+	 *
+	 * @return whether anything changed
+	 * @throws IOException on I/O error while reading them
+	 */
+	public synchronized boolean refresh() throws IOException {
+		final long start = System.currentTimeMillis();
+		final boolean retval = catchUp();
+		syncedAt = start;
+		return retval;
+	}
+
+	/**
+	 * Bring the copy up to date with the primary's files.
+	 *
+	 * @return whether anything changed
+	 * @throws IOException on I/O error while reading them
+	 */
+	private boolean catchUp() throws IOException {
+		if (logFile == null || !Files.exists(logFile)) {
+			return refreshUnlogged();
+		}
+		final FileChannel log;
+		try {
+			log = FileChannel.open(logFile, StandardOpenOption.READ);
+		} catch (final NoSuchFileException except) {
+			// The log was removed since we checked; go by the table alone
+			return refreshUnlogged();
+		}
+		boolean changed = false;
+		try {
+			while (true) {
+				final long header = WriteAheadLog.readCheckpoint(log);
+				if (records == null || header != checkpoint) {
+					reload(header);
+					changed = true;
+				}
+				final boolean[] applied = { false };
+				logPosition = WriteAheadLog.readEntries(log, logPosition, entry -> {
+					if (entry.getSequence() > appliedSequence) {
+						apply(entry);
+						applied[0] = true;
+					}
+				});
+				changed |= applied[0];
+				// If the primary checkpointed while we were reading, what we read
+				// may not follow on from what we had, so start over.
+				if (WriteAheadLog.readCheckpoint(log) == header) {
+					return changed;
+				}
+			}
+		} finally {
+			log.close();
+		}
+	}
+
+	/**
+	 * Bring the copy up to date with a table that has no log, by reloading it if
+	 * its fingerprint has changed.
+	 *
+	 * @return whether it was reloaded
+	 * @throws IOException on I/O error while reading it
+	 */
+	private boolean refreshUnlogged() throws IOException {
+		final OptionalLong current = table.fingerprint();
+		if (records != null && checkpoint < 0 && current.isPresent()
+				&& current.equals(fingerprint)) {
+			return false;
+		}
+		reload(-1);
+		fingerprint = current;
+		return true;
+	}
+
+	/**
+	 * Load the copy from the table.
+	 *
+	 * @param header the checkpoint sequence number in the log's header, which the
+	 *               table is up to date with, or -1 if there is no log
+	 * @throws IOException on I/O error
+	 */
+	private void reload(final long header) throws IOException {
+		final LongObjectMap<List<String>> loaded = new LongObjectMap<>();
+		try (Stream<List<String>> stream = table.records()) {
+			stream.forEachOrdered(record -> loaded.put(Long.parseLong(record.get(0)),
+					record));
+		} catch (final NoSuchFileException except) {
+			// The primary hasn't written the table yet
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		records = loaded;
+		checkpoint = header;
+		logPosition = WriteAheadLog.HEADER_SIZE;
+		appliedSequence = Math.max(header, 0);
+	}
+
+	/**
+	 * Apply a logged change to the copy, as {@link LoggedTableStore} would.
+	 *
+	 * @param entry the log entry
+	 */
+	private void apply(final Entry entry) {
+		final long id = entry.getId();
+		switch (entry.getOperation()) {
+		case APPEND:
+			records.put(id, entry.getRecord());
+			break;
+		case REPLACE:
+			if (records.containsKey(id)) {
+				records.put(id, entry.getRecord());
+			}
+			break;
+		case REMOVE:
+			records.remove(id);
+			break;
+		default:
+			throw new IllegalStateException("Unhandled operation "
+					+ entry.getOperation());
+		}
+		appliedSequence = entry.getSequence();
+		appliedTimestamp = entry.getTimestamp();
+	}
+
+	/**
+	 * @return the sequence number of the last log entry applied to the copy
+	 */
+	public synchronized long getAppliedSequence() {
+		return appliedSequence;
+	}
+
+	/**
+	 * @return when the last log entry applied to the copy was logged, in
+	 *         milliseconds since the epoch, or 0 if none has been
+	 */
+	public synchronized long getAppliedTimestamp() {
+		return appliedTimestamp;
+	}
+
+	/**
+	 * Find when the primary made the oldest change that the copy doesn't have
+	 * yet, without applying anything. If the primary keeps a log and hasn't
+	 * checkpointed since the last refresh, this is when that change was logged;
+	 * otherwise (if the table itself has changed since) the change's own time is
+	 * no longer known, and the time the last refresh began, before which it
+	 * can't have been made, is given instead.
+	 *
+	 * @return when the oldest change not yet in the copy was made, in
+	 *         milliseconds since the epoch, or 0 if the copy has every change
+	 *         (or hasn't been loaded yet)
+	 * @throws IOException on I/O error while reading the primary's files
+	 */
+	public synchronized long getPendingSince() throws IOException {
+		if (records == null) {
+			return 0;
+		} else if (logFile == null || !Files.exists(logFile)) {
+			final OptionalLong current = table.fingerprint();
+			return current.isPresent() && current.equals(fingerprint) ? 0 : syncedAt;
+		}
+		try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ)) {
+			final long header = WriteAheadLog.readCheckpoint(log);
+			if (header != checkpoint) {
+				return syncedAt;
+			}
+			final long[] oldest = { 0 };
+			WriteAheadLog.readEntries(log, logPosition, entry -> {
+				if (oldest[0] == 0 && entry.getSequence() > appliedSequence) {
+					oldest[0] = entry.getTimestamp();
+				}
+			});
+			if (WriteAheadLog.readCheckpoint(log) != header) {
+				return syncedAt;
+			}
+			return oldest[0];
+		} catch (final NoSuchFileException except) {
+			// The log was removed since we checked, so the table has changed
+			return syncedAt;
+		}
+	}
+
+	/**
+	 * @return the records, loading them if this is the first use
+	 * @throws IOException on I/O error while loading them
+	 */
+	private LongObjectMap<List<String>> current() throws IOException {
+		if (records == null) {
+			refresh();
+		}
+		return records;
+	}
+
+	@Override
+	public synchronized Stream<List<String>> records() throws IOException {
+		return current().values().stream();
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		return Optional.ofNullable(current().get(id));
+	}
+
+	@Override
+	public synchronized LongObjectMap<List<String>> findByIds(final long[] ids)
+			throws IOException {
+		final LongObjectMap<List<String>> copy = current();
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (final long id : ids) {
+			final List<String> record = copy.get(id);
+			if (record != null) {
+				retval.put(id, record);
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public void append(final List<String> record) throws IOException {
+		throw new UnsupportedOperationException("Replica is read-only");
+	}
+
+	@Override
+	public void replace(final long id, final List<String> record) throws IOException {
+		throw new UnsupportedOperationException("Replica is read-only");
+	}
+
+	@Override
+	public void remove(final long id) throws IOException {
+		throw new UnsupportedOperationException("Replica is read-only");
+	}
+
+	@Override
+	public void rewrite(final List<List<String>> records) throws IOException {
+		throw new UnsupportedOperationException("Replica is read-only");
+	}
+}
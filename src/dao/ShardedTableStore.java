@@ -0,0 +1,477 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+
+/**
+ * A table store that partitions a table across several other stores (shards),
+ * putting each record in the shard given by its ID modulo the number of shards.
+ * Finding, replacing, or removing a record touches only its shard, so the cost
+ * of a change that rewrites a file is divided by the number of shards; scans
+ * read all the shards in parallel. Records are streamed shard by shard, not in
+ * the order they were added. A shard whose file doesn't exist yet is treated as
+ * empty.
+ *
+ * <p>{@link #open(Path, String, String, int, Function)} lays the shards out as
+ * files in a directory, and re-shards the table (from an unsharded file or a
+ * different number of shards) if necessary.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class ShardedTableStore implements TableStore, Closeable {
+	/**
+	 * The shards.
+	 */
+	private final List<TableStore> shards;
+
+	/**
+	 * @param shards the shards; which records belong in which shard depends on
+	 *               their order and number, so those must not change between uses
+	 */
+	public ShardedTableStore(final List<? extends TableStore> shards) {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is required");
+		}
+		this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+	}
+
+	/**
+	 * @param id     the ID of a record
+	 * @param shards the number of shards
+	 * @return the index of the shard it belongs in
+	 */
+	static int shardOf(final long id, final int shards) {
+		return (int) Math.floorMod(id, (long) shards);
+	}
+
+	/**
+	 * @param id the ID of a record
+	 * @return the shard it belongs in
+	 */
+	private TableStore shardFor(final long id) {
+		return shards.get(shardOf(id, shards.size()));
+	}
+
+	/**
+	 * Split records by the shard they belong in, keeping their order.
+	 *
+	 * @param records the records
+	 * @param count   the number of shards
+	 * @return the records for each shard
+	 */
+	private static List<List<List<String>>> partition(
+			final List<List<String>> records, final int count) {
+		final List<List<List<String>>> retval = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			retval.add(new ArrayList<>());
+		}
+		for (final List<String> record : records) {
+			retval.get(shardOf(Long.parseLong(record.get(0)), count)).add(record);
+		}
+		return retval;
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		return shards.parallelStream().flatMap(shard -> {
+			try {
+				return shard.records();
+			} catch (final IOException except) {
+				throw new UncheckedIOException(except);
+			}
+		});
+	}
+
+	@Override
+	public Optional<List<String>> find(final long id) throws IOException {
+		try {
+			return shardFor(id).find(id);
+		} catch (final NoSuchFileException except) {
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Find the records with the given IDs, asking each shard only for its own.
+	 */
+	@Override
+	public LongObjectMap<List<String>> findByIds(final long[] ids) throws IOException {
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (int i = 0; i < shards.size(); i++) {
+			final int shard = i;
+			final long[] wanted = Arrays.stream(ids)
+					.filter(id -> shardOf(id, shards.size()) == shard).toArray();
+			if (wanted.length == 0) {
+				continue;
+			}
+			try {
+				shards.get(i).findByIds(wanted).forEach(retval::put);
+			} catch (final NoSuchFileException except) {
+				// Nothing in that shard to find
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public void append(final List<String> record) throws IOException {
+		shardFor(Long.parseLong(record.get(0))).append(record);
+	}
+
+	@Override
+	public void appendAll(final List<List<String>> records) throws IOException {
+		final List<List<List<String>>> parts = partition(records, shards.size());
+		for (int i = 0; i < parts.size(); i++) {
+			if (!parts.get(i).isEmpty()) {
+				shards.get(i).appendAll(parts.get(i));
+			}
+		}
+	}
+
+	@Override
+	public void replace(final long id, final List<String> record) throws IOException {
+		try {
+			shardFor(id).replace(id, record);
+		} catch (final NoSuchFileException except) {
+			// Nothing in that shard to replace
+		}
+	}
+
+	@Override
+	public void remove(final long id) throws IOException {
+		try {
+			shardFor(id).remove(id);
+		} catch (final NoSuchFileException except) {
+			// Nothing in that shard to remove
+		}
+	}
+
+	/**
+	 * Replace the contents of the table. Every shard's new contents are written
+	 * out (the shards in parallel) before any of them is put in place, so a
+	 * failure while writing leaves the table as it was; only a failure while
+	 * moving the finished files into place can leave some shards rewritten and
+	 * others not.
+	 *
+	 * @param records the new contents of the table
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public void rewrite(final List<List<String>> records) throws IOException {
+		final List<List<List<String>>> parts = partition(records, shards.size());
+		final StagedRewrite[] staged = new StagedRewrite[shards.size()];
+		final IOException[] failures = new IOException[shards.size()];
+		IntStream.range(0, shards.size()).parallel().forEach(i -> {
+			try {
+				staged[i] = shards.get(i).prepareRewrite(parts.get(i));
+			} catch (final IOException except) {
+				failures[i] = except;
+			}
+		});
+		IOException failure = null;
+		for (final IOException except : failures) {
+			if (except == null) {
+				continue;
+			} else if (failure == null) {
+				failure = except;
+			} else {
+				failure.addSuppressed(except);
+			}
+		}
+		int committed = 0;
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+			for (; committed < staged.length; committed++) {
+				staged[committed].commit();
+			}
+		} catch (final IOException except) {
+			for (int i = committed; i < staged.length; i++) {
+				if (staged[i] != null) {
+					try {
+						staged[i].abort();
+					} catch (final IOException suppressed) {
+						except.addSuppressed(suppressed);
+					}
+				}
+			}
+			throw except;
+		}
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		long retval = shards.size();
+		for (final TableStore shard : shards) {
+			final OptionalLong fingerprint = shard.fingerprint();
+			if (!fingerprint.isPresent()) {
+				return OptionalLong.empty();
+			}
+			retval = retval * 31 + fingerprint.getAsLong();
+		}
+		return OptionalLong.of(retval);
+	}
+
+	@Override
+	public void close() throws IOException {
+		IOException failure = null;
+		for (final TableStore shard : shards) {
+			if (shard instanceof Closeable) {
+				try {
+					((Closeable) shard).close();
+				} catch (final IOException except) {
+					if (failure == null) {
+						failure = except;
+					} else {
+						failure.addSuppressed(except);
+					}
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Copy every record of one store into a set of shards, replacing their
+	 * contents.
+	 *
+	 * @param source the store to copy from
+	 * @param target the shards to copy into
+	 * @throws IOException on I/O error
+	 */
+	public static void reshard(final TableStore source, final ShardedTableStore target)
+			throws IOException {
+		final List<List<String>> records;
+		try (Stream<List<String>> stream = source.records()) {
+			records = stream.collect(Collectors.toList());
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		target.rewrite(records);
+	}
+
+	/**
+	 * @param directory the directory holding the table
+	 * @param table     the name of the table
+	 * @param suffix    the file-name suffix for the kind of storage used
+	 * @param index     the index of a shard
+	 * @param count     the number of shards
+	 * @return the file holding that shard
+	 */
+	static Path shardFile(final Path directory, final String table,
+			final String suffix, final int index, final int count) {
+		return directory.resolve(table + "-" + index + "-of-" + count + suffix);
+	}
+
+	/**
+	 * @param directory the directory holding the table
+	 * @param table     the name of the table
+	 * @param suffix    the file-name suffix for the kind of storage used
+	 * @return the file recording how many shards the table is laid out in
+	 */
+	static Path layoutFile(final Path directory, final String table,
+			final String suffix) {
+		return directory.resolve(table + suffix + ".shards");
+	}
+
+	/**
+	 * @param file the file recording a table's layout
+	 * @return the number of shards it records, or 0 if it doesn't exist or can't
+	 *         be understood
+	 * @throws IOException on I/O error while reading it
+	 */
+	private static int readLayout(final Path file) throws IOException {
+		try {
+			final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			return lines.isEmpty() ? 0 : Math.max(0, Integer.parseInt(lines.get(0).trim()));
+		} catch (final NoSuchFileException | NumberFormatException except) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Record, atomically, how many shards a table is laid out in.
+	 *
+	 * @param file  the file recording the table's layout
+	 * @param count the number of shards
+	 * @throws IOException on I/O error
+	 */
+	private static void writeLayout(final Path file, final int count)
+			throws IOException {
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.wrap((count + "\n")
+					.getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param directory the directory holding the table
+	 * @param table     the name of the table
+	 * @param suffix    the file-name suffix for the kind of storage used
+	 * @param count     a number of shards
+	 * @return the files of that many shards, in shard order
+	 */
+	private static List<Path> shardFiles(final Path directory, final String table,
+			final String suffix, final int count) {
+		final List<Path> retval = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			retval.add(shardFile(directory, table, suffix, i, count));
+		}
+		return retval;
+	}
+
+	/**
+	 * Open a table sharded across files in a directory, named like
+	 * "books-0-of-4.csv". How many shards the table is laid out in is recorded
+	 * in another file ("books.csv.shards"). If that isn't the number wanted, the
+	 * table is re-sharded: its records are copied from the recorded layout (or,
+	 * if nothing is recorded, from whichever complete set of shards, or the
+	 * unsharded file "books.csv", was modified most recently) into the new shard
+	 * files, which are all written before the new layout is recorded and the old
+	 * files are deleted, so if this is interrupted it will simply be redone the
+	 * next time.
+	 *
+	 * @param directory the directory holding the table
+	 * @param table     the name of the table
+	 * @param suffix    the file-name suffix for the kind of storage used, such as
+	 *                  ".csv"
+	 * @param count     the number of shards
+	 * @param opener    how to open the storage in a file
+	 * @return the sharded store
+	 * @throws IOException on I/O error while re-sharding
+	 */
+	public static ShardedTableStore open(final Path directory, final String table,
+			final String suffix, final int count, final Function<Path, TableStore> opener)
+			throws IOException {
+		final List<Path> files = shardFiles(directory, table, suffix, count);
+		final List<TableStore> stores = files.stream().map(opener)
+				.collect(Collectors.toList());
+		final ShardedTableStore retval = new ShardedTableStore(stores);
+		final Path layout = layoutFile(directory, table, suffix);
+		final int recorded = readLayout(layout);
+		final List<Path> oldFiles;
+		if (recorded == count) {
+			oldFiles = Collections.emptyList();
+		} else if (recorded > 0 && shardFiles(directory, table, suffix, recorded)
+				.stream().allMatch(Files::exists)) {
+			oldFiles = shardFiles(directory, table, suffix, recorded);
+		} else {
+			oldFiles = findOldLayout(directory, table, suffix, count);
+		}
+		if (oldFiles.size() == 1) {
+			reshard(opener.apply(oldFiles.get(0)), retval);
+		} else if (!oldFiles.isEmpty()) {
+			reshard(new ShardedTableStore(oldFiles.stream().map(opener)
+					.collect(Collectors.toList())), retval);
+		} else {
+			// Create any missing shard files, so that the layout is complete.
+			for (int i = 0; i < count; i++) {
+				if (!Files.exists(files.get(i))) {
+					stores.get(i).rewrite(Collections.emptyList());
+				}
+			}
+		}
+		if (recorded != count) {
+			writeLayout(layout, count);
+		}
+		for (final Path file : oldFiles) {
+			Files.deleteIfExists(file);
+		}
+		return retval;
+	}
+
+	/**
+	 * Find the files of a table stored in some other layout than the given
+	 * number of shards, when no layout has been recorded. If there is more than
+	 * one, the one modified most recently is chosen.
+	 *
+	 * @param directory the directory holding the table
+	 * @param table     the name of the table
+	 * @param suffix    the file-name suffix for the kind of storage used
+	 * @param count     the number of shards wanted
+	 * @return the files of a complete other set of shards, in shard order, or the
+	 *         unsharded table file, or nothing if neither exists
+	 * @throws IOException on I/O error while listing the directory
+	 */
+	private static List<Path> findOldLayout(final Path directory, final String table,
+			final String suffix, final int count) throws IOException {
+		final Pattern pattern = Pattern.compile(Pattern.quote(table) + "-0-of-(\\d+)"
+				+ Pattern.quote(suffix));
+		final List<List<Path>> candidates = new ArrayList<>();
+		final Path unsharded = directory.resolve(table + suffix);
+		if (Files.exists(unsharded)) {
+			candidates.add(Collections.singletonList(unsharded));
+		}
+		try (DirectoryStream<Path> listing = Files.newDirectoryStream(directory)) {
+			for (final Path file : listing) {
+				final Matcher matcher = pattern.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					final int oldCount = Integer.parseInt(matcher.group(1));
+					final List<Path> set = shardFiles(directory, table, suffix, oldCount);
+					if (oldCount != count && set.stream().allMatch(Files::exists)) {
+						candidates.add(set);
+					}
+				}
+			}
+		} catch (final NoSuchFileException except) {
+			return Collections.emptyList();
+		}
+		List<Path> retval = Collections.emptyList();
+		long newest = Long.MIN_VALUE;
+		for (final List<Path> set : candidates) {
+			long modified = Long.MIN_VALUE;
+			for (final Path file : set) {
+				modified = Math.max(modified, Files.getLastModifiedTime(file).toMillis());
+			}
+			// Ties go to the larger number of shards, so the choice never depends
+			// on the order the directory is listed in.
+			if (modified > newest || (modified == newest && set.size() > retval.size())) {
+				retval = set;
+				newest = modified;
+			}
+		}
+		return retval;
+	}
+}
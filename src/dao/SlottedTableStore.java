@@ -0,0 +1,538 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import util.LongObjectMap;
+
+/**
+ * A table stored in a binary file of fixed-size slots, the record with ID n
+ * occupying the slot at n times the slot size (after a small file header), so
+ * that finding, changing, or removing a record is a single positional read or
+ * write rather than a pass over the file. Each slot begins with a flags byte,
+ * whose low bit marks it as in use (removing a record just clears that bit),
+ * and the length of the record, which is stored as a CSV line; a record too
+ * long for its slot is instead written to the end of an overflow file, and the
+ * slot holds its position there.
+ *
+ * <p>Because a record's position is given by its ID, appending a record whose ID
+ * is already in use replaces it, IDs must not be negative, and the file is as
+ * large as the largest ID requires (gaps left by unused IDs are sparse on most
+ * file systems). Records are returned in ID order. Space in the overflow file
+ * taken by records since changed or removed is only reclaimed when the table is
+ * rewritten (or {@link #compact() compacted}).
+ *
+ * @author Jonathan Lovelace
+ */
+public final class SlottedTableStore implements TableStore, Closeable {
+	/**
+	 * The marker at the start of the file.
+	 */
+	private static final int MAGIC = 0x534C5431;
+	/**
+	 * The size of the file header: marker, slot size, which overflow file is in
+	 * use, and a reserved word.
+	 */
+	private static final int FILE_HEADER_SIZE = 16;
+	/**
+	 * The size of a slot's header: flags and the length of the record.
+	 */
+	private static final int SLOT_HEADER_SIZE = 5;
+	/**
+	 * The flag marking a slot as holding a record.
+	 */
+	private static final byte LIVE = 1;
+	/**
+	 * The flag marking a slot's record as stored in the overflow file.
+	 */
+	private static final byte OVERFLOW = 2;
+	/**
+	 * The slot size used for new files if none is specified.
+	 */
+	public static final int DEFAULT_SLOT_SIZE = 128;
+	/**
+	 * How many bytes of slots to read at a time when scanning the table.
+	 */
+	private static final int SCAN_SIZE = 1 << 16;
+
+	/**
+	 * The file the table is stored in.
+	 */
+	private final Path filename;
+	/**
+	 * The slot size, which is the one given for a new file, but read from the
+	 * header of an existing one.
+	 */
+	private int slotSize;
+	/**
+	 * Which of the two overflow files is in use.
+	 */
+	private int generation;
+	/**
+	 * The open file, or null if not yet opened.
+	 */
+	private FileChannel channel;
+	/**
+	 * The open overflow file, or null if not yet opened.
+	 */
+	private FileChannel overflow;
+
+	/**
+	 * @param filename the file the table is or will be stored in
+	 */
+	public SlottedTableStore(final Path filename) {
+		this(filename, DEFAULT_SLOT_SIZE);
+	}
+
+	/**
+	 * @param filename the file the table is or will be stored in
+	 * @param slotSize the size of each record's slot, if the file is new; records
+	 *                 longer than this (less a few bytes) go to the overflow file
+	 */
+	public SlottedTableStore(final Path filename, final int slotSize) {
+		if (slotSize < SLOT_HEADER_SIZE + 8) {
+			throw new IllegalArgumentException("Slot size too small");
+		}
+		this.filename = filename;
+		this.slotSize = slotSize;
+	}
+
+	/**
+	 * @param index which overflow file
+	 * @return its name
+	 */
+	private Path overflowFile(final int index) {
+		return filename.resolveSibling(filename.getFileName() + ".overflow" + index);
+	}
+
+	/**
+	 * Open the file, if we haven't yet, writing its header if it is new.
+	 *
+	 * @return the open file
+	 * @throws IOException on I/O error, or if the file isn't a slotted table
+	 */
+	private FileChannel channel() throws IOException {
+		if (channel != null) {
+			return channel;
+		}
+		final FileChannel opened = FileChannel.open(filename, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			if (opened.size() == 0) {
+				header.putInt(MAGIC).putInt(slotSize).putInt(0).putInt(0).flip();
+				writeFully(opened, header, 0);
+			} else {
+				readFully(opened, header, 0);
+				header.flip();
+				if (header.getInt() != MAGIC) {
+					throw new IOException(filename + " is not a slotted table");
+				}
+				slotSize = header.getInt();
+				generation = header.getInt();
+			}
+			overflow = FileChannel.open(overflowFile(generation),
+					StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE);
+		} catch (final IOException except) {
+			opened.close();
+			throw except;
+		}
+		channel = opened;
+		return opened;
+	}
+
+	/**
+	 * Fill a buffer from a channel, starting at the given position.
+	 *
+	 * @param channel  the channel to read from
+	 * @param buffer   the buffer to fill
+	 * @param position where in the channel to start reading
+	 * @throws IOException on I/O error, or if the channel ends first
+	 */
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer,
+			final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, current);
+			if (count < 0) {
+				throw new IOException("Unexpected end of slotted table");
+			}
+			current += count;
+		}
+	}
+
+	/**
+	 * Write all of a buffer to a channel, starting at the given position.
+	 *
+	 * @param channel  the channel to write to
+	 * @param buffer   the data to write
+	 * @param position where in the channel to start writing
+	 * @throws IOException on I/O error
+	 */
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer,
+			final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			current += channel.write(buffer, current);
+		}
+	}
+
+	/**
+	 * @param id the ID of a record
+	 * @return the position of its slot in the file
+	 */
+	private long slotOf(final long id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Slotted tables can't hold negative IDs");
+		}
+		return FILE_HEADER_SIZE + Math.multiplyExact(id, (long) slotSize);
+	}
+
+	/**
+	 * Write a record into its slot, and into the overflow file if it doesn't fit.
+	 *
+	 * @param slots    the file to write the slot to
+	 * @param overflow the overflow file
+	 * @param record   the record
+	 * @throws IOException on I/O error
+	 */
+	private void writeSlot(final FileChannel slots, final FileChannel overflow,
+			final List<String> record) throws IOException {
+		final long position = slotOf(Long.parseLong(record.get(0)));
+		final byte[] data = CSVHelper.formatCSVRecord(record)
+				.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer slot;
+		if (data.length <= slotSize - SLOT_HEADER_SIZE) {
+			slot = ByteBuffer.allocate(SLOT_HEADER_SIZE + data.length);
+			slot.put(LIVE).putInt(data.length).put(data);
+		} else {
+			final long offset = overflow.size();
+			writeFully(overflow, ByteBuffer.wrap(data), offset);
+			slot = ByteBuffer.allocate(SLOT_HEADER_SIZE + 8);
+			slot.put((byte) (LIVE | OVERFLOW)).putInt(data.length).putLong(offset);
+		}
+		slot.flip();
+		writeFully(slots, slot, position);
+	}
+
+	/**
+	 * Decode the record in a slot.
+	 *
+	 * @param slot a buffer positioned at the start of the slot, which is left
+	 *             positioned at the start of the next
+	 * @return the record, or null if the slot is empty
+	 * @throws IOException on I/O error reading the overflow file
+	 */
+	private List<String> readSlot(final ByteBuffer slot) throws IOException {
+		final int start = slot.position();
+		final byte flags = slot.get();
+		final int length = slot.getInt();
+		final List<String> retval;
+		if ((flags & LIVE) == 0) {
+			retval = null;
+		} else if ((flags & OVERFLOW) == 0) {
+			retval = decode(slot.array(), slot.arrayOffset() + slot.position(), length);
+		} else {
+			final ByteBuffer data = ByteBuffer.allocate(length);
+			readFully(overflow, data, slot.getLong());
+			retval = decode(data.array(), 0, length);
+		}
+		slot.position(Math.min(start + slotSize, slot.limit()));
+		return retval;
+	}
+
+	/**
+	 * @param data   bytes holding a record as a CSV line
+	 * @param offset where in the array it starts
+	 * @param length its length
+	 * @return the record
+	 * @throws IOException if the record is malformed
+	 */
+	private static List<String> decode(final byte[] data, final int offset,
+			final int length) throws IOException {
+		try (PushbackReader in = new PushbackReader(new StringReader(
+				new String(data, offset, length, StandardCharsets.UTF_8)))) {
+			return CSVHelper.readCSVRecord(in);
+		}
+	}
+
+	/**
+	 * Read whole slots, up to a given number, starting at a given one.
+	 *
+	 * @param position where the first slot begins
+	 * @param count    the most slots to read
+	 * @return a buffer holding the slots, empty if the file ends first
+	 * @throws IOException on I/O error
+	 */
+	private ByteBuffer readSlots(final long position, final int count)
+			throws IOException {
+		final long available = Math.max(0, channel().size() - position);
+		final int size = (int) Math.min((long) count * slotSize, available);
+		final ByteBuffer retval = ByteBuffer.allocate(size);
+		readFully(channel(), retval, position);
+		retval.flip();
+		return retval;
+	}
+
+	/**
+	 * Stream the records in ID order, reading the file a chunk at a time.
+	 * Changes made while the stream is being read may or may not be seen.
+	 */
+	@Override
+	public Stream<List<String>> records() throws IOException {
+		final Iterator<List<String>> iterator = new Iterator<List<String>>() {
+			private ByteBuffer chunk = ByteBuffer.allocate(0);
+			private long position = FILE_HEADER_SIZE;
+			private List<String> next;
+
+			@Override
+			public boolean hasNext() {
+				try {
+					synchronized (SlottedTableStore.this) {
+						while (next == null) {
+							if (chunk.remaining() < SLOT_HEADER_SIZE) {
+								chunk = readSlots(position,
+										Math.max(1, SCAN_SIZE / slotSize));
+								position += chunk.remaining();
+								if (chunk.remaining() < SLOT_HEADER_SIZE) {
+									return false;
+								}
+							}
+							next = readSlot(chunk);
+						}
+						return true;
+					}
+				} catch (final IOException except) {
+					throw new UncheckedIOException(except);
+				}
+			}
+
+			@Override
+			public List<String> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final List<String> retval = next;
+				next = null;
+				return retval;
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	@Override
+	public synchronized Optional<List<String>> find(final long id) throws IOException {
+		if (id < 0) {
+			return Optional.empty();
+		}
+		final ByteBuffer slot = readSlots(slotOf(id), 1);
+		if (slot.remaining() < SLOT_HEADER_SIZE) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(readSlot(slot));
+	}
+
+	/**
+	 * Find the records with the given IDs, reading their slots in file order.
+	 */
+	@Override
+	public synchronized LongObjectMap<List<String>> findByIds(final long[] ids)
+			throws IOException {
+		final long[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		for (int i = 0; i < sorted.length; i++) {
+			if (i > 0 && sorted[i] == sorted[i - 1]) {
+				continue;
+			}
+			final Optional<List<String>> record = find(sorted[i]);
+			if (record.isPresent()) {
+				retval.put(sorted[i], record.get());
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Store a record in its slot, replacing any record with the same ID.
+	 */
+	@Override
+	public synchronized void append(final List<String> record) throws IOException {
+		writeSlot(channel(), overflow, record);
+	}
+
+	/**
+	 * Store records in their slots, replacing any with the same IDs.
+	 */
+	@Override
+	public synchronized void appendAll(final List<List<String>> records)
+			throws IOException {
+		for (final List<String> record : records) {
+			writeSlot(channel(), overflow, record);
+		}
+	}
+
+	/**
+	 * @param id the ID of a record
+	 * @return the flags of its slot, or 0 if it is past the end of the file
+	 * @throws IOException on I/O error
+	 */
+	private byte flagsOf(final long id) throws IOException {
+		final ByteBuffer flags = readSlots(slotOf(id), 1);
+		return flags.hasRemaining() ? flags.get() : 0;
+	}
+
+	@Override
+	public synchronized void replace(final long id, final List<String> record)
+			throws IOException {
+		if (id >= 0 && (flagsOf(id) & LIVE) != 0) {
+			writeSlot(channel(), overflow, record);
+		}
+	}
+
+	@Override
+	public synchronized void remove(final long id) throws IOException {
+		if (id < 0) {
+			return;
+		}
+		final byte flags = flagsOf(id);
+		if ((flags & LIVE) != 0) {
+			final ByteBuffer cleared = ByteBuffer.allocate(1);
+			cleared.put(0, (byte) (flags & ~LIVE));
+			writeFully(channel(), cleared, slotOf(id));
+		}
+	}
+
+	/**
+	 * Replace the contents of the table. The new slots are written to a temporary
+	 * file, and long records to the overflow file not currently in use; once both
+	 * are forced to disk, the new file is moved over the old one, whose header
+	 * names the new overflow file, so a crash partway through leaves the old
+	 * contents intact.
+	 *
+	 * @param records the new contents of the table
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public synchronized void rewrite(final List<List<String>> records)
+			throws IOException {
+		prepareRewrite(records).commit();
+	}
+
+	/**
+	 * Write the new slots and overflow file and force them to disk; committing
+	 * moves the new file over the old one, and aborting deletes it.
+	 */
+	@Override
+	public synchronized StagedRewrite prepareRewrite(final List<List<String>> records)
+			throws IOException {
+		channel();
+		final int next = 1 - generation;
+		final Path temp = filename.resolveSibling(filename.getFileName() + ".tmp");
+		try (FileChannel slots = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				FileChannel newOverflow = FileChannel.open(overflowFile(next),
+						StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+			header.putInt(MAGIC).putInt(slotSize).putInt(next).putInt(0).flip();
+			writeFully(slots, header, 0);
+			for (final List<String> record : records) {
+				writeSlot(slots, newOverflow, record);
+			}
+			newOverflow.force(true);
+			slots.force(true);
+		}
+		return new StagedRewrite() {
+			@Override
+			public void commit() throws IOException {
+				synchronized (SlottedTableStore.this) {
+					close();
+					Files.move(temp, filename, StandardCopyOption.REPLACE_EXISTING,
+							StandardCopyOption.ATOMIC_MOVE);
+					Files.deleteIfExists(overflowFile(1 - next));
+				}
+			}
+
+			@Override
+			public void abort() throws IOException {
+				Files.deleteIfExists(temp);
+				Files.deleteIfExists(overflowFile(next));
+			}
+		};
+	}
+
+	/**
+	 * Rewrite the table to reclaim the space in the overflow file taken by records
+	 * that have since been changed or removed.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void compact() throws IOException {
+		final List<List<String>> records = new ArrayList<>();
+		try (Stream<List<String>> stream = records()) {
+			stream.forEachOrdered(records::add);
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		rewrite(records);
+	}
+
+	/**
+	 * @return the size of each slot
+	 * @throws IOException on I/O error opening the file
+	 */
+	public synchronized int getSlotSize() throws IOException {
+		channel();
+		return slotSize;
+	}
+
+	@Override
+	public OptionalLong fingerprint() throws IOException {
+		return OptionalLong.of(TableSnapshot.fingerprint(filename, overflowFile(0),
+				overflowFile(1)));
+	}
+
+	/**
+	 * Close the files; they are reopened if the store is used again.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} finally {
+			channel = null;
+			if (overflow != null) {
+				overflow.close();
+				overflow = null;
+			}
+		}
+	}
+}
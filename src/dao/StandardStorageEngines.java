@@ -0,0 +1,213 @@
+package dao;
+
+import java.nio.file.Path;
+
+/**
+ * The storage engines that come with the library, registered for
+ * {@link java.util.ServiceLoader} in "META-INF/services/dao.StorageEngine".
+ *
+ * @author Jonathan Lovelace
+ */
+public final class StandardStorageEngines {
+	/**
+	 * Not instantiable.
+	 */
+	private StandardStorageEngines() {
+		// Only a holder for the engine classes
+	}
+
+	/**
+	 * @param file   a table file
+	 * @param suffix the suffix of its name
+	 * @param extra  the suffix for the file to keep alongside it
+	 * @return the name of that file
+	 */
+	static Path sibling(final Path file, final String suffix, final String extra) {
+		final String name = file.getFileName().toString();
+		final String base = name.endsWith(suffix)
+				? name.substring(0, name.length() - suffix.length()) : name;
+		return file.resolveSibling(base + extra);
+	}
+
+	/**
+	 * Tables kept as CSV files, read and rewritten as needed: "csv".
+	 */
+	public static final class CSV implements StorageEngine {
+		@Override
+		public String getName() {
+			return "csv";
+		}
+
+		@Override
+		public String getSuffix() {
+			return ".csv";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return true;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new CSVTableStore(file);
+		}
+	}
+
+	/**
+	 * Tables kept as block-compressed CSV files: "compressed".
+	 */
+	public static final class Compressed implements StorageEngine {
+		@Override
+		public String getName() {
+			return "compressed";
+		}
+
+		@Override
+		public String getSuffix() {
+			return ".csv.z";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return true;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new BlockCompressedTableStore(file);
+		}
+	}
+
+	/**
+	 * Tables kept in binary files of fixed-size slots, updated in place:
+	 * "slotted".
+	 */
+	public static final class Slotted implements StorageEngine {
+		@Override
+		public String getName() {
+			return "slotted";
+		}
+
+		@Override
+		public String getSuffix() {
+			return ".slots";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return true;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new SlottedTableStore(file);
+		}
+	}
+
+	/**
+	 * Tables kept as CSV files, with a copy in memory that is saved as a snapshot
+	 * ("*.snapshot") on close and reloaded from it if the table hasn't changed:
+	 * "cached".
+	 */
+	public static final class Cached implements StorageEngine {
+		@Override
+		public String getName() {
+			return "cached";
+		}
+
+		@Override
+		public String getSuffix() {
+			return ".csv";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return true;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new CachedTableStore(new CSVTableStore(file),
+					sibling(file, getSuffix(), ".snapshot"));
+		}
+	}
+
+	/**
+	 * Tables kept as CSV files, with a copy in memory outside the Java heap:
+	 * "offheap".
+	 */
+	public static final class OffHeap implements StorageEngine {
+		@Override
+		public String getName() {
+			return "offheap";
+		}
+
+		@Override
+		public String getSuffix() {
+			return ".csv";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return true;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new OffHeapTableStore(new CSVTableStore(file));
+		}
+	}
+
+	/**
+	 * Tables kept in memory for fast concurrent access, with changes logged and
+	 * periodic snapshots ("*.mem") written in the background so that they survive
+	 * restarts: "durable".
+	 */
+	public static final class Durable implements StorageEngine {
+		@Override
+		public String getName() {
+			return "durable";
+		}
+
+		@Override
+		public String getSuffix() {
+			return ".mem";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return true;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new DurableMemoryTableStore(file);
+		}
+	}
+
+	/**
+	 * Tables kept only in memory, and lost on exit: "memory".
+	 */
+	public static final class Memory implements StorageEngine {
+		@Override
+		public String getName() {
+			return "memory";
+		}
+
+		@Override
+		public String getSuffix() {
+			return "";
+		}
+
+		@Override
+		public boolean isPersistent() {
+			return false;
+		}
+
+		@Override
+		public TableStore open(final Path file) {
+			return new MemoryTableStore();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * How and where the tables of the database are stored, read from properties so
+ * that a deployment can change it without code changes. Each setting can be
+ * given for all tables ("engine=slotted") or for one table, which takes
+ * precedence ("books.engine=offheap"):
+ *
+ * <dl>
+ * <dt>engine</dt>
+ * <dd>the name of the {@link StorageEngine} to keep the table in; "csv" by
+ * default</dd>
+ * <dt>wal</dt>
+ * <dd>"true" to record changes in a write-ahead log ("*.wal") and only
+ * periodically write them to the table itself</dd>
+ * <dt>shards</dt>
+ * <dd>how many files to partition the table across ("books-0-of-4.csv" and so
+ * on); 1 by default</dd>
+ * <dt>cache</dt>
+ * <dd>how much memory to give a {@link BoundedCacheTableStore cache} of the
+ * table's most popular records, in bytes or with a suffix of "k", "m" or "g"
+ * ("books.cache=64m"); 0, for no such cache, by default</dd>
+ * <dt>inmemory</dt>
+ * <dd>"heap" to keep a copy of the whole table in memory, saved as a snapshot
+ * ("*.snapshot") on close, or "offheap" to keep it in memory outside the Java
+ * heap, on top of whichever engine stores the table; "none", for no such copy,
+ * by default</dd>
+ * </dl>
+ *
+ * @author Jonathan Lovelace
+ */
+public final class StorageConfiguration {
+	/**
+	 * The engine used if none is configured.
+	 */
+	public static final String DEFAULT_ENGINE = "csv";
+
+	/**
+	 * The directory the tables are stored in.
+	 */
+	private final Path directory;
+	/**
+	 * The settings.
+	 */
+	private final Properties properties;
+
+	/**
+	 * @param directory  the directory the tables are stored in
+	 * @param properties the settings
+	 */
+	public StorageConfiguration(final Path directory, final Properties properties) {
+		this.directory = directory;
+		this.properties = properties;
+	}
+
+	/**
+	 * @param table        the name of a table
+	 * @param key          the name of a setting
+	 * @param defaultValue the value if it isn't set for the table or for all
+	 * @return its value for that table
+	 */
+	public String get(final String table, final String key, final String defaultValue) {
+		return properties.getProperty(table + '.' + key,
+				properties.getProperty(key, defaultValue));
+	}
+
+	/**
+	 * @param table the name of a table
+	 * @return the engine it is kept in
+	 * @throws IllegalArgumentException if there is no engine by the configured
+	 *                                  name
+	 */
+	public StorageEngine getEngine(final String table) {
+		return StorageEngine.named(get(table, "engine", DEFAULT_ENGINE));
+	}
+
+	/**
+	 * @param size a size in bytes, optionally followed by "k", "m" or "g" (in
+	 *             either case) for kibibytes, mebibytes or gibibytes
+	 * @return the number of bytes
+	 * @throws IllegalArgumentException if it isn't a valid size
+	 */
+	static long parseSize(final String size) {
+		final String trimmed = size.trim().toLowerCase(Locale.ROOT);
+		final int shift;
+		switch (trimmed.isEmpty() ? ' ' : trimmed.charAt(trimmed.length() - 1)) {
+		case 'k':
+			shift = 10;
+			break;
+		case 'm':
+			shift = 20;
+			break;
+		case 'g':
+			shift = 30;
+			break;
+		default:
+			shift = 0;
+			break;
+		}
+		final String digits = shift == 0 ? trimmed
+				: trimmed.substring(0, trimmed.length() - 1).trim();
+		try {
+			return Long.parseLong(digits) << shift;
+		} catch (final NumberFormatException except) {
+			throw new IllegalArgumentException("Not a valid size: " + size, except);
+		}
+	}
+
+	/**
+	 * Open the storage for one table.
+	 *
+	 * @param table     the name of the table
+	 * @param nameField the index of the field holding each record's name, to keep
+	 *                  a Bloom filter of, or -1 if records have no name
+	 * @param resources a list to add anything that will need to be closed to
+	 * @return the storage for the table
+	 * @throws IOException              on I/O error while re-sharding the table
+	 * @throws IllegalArgumentException if the configuration is invalid
+	 */
+	public TableStore openTable(final String table, final int nameField,
+			final List<Closeable> resources) throws IOException {
+		final StorageEngine engine = getEngine(table);
+		final boolean logged = Boolean.parseBoolean(get(table, "wal", "false"));
+		final int shards = Integer.parseInt(get(table, "shards", "1"));
+		final long cacheBytes = parseSize(get(table, "cache", "0"));
+		final String inMemory = get(table, "inmemory", "none").trim()
+				.toLowerCase(Locale.ROOT);
+		if (!"none".equals(inMemory) && !"heap".equals(inMemory)
+				&& !"offheap".equals(inMemory)) {
+			throw new IllegalArgumentException("Not a valid in-memory setting for "
+					+ table + ": " + inMemory);
+		} else if (shards < 1) {
+			throw new IllegalArgumentException("Need at least one shard for " + table);
+		} else if (!engine.isPersistent() && (logged || shards > 1)) {
+			throw new IllegalArgumentException("The " + engine.getName()
+					+ " engine can't be logged or sharded");
+		}
+		TableStore store;
+		if (shards > 1) {
+			store = ShardedTableStore.open(directory, table, engine.getSuffix(), shards,
+					engine::open);
+		} else {
+			store = engine.open(directory.resolve(table + engine.getSuffix()));
+		}
+		if (logged) {
+			store = new LoggedTableStore(store,
+					new WriteAheadLog(directory.resolve(table + ".wal")));
+		}
+		if ("heap".equals(inMemory)) {
+			store = new CachedTableStore(store, directory.resolve(table + ".snapshot"));
+		} else if ("offheap".equals(inMemory)) {
+			store = new OffHeapTableStore(store);
+		}
+		if (cacheBytes > 0) {
+			store = new BoundedCacheTableStore(store, cacheBytes, table);
+		}
+		store = new BloomFilteredTableStore(store, nameField);
+		resources.add((Closeable) store);
+		return store;
+	}
+
+	/**
+	 * Open the database.
+	 *
+	 * @return the DAOs for its tables
+	 * @throws IOException              on I/O error while opening the tables
+	 * @throws IllegalArgumentException if the configuration is invalid
+	 */
+	public Database open() throws IOException {
+		final List<Closeable> resources = new ArrayList<>();
+		try {
+			final AuthorDataAccessObject authors = new AuthorDataAccessObject(
+					openTable("authors", 1, resources));
+			final PublisherDataAccessObject publishers = new PublisherDataAccessObject(
+					openTable("publishers", 1, resources));
+			final BookDataAccessObject books = new BookDataAccessObject(
+					openTable("books", -1, resources), authors, publishers);
+			return new Database(authors, publishers, books, resources);
+		} catch (final IOException | RuntimeException except) {
+			Database.closeAll(resources, except);
+			throw except;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package dao;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.stream.Collectors;
+
+/**
+ * A way of storing a table, which can be chosen at run time by name (see
+ * {@link StorageConfiguration}). Implementations are discovered with
+ * {@link ServiceLoader}, so a deployment can add its own by putting a jar that
+ * lists them in "META-INF/services/dao.StorageEngine" on the class path; the
+ * built-in engines are in {@link StandardStorageEngines}. Every engine should
+ * pass the conformance tests in StorageEngineConformanceTest.
+ *
+ * @author Jonathan Lovelace
+ */
+public interface StorageEngine {
+	/**
+	 * @return the name the engine is chosen by, such as "csv"
+	 */
+	String getName();
+
+	/**
+	 * @return the suffix of the names of the files the engine keeps a table in,
+	 *         such as ".csv"
+	 */
+	String getSuffix();
+
+	/**
+	 * @return whether tables outlive the process; if not, they can't be logged or
+	 *         sharded
+	 */
+	boolean isPersistent();
+
+	/**
+	 * Open the storage for a table. This should not touch the disk; errors are
+	 * reported when the table is first used.
+	 *
+	 * @param file the file the table is or will be kept in, which is named with
+	 *             {@link #getSuffix()} (for an engine that isn't persistent, it
+	 *             may be ignored)
+	 * @return the storage for the table, which the caller closes when done if it
+	 *         is {@link java.io.Closeable}
+	 */
+	TableStore open(Path file);
+
+	/**
+	 * @return all the engines that can be found on the class path
+	 */
+	static List<StorageEngine> available() {
+		final List<StorageEngine> retval = new ArrayList<>();
+		for (final StorageEngine engine : ServiceLoader.load(StorageEngine.class)) {
+			retval.add(engine);
+		}
+		return retval;
+	}
+
+	/**
+	 * @param name the name of an engine
+	 * @return the engine by that name
+	 * @throws IllegalArgumentException if there is no such engine
+	 */
+	static StorageEngine named(final String name) {
+		final List<StorageEngine> engines = available();
+		for (final StorageEngine engine : engines) {
+			if (engine.getName().equals(name)) {
+				return engine;
+			}
+		}
+		throw new IllegalArgumentException("No storage engine named " + name
+				+ "; available: " + engines.stream().map(StorageEngine::getName)
+						.collect(Collectors.joining(", ")));
+	}
+}
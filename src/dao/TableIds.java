@@ -0,0 +1,159 @@
+package dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+import util.LongSet;
+
+/**
+ * The set of IDs in use in a table, loaded from it on first use and kept up to
+ * date as records are saved and removed through this object, so that a DAO can
+ * tell in constant time whether saving a record should add it or replace the
+ * existing one. This assumes that the table is only changed through this
+ * object.
+ *
+ * @author Jonathan Lovelace
+ */
+final class TableIds {
+	/**
+	 * The table.
+	 */
+	private final TableStore store;
+	/**
+	 * The IDs in use, or null if not yet loaded.
+	 */
+	private LongSet ids;
+
+	/**
+	 * @param store the table
+	 */
+	TableIds(final TableStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * @param record a record
+	 * @return its ID
+	 */
+	private static long idOf(final List<String> record) {
+		return Long.parseLong(record.get(0));
+	}
+
+	/**
+	 * @return the IDs in use, loaded from the table if necessary
+	 * @throws IOException on I/O error while reading the table
+	 */
+	private LongSet ids() throws IOException {
+		if (ids == null) {
+			final LongSet loaded = new LongSet();
+			try (Stream<List<String>> records = store.records()) {
+				records.forEachOrdered(record -> loaded.add(idOf(record)));
+			} catch (final NoSuchFileException except) {
+				// An empty table has no IDs
+			} catch (final UncheckedIOException except) {
+				if (!(except.getCause() instanceof NoSuchFileException)) {
+					throw except.getCause();
+				}
+			}
+			ids = loaded;
+		}
+		return ids;
+	}
+
+	/**
+	 * Add a record to the table, or replace the one with the same ID if there is
+	 * one.
+	 *
+	 * @param record the record
+	 * @throws IOException on I/O error
+	 */
+	synchronized void save(final List<String> record) throws IOException {
+		final long id = idOf(record);
+		if (ids().contains(id)) {
+			store.replace(id, record);
+		} else {
+			store.append(record);
+			ids.add(id);
+		}
+	}
+
+	/**
+	 * Add records to the table, replacing those with the same IDs as any already
+	 * there. New records are appended all together; if the same ID appears more
+	 * than once, the last record with it wins.
+	 *
+	 * @param records the records
+	 * @throws IOException on I/O error
+	 */
+	synchronized void saveAll(final List<List<String>> records) throws IOException {
+		final LongSet known = ids();
+		final LongObjectMap<List<String>> added = new LongObjectMap<>();
+		final List<List<String>> replaced = new ArrayList<>();
+		for (final List<String> record : records) {
+			final long id = idOf(record);
+			if (known.contains(id)) {
+				replaced.add(record);
+			} else {
+				added.put(id, record);
+			}
+		}
+		if (!added.isEmpty()) {
+			store.appendAll(added.values());
+			added.forEach((id, record) -> known.add(id));
+		}
+		for (final List<String> record : replaced) {
+			store.replace(idOf(record), record);
+		}
+	}
+
+	/**
+	 * Remove a record from the table.
+	 *
+	 * @param id its ID
+	 * @throws IOException on I/O error
+	 */
+	synchronized void remove(final long id) throws IOException {
+		store.remove(id);
+		if (ids != null) {
+			ids.remove(id);
+		}
+	}
+
+	/**
+	 * Repair a table that has more than one record with the same ID (as older
+	 * versions could leave when an object was saved twice), keeping only the last
+	 * record with each ID, in the place of the first. The table is only rewritten
+	 * if it has duplicates. This also loads the set of IDs.
+	 *
+	 * @return how many records were removed
+	 * @throws IOException on I/O error
+	 */
+	synchronized int deduplicate() throws IOException {
+		final LongObjectMap<List<String>> latest = new LongObjectMap<>();
+		final int[] count = { 0 };
+		try (Stream<List<String>> records = store.records()) {
+			records.forEachOrdered(record -> {
+				latest.put(idOf(record), record);
+				count[0]++;
+			});
+		} catch (final NoSuchFileException except) {
+			ids = new LongSet();
+			return 0;
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		final int removed = count[0] - latest.size();
+		if (removed > 0) {
+			store.rewrite(latest.values());
+		}
+		final LongSet loaded = new LongSet(latest.size());
+		latest.forEach((id, record) -> loaded.add(id));
+		ids = loaded;
+		return removed;
+	}
+}
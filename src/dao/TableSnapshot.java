@@ -0,0 +1,218 @@
+package dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A helper class for reading and writing binary snapshots of a table, which can
+ * be loaded much faster than the table can be parsed.
+ *
+ * <p>A snapshot consists of a marker, the fingerprint of the table it was taken
+ * from, and the number of records, followed by the records and then a CRC-32
+ * checksum of everything before it. Each record is written as its ID (as a
+ * variable-length integer), the number of remaining fields, and those fields,
+ * each as a variable-length byte count followed by that many bytes of UTF-8.
+ * A snapshot is only used if its checksum is valid and its fingerprint matches
+ * the table's current fingerprint.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class TableSnapshot {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(TableSnapshot.class.getName());
+	/**
+	 * The marker at the start of a snapshot file.
+	 */
+	private static final int MAGIC = 0x534E5031;
+
+	private TableSnapshot() {
+		// Do not instantiate
+	}
+
+	/**
+	 * Compute a fingerprint of the given files from their sizes and modification
+	 * times, to tell whether they have changed since a snapshot was taken. Missing
+	 * files contribute a fixed value.
+	 *
+	 * @param files the files the table is stored in
+	 * @return the fingerprint
+	 * @throws IOException on I/O error
+	 */
+	public static long fingerprint(final Path... files) throws IOException {
+		long retval = 17;
+		for (final Path file : files) {
+			try {
+				final BasicFileAttributes attributes = Files.readAttributes(file,
+						BasicFileAttributes.class);
+				retval = retval * 31 + attributes.size();
+				retval = retval * 31
+						+ attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+				retval = retval * 31 + Objects.hashCode(attributes.fileKey());
+			} catch (final NoSuchFileException except) {
+				retval = retval * 31 - 1;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Write a snapshot. It is written under a temporary name and then moved into
+	 * place, so a crash partway through can't leave a corrupt snapshot behind.
+	 *
+	 * @param file        the file to write the snapshot to
+	 * @param fingerprint the fingerprint of the table the records came from
+	 * @param records     the records in the table
+	 * @throws IOException on I/O error
+	 */
+	public static void write(final Path file, final long fingerprint,
+			final Collection<List<String>> records) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteBuffer header = ByteBuffer.allocate(12);
+		header.putInt(MAGIC).putLong(fingerprint);
+		out.write(header.array());
+		writeVarLong(out, records.size());
+		for (final List<String> record : records) {
+			writeVarLong(out, Long.parseLong(record.get(0)));
+			writeVarLong(out, record.size() - 1);
+			for (final String field : record.subList(1, record.size())) {
+				final byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+				writeVarLong(out, bytes.length);
+				out.write(bytes);
+			}
+		}
+		final CRC32 crc = new CRC32();
+		final byte[] contents = out.toByteArray();
+		crc.update(contents);
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(contents.length + 4);
+			buffer.put(contents).putInt((int) crc.getValue()).flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read a snapshot, if it is present, intact, and taken from the table as it
+	 * now is. The file is memory-mapped rather than read through a stream.
+	 *
+	 * @param file        the snapshot file
+	 * @param fingerprint the current fingerprint of the table
+	 * @return the records in the snapshot, or empty if it can't be used
+	 * @throws IOException on I/O error
+	 */
+	public static Optional<List<List<String>>> read(final Path file,
+			final long fingerprint) throws IOException {
+		final ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < 16 || channel.size() > Integer.MAX_VALUE) {
+				return Optional.empty();
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (final NoSuchFileException except) {
+			return Optional.empty();
+		}
+		if (buffer.getInt(0) != MAGIC || buffer.getLong(4) != fingerprint) {
+			return Optional.empty();
+		}
+		final int end = buffer.limit() - 4;
+		final CRC32 crc = new CRC32();
+		final byte[] chunk = new byte[1 << 16];
+		final ByteBuffer contents = buffer.duplicate();
+		contents.limit(end);
+		while (contents.hasRemaining()) {
+			final int count = Math.min(chunk.length, contents.remaining());
+			contents.get(chunk, 0, count);
+			crc.update(chunk, 0, count);
+		}
+		if ((int) crc.getValue() != buffer.getInt(end)) {
+			LOGGER.warning("Ignoring snapshot with bad checksum: " + file);
+			return Optional.empty();
+		}
+		buffer.position(12);
+		buffer.limit(end);
+		try {
+			final long count = readVarLong(buffer);
+			final List<List<String>> retval = new ArrayList<>((int) count);
+			for (long i = 0; i < count; i++) {
+				final long id = readVarLong(buffer);
+				final int fields = (int) readVarLong(buffer);
+				final List<String> record = new ArrayList<>(fields + 1);
+				record.add(Long.toString(id));
+				for (int j = 0; j < fields; j++) {
+					final byte[] bytes = new byte[(int) readVarLong(buffer)];
+					buffer.get(bytes);
+					record.add(new String(bytes, StandardCharsets.UTF_8));
+				}
+				retval.add(record);
+			}
+			return Optional.of(retval);
+		} catch (final RuntimeException except) {
+			LOGGER.warning("Ignoring malformed snapshot: " + file);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Write a number as a variable-length integer: seven bits per byte, least
+	 * significant first, with the high bit set on every byte but the last.
+	 * Negative numbers are zigzag-encoded first so that they stay short.
+	 *
+	 * @param out   the stream to write to
+	 * @param value the number to write
+	 */
+	static void writeVarLong(final ByteArrayOutputStream out, final long value) {
+		long remaining = (value << 1) ^ (value >> 63);
+		while ((remaining & ~0x7FL) != 0) {
+			out.write((int) ((remaining & 0x7F) | 0x80));
+			remaining >>>= 7;
+		}
+		out.write((int) remaining);
+	}
+
+	/**
+	 * Read a number written by {@link #writeVarLong(ByteArrayOutputStream, long)}.
+	 *
+	 * @param in the buffer to read from
+	 * @return the number
+	 */
+	static long readVarLong(final ByteBuffer in) {
+		long result = 0;
+		int shift = 0;
+		while (true) {
+			final byte current = in.get();
+			result |= (long) (current & 0x7F) << shift;
+			if ((current & 0x80) == 0) {
+				return (result >>> 1) ^ -(result & 1);
+			}
+			shift += 7;
+			if (shift > 63) {
+				throw new IllegalArgumentException("Malformed variable-length integer");
+			}
+		}
+	}
+}
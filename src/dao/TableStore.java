@@ -0,0 +1,193 @@
+package dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import util.LongObjectMap;
+import util.LongSet;
+
+/**
+ * An interface for the storage layer beneath the DAOs. A table is a collection
+ * of records, each a list of string fields, the first of which is the record's
+ * ID number. The DAOs convert between records and model objects; implementations
+ * of this interface decide how (and where) the records are kept.
+ *
+ * @author Jonathan Lovelace
+ */
+public interface TableStore {
+	/**
+	 * Stream all the records in the table. The stream may be made parallel.
+	 * Errors that occur while the stream is being consumed are reported as
+	 * {@link UncheckedIOException}.
+	 *
+	 * @return a stream of all the records in the table, or an empty stream if the
+	 *         table does not exist yet
+	 * @throws IOException on I/O error while starting to read
+	 */
+	Stream<List<String>> records() throws IOException;
+
+	/**
+	 * Find the record with the given ID.
+	 *
+	 * @param id the ID number to look for
+	 * @return the first record with that ID, if any
+	 * @throws IOException if the table does not exist or on other I/O error
+	 */
+	Optional<List<String>> find(long id) throws IOException;
+
+	/**
+	 * Find the records with the given IDs. The default makes one pass over the
+	 * table, stopping once it has found them all; stores that can find a record
+	 * by its ID without a scan should instead look up each one.
+	 *
+	 * @param ids the ID numbers to look for, in any order; duplicates are ignored
+	 * @return the first record with each of those IDs that is in the table, by ID
+	 * @throws IOException on I/O error
+	 */
+	default LongObjectMap<List<String>> findByIds(final long[] ids)
+			throws IOException {
+		final LongSet wanted = new LongSet(ids.length);
+		for (final long id : ids) {
+			wanted.add(id);
+		}
+		final LongObjectMap<List<String>> retval = new LongObjectMap<>();
+		if (wanted.isEmpty()) {
+			return retval;
+		}
+		try (Stream<List<String>> records = records()) {
+			final Iterator<List<String>> iterator = records.iterator();
+			while (retval.size() < wanted.size() && iterator.hasNext()) {
+				final List<String> record = iterator.next();
+				final long id = Long.parseLong(record.get(0));
+				if (wanted.contains(id) && !retval.containsKey(id)) {
+					retval.put(id, record);
+				}
+			}
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		return retval;
+	}
+
+	/**
+	 * Add a record to the table.
+	 *
+	 * @param record the record to add
+	 * @throws IOException on I/O error while writing
+	 */
+	void append(List<String> record) throws IOException;
+
+	/**
+	 * Add many records to the table at once, in order. Implementations should do
+	 * this with one write (or one batch of writes) rather than one per record; the
+	 * default simply calls {@link #append(List)} for each.
+	 *
+	 * @param records the records to add
+	 * @throws IOException on I/O error while writing
+	 */
+	default void appendAll(final List<List<String>> records) throws IOException {
+		for (final List<String> record : records) {
+			append(record);
+		}
+	}
+
+	/**
+	 * Replace the record(s) with the given ID.
+	 *
+	 * @param id     the ID of the record to replace
+	 * @param record its replacement
+	 * @throws IOException if the table does not exist or on other I/O error
+	 */
+	void replace(long id, List<String> record) throws IOException;
+
+	/**
+	 * Remove the record(s) with the given ID.
+	 *
+	 * @param id the ID of the record to remove
+	 * @throws IOException if the table does not exist or on other I/O error
+	 */
+	void remove(long id) throws IOException;
+
+	/**
+	 * Replace the entire contents of the table with the given records. This should
+	 * be atomic: if it fails partway, the table should be left as it was.
+	 *
+	 * @param records the new contents of the table
+	 * @throws IOException on I/O error
+	 */
+	void rewrite(List<List<String>> records) throws IOException;
+
+	/**
+	 * A replacement of a table's contents that has been written out but not yet
+	 * put in place; see {@link TableStore#prepareRewrite(List)}.
+	 */
+	@FunctionalInterface
+	interface StagedRewrite {
+		/**
+		 * Put the new contents in place.
+		 *
+		 * @throws IOException on I/O error
+		 */
+		void commit() throws IOException;
+
+		/**
+		 * Discard the new contents, leaving the table as it was. The default does
+		 * nothing.
+		 *
+		 * @throws IOException on I/O error while cleaning up
+		 */
+		default void abort() throws IOException {
+		}
+	}
+
+	/**
+	 * Do as much of {@link #rewrite(List)} as possible without changing the
+	 * table, so that several tables can be rewritten together with little chance
+	 * that some are changed and others not. Nothing else should change the table
+	 * until the result is committed or aborted. The default writes nothing until
+	 * it is committed, and then simply calls {@link #rewrite(List)}; stores that
+	 * rewrite through a temporary file should write it here.
+	 *
+	 * @param records the new contents of the table
+	 * @return how to put them in place, or to discard them
+	 * @throws IOException on I/O error, in which case the table is left as it was
+	 */
+	default StagedRewrite prepareRewrite(final List<List<String>> records)
+			throws IOException {
+		return () -> rewrite(records);
+	}
+
+	/**
+	 * Check, as cheaply as possible, whether any record might have the given value
+	 * in the given field, ignoring case and surrounding whitespace. A false result
+	 * must be reliable, but a true one need not be; the default always answers
+	 * true, leaving the caller to search the table.
+	 *
+	 * @param field the index of the field
+	 * @param value the value to look for
+	 * @return false if no record has that value in that field, true if some
+	 *         record might
+	 * @throws IOException on I/O error
+	 */
+	default boolean mightContain(final int field, final String value)
+			throws IOException {
+		return true;
+	}
+
+	/**
+	 * Compute a value that changes whenever the stored table changes, so that a
+	 * copy of the table taken earlier (such as a {@link TableSnapshot}) can be
+	 * checked for staleness.
+	 *
+	 * @return the fingerprint, or empty if this store cannot provide one
+	 * @throws IOException on I/O error
+	 */
+	default OptionalLong fingerprint() throws IOException {
+		return OptionalLong.empty();
+	}
+}
@@ -0,0 +1,424 @@
+package dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of changes to a table. Each change is appended to the log
+ * file and forced to disk before it is considered done (concurrent changes are
+ * forced together, by a {@link GroupCommitWriter}); the table file itself
+ * only needs to be brought up to date at a checkpoint, after which the log is
+ * emptied. After a crash, the changes made since the last checkpoint can be
+ * recovered by replaying the log.
+ *
+ * <p>The file begins with a header giving the sequence number of the last
+ * change included in the most recent checkpoint. Each entry that follows is a
+ * length, a CRC-32 checksum, and a body consisting of the entry's sequence
+ * number, its timestamp, the kind of change, and the record (as a line of CSV).
+ * An entry that is incomplete or fails its checksum marks the end of the log.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class WriteAheadLog implements Closeable {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(WriteAheadLog.class.getName());
+	/**
+	 * The marker at the start of a log file.
+	 */
+	private static final int MAGIC = 0x57414C31;
+	/**
+	 * The size of the file header: the marker and the checkpoint sequence number.
+	 */
+	static final int HEADER_SIZE = 12;
+	/**
+	 * The size of the length and checksum preceding each entry.
+	 */
+	private static final int ENTRY_PREFIX_SIZE = 8;
+
+	/**
+	 * The kinds of change that can be logged.
+	 */
+	public enum Operation {
+		/**
+		 * A record was added to the table.
+		 */
+		APPEND,
+		/**
+		 * The record with the given ID was replaced.
+		 */
+		REPLACE,
+		/**
+		 * The record with the given ID was removed; only the ID is logged.
+		 */
+		REMOVE
+	}
+
+	/**
+	 * An entry in the log.
+	 */
+	public static final class Entry {
+		/**
+		 * The entry's sequence number.
+		 */
+		private final long sequence;
+		/**
+		 * When the change was logged, in milliseconds since the epoch.
+		 */
+		private final long timestamp;
+		/**
+		 * What kind of change this was.
+		 */
+		private final Operation operation;
+		/**
+		 * The record that was added or changed, or just the ID of one removed.
+		 */
+		private final List<String> record;
+
+		Entry(final long sequence, final long timestamp, final Operation operation,
+				final List<String> record) {
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.operation = operation;
+			this.record = record;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public Operation getOperation() {
+			return operation;
+		}
+
+		public List<String> getRecord() {
+			return record;
+		}
+
+		/**
+		 * @return the ID of the record affected by the change
+		 */
+		public long getId() {
+			return Long.parseLong(record.get(0));
+		}
+	}
+
+	/**
+	 * The file the log is stored in.
+	 */
+	private final Path filename;
+	/**
+	 * What to wrap the log file in once it is opened.
+	 */
+	private final UnaryOperator<FileChannel> wrapper;
+	/**
+	 * The open log file, or null if the log has not been opened.
+	 */
+	private FileChannel channel;
+	/**
+	 * The writer that appends entries to the open log file.
+	 */
+	private GroupCommitWriter writer;
+	/**
+	 * The sequence number of the most recent entry.
+	 */
+	private long lastSequence;
+
+	/**
+	 * @param filename the file the log is or will be stored in
+	 */
+	public WriteAheadLog(final Path filename) {
+		this(filename, UnaryOperator.identity());
+	}
+
+	/**
+	 * Constructor for tests that need to interfere with writes to the log.
+	 *
+	 * @param filename the file the log is or will be stored in
+	 * @param wrapper  what to wrap the log file in once it is opened
+	 */
+	WriteAheadLog(final Path filename, final UnaryOperator<FileChannel> wrapper) {
+		this.filename = filename;
+		this.wrapper = wrapper;
+	}
+
+	/**
+	 * Open the log, creating it if necessary, and recover the entries written
+	 * since the last checkpoint. If the log ends with an incomplete entry (as
+	 * after a crash during a write), it is cut off there.
+	 *
+	 * @return the entries since the last checkpoint, in order
+	 * @throws IOException on I/O error
+	 */
+	public synchronized List<Entry> open() throws IOException {
+		if (channel != null) {
+			throw new IllegalStateException("Log is already open");
+		}
+		channel = wrapper.apply(FileChannel.open(filename, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+		final long checkpoint = readCheckpoint(channel);
+		if (checkpoint < 0) {
+			writeHeader(0);
+			writer = new GroupCommitWriter(channel, "WAL writer for " + filename);
+			return Collections.emptyList();
+		}
+		lastSequence = checkpoint;
+		final List<Entry> retval = new ArrayList<>();
+		final long end = readEntries(channel, HEADER_SIZE, entry -> {
+			if (entry.getSequence() > checkpoint) {
+				retval.add(entry);
+			}
+		});
+		if (end < channel.size()) {
+			LOGGER.warning("Discarding incomplete entry at end of " + filename);
+			channel.truncate(end);
+		}
+		if (!retval.isEmpty()) {
+			lastSequence = retval.get(retval.size() - 1).getSequence();
+		}
+		writer = new GroupCommitWriter(channel, "WAL writer for " + filename);
+		return retval;
+	}
+
+	/**
+	 * Read the checkpoint sequence number from a log file's header.
+	 *
+	 * @param channel the log file
+	 * @return the sequence number of the last checkpointed entry, or -1 if the
+	 *         file has no (valid) header
+	 * @throws IOException on I/O error
+	 */
+	static long readCheckpoint(final FileChannel channel) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				return -1;
+			}
+		}
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			return -1;
+		}
+		return header.getLong();
+	}
+
+	/**
+	 * Read complete, valid entries from a log file.
+	 *
+	 * @param channel  the log file
+	 * @param position where to start reading; must be the start of an entry
+	 * @param consumer what to do with each entry
+	 * @return the position just past the last complete, valid entry
+	 * @throws IOException on I/O error
+	 */
+	static long readEntries(final FileChannel channel, final long position,
+			final Consumer<Entry> consumer) throws IOException {
+		final ByteBuffer prefix = ByteBuffer.allocate(ENTRY_PREFIX_SIZE);
+		long current = position;
+		while (true) {
+			prefix.clear();
+			if (!readFully(channel, prefix, current)) {
+				return current;
+			}
+			prefix.flip();
+			final int length = prefix.getInt();
+			final int checksum = prefix.getInt();
+			if (length < 17 || current + ENTRY_PREFIX_SIZE + length > channel.size()) {
+				return current;
+			}
+			final ByteBuffer body = ByteBuffer.allocate(length);
+			if (!readFully(channel, body, current + ENTRY_PREFIX_SIZE)) {
+				return current;
+			}
+			final CRC32 crc = new CRC32();
+			crc.update(body.array());
+			if ((int) crc.getValue() != checksum) {
+				return current;
+			}
+			body.flip();
+			final long sequence = body.getLong();
+			final long timestamp = body.getLong();
+			final Operation operation = Operation.values()[body.get()];
+			final String line = new String(body.array(), body.position(),
+					body.remaining(), StandardCharsets.UTF_8);
+			try (PushbackReader in = new PushbackReader(new StringReader(line))) {
+				consumer.accept(new Entry(sequence, timestamp, operation,
+						CSVHelper.readCSVRecord(in)));
+			}
+			current += ENTRY_PREFIX_SIZE + length;
+		}
+	}
+
+	/**
+	 * Fill a buffer from a channel, starting at the given position.
+	 *
+	 * @param channel  the channel to read from
+	 * @param buffer   the buffer to fill
+	 * @param position where in the channel to start reading
+	 * @return false if the channel ended before the buffer was filled
+	 * @throws IOException on I/O error
+	 */
+	private static boolean readFully(final FileChannel channel, final ByteBuffer buffer,
+			final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, current);
+			if (count < 0) {
+				return false;
+			}
+			current += count;
+		}
+		return true;
+	}
+
+	/**
+	 * Encode an entry for the log file.
+	 *
+	 * @param sequence  its sequence number
+	 * @param operation the kind of change
+	 * @param record    the record affected
+	 * @return the entry, with its length and checksum, ready to write
+	 */
+	static ByteBuffer encode(final long sequence, final Operation operation,
+			final List<String> record) {
+		final byte[] line = CSVHelper.formatCSVRecord(record)
+				.getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer body = ByteBuffer.allocate(17 + line.length);
+		body.putLong(sequence).putLong(System.currentTimeMillis())
+				.put((byte) operation.ordinal()).put(line);
+		final CRC32 crc = new CRC32();
+		crc.update(body.array());
+		final ByteBuffer retval = ByteBuffer.allocate(ENTRY_PREFIX_SIZE + body.capacity());
+		retval.putInt(body.capacity()).putInt((int) crc.getValue()).put(body.array());
+		retval.flip();
+		return retval;
+	}
+
+	/**
+	 * Queue an entry to be appended to the log. Entries are written in the order
+	 * they are submitted, and are forced to disk in batches by a
+	 * {@link GroupCommitWriter}, so that many threads logging changes at once
+	 * share the cost of each force.
+	 *
+	 * @param operation the kind of change
+	 * @param record    the record affected (for removals, only its ID is needed)
+	 * @return a future that completes with the new entry's sequence number once
+	 *         it is durable
+	 */
+	public synchronized CompletableFuture<Long> submit(final Operation operation,
+			final List<String> record) {
+		if (writer == null) {
+			throw new IllegalStateException("Log is not open");
+		}
+		lastSequence++;
+		final long sequence = lastSequence;
+		return writer.submit(encode(sequence, operation, record))
+				.thenApply(ignored -> sequence);
+	}
+
+	/**
+	 * Append an entry to the log and wait until it is on disk.
+	 *
+	 * @param operation the kind of change
+	 * @param record    the record affected (for removals, only its ID is needed)
+	 * @return the new entry's sequence number
+	 * @throws IOException on I/O error
+	 */
+	public long append(final Operation operation, final List<String> record)
+			throws IOException {
+		return GroupCommitWriter.await(submit(operation, record));
+	}
+
+	/**
+	 * Wait until every entry submitted so far is on disk.
+	 *
+	 * @throws IOException if writing any of them failed
+	 */
+	public void sync() throws IOException {
+		final GroupCommitWriter current;
+		synchronized (this) {
+			if (writer == null) {
+				throw new IllegalStateException("Log is not open");
+			}
+			current = writer;
+		}
+		current.sync();
+	}
+
+	/**
+	 * Record that every entry so far has been applied to the table, and empty the
+	 * log. The caller must have made the table durable first.
+	 *
+	 * @throws IOException on I/O error
+	 */
+	public synchronized void checkpoint() throws IOException {
+		if (writer == null) {
+			throw new IllegalStateException("Log is not open");
+		}
+		writer.sync();
+		writeHeader(lastSequence);
+		channel.truncate(HEADER_SIZE);
+		channel.force(true);
+	}
+
+	/**
+	 * Write the file header.
+	 *
+	 * @param checkpoint the sequence number of the last checkpointed entry
+	 * @throws IOException on I/O error
+	 */
+	private void writeHeader(final long checkpoint) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putLong(checkpoint).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		channel.force(true);
+	}
+
+	/**
+	 * @return the sequence number of the most recent entry
+	 */
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * @return the file the log is stored in
+	 */
+	public Path getFilename() {
+		return filename;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package menu;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+import service.LibraryService;
+import service.PartialImportException;
+
+/**
+ * Runs maintenance commands non-interactively, one per line, from a script or
+ * standard input, instead of through the prompts of
+ * {@link EntityManagementMenu}. Each command is a verb, a kind of entity, and
+ * any number of "key=value" arguments; a value runs to the next " key=" or the
+ * end of the line, or may be quoted (with quotes inside doubled) to include
+ * that. Blank lines and lines starting with "#" are ignored. The commands are:
+ *
+ * <ul>
+ * <li>add book title=... isbn=... author=NAME publisher=NAME</li>
+ * <li>add author name=...</li>
+ * <li>add publisher name=... address=... phone=...</li>
+ * <li>update book id=N [title=...] [isbn=...] [author=NAME] [publisher=NAME]</li>
+ * <li>update author id=N name=...</li>
+ * <li>update publisher id=N [name=...] [address=...] [phone=...]</li>
+ * <li>remove book|author|publisher id=N (removing an author or publisher also
+ * removes their books)</li>
+ * <li>get book|author|publisher id=N</li>
+ * </ul>
+ *
+ * <p>Authors and publishers named in book commands are matched by name, and
+ * created if there are none. Runs of consecutive "add book" commands are
+ * collected and added with a single {@link LibraryService#importBooks} call,
+ * which writes them in large batches instead of one at a time; any other
+ * command ends the run, so commands still take effect in order. For each
+ * command a line is written giving its line number, "ok" or "error", how long
+ * it took (for batched commands, their share of the batch), and a message; a
+ * command that fails doesn't stop the rest. If a batch fails partway, the
+ * books it had already added are reported as added, so that only the commands
+ * reported as errors need to be run again.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BatchCommandRunner {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(BatchCommandRunner.class.getName());
+	/**
+	 * A "key=value" argument, with the value quoted or running to the next
+	 * argument or the end of the line.
+	 */
+	private static final Pattern ARGUMENT = Pattern
+			.compile("(\\w+)=(\"(?:[^\"]|\"\")*\"|.*?)(?=\\s+\\w+=|\\s*$)");
+	/**
+	 * The most "add book" commands to collect into one batch.
+	 */
+	private static final int MAX_BATCH = 10_000;
+
+	/**
+	 * A parsed command.
+	 */
+	private static final class Command {
+		/**
+		 * The line of the script it came from.
+		 */
+		final int line;
+		/**
+		 * What to do: add, update, remove, or get.
+		 */
+		final String verb;
+		/**
+		 * What kind of entity to do it to.
+		 */
+		final String kind;
+		/**
+		 * The arguments.
+		 */
+		final Map<String, String> arguments;
+
+		/**
+		 * @param line      the line of the script it came from
+		 * @param verb      what to do
+		 * @param kind      what kind of entity to do it to
+		 * @param arguments the arguments
+		 */
+		Command(final int line, final String verb, final String kind,
+				final Map<String, String> arguments) {
+			this.line = line;
+			this.verb = verb;
+			this.kind = kind;
+			this.arguments = arguments;
+		}
+
+		/**
+		 * @param key the name of an argument
+		 * @return its value
+		 * @throws IllegalArgumentException if it wasn't given
+		 */
+		String require(final String key) {
+			final String retval = arguments.get(key);
+			if (retval == null) {
+				throw new IllegalArgumentException("Missing " + key + '=');
+			}
+			return retval;
+		}
+
+		/**
+		 * @return the ID argument
+		 * @throws IllegalArgumentException if it is missing or not a number
+		 */
+		long id() {
+			try {
+				return Long.parseLong(require("id").trim());
+			} catch (final NumberFormatException except) {
+				throw new IllegalArgumentException("ID must be an integer", except);
+			}
+		}
+
+		/**
+		 * @return whether this adds a book, and so can be batched
+		 */
+		boolean isBookAddition() {
+			return "add".equals(verb) && "book".equals(kind);
+		}
+	}
+
+	/**
+	 * The service to run the commands against.
+	 */
+	private final LibraryService service;
+	/**
+	 * The stream to report results to.
+	 */
+	private final Appendable out;
+	/**
+	 * The number of commands in the current script that have succeeded.
+	 */
+	private long succeeded;
+	/**
+	 * The number of commands in the current script that have failed.
+	 */
+	private long failed;
+
+	/**
+	 * @param service the service to run the commands against
+	 * @param out     the stream to report results to
+	 */
+	public BatchCommandRunner(final LibraryService service, final Appendable out) {
+		this.service = service;
+		this.out = out;
+	}
+
+	/**
+	 * Parse a line of a script.
+	 *
+	 * @param line the line number
+	 * @param text the line
+	 * @return the command on it
+	 * @throws IllegalArgumentException if it isn't a valid command
+	 */
+	private static Command parse(final int line, final String text) {
+		final String[] words = text.trim().split("\\s+", 3);
+		if (words.length < 2) {
+			throw new IllegalArgumentException("Expected a command and a kind of entity");
+		}
+		final String verb = words[0].toLowerCase(Locale.ROOT);
+		final String kind = words[1].toLowerCase(Locale.ROOT);
+		if (!"book".equals(kind) && !"author".equals(kind) && !"publisher".equals(kind)) {
+			throw new IllegalArgumentException("Entity must be a book, author, or publisher");
+		}
+		final Map<String, String> arguments = new HashMap<>();
+		if (words.length > 2) {
+			final Matcher matcher = ARGUMENT.matcher(words[2]);
+			int end = 0;
+			while (matcher.find()) {
+				if (!words[2].substring(end, matcher.start()).trim().isEmpty()) {
+					break;
+				}
+				String value = matcher.group(2);
+				if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+					value = value.substring(1, value.length() - 1).replace("\"\"", "\"");
+				}
+				arguments.put(matcher.group(1).toLowerCase(Locale.ROOT), value);
+				end = matcher.end();
+			}
+			if (!words[2].substring(end).trim().isEmpty()) {
+				throw new IllegalArgumentException("Expected key=value arguments");
+			}
+		}
+		return new Command(line, verb, kind, arguments);
+	}
+
+	/**
+	 * Report the outcome of a command.
+	 *
+	 * @param line    the command's line number
+	 * @param ok      whether it succeeded
+	 * @param nanos   how long it took
+	 * @param message what to say about it
+	 * @throws IOException on I/O error writing the report
+	 */
+	private void report(final int line, final boolean ok, final long nanos,
+			final String message) throws IOException {
+		if (ok) {
+			succeeded++;
+		} else {
+			failed++;
+		}
+		out.append(String.format(Locale.ROOT, "%d\t%s\t%.3f ms\t%s", line,
+				ok ? "ok" : "error", nanos / 1e6, message)).append('\n');
+	}
+
+	/**
+	 * Run every command in a script.
+	 *
+	 * @param in the script
+	 * @return the number of commands that failed
+	 * @throws IOException on I/O error reading the script or writing the report
+	 *                     (errors from the database are reported as failed
+	 *                     commands instead)
+	 */
+	public long run(final Reader in) throws IOException {
+		final long start = System.nanoTime();
+		succeeded = 0;
+		failed = 0;
+		final List<Command> books = new ArrayList<>();
+		final BufferedReader reader = new BufferedReader(in);
+		int number = 0;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			number++;
+			if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+				continue;
+			}
+			final Command command;
+			try {
+				command = parse(number, line);
+			} catch (final IllegalArgumentException except) {
+				report(number, false, 0, except.getMessage());
+				continue;
+			}
+			if (command.isBookAddition()) {
+				books.add(command);
+				if (books.size() >= MAX_BATCH) {
+					addBooks(books);
+				}
+			} else {
+				addBooks(books);
+				execute(command);
+			}
+		}
+		addBooks(books);
+		out.append(String.format(Locale.ROOT, "%d commands succeeded, %d failed, in %.3f s",
+				succeeded, failed, (System.nanoTime() - start) / 1e9)).append('\n');
+		return failed;
+	}
+
+	/**
+	 * Add a run of books in one batch, then empty the list.
+	 *
+	 * @param commands the "add book" commands
+	 * @throws IOException on I/O error writing the report
+	 */
+	private void addBooks(final List<Command> commands) throws IOException {
+		if (commands.isEmpty()) {
+			return;
+		}
+		final List<Book> books = new ArrayList<>(commands.size());
+		final List<Command> valid = new ArrayList<>(commands.size());
+		for (final Command command : commands) {
+			try {
+				books.add(new Book(0, new Author(0, command.require("author")),
+						new Publisher(0, command.require("publisher")),
+						command.require("title"), command.arguments.getOrDefault("isbn", "")));
+				valid.add(command);
+			} catch (final IllegalArgumentException except) {
+				report(command.line, false, 0, except.getMessage());
+			}
+		}
+		commands.clear();
+		if (valid.isEmpty()) {
+			return;
+		}
+		final long start = System.nanoTime();
+		String error = null;
+		long imported = valid.size();
+		try {
+			service.importBooks(books.stream());
+		} catch (final PartialImportException except) {
+			LOGGER.log(Level.SEVERE, "I/O error adding books", except);
+			error = "I/O error: " + except.getCause().getMessage();
+			imported = except.getImported();
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE, "I/O error adding books", except);
+			error = "I/O error: " + except.getMessage();
+			imported = 0;
+		}
+		final long share = (System.nanoTime() - start) / valid.size();
+		for (int i = 0; i < valid.size(); i++) {
+			if (i < imported) {
+				report(valid.get(i).line, true, share,
+						"added in a batch of " + valid.size());
+			} else {
+				report(valid.get(i).line, false, share, error);
+			}
+		}
+	}
+
+	/**
+	 * Run a single command other than adding a book, and report the outcome.
+	 *
+	 * @param command the command
+	 * @throws IOException on I/O error writing the report
+	 */
+	private void execute(final Command command) throws IOException {
+		final long start = System.nanoTime();
+		String message;
+		boolean ok = true;
+		try {
+			message = dispatch(command);
+		} catch (final IllegalArgumentException except) {
+			ok = false;
+			message = except.getMessage();
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE, "I/O error running command on line " + command.line,
+					except);
+			ok = false;
+			message = "I/O error: " + except.getMessage();
+		}
+		report(command.line, ok, System.nanoTime() - start, message);
+	}
+
+	/**
+	 * Run a single command other than adding a book.
+	 *
+	 * @param command the command
+	 * @return a message describing what was done
+	 * @throws IOException              on I/O error in the database
+	 * @throws IllegalArgumentException if the command is invalid or refers to a
+	 *                                  record that isn't there
+	 */
+	private String dispatch(final Command command) throws IOException {
+		switch (command.verb) {
+		case "add":
+			if ("author".equals(command.kind)) {
+				return "added " + service.createAuthor(command.require("name"));
+			} else {
+				return "added " + service.createPublisher(command.require("name"),
+						command.arguments.getOrDefault("address", ""),
+						command.arguments.getOrDefault("phone", ""));
+			}
+		case "update":
+			return update(command);
+		case "remove": case "delete":
+			return remove(command);
+		case "get":
+			return "found " + find(command);
+		default:
+			throw new IllegalArgumentException("Unknown command " + command.verb);
+		}
+	}
+
+	/**
+	 * @param command a command naming a record by ID
+	 * @return that record
+	 * @throws IOException              on I/O error in the database
+	 * @throws IllegalArgumentException if there is no such record
+	 */
+	private Object find(final Command command) throws IOException {
+		final long id = command.id();
+		final Optional<?> retval;
+		switch (command.kind) {
+		case "book":
+			retval = service.getBookByID(id);
+			break;
+		case "author":
+			retval = service.getAuthorByID(id);
+			break;
+		default:
+			retval = service.getPublisherByID(id);
+			break;
+		}
+		return retval.orElseThrow(
+				() -> new IllegalArgumentException("No " + command.kind + " with ID " + id));
+	}
+
+	/**
+	 * @param name the name of an author
+	 * @return the first author by that name, created if there is none
+	 * @throws IOException on I/O error in the database
+	 */
+	private Author authorNamed(final String name) throws IOException {
+		final List<Author> matching = service.getAuthorsNamed(name);
+		return matching.isEmpty() ? service.createAuthor(name) : matching.get(0);
+	}
+
+	/**
+	 * @param name the name of a publisher
+	 * @return the first publisher by that name, created if there is none
+	 * @throws IOException on I/O error in the database
+	 */
+	private Publisher publisherNamed(final String name) throws IOException {
+		final List<Publisher> matching = service.getPublishersNamed(name);
+		return matching.isEmpty() ? service.createPublisher(name) : matching.get(0);
+	}
+
+	/**
+	 * @param command an "update" command
+	 * @return a message describing what was done
+	 * @throws IOException              on I/O error in the database
+	 * @throws IllegalArgumentException if there is no such record
+	 */
+	private String update(final Command command) throws IOException {
+		final Map<String, String> arguments = command.arguments;
+		final Object record = find(command);
+		if (record instanceof Book) {
+			final Book book = (Book) record;
+			if (arguments.containsKey("title")) {
+				book.setTitle(arguments.get("title"));
+			}
+			if (arguments.containsKey("isbn")) {
+				book.setIsbn(arguments.get("isbn"));
+			}
+			if (arguments.containsKey("author")) {
+				book.setAuthor(authorNamed(arguments.get("author")));
+			}
+			if (arguments.containsKey("publisher")) {
+				book.setPublisher(publisherNamed(arguments.get("publisher")));
+			}
+			service.updateBook(book);
+		} else if (record instanceof Author) {
+			final Author author = (Author) record;
+			author.setName(command.require("name"));
+			service.updateAuthor(author);
+		} else {
+			final Publisher publisher = (Publisher) record;
+			if (arguments.containsKey("name")) {
+				publisher.setName(arguments.get("name"));
+			}
+			if (arguments.containsKey("address")) {
+				publisher.setAddress(arguments.get("address"));
+			}
+			if (arguments.containsKey("phone")) {
+				publisher.setPhone(arguments.get("phone"));
+			}
+			service.updatePublisher(publisher);
+		}
+		return "updated " + record;
+	}
+
+	/**
+	 * @param command a "remove" command
+	 * @return a message describing what was done
+	 * @throws IOException              on I/O error in the database
+	 * @throws IllegalArgumentException if there is no such record
+	 */
+	private String remove(final Command command) throws IOException {
+		final Object record = find(command);
+		if (record instanceof Book) {
+			service.removeBook((Book) record);
+		} else if (record instanceof Author) {
+			service.deleteAuthor((Author) record);
+		} else {
+			service.removePublisher((Publisher) record);
+		}
+		return "removed " + record;
+	}
+}
@@ -4,23 +4,25 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.Scanner;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
-import dao.AuthorDataAccessObject;
-import dao.BookDataAccessObject;
-import dao.DataAccessObject;
-import dao.PublisherDataAccessObject;
+import dao.Database;
+import dao.StorageConfiguration;
 import model.Author;
 import model.Book;
 import model.Publisher;
 import service.LibraryService;
 import service.LibraryServiceImpl;
+import service.SharedLibraryService;
 
 /**
  * A command-line application to let the user manage the database.
@@ -34,6 +36,16 @@ public final class EntityManagementMenu {
 	 */
 	private static final Logger LOGGER = Logger
 			.getLogger(EntityManagementMenu.class.getName());
+	/**
+	 * How many users may use the menu at once in server mode, unless configured
+	 * otherwise.
+	 */
+	private static final int DEFAULT_MAX_SESSIONS = 32;
+	/**
+	 * How long, in milliseconds, a user connecting to a full server waits for a
+	 * session to end before being turned away.
+	 */
+	private static final long ADMISSION_TIMEOUT = 5_000;
 	/**
 	 * The service class used for interacting with the database.
 	 */
@@ -677,24 +689,133 @@ public final class EntityManagementMenu {
 	 * Entry point for the menu UI application.
 	 *
 	 * @param args If non-empty, the first command-line argument is taken to be the
-	 *             directory where the CSV files are stored.
+	 *             directory where the tables are stored. How they are stored is
+	 *             read from "--config=FILE", a properties file, and from any
+	 *             "--KEY=VALUE" arguments, which take precedence (see
+	 *             {@link StorageConfiguration}); for example "--engine=slotted"
+	 *             or "--books.shards=4". The older flags are still accepted:
+	 *             "--compressed" and "--slotted" choose that engine for every
+	 *             table (if both are given, "--slotted" wins), "--cache" and
+	 *             "--offheap" keep a copy of every table in memory on top of it
+	 *             ("--cache" winning), "--wal" turns on write-ahead logging, and
+	 *             "--shards=K" partitions the books table across K files. With "--batch=FILE", or "--batch" to read standard
+	 *             input, commands are run from a script instead of interactively
+	 *             (see {@link BatchCommandRunner}). With "--serve=PORT", menu
+	 *             sessions are served to up to "--max-sessions=N" (by default
+	 *             {@value #DEFAULT_MAX_SESSIONS}) users at once over TCP instead
+	 *             (see {@link LibraryServer}). With "--repair", every table
+	 *             with more than one record with the same ID (as older versions
+	 *             left when an object was saved twice) is repaired, keeping the
+	 *             most recently saved record with each ID, and the program then
+	 *             exits.
 	 */
 	public static void main(final String... args) {
-		String basePath;
-		if (args.length == 0) {
-			basePath = ".";
-		} else {
-			basePath = args[0];
-		}
-		final DataAccessObject<Author> authorDAO = new AuthorDataAccessObject(basePath + "/authors.csv");
-		final DataAccessObject<Publisher> publisherDAO = new PublisherDataAccessObject(basePath + "/publishers.csv");
-		final DataAccessObject<Book> bookDAO = new BookDataAccessObject(basePath + "/books.csv", authorDAO, publisherDAO);
-		try (InputStreamReader in = new InputStreamReader(System.in)) {
-			final EntityManagementMenu menu = new EntityManagementMenu(in, System.out,
-					new LibraryServiceImpl(bookDAO, authorDAO, publisherDAO));
-			while (menu.mainMenu()) {}
+		String basePath = ".";
+		boolean batch = false;
+		boolean repair = false;
+		String script = null;
+		int port = -1;
+		int maxSessions = DEFAULT_MAX_SESSIONS;
+		boolean compressed = false;
+		boolean slotted = false;
+		boolean cached = false;
+		boolean offHeap = false;
+		final Properties properties = new Properties();
+		final Properties overrides = new Properties();
+		try {
+			for (final String arg : args) {
+				if ("--compressed".equals(arg)) {
+					compressed = true;
+				} else if ("--slotted".equals(arg)) {
+					slotted = true;
+				} else if ("--cache".equals(arg)) {
+					cached = true;
+				} else if ("--offheap".equals(arg)) {
+					offHeap = true;
+				} else if ("--wal".equals(arg)) {
+					overrides.setProperty("wal", "true");
+				} else if (arg.startsWith("--shards=")) {
+					overrides.setProperty("books.shards",
+							arg.substring("--shards=".length()));
+				} else if ("--repair".equals(arg)) {
+					repair = true;
+				} else if ("--batch".equals(arg)) {
+					batch = true;
+				} else if (arg.startsWith("--batch=")) {
+					batch = true;
+					script = arg.substring("--batch=".length());
+				} else if (arg.startsWith("--serve=")) {
+					port = Integer.parseInt(arg.substring("--serve=".length()));
+				} else if (arg.startsWith("--max-sessions=")) {
+					maxSessions = Integer.parseInt(arg.substring("--max-sessions=".length()));
+				} else if (arg.startsWith("--config=")) {
+					try (Reader config = Files.newBufferedReader(
+							Paths.get(arg.substring("--config=".length())))) {
+						properties.load(config);
+					}
+				} else if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+					overrides.setProperty(arg.substring(2, arg.indexOf('=')),
+							arg.substring(arg.indexOf('=') + 1));
+				} else {
+					basePath = arg;
+				}
+			}
 		} catch (final IOException except) {
-			LOGGER.log(Level.SEVERE, "I/O error dealing with standard input stream", except);
+			LOGGER.log(Level.SEVERE, "I/O error reading the configuration", except);
+			return;
+		} catch (final NumberFormatException except) {
+			LOGGER.log(Level.SEVERE, "Port and session limit must be integers", except);
+			return;
+		}
+		if (slotted) {
+			overrides.setProperty("engine", "slotted");
+		} else if (compressed) {
+			overrides.setProperty("engine", "compressed");
+		}
+		if (cached) {
+			overrides.setProperty("inmemory", "heap");
+		} else if (offHeap) {
+			overrides.setProperty("inmemory", "offheap");
+		}
+		properties.putAll(overrides);
+		final Database database;
+		try {
+			database = new StorageConfiguration(Paths.get(basePath), properties).open();
+		} catch (final IOException | IllegalArgumentException except) {
+			LOGGER.log(Level.SEVERE, "Error opening the database", except);
+			return;
+		}
+		if (repair) {
+			try (Database db = database) {
+				final int duplicates = db.getAuthors().deduplicate()
+						+ db.getPublishers().deduplicate() + db.getBooks().deduplicate();
+				LOGGER.info("Removed " + duplicates + " duplicate records");
+			} catch (final IOException except) {
+				LOGGER.log(Level.SEVERE, "I/O error while removing duplicates", except);
+			}
+			return;
+		}
+		try (Database db = database;
+				Reader in = script == null ? new InputStreamReader(System.in)
+						: Files.newBufferedReader(Paths.get(script))) {
+			final LibraryService service = new LibraryServiceImpl(db.getBooks(),
+					db.getAuthors(), db.getPublishers(),
+					LibraryServiceImpl.DEFAULT_CACHE_CAPACITY);
+			if (port >= 0) {
+				try (LibraryServer server = new LibraryServer(
+						new SharedLibraryService(service), port, maxSessions,
+						ADMISSION_TIMEOUT)) {
+					server.serve();
+				}
+			} else if (batch) {
+				new BatchCommandRunner(service, System.out).run(in);
+			} else {
+				final EntityManagementMenu menu = new EntityManagementMenu(in, System.out,
+						service);
+				while (menu.mainMenu()) {}
+			}
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE, "I/O error", except);
 		}
 	}
 
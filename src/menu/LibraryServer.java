@@ -0,0 +1,380 @@
+package menu;
+
+import java.io.Closeable;
+import java.io.FilterReader;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import service.SharedLibraryService;
+
+/**
+ * Serves {@link EntityManagementMenu} sessions to many users at once over TCP,
+ * so that they share one copy of the tables (and one query cache) in one
+ * process instead of each loading and writing the files independently. It
+ * listens only on the loopback interface; users connect with any line-oriented
+ * terminal client, such as "nc localhost PORT".
+ *
+ * <p>Each session runs on its own thread from a fixed pool, against its own
+ * {@link SharedLibraryService.Session}. At most a set number of sessions run at
+ * once; a user who connects when that many are running waits up to a set time
+ * for one to end, and is then told the server is busy and disconnected, so
+ * that a crowd of users can't exhaust the server's threads or memory. That
+ * waiting happens on a small pool of its own, so that the server keeps
+ * accepting (and promptly turning away) connections meanwhile; if as many
+ * users are already waiting as there may be sessions, a new one is turned
+ * away at once. When a session ends, how many calls it made to the service and
+ * how long they took are logged.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class LibraryServer implements Closeable {
+	/**
+	 * The logger to use, to report sessions and errors.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(LibraryServer.class.getName());
+
+	/**
+	 * A reader that flushes the session's output before it blocks waiting for
+	 * input, so that the user sees each prompt before being expected to answer
+	 * it.
+	 */
+	private static final class PromptingReader extends FilterReader {
+		/**
+		 * The output to flush.
+		 */
+		private final Flushable out;
+
+		/**
+		 * @param in  the input
+		 * @param out the output to flush before reading
+		 */
+		PromptingReader(final Reader in, final Flushable out) {
+			super(in);
+			this.out = out;
+		}
+
+		@Override
+		public int read() throws IOException {
+			out.flush();
+			return super.read();
+		}
+
+		@Override
+		public int read(final char[] buffer, final int offset, final int length)
+				throws IOException {
+			out.flush();
+			return super.read(buffer, offset, length);
+		}
+	}
+
+	/**
+	 * The service the sessions share.
+	 */
+	private final SharedLibraryService service;
+	/**
+	 * The socket listening for connections.
+	 */
+	private final ServerSocket listener;
+	/**
+	 * The threads running sessions.
+	 */
+	private final ExecutorService sessions;
+	/**
+	 * The threads on which connections wait for a session to end.
+	 */
+	private final ExecutorService waiting;
+	/**
+	 * The most connections that may wait for a session to end at once.
+	 */
+	private final int maxWaiting;
+	/**
+	 * How many connections are waiting for a session to end.
+	 */
+	private final AtomicInteger waitingCount = new AtomicInteger();
+	/**
+	 * A permit for each session that may run at once, handed out in the order
+	 * connections asked for them.
+	 */
+	private final Semaphore admission;
+	/**
+	 * How long a new connection may wait for a permit, in milliseconds.
+	 */
+	private final long admissionTimeout;
+	/**
+	 * The connections of the sessions now running or waiting to run, so that
+	 * closing the server can end them.
+	 */
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	/**
+	 * How many sessions have been started, to number them.
+	 */
+	private final AtomicInteger started = new AtomicInteger();
+	/**
+	 * How many connections have been turned away.
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param service          the service the sessions should share
+	 * @param port             the port to listen on, or 0 for any free port
+	 * @param maxSessions      the most sessions to run at once
+	 * @param admissionTimeout how long, in milliseconds, a connection may wait
+	 *                         for a running session to end before being turned
+	 *                         away
+	 * @throws IOException if the port can't be listened on
+	 */
+	public LibraryServer(final SharedLibraryService service, final int port,
+			final int maxSessions, final long admissionTimeout) throws IOException {
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("Must allow at least one session");
+		}
+		this.service = service;
+		this.admissionTimeout = admissionTimeout;
+		admission = new Semaphore(maxSessions, true);
+		listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		sessions = Executors.newFixedThreadPool(maxSessions, threads("library-session-"));
+		waiting = Executors.newCachedThreadPool(threads("library-admission-"));
+		maxWaiting = maxSessions;
+	}
+
+	/**
+	 * @param prefix the start of the name of each thread
+	 * @return a factory for daemon threads named with that prefix and a number
+	 */
+	private static ThreadFactory threads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return task -> {
+			final Thread thread = new Thread(task, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return listener.getLocalPort();
+	}
+
+	/**
+	 * @return how many connections have been turned away because too many
+	 *         sessions were running
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Accept connections and start sessions for them until the server is closed.
+	 *
+	 * @throws IOException on I/O error while listening, other than the server
+	 *                     being closed
+	 */
+	public void serve() throws IOException {
+		LOGGER.info("Listening on port " + getPort());
+		while (!listener.isClosed()) {
+			final Socket connection;
+			try {
+				connection = listener.accept();
+			} catch (final SocketException except) {
+				if (listener.isClosed()) {
+					return;
+				}
+				throw except;
+			}
+			admit(connection);
+		}
+	}
+
+	/**
+	 * Start a session for a new connection if one can be started at once, or else
+	 * have it wait for one on another thread, or turn it away if too many are
+	 * already waiting. This never blocks.
+	 *
+	 * @param connection the new connection
+	 */
+	private void admit(final Socket connection) {
+		connections.add(connection);
+		boolean admitted = false;
+		try {
+			// Unlike tryAcquire(), this doesn't take a permit ahead of a waiting user
+			admitted = admission.tryAcquire(0, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+		}
+		if (admitted) {
+			start(connection);
+			return;
+		}
+		if (waitingCount.incrementAndGet() > maxWaiting) {
+			waitingCount.decrementAndGet();
+			turnAway(connection);
+			return;
+		}
+		try {
+			waiting.execute(() -> {
+				try {
+					await(connection);
+				} finally {
+					waitingCount.decrementAndGet();
+				}
+			});
+		} catch (final RejectedExecutionException except) {
+			// The server was closed
+			waitingCount.decrementAndGet();
+			turnAway(connection);
+		}
+	}
+
+	/**
+	 * Wait for a running session to end so that a new connection can have a
+	 * session, and start it, or tell the user the server is busy and disconnect
+	 * if none ends in time.
+	 *
+	 * @param connection the new connection
+	 */
+	private void await(final Socket connection) {
+		boolean admitted = false;
+		try {
+			admitted = admission.tryAcquire(admissionTimeout, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+		}
+		if (admitted) {
+			start(connection);
+		} else {
+			turnAway(connection);
+		}
+	}
+
+	/**
+	 * Tell the user of a connection that the server is busy, and disconnect.
+	 *
+	 * @param connection the connection
+	 */
+	private void turnAway(final Socket connection) {
+		connections.remove(connection);
+		if (listener.isClosed()) {
+			closeQuietly(connection);
+			return;
+		}
+		rejected.incrementAndGet();
+		LOGGER.warning("Too many sessions; turning away "
+				+ connection.getRemoteSocketAddress());
+		try (Socket busy = connection; Writer out = new OutputStreamWriter(
+				busy.getOutputStream(), StandardCharsets.UTF_8)) {
+			out.write("Server busy; try again later" + System.lineSeparator());
+		} catch (final IOException except) {
+			LOGGER.log(Level.FINE, "I/O error turning away a connection", except);
+		}
+	}
+
+	/**
+	 * Start a session for a connection that has been given a permit.
+	 *
+	 * @param connection the connection
+	 */
+	private void start(final Socket connection) {
+		final int number = started.incrementAndGet();
+		try {
+			sessions.execute(() -> runSession(number, connection, () -> {
+				connections.remove(connection);
+				admission.release();
+			}));
+		} catch (final RuntimeException except) {
+			// The server was closed while the connection waited
+			connections.remove(connection);
+			admission.release();
+			closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Run a menu session over a connection until the user quits or disconnects.
+	 *
+	 * @param number     the session's number, for the log
+	 * @param connection the connection
+	 * @param ended      what to do once the connection is closed, before the
+	 *                   session is logged, so that the next user needn't wait
+	 *                   for the log
+	 */
+	private void runSession(final int number, final Socket connection,
+			final Runnable ended) {
+		final SharedLibraryService.Session session = service.openSession();
+		final long start = System.nanoTime();
+		LOGGER.info("Session " + number + " started from "
+				+ connection.getRemoteSocketAddress());
+		// Closing the input would close the socket before the last output was
+		// flushed, so only the output and the socket itself are closed.
+		try (Socket socket = connection;
+				Writer out = new OutputStreamWriter(socket.getOutputStream(),
+						StandardCharsets.UTF_8)) {
+			final Reader in = new PromptingReader(new InputStreamReader(
+					socket.getInputStream(), StandardCharsets.UTF_8), out);
+			final EntityManagementMenu menu = new EntityManagementMenu(in, out, session);
+			while (menu.mainMenu()) {}
+		} catch (final NoSuchElementException except) {
+			LOGGER.fine("Session " + number + " disconnected");
+		} catch (final IOException except) {
+			LOGGER.log(Level.WARNING, "I/O error in session " + number, except);
+		} catch (final RuntimeException except) {
+			LOGGER.log(Level.SEVERE, "Session " + number + " failed", except);
+		} finally {
+			ended.run();
+		}
+		LOGGER.info(String.format("Session %d ended after %.1f s: %s", number,
+				(System.nanoTime() - start) / 1e9, session));
+	}
+
+	/**
+	 * @param socket a socket to close, ignoring any error
+	 */
+	private static void closeQuietly(final Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException except) {
+			LOGGER.log(Level.FINE, "I/O error closing a connection", except);
+		}
+	}
+
+	/**
+	 * Stop accepting connections, and end every running session.
+	 *
+	 * @throws IOException on I/O error closing the listening socket
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			listener.close();
+		} finally {
+			waiting.shutdownNow();
+			sessions.shutdown();
+			for (final Socket connection : connections) {
+				closeQuietly(connection);
+			}
+		}
+	}
+}
@@ -38,6 +38,15 @@ public final class Author {
 		this(id, "");
 	}
 
+	/**
+	 * Copy an author, so that the copy can be changed without affecting the
+	 * original.
+	 * @param other the author to copy
+	 */
+	public Author(final Author other) {
+		this(other.id, other.name);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -58,6 +58,16 @@ public final class Book {
 		this.isbn = isbn;
 	}
 
+	/**
+	 * Copy a book, along with its author and publisher, so that the copy can be
+	 * changed without affecting the original.
+	 * @param other the book to copy
+	 */
+	public Book(final Book other) {
+		this(other.id, new Author(other.author), new Publisher(other.publisher),
+				other.title, other.isbn);
+	}
+
 	public String getTitle() {
 		return title;
 	}
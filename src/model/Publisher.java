@@ -30,6 +30,15 @@ public final class Publisher {
 		this.phone = phone;
 	}
 
+	/**
+	 * Copy a publisher, so that the copy can be changed without affecting the
+	 * original.
+	 * @param other the publisher to copy
+	 */
+	public Publisher(final Publisher other) {
+		this(other.id, other.name, other.address, other.phone);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -0,0 +1,218 @@
+package service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dao.AuthorDataAccessObject;
+import dao.BlockCompressedTableStore;
+import dao.BookDataAccessObject;
+import dao.CSVTableStore;
+import dao.PublisherDataAccessObject;
+import dao.ReplicaTableStore;
+import dao.TableStore;
+import service.QueryCache.Table;
+
+/**
+ * A read-only copy of the database kept in another directory by another
+ * process (the primary), for serving reads (such as reports) without loading
+ * the primary. The tables are held in memory and brought up to date by
+ * {@link #refresh()}, either on demand or periodically once {@link #start(long)}
+ * is called; if the primary keeps write-ahead logs ("*.wal"), only the changes
+ * since the last refresh are read. The directory can be the primary's own, or a
+ * copy that its files are shipped to (tables before logs). Sharded tables are
+ * not supported.
+ *
+ * <p>Queries go through {@link #getService()}; anything that would change the
+ * database throws {@link UnsupportedOperationException}. A refresh waits for
+ * running queries to finish, and queries wait for a refresh to finish, so a
+ * query sees the copy as one refresh or another left it, never partway through
+ * one. Within a refresh the tables are read one after another, books first, so
+ * the copy has the author and publisher of every book the primary had added;
+ * but if the primary removes an author or publisher (and their books) while a
+ * refresh is reading the tables, queries about those books may fail until the
+ * next refresh.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class LibraryReplica implements Closeable {
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOGGER = Logger.getLogger(LibraryReplica.class.getName());
+	/**
+	 * The copy of the books table.
+	 */
+	private final ReplicaTableStore books;
+	/**
+	 * The copy of the authors table.
+	 */
+	private final ReplicaTableStore authors;
+	/**
+	 * The copy of the publishers table.
+	 */
+	private final ReplicaTableStore publishers;
+	/**
+	 * Whether the copy has been refreshed successfully.
+	 */
+	private volatile boolean refreshed;
+	/**
+	 * The service answering queries from the copies.
+	 */
+	private final LibraryServiceImpl service;
+	/**
+	 * Held shared by queries and exclusively by refreshes.
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * The view of the service that holds that lock around each query.
+	 */
+	private final SharedLibraryService shared;
+	/**
+	 * The executor running periodic refreshes, or null if not started.
+	 */
+	private ScheduledExecutorService executor;
+
+	/**
+	 * @param directory  the directory holding the primary's tables
+	 * @param compressed whether the primary keeps them block-compressed
+	 */
+	public LibraryReplica(final Path directory, final boolean compressed) {
+		books = openTable(directory, "books", compressed);
+		authors = openTable(directory, "authors", compressed);
+		publishers = openTable(directory, "publishers", compressed);
+		final AuthorDataAccessObject authorDAO = new AuthorDataAccessObject(authors);
+		final PublisherDataAccessObject publisherDAO =
+				new PublisherDataAccessObject(publishers);
+		service = new LibraryServiceImpl(
+				new BookDataAccessObject(books, authorDAO, publisherDAO), authorDAO,
+				publisherDAO, LibraryServiceImpl.DEFAULT_CACHE_CAPACITY);
+		shared = new SharedLibraryService(service, lock);
+	}
+
+	/**
+	 * @param directory  the directory holding the primary's tables
+	 * @param table      the name of the table
+	 * @param compressed whether the primary keeps it block-compressed
+	 * @return a replica of it
+	 */
+	private static ReplicaTableStore openTable(final Path directory,
+			final String table, final boolean compressed) {
+		final TableStore store;
+		if (compressed) {
+			store = new BlockCompressedTableStore(directory.resolve(table + ".csv.z"));
+		} else {
+			store = new CSVTableStore(directory.resolve(table + ".csv"));
+		}
+		return new ReplicaTableStore(store, directory.resolve(table + ".wal"));
+	}
+
+	/**
+	 * Bring the copy up to date with the primary's files, waiting for any
+	 * running queries to finish first and holding up any others until done.
+	 *
+	 * @return whether anything changed
+	 * @throws IOException on I/O error while reading them
+	 */
+	public synchronized boolean refresh() throws IOException {
+		final ReplicaTableStore[] tables = { books, authors, publishers };
+		final boolean[] changed = new boolean[tables.length];
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < tables.length; i++) {
+				changed[i] = tables[i].refresh();
+			}
+			if (changed[0]) {
+				service.changedElsewhere(Table.BOOKS);
+			}
+			if (changed[1]) {
+				service.changedElsewhere(Table.AUTHORS);
+			}
+			if (changed[2]) {
+				service.changedElsewhere(Table.PUBLISHERS);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		refreshed = true;
+		return changed[0] || changed[1] || changed[2];
+	}
+
+	/**
+	 * Start refreshing the copy periodically, in the background. Errors are
+	 * logged, and the next refresh tries again.
+	 *
+	 * @param intervalMillis how long to wait between refreshes, in milliseconds
+	 */
+	public synchronized void start(final long intervalMillis) {
+		if (executor != null) {
+			throw new IllegalStateException("Already started");
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(task -> {
+			final Thread thread = new Thread(task, "library-replica");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (final IOException except) {
+				LOGGER.log(Level.WARNING, "I/O error refreshing replica", except);
+			}
+		}, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return a view of the service answering queries from the copy, for use by
+	 *         one thread at a time
+	 */
+	public LibraryService getService() {
+		return shared.openSession();
+	}
+
+	/**
+	 * The replication lag: how far behind the primary the copy is, which is how
+	 * long ago the primary made the oldest change the copy doesn't have yet (see
+	 * {@link ReplicaTableStore#getPendingSince()}), or 0 if it has them all. So
+	 * after a long quiet spell, one new change shows as a lag of how long ago it
+	 * was made, not of the whole quiet spell.
+	 *
+	 * @return the lag, in milliseconds, or -1 if the copy has never been
+	 *         refreshed
+	 * @throws IOException on I/O error while checking the primary's files
+	 */
+	public long getLag() throws IOException {
+		if (!refreshed) {
+			return -1;
+		}
+		final long now = System.currentTimeMillis();
+		long retval = 0;
+		for (final ReplicaTableStore table : new ReplicaTableStore[] { books, authors,
+				publishers }) {
+			final long pending = table.getPendingSince();
+			if (pending > 0) {
+				// The primary's clock may be a little ahead of ours
+				retval = Math.max(retval, Math.max(now - pending, 0));
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Stop refreshing the copy in the background, if started.
+	 */
+	@Override
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package service;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import model.Author;
 import model.Book;
@@ -91,6 +92,25 @@ public interface LibraryService {
 	Book createBook(String title, String isbn, String authorName, String publisherName)
 			throws IOException;
 
+	/**
+	 * Add many books at once, as if by calling
+	 * {@link #createBook(String, String, String, String)} for each, but far
+	 * faster: authors and publishers are matched by name against those already in
+	 * the database (or added earlier in the same import), new ones are created as
+	 * needed, and records are written in large batches. Only the books' titles
+	 * and ISBNs, their authors' names, and their publishers' names, addresses,
+	 * and phone numbers are used; all IDs are assigned anew. The stream is
+	 * consumed incrementally, so the memory needed depends on the number of
+	 * distinct authors and publishers, not on the number of books.
+	 *
+	 * @param books the books to add
+	 * @return the number of books added
+	 * @throws IOException on I/O error while interacting with the database; if
+	 *                     some books had already been added, a
+	 *                     {@link PartialImportException} saying how many
+	 */
+	long importBooks(Stream<Book> books) throws IOException;
+
 	/**
 	 * Get all authors in the database.
 	 *
@@ -228,6 +248,81 @@ public interface LibraryService {
 	 */
 	List<Book> getBooksMatching(String pattern, boolean global) throws IOException;
 
+	/**
+	 * Suggest completions for a partly-typed book title, from an ordered index of
+	 * the titles in the database.
+	 *
+	 * @param prefix the beginning of a title, compared case-insensitively
+	 * @param limit  the most completions to return
+	 * @return up to that many distinct titles beginning with the prefix, in
+	 *         case-insensitive alphabetical order
+	 * @throws IOException on I/O error while interacting with the database
+	 */
+	List<String> completeTitles(String prefix, int limit) throws IOException;
+
+	/**
+	 * Suggest completions for a partly-typed author name, from an ordered index of
+	 * the names in the database.
+	 *
+	 * @param prefix the beginning of a name, compared case-insensitively
+	 * @param limit  the most completions to return
+	 * @return up to that many distinct names beginning with the prefix, in
+	 *         case-insensitive alphabetical order
+	 * @throws IOException on I/O error while interacting with the database
+	 */
+	List<String> completeAuthorNames(String prefix, int limit) throws IOException;
+
+	/**
+	 * Get the books whose titles fall in a range, in case-insensitive
+	 * alphabetical order of title. The upper end is treated as a prefix, so that
+	 * the range from "A" to "C" includes titles beginning with "C".
+	 *
+	 * @param from the lowest title to include, or null to start at the beginning
+	 * @param to   the prefix of the highest titles to include, or null to continue
+	 *             to the end
+	 * @return the books in that range
+	 * @throws IOException on I/O error while interacting with the database
+	 */
+	List<Book> getBooksByTitleRange(String from, String to) throws IOException;
+
+	/**
+	 * Get the authors whose names fall in a range, in case-insensitive
+	 * alphabetical order of name. The upper end is treated as a prefix, as in
+	 * {@link #getBooksByTitleRange(String, String)}.
+	 *
+	 * @param from the lowest name to include, or null to start at the beginning
+	 * @param to   the prefix of the highest names to include, or null to continue
+	 *             to the end
+	 * @return the authors in that range
+	 * @throws IOException on I/O error while interacting with the database
+	 */
+	List<Author> getAuthorsByNameRange(String from, String to) throws IOException;
+
+	/**
+	 * Search book titles, tolerating typos: titles are ranked by how many
+	 * three-letter sequences they share with the query, and only the best are
+	 * returned.
+	 *
+	 * @param query what to search for
+	 * @param limit the most books to return
+	 * @return up to that many books whose titles resemble the query, best match
+	 *         first
+	 * @throws IOException on I/O error while interacting with the database
+	 */
+	List<Book> searchBooksFuzzy(String query, int limit) throws IOException;
+
+	/**
+	 * Search author names, tolerating typos, as in
+	 * {@link #searchBooksFuzzy(String, int)}.
+	 *
+	 * @param query what to search for
+	 * @param limit the most authors to return
+	 * @return up to that many authors whose names resemble the query, best match
+	 *         first
+	 * @throws IOException on I/O error while interacting with the database
+	 */
+	List<Author> searchAuthorsFuzzy(String query, int limit) throws IOException;
+
 	/**
 	 * Change the given author's record in the database to match its current state.
 	 *
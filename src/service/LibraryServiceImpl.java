@@ -2,15 +2,27 @@ package service;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import dao.DataAccessObject;
 import model.Author;
 import model.Book;
 import model.Publisher;
+import service.QueryCache.Table;
 
 /**
  * An implementation of the service-class interface, to stand between the DAO
@@ -21,16 +33,132 @@ import model.Publisher;
  */
 public final class LibraryServiceImpl implements LibraryService {
 
+	/**
+	 * How many books to write at a time in {@link #importBooks(Stream)}.
+	 */
+	private static final int IMPORT_BATCH_SIZE = 10_000;
+	/**
+	 * The fraction of the trigrams of a fuzzy-search query that a title or name
+	 * must contain to be returned.
+	 */
+	private static final double FUZZY_MIN_SHARE = 0.5;
+	/**
+	 * The number of query results to cache when the service owns its tables.
+	 */
+	public static final int DEFAULT_CACHE_CAPACITY = 256;
+	/**
+	 * The tables queries about books depend on, since books are joined with their
+	 * authors and publishers.
+	 */
+	private static final EnumSet<Table> BOOK_TABLES = EnumSet.allOf(Table.class);
+
 	private final DataAccessObject<Book> bookDAO;
 	private final DataAccessObject<Author> authorDAO;
 	private final DataAccessObject<Publisher> publisherDAO;
 
+	/**
+	 * The index of book titles, or null if not yet built.
+	 */
+	private SortedIndex titleIndex;
+	/**
+	 * The index of author names, or null if not yet built.
+	 */
+	private SortedIndex authorIndex;
+	/**
+	 * The trigram index of book titles, or null if not yet built.
+	 */
+	private TrigramIndex titleTrigrams;
+	/**
+	 * The trigram index of author names, or null if not yet built.
+	 */
+	private TrigramIndex authorTrigrams;
+	/**
+	 * Results of recent queries.
+	 */
+	private final QueryCache cache;
+
+	/**
+	 * Construct the service without a cache of query results, since the DAOs may
+	 * be changed by something other than this object.
+	 *
+	 * @param bookDAO      the DAO for the book table
+	 * @param authorDAO    the DAO for the author table
+	 * @param publisherDAO the DAO for the publisher table
+	 */
 	public LibraryServiceImpl(final DataAccessObject<Book> bookDAO,
 			final DataAccessObject<Author> authorDAO,
 			final DataAccessObject<Publisher> publisherDAO) {
+		this(bookDAO, authorDAO, publisherDAO, 0);
+	}
+
+	/**
+	 * Construct the service with a cache of query results, which is only correct
+	 * if all changes to the tables are made through this object.
+	 *
+	 * @param bookDAO       the DAO for the book table
+	 * @param authorDAO     the DAO for the author table
+	 * @param publisherDAO  the DAO for the publisher table
+	 * @param cacheCapacity how many query results to cache, or 0 not to cache any
+	 */
+	public LibraryServiceImpl(final DataAccessObject<Book> bookDAO,
+			final DataAccessObject<Author> authorDAO,
+			final DataAccessObject<Publisher> publisherDAO, final int cacheCapacity) {
 		this.bookDAO = bookDAO;
 		this.publisherDAO = publisherDAO;
 		this.authorDAO = authorDAO;
+		cache = new QueryCache(cacheCapacity);
+	}
+
+	/**
+	 * Note that tables have changed, so cached query results that depend on them
+	 * are no longer used. This must be called after the change is made, so that a
+	 * query running alongside it can't cache what it read before the change as
+	 * current.
+	 *
+	 * @param tables the tables that changed
+	 */
+	private void changed(final Table... tables) {
+		for (final Table table : tables) {
+			cache.invalidate(table);
+		}
+	}
+
+	/**
+	 * Note that tables have been changed other than through this object, so that
+	 * cached query results and the indexes (rebuilt on next use) are no longer
+	 * used.
+	 *
+	 * @param tables the tables that changed
+	 */
+	synchronized void changedElsewhere(final Table... tables) {
+		changed(tables);
+		for (final Table table : tables) {
+			if (table == Table.BOOKS) {
+				titleIndex = null;
+				titleTrigrams = null;
+			} else if (table == Table.AUTHORS) {
+				authorIndex = null;
+				authorTrigrams = null;
+			}
+		}
+	}
+
+	/**
+	 * Scan a table in parallel for the records matching a condition.
+	 *
+	 * @param <T>    the type of record in the table
+	 * @param dao    the DAO for the table
+	 * @param filter the condition
+	 * @return the matching records, in table order
+	 * @throws IOException on I/O error while reading the table
+	 */
+	private static <T> List<T> search(final DataAccessObject<T> dao,
+			final Predicate<? super T> filter) throws IOException {
+		try {
+			return dao.stream().parallel().filter(filter).collect(Collectors.toList());
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
 	}
 
 	// TODO: Add maxID field to DAO interface?
@@ -45,6 +173,8 @@ public final class LibraryServiceImpl implements LibraryService {
 		}
 		final Author author = new Author(maxID + 1, authorName);
 		authorDAO.save(author);
+		changed(Table.AUTHORS);
+		indexAuthor(author);
 		return author;
 	}
 
@@ -62,6 +192,7 @@ public final class LibraryServiceImpl implements LibraryService {
 		final Publisher publisher = new Publisher(maxID + 1, publisherName,
 				publisherAddress, publisherPhone);
 		publisherDAO.save(publisher);
+		changed(Table.PUBLISHERS);
 		return publisher;
 	}
 
@@ -70,9 +201,12 @@ public final class LibraryServiceImpl implements LibraryService {
 			final Publisher publisher) throws IOException {
 		if (!authorDAO.find(author.getId()).isPresent()) {
 			authorDAO.save(author);
+			changed(Table.AUTHORS);
+			indexAuthor(author);
 		}
 		if (!publisherDAO.find(publisher.getId()).isPresent()) {
 			publisherDAO.save(publisher);
+			changed(Table.PUBLISHERS);
 		}
 		long maxID;
 		try {
@@ -82,6 +216,8 @@ public final class LibraryServiceImpl implements LibraryService {
 		}
 		final Book book = new Book(maxID + 1, author, publisher, title, isbn);
 		bookDAO.save(book);
+		changed(Table.BOOKS);
+		indexBook(book);
 		return book;
 	}
 
@@ -106,38 +242,170 @@ public final class LibraryServiceImpl implements LibraryService {
 				bookDAO.findAll().stream().mapToLong(Book::getId).max().orElse(0L) + 1,
 				author, publisher, title, isbn);
 		bookDAO.save(book);
+		changed(Table.BOOKS);
+		indexBook(book);
 		return book;
 	}
 
+	/**
+	 * Find the highest ID in a table.
+	 *
+	 * @param <T>  the type of record in the table
+	 * @param dao  the DAO for the table
+	 * @param idOf how to get a record's ID
+	 * @return the highest ID in the table, or 0 if it is empty or doesn't exist
+	 * @throws IOException on I/O error while reading the table
+	 */
+	private static <T> long maxID(final DataAccessObject<T> dao,
+			final ToLongFunction<T> idOf) throws IOException {
+		try (Stream<T> stream = dao.stream()) {
+			return stream.mapToLong(idOf).max().orElse(0L);
+		} catch (final UncheckedIOException except) {
+			if (except.getCause() instanceof NoSuchFileException) {
+				return 0L;
+			}
+			throw except.getCause();
+		} catch (final FileNotFoundException|NoSuchFileException except) {
+			return 0L;
+		}
+	}
+
+	@Override
+	public long importBooks(final Stream<Book> books) throws IOException {
+		final Map<String, Author> authors = new HashMap<>();
+		for (final Author author : authorDAO.findAll()) {
+			authors.putIfAbsent(author.getName(), author);
+		}
+		final Map<String, Publisher> publishers = new HashMap<>();
+		for (final Publisher publisher : publisherDAO.findAll()) {
+			publishers.putIfAbsent(publisher.getName(), publisher);
+		}
+		long maxAuthorID = maxID(authorDAO, Author::getId);
+		long maxPublisherID = maxID(publisherDAO, Publisher::getId);
+		long maxBookID = maxID(bookDAO, Book::getId);
+		final List<Author> newAuthors = new ArrayList<>();
+		final List<Publisher> newPublishers = new ArrayList<>();
+		final List<Book> batch = new ArrayList<>();
+		long count = 0;
+		try {
+			final Iterator<Book> iterator = books.iterator();
+			while (iterator.hasNext()) {
+				final Book template = iterator.next();
+				final String authorName = template.getAuthor().getName();
+				Author author = authors.get(authorName);
+				if (author == null) {
+					maxAuthorID++;
+					author = new Author(maxAuthorID, authorName);
+					authors.put(authorName, author);
+					newAuthors.add(author);
+				}
+				final Publisher original = template.getPublisher();
+				Publisher publisher = publishers.get(original.getName());
+				if (publisher == null) {
+					maxPublisherID++;
+					publisher = new Publisher(maxPublisherID, original.getName(),
+							original.getAddress(), original.getPhone());
+					publishers.put(original.getName(), publisher);
+					newPublishers.add(publisher);
+				}
+				maxBookID++;
+				batch.add(new Book(maxBookID, author, publisher, template.getTitle(),
+						template.getIsbn()));
+				if (batch.size() >= IMPORT_BATCH_SIZE) {
+					count += flushImport(newAuthors, newPublishers, batch);
+				}
+			}
+			return count + flushImport(newAuthors, newPublishers, batch);
+		} catch (final UncheckedIOException except) {
+			throw importFailure(count, except.getCause());
+		} catch (final IOException except) {
+			throw importFailure(count, except);
+		}
+	}
+
+	/**
+	 * @param imported how many books an import had added when it failed
+	 * @param cause    why it failed
+	 * @return the exception to report the failure with
+	 */
+	private static IOException importFailure(final long imported,
+			final IOException cause) {
+		return imported == 0 ? cause : new PartialImportException(imported, cause);
+	}
+
+	/**
+	 * Write a batch of imported records, authors and publishers first so that the
+	 * books never refer to records that aren't there, then clear the lists.
+	 *
+	 * @param authors    new authors to add
+	 * @param publishers new publishers to add
+	 * @param books      new books to add
+	 * @return the number of books written
+	 * @throws IOException on I/O error while writing
+	 */
+	private long flushImport(final List<Author> authors,
+			final List<Publisher> publishers, final List<Book> books)
+			throws IOException {
+		if (!authors.isEmpty()) {
+			authorDAO.saveAll(authors);
+			changed(Table.AUTHORS);
+			authors.forEach(this::indexAuthor);
+			authors.clear();
+		}
+		if (!publishers.isEmpty()) {
+			publisherDAO.saveAll(publishers);
+			changed(Table.PUBLISHERS);
+			publishers.clear();
+		}
+		final long retval = books.size();
+		if (!books.isEmpty()) {
+			bookDAO.saveAll(books);
+			changed(Table.BOOKS);
+			books.forEach(this::indexBook);
+			books.clear();
+		}
+		return retval;
+	}
+
 	@Override
 	public List<Author> getAllAuthors() throws IOException {
-		return authorDAO.findAll();
+		return cache.get(EnumSet.of(Table.AUTHORS), authorDAO::findAll,
+				"getAllAuthors");
 	}
 
 	@Override
 	public List<Author> getAuthorsNamed(final String name) throws IOException {
-		return authorDAO.findAll().stream()
-				.filter(author -> name.equals(author.getName()))
-				.collect(Collectors.toList());
+		if (!authorDAO.mightContainName(name)) {
+			return new ArrayList<>();
+		}
+		return cache.get(EnumSet.of(Table.AUTHORS),
+				() -> search(authorDAO, author -> name.equals(author.getName())),
+				"getAuthorsNamed", name);
 	}
 
 	@Override
 	public List<Author> getAuthorsMatching(final String pattern) throws IOException {
-		return authorDAO.findAll().stream().filter(
-				author -> author.getName().toLowerCase().contains(pattern.toLowerCase()))
-				.collect(Collectors.toList());
+		final String lowered = pattern.toLowerCase();
+		return cache.get(EnumSet.of(Table.AUTHORS),
+				() -> search(authorDAO,
+						author -> author.getName().toLowerCase().contains(lowered)),
+				"getAuthorsMatching", lowered);
 	}
 
 	@Override
 	public List<Publisher> getAllPublishers() throws IOException {
-		return publisherDAO.findAll();
+		return cache.get(EnumSet.of(Table.PUBLISHERS), publisherDAO::findAll,
+				"getAllPublishers");
 	}
 
 	@Override
 	public List<Publisher> getPublishersNamed(final String name) throws IOException {
-		return publisherDAO.findAll().stream()
-				.filter(publisher -> name.equals(publisher.getName()))
-				.collect(Collectors.toList());
+		if (!publisherDAO.mightContainName(name)) {
+			return new ArrayList<>();
+		}
+		return cache.get(EnumSet.of(Table.PUBLISHERS),
+				() -> search(publisherDAO, publisher -> name.equals(publisher.getName())),
+				"getPublishersNamed", name);
 	}
 
 	/**
@@ -157,40 +425,47 @@ public final class LibraryServiceImpl implements LibraryService {
 	@Override
 	public List<Publisher> getPublishersMatching(final String pattern,
 			final boolean global) throws IOException {
+		final String lowered = pattern.toLowerCase();
 		if (global) {
-			return publisherDAO.findAll().stream().filter(
-					publisher -> publisherMatches(publisher, pattern.toLowerCase()))
-					.collect(Collectors.toList());
+			return cache.get(EnumSet.of(Table.PUBLISHERS),
+					() -> search(publisherDAO,
+							publisher -> publisherMatches(publisher, lowered)),
+					"getPublishersMatching", lowered, true);
 		} else {
-			return publisherDAO.findAll().stream()
-					.filter(publisher -> publisher.getName().toLowerCase()
-							.contains(pattern.toLowerCase()))
-					.collect(Collectors.toList());
+			return cache.get(EnumSet.of(Table.PUBLISHERS),
+					() -> search(publisherDAO,
+							publisher -> publisher.getName().toLowerCase().contains(lowered)),
+					"getPublishersMatching", lowered, false);
 		}
 	}
 
 	@Override
 	public List<Book> getAllBooks() throws IOException {
-		return bookDAO.findAll();
+		return cache.get(BOOK_TABLES, bookDAO::findAll, "getAllBooks");
 	}
 
 	@Override
 	public List<Book> getBooksWithTitle(final String title) throws IOException {
-		return bookDAO.findAll().stream().filter(book -> title.equals(book.getTitle()))
-				.collect(Collectors.toList());
+		return cache.get(BOOK_TABLES,
+				() -> search(bookDAO, book -> title.equals(book.getTitle())),
+				"getBooksWithTitle", title);
 	}
 
+	// Model objects are mutable, so queries about them are cached under their
+	// current field values rather than the objects themselves.
 	@Override
 	public List<Book> getBooksByAuthor(final Author author) throws IOException {
-		return bookDAO.findAll().stream().filter(book -> author.equals(book.getAuthor()))
-				.collect(Collectors.toList());
+		return cache.get(BOOK_TABLES,
+				() -> search(bookDAO, book -> author.equals(book.getAuthor())),
+				"getBooksByAuthor", author.getId(), author.getName());
 	}
 
 	@Override
 	public List<Book> getBooksPublishedBy(final Publisher publisher) throws IOException {
-		return bookDAO.findAll().stream()
-				.filter(book -> publisher.equals(book.getPublisher()))
-				.collect(Collectors.toList());
+		return cache.get(BOOK_TABLES,
+				() -> search(bookDAO, book -> publisher.equals(book.getPublisher())),
+				"getBooksPublishedBy", publisher.getId(), publisher.getName(),
+				publisher.getAddress(), publisher.getPhone());
 	}
 
 	/**
@@ -223,36 +498,55 @@ public final class LibraryServiceImpl implements LibraryService {
 	@Override
 	public List<Book> getBooksMatching(final String pattern, final boolean global)
 			throws IOException {
+		final String lowered = pattern.toLowerCase();
 		if (global) {
-			return bookDAO.findAll().stream()
-					.filter(book -> bookMatches(book, pattern.toLowerCase()))
-					.collect(Collectors.toList());
+			return cache.get(BOOK_TABLES,
+					() -> search(bookDAO, book -> bookMatches(book, lowered)),
+					"getBooksMatching", lowered, true);
 		} else {
-			return bookDAO.findAll().stream()
-					.filter(book -> bookMatchesSimple(book, pattern.toLowerCase()))
-					.collect(Collectors.toList());
+			return cache.get(BOOK_TABLES,
+					() -> search(bookDAO, book -> bookMatchesSimple(book, lowered)),
+					"getBooksMatching", lowered, false);
 		}
 	}
 
 	@Override
 	public void updateAuthor(final Author author) throws IOException {
-		authorDAO.save(author);
+		authorDAO.update(author);
+		changed(Table.AUTHORS);
+		indexAuthor(author);
 	}
 
 	@Override
 	public void updatePublisher(final Publisher publisher) throws IOException {
-		publisherDAO.save(publisher);
+		publisherDAO.update(publisher);
+		changed(Table.PUBLISHERS);
 	}
 
 	@Override
 	public void updateBook(final Book book) throws IOException {
-		if (!getAllAuthors().contains(book.getAuthor())) {
+		final Optional<Author> author = authorDAO.find(book.getAuthor().getId());
+		if (!author.isPresent()) {
 			authorDAO.save(book.getAuthor());
+			changed(Table.AUTHORS);
+			indexAuthor(book.getAuthor());
+		} else if (!author.get().equals(book.getAuthor())) {
+			authorDAO.update(book.getAuthor());
+			changed(Table.AUTHORS);
+			indexAuthor(book.getAuthor());
 		}
-		if (!getAllPublishers().contains(book.getPublisher())) {
+		final Optional<Publisher> publisher =
+				publisherDAO.find(book.getPublisher().getId());
+		if (!publisher.isPresent()) {
 			publisherDAO.save(book.getPublisher());
+			changed(Table.PUBLISHERS);
+		} else if (!publisher.get().equals(book.getPublisher())) {
+			publisherDAO.update(book.getPublisher());
+			changed(Table.PUBLISHERS);
 		}
-		bookDAO.save(book);
+		bookDAO.update(book);
+		changed(Table.BOOKS);
+		indexBook(book);
 	}
 
 	@Override
@@ -261,10 +555,16 @@ public final class LibraryServiceImpl implements LibraryService {
 				.filter(book -> author.equals(book.getAuthor()))
 				.collect(Collectors.toList());
 		// Can't use Stream.forEach() because delete() may throw
-		for (final Book book : writtenBooks) {
-			bookDAO.delete(book);
+		try {
+			for (final Book book : writtenBooks) {
+				bookDAO.delete(book);
+				unindexBook(book);
+			}
+			authorDAO.delete(author);
+			unindexAuthor(author);
+		} finally {
+			changed(Table.BOOKS, Table.AUTHORS);
 		}
-		authorDAO.delete(author);
 	}
 
 	@Override
@@ -273,15 +573,215 @@ public final class LibraryServiceImpl implements LibraryService {
 				.filter(book -> publisher.equals(book.getPublisher()))
 				.collect(Collectors.toList());
 		// Can't use Stream.forEach() because delete() may throw
-		for (final Book book : publishedBooks) {
-			bookDAO.delete(book);
+		try {
+			for (final Book book : publishedBooks) {
+				bookDAO.delete(book);
+				unindexBook(book);
+			}
+			publisherDAO.delete(publisher);
+		} finally {
+			changed(Table.BOOKS, Table.PUBLISHERS);
 		}
-		publisherDAO.delete(publisher);
 	}
 
 	@Override
 	public void removeBook(final Book book) throws IOException {
 		bookDAO.delete(book); // TODO: check it matches beyond ID?
+		changed(Table.BOOKS);
+		unindexBook(book);
+	}
+
+	/**
+	 * Build an index of a table.
+	 *
+	 * @param <T>    the type of record in the table
+	 * @param <I>    the type of index
+	 * @param dao    the DAO for the table
+	 * @param index  the empty index
+	 * @param adder  how to add a record to the index
+	 * @return the index
+	 * @throws IOException on I/O error while reading the table
+	 */
+	private static <T, I> I buildIndex(final DataAccessObject<T> dao, final I index,
+			final BiConsumer<I, T> adder) throws IOException {
+		try (Stream<T> stream = dao.stream()) {
+			stream.forEachOrdered(item -> adder.accept(index, item));
+		} catch (final UncheckedIOException except) {
+			if (!(except.getCause() instanceof NoSuchFileException)) {
+				throw except.getCause();
+			}
+		} catch (final FileNotFoundException|NoSuchFileException except) {
+			// An empty table has an empty index
+		}
+		return index;
+	}
+
+	/**
+	 * @return the index of book titles, built if necessary
+	 * @throws IOException on I/O error while building it
+	 */
+	private synchronized SortedIndex titles() throws IOException {
+		if (titleIndex == null) {
+			titleIndex = buildIndex(bookDAO, new SortedIndex(),
+					(index, book) -> index.put(book.getId(), book.getTitle()));
+		}
+		return titleIndex;
+	}
+
+	/**
+	 * @return the index of author names, built if necessary
+	 * @throws IOException on I/O error while building it
+	 */
+	private synchronized SortedIndex authorNames() throws IOException {
+		if (authorIndex == null) {
+			authorIndex = buildIndex(authorDAO, new SortedIndex(),
+					(index, author) -> index.put(author.getId(), author.getName()));
+		}
+		return authorIndex;
+	}
+
+	/**
+	 * Search the trigram index of book titles, building it if necessary.
+	 *
+	 * @param query the query
+	 * @param limit the most results to return
+	 * @return the IDs of the best-matching books, best first
+	 * @throws IOException on I/O error while building the index
+	 */
+	private synchronized long[] searchTitleTrigrams(final String query,
+			final int limit) throws IOException {
+		if (titleTrigrams == null) {
+			titleTrigrams = buildIndex(bookDAO, new TrigramIndex(),
+					(index, book) -> index.put(book.getId(), book.getTitle()));
+		}
+		return titleTrigrams.search(query, limit, FUZZY_MIN_SHARE);
+	}
+
+	/**
+	 * Search the trigram index of author names, building it if necessary.
+	 *
+	 * @param query the query
+	 * @param limit the most results to return
+	 * @return the IDs of the best-matching authors, best first
+	 * @throws IOException on I/O error while building the index
+	 */
+	private synchronized long[] searchAuthorTrigrams(final String query,
+			final int limit) throws IOException {
+		if (authorTrigrams == null) {
+			authorTrigrams = buildIndex(authorDAO, new TrigramIndex(),
+					(index, author) -> index.put(author.getId(), author.getName()));
+		}
+		return authorTrigrams.search(query, limit, FUZZY_MIN_SHARE);
+	}
+
+	/**
+	 * Bring the title index, if it has been built, up to date with a book.
+	 *
+	 * @param book a book that has been added or changed
+	 */
+	private synchronized void indexBook(final Book book) {
+		if (titleIndex != null) {
+			titleIndex.put(book.getId(), book.getTitle());
+		}
+		if (titleTrigrams != null) {
+			titleTrigrams.put(book.getId(), book.getTitle());
+		}
+	}
+
+	/**
+	 * Remove a book from the title index, if it has been built.
+	 *
+	 * @param book a book that has been removed
+	 */
+	private synchronized void unindexBook(final Book book) {
+		if (titleIndex != null) {
+			titleIndex.remove(book.getId());
+		}
+		if (titleTrigrams != null) {
+			titleTrigrams.remove(book.getId());
+		}
+	}
+
+	/**
+	 * Bring the author-name index, if it has been built, up to date with an
+	 * author.
+	 *
+	 * @param author an author who has been added or changed
+	 */
+	private synchronized void indexAuthor(final Author author) {
+		if (authorIndex != null) {
+			authorIndex.put(author.getId(), author.getName());
+		}
+		if (authorTrigrams != null) {
+			authorTrigrams.put(author.getId(), author.getName());
+		}
+	}
+
+	/**
+	 * Remove an author from the author-name index, if it has been built.
+	 *
+	 * @param author an author who has been removed
+	 */
+	private synchronized void unindexAuthor(final Author author) {
+		if (authorIndex != null) {
+			authorIndex.remove(author.getId());
+		}
+		if (authorTrigrams != null) {
+			authorTrigrams.remove(author.getId());
+		}
+	}
+
+	/**
+	 * Look up the records with the given IDs, in one pass over the table.
+	 *
+	 * @param <T> the type of record in the table
+	 * @param dao the DAO for the table
+	 * @param ids the IDs to look up, in the order the results should be in
+	 * @return the records with those IDs, in that order
+	 * @throws IOException on I/O error while reading the table
+	 */
+	private static <T> List<T> resolve(final DataAccessObject<T> dao,
+			final long[] ids) throws IOException {
+		if (ids.length == 0) {
+			return new ArrayList<>();
+		}
+		return dao.findByIds(Arrays.stream(ids).boxed().collect(Collectors.toList()));
+	}
+
+	@Override
+	public List<String> completeTitles(final String prefix, final int limit)
+			throws IOException {
+		return titles().complete(prefix, limit);
+	}
+
+	@Override
+	public List<String> completeAuthorNames(final String prefix, final int limit)
+			throws IOException {
+		return authorNames().complete(prefix, limit);
+	}
+
+	@Override
+	public List<Book> getBooksByTitleRange(final String from, final String to)
+			throws IOException {
+		return resolve(bookDAO, titles().range(from, to));
+	}
+
+	@Override
+	public List<Author> getAuthorsByNameRange(final String from, final String to)
+			throws IOException {
+		return resolve(authorDAO, authorNames().range(from, to));
+	}
+
+	@Override
+	public List<Book> searchBooksFuzzy(final String query, final int limit)
+			throws IOException {
+		return resolve(bookDAO, searchTitleTrigrams(query, limit));
+	}
+
+	@Override
+	public List<Author> searchAuthorsFuzzy(final String query, final int limit)
+			throws IOException {
+		return resolve(authorDAO, searchAuthorTrigrams(query, limit));
 	}
 
 	@Override
@@ -0,0 +1,41 @@
+package service;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link LibraryService#importBooks} when an I/O error stops an
+ * import after some of the books were already added, saying how many. Books
+ * are added in the order they were given, so they are the first that many;
+ * authors and publishers created for the rest may also have been added, but
+ * since an import matches those by name, importing the rest again won't
+ * duplicate them.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class PartialImportException extends IOException {
+	/**
+	 * Version UID for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * How many books were added before the error.
+	 */
+	private final long imported;
+
+	/**
+	 * @param imported how many books were added before the error
+	 * @param cause    the error
+	 */
+	public PartialImportException(final long imported, final IOException cause) {
+		super("I/O error after importing " + imported + " books: " + cause.getMessage(),
+				cause);
+		this.imported = imported;
+	}
+
+	/**
+	 * @return how many books were added before the error
+	 */
+	public long getImported() {
+		return imported;
+	}
+}
@@ -0,0 +1,216 @@
+package service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+
+/**
+ * A size-bounded cache of the results of service-layer queries, keyed by query
+ * and arguments, with least-recently-used eviction. Each table has a version
+ * number that the service bumps whenever it changes the table; a cached result
+ * remembers the versions of the tables it was computed from, and is used only
+ * while they are all unchanged, so a write never has to find and evict the
+ * results it affects.
+ *
+ * <p>Books, authors, and publishers are copied both when they are cached and
+ * when they are handed out, since callers (such as the menu) edit them in place
+ * before saving the changes, and may never save them.
+ *
+ * <p>Changes made to the tables other than through the service (by another
+ * service object, or directly through the DAOs) are not seen, so the cache
+ * should only be used when the service owns its tables.
+ *
+ * @author Jonathan Lovelace
+ */
+final class QueryCache {
+	/**
+	 * The tables a query can depend on.
+	 */
+	enum Table {
+		AUTHORS,
+		PUBLISHERS,
+		BOOKS
+	}
+
+	/**
+	 * A query whose result can be cached.
+	 *
+	 * @param <T> the type of item in the result
+	 */
+	@FunctionalInterface
+	interface Query<T> {
+		/**
+		 * @return the result of the query
+		 * @throws IOException on I/O error while running it
+		 */
+		List<T> run() throws IOException;
+	}
+
+	/**
+	 * A cached result and the table versions it was computed from.
+	 */
+	private static final class Result {
+		final List<?> items;
+		final long[] versions;
+
+		Result(final List<?> items, final long[] versions) {
+			this.items = items;
+			this.versions = versions;
+		}
+	}
+
+	/**
+	 * The current version of each table, indexed by ordinal.
+	 */
+	private final long[] versions = new long[Table.values().length];
+	/**
+	 * The cached results, least recently used first.
+	 */
+	private final Map<List<Object>, Result> results;
+	/**
+	 * The most results to keep.
+	 */
+	private final int capacity;
+	/**
+	 * How many lookups found a current result.
+	 */
+	private long hits;
+	/**
+	 * How many lookups had to run the query.
+	 */
+	private long misses;
+
+	/**
+	 * @param capacity the most results to keep; if zero, nothing is cached
+	 */
+	QueryCache(final int capacity) {
+		this.capacity = capacity;
+		results = new LinkedHashMap<List<Object>, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					final Map.Entry<List<Object>, Result> eldest) {
+				return size() > QueryCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Note that a table has changed, so that results computed from it are no
+	 * longer used.
+	 *
+	 * @param table the table
+	 */
+	synchronized void invalidate(final Table table) {
+		versions[table.ordinal()]++;
+	}
+
+	/**
+	 * Get the result of a query, from the cache if it is there and current, or
+	 * else by running it (without holding the cache's lock) and caching the
+	 * result.
+	 *
+	 * @param <T>    the type of item in the result
+	 * @param tables the tables the query reads
+	 * @param query  how to run the query
+	 * @param key    the name of the query and its arguments, which must be
+	 *               immutable (or at least never changed)
+	 * @return a copy of the result, not sharing any mutable items with the cache
+	 * @throws IOException on I/O error while running the query
+	 */
+	@SuppressWarnings("unchecked")
+	<T> List<T> get(final EnumSet<Table> tables, final Query<T> query,
+			final Object... key) throws IOException {
+		if (capacity <= 0) {
+			return query.run();
+		}
+		final List<Object> cacheKey = Arrays.asList(key);
+		final long[] current;
+		synchronized (this) {
+			final Result cached = results.get(cacheKey);
+			if (cached != null && isCurrent(cached.versions, tables)) {
+				hits++;
+				return copyAll((List<T>) cached.items);
+			}
+			misses++;
+			current = versions.clone();
+		}
+		final List<T> retval = query.run();
+		synchronized (this) {
+			// If a table changed while the query ran, the stored versions are
+			// already stale, and the result will not be used.
+			results.put(cacheKey, new Result(copyAll(retval), current));
+		}
+		return retval;
+	}
+
+	/**
+	 * Copy an item of a query result, if it is mutable.
+	 *
+	 * @param <T>  the type of the item
+	 * @param item a book, author, publisher, or immutable value
+	 * @return a copy of it, or the item itself if it is immutable
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T copy(final T item) {
+		if (item instanceof Book) {
+			return (T) new Book((Book) item);
+		} else if (item instanceof Author) {
+			return (T) new Author((Author) item);
+		} else if (item instanceof Publisher) {
+			return (T) new Publisher((Publisher) item);
+		} else {
+			return item;
+		}
+	}
+
+	/**
+	 * @param <T>   the type of the items
+	 * @param items a query result
+	 * @return a new list of copies of its items
+	 */
+	static <T> List<T> copyAll(final List<T> items) {
+		final List<T> retval = new ArrayList<>(items.size());
+		for (final T item : items) {
+			retval.add(copy(item));
+		}
+		return retval;
+	}
+
+	/**
+	 * @param seen   the table versions a result was computed from
+	 * @param tables the tables it depends on
+	 * @return whether none of them have changed since
+	 */
+	private boolean isCurrent(final long[] seen, final EnumSet<Table> tables) {
+		for (final Table table : tables) {
+			if (seen[table.ordinal()] != versions[table.ordinal()]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return how many lookups found a current result
+	 */
+	synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return how many lookups had to run the query
+	 */
+	synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,372 @@
+package service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+
+/**
+ * One {@link LibraryService} shared by many concurrent users, such as the
+ * sessions of a {@link menu.LibraryServer}, so that the tables are loaded, and
+ * queries cached, once for all of them. Queries may run at the same time as
+ * each other, but anything that changes the database runs alone, so that (for
+ * example) two users adding authors at once can't be given the same ID.
+ *
+ * <p>Each user calls the service through its own {@link Session}, which keeps
+ * track of how long its calls took, including any time spent waiting for
+ * other users' changes to finish. A user may edit the books, authors, and
+ * publishers a session returns in place (as the menu does before saving), so
+ * the service must never hand the same such object to two callers; sessions
+ * don't copy them again, since {@link LibraryServiceImpl}'s query cache
+ * already hands out only copies (made while the lock is held), and its DAOs
+ * build new objects for every read.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class SharedLibraryService {
+	/**
+	 * A call to the underlying service.
+	 *
+	 * @param <T> the type of its result
+	 */
+	@FunctionalInterface
+	private interface Call<T> {
+		/**
+		 * @return the result of the call
+		 * @throws IOException on I/O error while making it
+		 */
+		T run() throws IOException;
+	}
+
+	/**
+	 * A call to the underlying service that returns nothing.
+	 */
+	@FunctionalInterface
+	private interface Action {
+		/**
+		 * @throws IOException on I/O error while making the call
+		 */
+		void run() throws IOException;
+	}
+
+	/**
+	 * The service being shared. Its query cache and indexes are already safe to
+	 * use from several threads; the DAOs beneath it are not safe to change
+	 * while being read.
+	 */
+	private final LibraryService delegate;
+	/**
+	 * Held shared by queries and exclusively by changes.
+	 */
+	private final ReadWriteLock lock;
+
+	/**
+	 * @param delegate the service to share, which no one should use except
+	 *                 through this object's sessions
+	 */
+	public SharedLibraryService(final LibraryService delegate) {
+		this(delegate, new ReentrantReadWriteLock());
+	}
+
+	/**
+	 * @param delegate the service to share, which no one should use except
+	 *                 through this object's sessions
+	 * @param lock     the lock for queries to hold shared and changes
+	 *                 exclusively, which something else that changes the
+	 *                 underlying tables may also hold exclusively
+	 */
+	SharedLibraryService(final LibraryService delegate, final ReadWriteLock lock) {
+		this.delegate = delegate;
+		this.lock = lock;
+	}
+
+	/**
+	 * @return a new view of the service for one user
+	 */
+	public Session openSession() {
+		return new Session();
+	}
+
+	/**
+	 * One user's view of the shared service, recording the latency of each call.
+	 * A session should be used by only one thread at a time.
+	 */
+	public final class Session implements LibraryService {
+		/**
+		 * How many calls have been made.
+		 */
+		private long calls;
+		/**
+		 * The total time they took, in nanoseconds.
+		 */
+		private long totalNanos;
+		/**
+		 * The longest any one took, in nanoseconds.
+		 */
+		private long maxNanos;
+
+		/**
+		 * Do not instantiate except via {@link SharedLibraryService#openSession()}.
+		 */
+		private Session() {
+		}
+
+		/**
+		 * Make a call while holding a lock, and record how long it took.
+		 *
+		 * @param <T>  the type of its result
+		 * @param held the lock to hold
+		 * @param call the call
+		 * @return its result
+		 * @throws IOException on I/O error while making it
+		 */
+		private <T> T timed(final Lock held, final Call<T> call) throws IOException {
+			final long start = System.nanoTime();
+			held.lock();
+			try {
+				return call.run();
+			} finally {
+				held.unlock();
+				final long elapsed = System.nanoTime() - start;
+				calls++;
+				totalNanos += elapsed;
+				maxNanos = Math.max(maxNanos, elapsed);
+			}
+		}
+
+		/**
+		 * @param <T>  the type of its result
+		 * @param call a query
+		 * @return its result
+		 * @throws IOException on I/O error while running it
+		 */
+		private <T> T read(final Call<T> call) throws IOException {
+			return timed(lock.readLock(), call);
+		}
+
+		/**
+		 * @param <T>  the type of its result
+		 * @param call a change to the database
+		 * @return its result
+		 * @throws IOException on I/O error while making it
+		 */
+		private <T> T write(final Call<T> call) throws IOException {
+			return timed(lock.writeLock(), call);
+		}
+
+		/**
+		 * @param action a change to the database
+		 * @throws IOException on I/O error while making it
+		 */
+		private void write(final Action action) throws IOException {
+			timed(lock.writeLock(), () -> {
+				action.run();
+				return null;
+			});
+		}
+
+		/**
+		 * @return how many calls have been made through this session
+		 */
+		public long getCallCount() {
+			return calls;
+		}
+
+		/**
+		 * @return the average time a call took, in milliseconds, or 0 if none
+		 *         have been made
+		 */
+		public double getMeanLatencyMillis() {
+			return calls == 0 ? 0 : totalNanos / 1e6 / calls;
+		}
+
+		/**
+		 * @return the longest time any call took, in milliseconds
+		 */
+		public double getMaxLatencyMillis() {
+			return maxNanos / 1e6;
+		}
+
+		@Override
+		public Author createAuthor(final String authorName) throws IOException {
+			return write(() -> delegate.createAuthor(authorName));
+		}
+
+		@Override
+		public Publisher createPublisher(final String publisherName,
+				final String publisherAddress, final String publisherPhone)
+				throws IOException {
+			return write(() -> delegate.createPublisher(publisherName, publisherAddress,
+					publisherPhone));
+		}
+
+		@Override
+		public Book createBook(final String title, final String isbn, final Author author,
+				final Publisher publisher) throws IOException {
+			return write(() -> delegate.createBook(title, isbn, author, publisher));
+		}
+
+		@Override
+		public Book createBook(final String title, final String isbn,
+				final String authorName, final String publisherName) throws IOException {
+			return write(() -> delegate.createBook(title, isbn, authorName, publisherName));
+		}
+
+		@Override
+		public long importBooks(final Stream<Book> books) throws IOException {
+			return write(() -> delegate.importBooks(books));
+		}
+
+		@Override
+		public List<Author> getAllAuthors() throws IOException {
+			return read(delegate::getAllAuthors);
+		}
+
+		@Override
+		public Optional<Author> getAuthorByID(final long id) throws IOException {
+			return read(() -> delegate.getAuthorByID(id));
+		}
+
+		@Override
+		public List<Author> getAuthorsNamed(final String name) throws IOException {
+			return read(() -> delegate.getAuthorsNamed(name));
+		}
+
+		@Override
+		public List<Author> getAuthorsMatching(final String pattern) throws IOException {
+			return read(() -> delegate.getAuthorsMatching(pattern));
+		}
+
+		@Override
+		public List<Publisher> getAllPublishers() throws IOException {
+			return read(delegate::getAllPublishers);
+		}
+
+		@Override
+		public Optional<Publisher> getPublisherByID(final long id) throws IOException {
+			return read(() -> delegate.getPublisherByID(id));
+		}
+
+		@Override
+		public List<Publisher> getPublishersNamed(final String name) throws IOException {
+			return read(() -> delegate.getPublishersNamed(name));
+		}
+
+		@Override
+		public List<Publisher> getPublishersMatching(final String pattern,
+				final boolean global) throws IOException {
+			return read(() -> delegate.getPublishersMatching(pattern, global));
+		}
+
+		@Override
+		public List<Book> getAllBooks() throws IOException {
+			return read(delegate::getAllBooks);
+		}
+
+		@Override
+		public Optional<Book> getBookByID(final long id) throws IOException {
+			return read(() -> delegate.getBookByID(id));
+		}
+
+		@Override
+		public List<Book> getBooksWithTitle(final String title) throws IOException {
+			return read(() -> delegate.getBooksWithTitle(title));
+		}
+
+		@Override
+		public List<Book> getBooksByAuthor(final Author author) throws IOException {
+			return read(() -> delegate.getBooksByAuthor(author));
+		}
+
+		@Override
+		public List<Book> getBooksPublishedBy(final Publisher publisher)
+				throws IOException {
+			return read(() -> delegate.getBooksPublishedBy(publisher));
+		}
+
+		@Override
+		public List<Book> getBooksMatching(final String pattern, final boolean global)
+				throws IOException {
+			return read(() -> delegate.getBooksMatching(pattern, global));
+		}
+
+		@Override
+		public List<String> completeTitles(final String prefix, final int limit)
+				throws IOException {
+			return read(() -> delegate.completeTitles(prefix, limit));
+		}
+
+		@Override
+		public List<String> completeAuthorNames(final String prefix, final int limit)
+				throws IOException {
+			return read(() -> delegate.completeAuthorNames(prefix, limit));
+		}
+
+		@Override
+		public List<Book> getBooksByTitleRange(final String from, final String to)
+				throws IOException {
+			return read(() -> delegate.getBooksByTitleRange(from, to));
+		}
+
+		@Override
+		public List<Author> getAuthorsByNameRange(final String from, final String to)
+				throws IOException {
+			return read(() -> delegate.getAuthorsByNameRange(from, to));
+		}
+
+		@Override
+		public List<Book> searchBooksFuzzy(final String query, final int limit)
+				throws IOException {
+			return read(() -> delegate.searchBooksFuzzy(query, limit));
+		}
+
+		@Override
+		public List<Author> searchAuthorsFuzzy(final String query, final int limit)
+				throws IOException {
+			return read(() -> delegate.searchAuthorsFuzzy(query, limit));
+		}
+
+		@Override
+		public void updateAuthor(final Author author) throws IOException {
+			write(() -> delegate.updateAuthor(author));
+		}
+
+		@Override
+		public void updatePublisher(final Publisher publisher) throws IOException {
+			write(() -> delegate.updatePublisher(publisher));
+		}
+
+		@Override
+		public void updateBook(final Book book) throws IOException {
+			write(() -> delegate.updateBook(book));
+		}
+
+		@Override
+		public void deleteAuthor(final Author author) throws IOException {
+			write(() -> delegate.deleteAuthor(author));
+		}
+
+		@Override
+		public void removePublisher(final Publisher publisher) throws IOException {
+			write(() -> delegate.removePublisher(publisher));
+		}
+
+		@Override
+		public void removeBook(final Book book) throws IOException {
+			write(() -> delegate.removeBook(book));
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d calls, mean %.3f ms, max %.3f ms", calls,
+					getMeanLatencyMillis(), getMaxLatencyMillis());
+		}
+	}
+}
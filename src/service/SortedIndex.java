@@ -0,0 +1,185 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import util.LongObjectMap;
+import util.LongSet;
+
+/**
+ * An ordered, case-insensitive index from a text field of the records in a
+ * table (such as book titles or author names) to the IDs of the records, for
+ * prefix completion and range queries. Entries are kept in a skip list, so
+ * finding the first entry at or after a given string takes logarithmic time
+ * and each entry after that constant time, however large the table.
+ *
+ * <p>Changes are serialized, but reads do not lock and may run alongside
+ * them, seeing each entry either as it was before or after a change.
+ *
+ * @author Jonathan Lovelace
+ */
+final class SortedIndex {
+	/**
+	 * The records with one normalized value of the field. Immutable, so readers
+	 * never see one half-changed.
+	 */
+	private static final class Entry {
+		/**
+		 * The value as first added, in its original case.
+		 */
+		final String text;
+		/**
+		 * The IDs of the records, in ascending order.
+		 */
+		final long[] ids;
+
+		Entry(final String text, final long[] ids) {
+			this.text = text;
+			this.ids = ids;
+		}
+	}
+
+	/**
+	 * The entries, by normalized value.
+	 */
+	private final ConcurrentSkipListMap<String, Entry> entries =
+			new ConcurrentSkipListMap<>();
+	/**
+	 * The normalized value each record is indexed under, by ID.
+	 */
+	private final LongObjectMap<String> keys = new LongObjectMap<>();
+
+	/**
+	 * @param text a value of the field
+	 * @return the form it is ordered and compared by
+	 */
+	static String normalize(final String text) {
+		return text.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Index a record under a value, replacing whatever it was indexed under.
+	 *
+	 * @param id   the ID of the record
+	 * @param text its value of the field
+	 */
+	synchronized void put(final long id, final String text) {
+		final String key = normalize(text);
+		final String old = keys.put(id, key);
+		if (key.equals(old)) {
+			return;
+		} else if (old != null) {
+			removeFrom(old, id);
+		}
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			entries.put(key, new Entry(text, new long[] { id }));
+		} else {
+			final int index = -Arrays.binarySearch(entry.ids, id) - 1;
+			final long[] ids = new long[entry.ids.length + 1];
+			System.arraycopy(entry.ids, 0, ids, 0, index);
+			ids[index] = id;
+			System.arraycopy(entry.ids, index, ids, index + 1, entry.ids.length - index);
+			entries.put(key, new Entry(entry.text, ids));
+		}
+	}
+
+	/**
+	 * Remove a record from the index.
+	 *
+	 * @param id the ID of the record
+	 */
+	synchronized void remove(final long id) {
+		final String old = keys.remove(id);
+		if (old != null) {
+			removeFrom(old, id);
+		}
+	}
+
+	/**
+	 * Remove an ID from an entry, and the entry if it was the only ID.
+	 *
+	 * @param key the normalized value the ID is indexed under
+	 * @param id  the ID
+	 */
+	private void removeFrom(final String key, final long id) {
+		final Entry entry = entries.get(key);
+		if (entry.ids.length == 1) {
+			entries.remove(key);
+		} else {
+			final int index = Arrays.binarySearch(entry.ids, id);
+			final long[] ids = new long[entry.ids.length - 1];
+			System.arraycopy(entry.ids, 0, ids, 0, index);
+			System.arraycopy(entry.ids, index + 1, ids, index, ids.length - index);
+			entries.put(key, new Entry(entry.text, ids));
+		}
+	}
+
+	/**
+	 * @return the number of records in the index
+	 */
+	synchronized int size() {
+		return keys.size();
+	}
+
+	/**
+	 * Get the distinct values beginning with a prefix, in order.
+	 *
+	 * @param prefix the prefix, compared case-insensitively
+	 * @param limit  the most values to return
+	 * @return up to that many values beginning with the prefix, each in the case
+	 *         in which it was first added
+	 */
+	List<String> complete(final String prefix, final int limit) {
+		final String key = normalize(prefix);
+		final List<String> retval = new ArrayList<>(Math.min(limit, 16));
+		for (final Map.Entry<String, Entry> entry : entries.tailMap(key).entrySet()) {
+			if (retval.size() >= limit || !entry.getKey().startsWith(key)) {
+				break;
+			}
+			retval.add(entry.getValue().text);
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the IDs of the records whose values fall in a range, in the order of
+	 * their values (and, for records with the same value, of their IDs). Both ends
+	 * are compared case-insensitively, and the upper end is treated as a prefix, so
+	 * that a range from "a" to "c" includes "Cyrano".
+	 *
+	 * @param from the lowest value to include, or null to start at the beginning
+	 * @param to   the prefix of the highest values to include, or null to continue
+	 *             to the end
+	 * @return the IDs of the records in that range
+	 */
+	long[] range(final String from, final String to) {
+		final Map<String, Entry> tail = from == null ? entries
+				: entries.tailMap(normalize(from));
+		final String last = to == null ? null : normalize(to);
+		final LongSet seen = new LongSet();
+		long[] retval = new long[16];
+		int count = 0;
+		for (final Map.Entry<String, Entry> entry : tail.entrySet()) {
+			final String key = entry.getKey();
+			if (last != null && key.compareTo(last) > 0 && !key.startsWith(last)) {
+				break;
+			}
+			for (final long id : entry.getValue().ids) {
+				// A record moved by a concurrent change may be seen twice.
+				if (seen.add(id)) {
+					if (count == retval.length) {
+						retval = Arrays.copyOf(retval, count * 2);
+					}
+					retval[count] = id;
+					count++;
+				}
+			}
+		}
+		return Arrays.copyOf(retval, count);
+	}
+}
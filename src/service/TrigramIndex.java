@@ -0,0 +1,201 @@
+package service;
+
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import util.LongLongMap;
+import util.LongObjectMap;
+import util.LongSet;
+import util.SortedLongArray;
+
+/**
+ * An index from the trigrams (three-character substrings) of a text field of
+ * the records in a table to the IDs of the records, for typo-tolerant search.
+ * Two strings are similar to the extent that they share trigrams: a record's
+ * score for a query is the number of distinct trigrams the two have in common,
+ * divided by the number in either (so 1.0 for identical text), which degrades
+ * gracefully as letters are mistyped, dropped, or transposed. As in
+ * PostgreSQL's pg_trgm, text is lowercased, anything but letters and digits
+ * separates words, and each word is padded with two spaces before and one after
+ * so that short words and word beginnings count.
+ *
+ * <p>Only records found in the posting lists of the query's trigrams are
+ * considered, and of those only the ones containing at least a given fraction
+ * of the query's trigrams (so that a query matching one word of a long title
+ * still finds it) are scored. Only the best few are kept, in a bounded heap, so
+ * a search costs time proportional to the number of candidates rather than the
+ * size of the table, and never sorts the full set of matches. Not thread-safe
+ * on its own; callers serialize access.
+ *
+ * @author Jonathan Lovelace
+ */
+final class TrigramIndex {
+	/**
+	 * The IDs of the records containing each trigram, by trigram.
+	 */
+	private final LongObjectMap<SortedLongArray> postings = new LongObjectMap<>();
+	/**
+	 * The distinct trigrams of each record, by ID.
+	 */
+	private final LongObjectMap<long[]> trigrams = new LongObjectMap<>();
+
+	/**
+	 * Split a string into its distinct trigrams, each packed into a long as three
+	 * 16-bit characters.
+	 *
+	 * @param text a string
+	 * @return its distinct trigrams
+	 */
+	static long[] trigramsOf(final String text) {
+		final LongSet retval = new LongSet();
+		final String lowered = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lowered.length(); i++) {
+			final boolean wordChar = i < lowered.length()
+					&& Character.isLetterOrDigit(lowered.charAt(i));
+			if (wordChar && start < 0) {
+				start = i;
+			} else if (!wordChar && start >= 0) {
+				addWord(retval, lowered, start, i);
+				start = -1;
+			}
+		}
+		return retval.toSortedArray();
+	}
+
+	/**
+	 * Add the trigrams of one word, padded, to a set.
+	 *
+	 * @param set   the set
+	 * @param text  the string containing the word
+	 * @param start the index of the word's first character
+	 * @param end   the index just past its last character
+	 */
+	private static void addWord(final LongSet set, final String text,
+			final int start, final int end) {
+		// Padding: two spaces before the word, one after
+		long gram = ((long) ' ' << 16) | ' ';
+		for (int i = start; i <= end; i++) {
+			final char next = i < end ? text.charAt(i) : ' ';
+			gram = ((gram << 16) | next) & 0xFFFF_FFFF_FFFFL;
+			set.add(gram);
+		}
+	}
+
+	/**
+	 * Index a record's text, replacing whatever it was indexed under.
+	 *
+	 * @param id   the ID of the record
+	 * @param text the text to index it under
+	 */
+	void put(final long id, final String text) {
+		remove(id);
+		final long[] grams = trigramsOf(text);
+		trigrams.put(id, grams);
+		for (final long gram : grams) {
+			SortedLongArray ids = postings.get(gram);
+			if (ids == null) {
+				ids = new SortedLongArray();
+				postings.put(gram, ids);
+			}
+			ids.add(id);
+		}
+	}
+
+	/**
+	 * Remove a record from the index.
+	 *
+	 * @param id the ID of the record
+	 */
+	void remove(final long id) {
+		final long[] grams = trigrams.remove(id);
+		if (grams == null) {
+			return;
+		}
+		for (final long gram : grams) {
+			final SortedLongArray ids = postings.get(gram);
+			ids.remove(id);
+			if (ids.isEmpty()) {
+				postings.remove(gram);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of records in the index
+	 */
+	int size() {
+		return trigrams.size();
+	}
+
+	/**
+	 * A record and its score, as kept in the heap of best matches.
+	 */
+	private static final class Match implements Comparable<Match> {
+		final long id;
+		final double score;
+
+		Match(final long id, final double score) {
+			this.id = id;
+			this.score = score;
+		}
+
+		/**
+		 * Worse matches sort first, so the head of the heap is the one to drop; of
+		 * equal scores, the higher ID counts as worse.
+		 */
+		@Override
+		public int compareTo(final Match other) {
+			final int retval = Double.compare(score, other.score);
+			return retval == 0 ? Long.compare(other.id, id) : retval;
+		}
+	}
+
+	/**
+	 * Find the records whose text is most similar to a query.
+	 *
+	 * @param query    the query
+	 * @param limit    the most records to return
+	 * @param minShare the smallest fraction, from 0 to 1, of the query's trigrams
+	 *                 a record must contain to count as a match
+	 * @return the IDs of up to that many records, best match first
+	 */
+	long[] search(final String query, final int limit, final double minShare) {
+		final long[] queryGrams = trigramsOf(query);
+		if (queryGrams.length == 0 || limit <= 0) {
+			return new long[0];
+		}
+		final LongLongMap shared = new LongLongMap();
+		for (final long gram : queryGrams) {
+			final SortedLongArray ids = postings.get(gram);
+			if (ids != null) {
+				for (int i = 0; i < ids.size(); i++) {
+					shared.addTo(ids.get(i), 1);
+				}
+			}
+		}
+		final PriorityQueue<Match> best = new PriorityQueue<>(limit + 1);
+		final double minShared = minShare * queryGrams.length;
+		shared.forEach((id, count) -> {
+			if (count < minShared) {
+				return;
+			}
+			final double score = (double) count
+					/ (queryGrams.length + trigrams.get(id).length - count);
+			if (best.size() < limit) {
+				best.add(new Match(id, score));
+			} else {
+				final Match worst = best.peek();
+				if (score > worst.score || (score == worst.score && id < worst.id)) {
+					best.poll();
+					best.add(new Match(id, score));
+				}
+			}
+		});
+		final long[] retval = new long[best.size()];
+		for (int i = retval.length - 1; i >= 0; i--) {
+			retval[i] = best.poll().id;
+		}
+		return retval;
+	}
+}
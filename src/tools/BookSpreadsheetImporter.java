@@ -0,0 +1,238 @@
+package tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import dao.AuthorDataAccessObject;
+import dao.BookDataAccessObject;
+import dao.DataAccessObject;
+import dao.PublisherDataAccessObject;
+import model.Author;
+import model.Book;
+import model.Publisher;
+import service.LibraryService;
+import service.LibraryServiceImpl;
+
+/**
+ * A tool to import books from a spreadsheet (like the "Book.xlsx" template) into
+ * the library database, through {@link LibraryService#importBooks(Stream)}.
+ *
+ * <p>The first row of each worksheet is taken to be its column headings, which
+ * are matched ignoring case, spaces, and underscores. The sheet of books is the
+ * first with a "title" column; it may also have "isbn", "author" or
+ * "author_name", and "publisher" or "publisher_name" (with "publisher_address"
+ * and "publisher_phone") columns. Instead of naming the author or publisher
+ * directly, a book row may give an "author_Id" or "publisher_Id" referring to a
+ * row of another sheet with "author_Id" and "author_name" columns, or with
+ * "publisher_Id" and "publisher_name" (and optionally address and phone)
+ * columns. Those IDs are used only to connect rows of the spreadsheet; the
+ * records added to the database get new IDs, and authors and publishers are
+ * matched to existing ones by name. Blank rows are skipped, and rows without a
+ * title, or whose author or publisher can't be determined, are rejected.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BookSpreadsheetImporter {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(BookSpreadsheetImporter.class.getName());
+
+	/**
+	 * The service to add the books through.
+	 */
+	private final LibraryService service;
+	/**
+	 * The number of rows rejected by the most recent import.
+	 */
+	private long rejected;
+
+	/**
+	 * @param service the service to add the books through
+	 */
+	public BookSpreadsheetImporter(final LibraryService service) {
+		this.service = service;
+	}
+
+	/**
+	 * @param row a row of a sheet
+	 * @return whether every cell in it is blank
+	 */
+	private static boolean isBlank(final List<String> row) {
+		return row.stream().allMatch(cell -> cell.trim().isEmpty());
+	}
+
+	/**
+	 * Import the books in a spreadsheet.
+	 *
+	 * @param spreadsheet the spreadsheet file
+	 * @return the number of books imported
+	 * @throws IOException on I/O error, if the file is not a valid spreadsheet, or
+	 *                     if it has no sheet of books
+	 */
+	public long importFile(final Path spreadsheet) throws IOException {
+		rejected = 0;
+		try (XLSXReader reader = new XLSXReader(spreadsheet)) {
+			final Map<String, String> authors = new HashMap<>();
+			final Map<String, Publisher> publishers = new HashMap<>();
+			String bookSheet = null;
+			Columns bookColumns = null;
+			for (final String sheet : reader.getSheetNames()) {
+				try (Stream<List<String>> rows = reader.rows(sheet)) {
+					final List<List<String>> header = new ArrayList<>(1);
+					rows.limit(1).forEach(header::add);
+					if (header.isEmpty()) {
+						continue;
+					}
+					final Columns columns = new Columns(header.get(0));
+					if (columns.has("title")) {
+						if (bookSheet == null) {
+							bookSheet = sheet;
+							bookColumns = columns;
+						}
+					} else if (columns.has("authorid", "authorname")) {
+						readAuthors(reader, sheet, columns, authors);
+					} else if (columns.has("publisherid", "publishername")) {
+						readPublishers(reader, sheet, columns, publishers);
+					}
+				} catch (final UncheckedIOException except) {
+					throw except.getCause();
+				}
+			}
+			if (bookSheet == null) {
+				throw new IOException("No sheet with a \"title\" column in " + spreadsheet);
+			}
+			try (Stream<List<String>> rows = reader.rows(bookSheet)) {
+				final Columns columns = bookColumns;
+				final Stream<Book> books = rows.skip(1).filter(row -> !isBlank(row))
+						.map(row -> toBook(columns, row, authors, publishers))
+						.filter(Objects::nonNull);
+				return service.importBooks(books);
+			} catch (final UncheckedIOException except) {
+				throw except.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Read a sheet of authors.
+	 *
+	 * @param reader  the spreadsheet
+	 * @param sheet   the name of the sheet
+	 * @param columns its columns
+	 * @param authors the map to add author names to, by their IDs in the sheet
+	 * @throws IOException on I/O error
+	 */
+	private static void readAuthors(final XLSXReader reader, final String sheet,
+			final Columns columns, final Map<String, String> authors)
+			throws IOException {
+		try (Stream<List<String>> rows = reader.rows(sheet)) {
+			rows.skip(1).filter(row -> !isBlank(row)).forEach(row -> authors.put(
+					columns.get(row, "authorid"), columns.get(row, "authorname")));
+		}
+	}
+
+	/**
+	 * Read a sheet of publishers.
+	 *
+	 * @param reader     the spreadsheet
+	 * @param sheet      the name of the sheet
+	 * @param columns    its columns
+	 * @param publishers the map to add publishers to, by their IDs in the sheet
+	 * @throws IOException on I/O error
+	 */
+	private static void readPublishers(final XLSXReader reader, final String sheet,
+			final Columns columns, final Map<String, Publisher> publishers)
+			throws IOException {
+		try (Stream<List<String>> rows = reader.rows(sheet)) {
+			rows.skip(1).filter(row -> !isBlank(row)).forEach(row -> publishers.put(
+					columns.get(row, "publisherid"),
+					new Publisher(0, columns.get(row, "publishername"),
+							columns.get(row, "publisheraddress", "address"),
+							columns.get(row, "publisherphone", "phone"))));
+		}
+	}
+
+	/**
+	 * Convert a row of the sheet of books to a book to import.
+	 *
+	 * @param columns    the sheet's columns
+	 * @param row        the row
+	 * @param authors    author names, by their IDs in the spreadsheet
+	 * @param publishers publishers, by their IDs in the spreadsheet
+	 * @return the book, or null (counting it as rejected) if the row is incomplete
+	 */
+	private Book toBook(final Columns columns, final List<String> row,
+			final Map<String, String> authors, final Map<String, Publisher> publishers) {
+		final String title = columns.get(row, "title");
+		String authorName = columns.get(row, "author", "authorname");
+		if (authorName.isEmpty()) {
+			authorName = authors.getOrDefault(columns.get(row, "authorid"), "");
+		}
+		final String publisherName = columns.get(row, "publisher", "publishername");
+		Publisher publisher;
+		if (publisherName.isEmpty()) {
+			publisher = publishers.get(columns.get(row, "publisherid"));
+		} else {
+			publisher = new Publisher(0, publisherName,
+					columns.get(row, "publisheraddress"), columns.get(row, "publisherphone"));
+		}
+		if (title.isEmpty() || authorName.isEmpty() || publisher == null
+				|| publisher.getName().isEmpty()) {
+			LOGGER.fine(() -> "Rejecting incomplete row " + row);
+			rejected++;
+			return null;
+		}
+		return new Book(0, new Author(0, authorName), publisher, title,
+				columns.get(row, "isbn"));
+	}
+
+	/**
+	 * @return the number of rows rejected by the most recent import
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 * Entry point for the import tool.
+	 *
+	 * @param args the spreadsheet to import, and optionally the directory where
+	 *             the CSV files are stored (by default the current directory)
+	 */
+	public static void main(final String... args) {
+		if (args.length < 1) {
+			System.err.println("Usage: BookSpreadsheetImporter spreadsheet.xlsx [directory]");
+			return;
+		}
+		final Path directory = Paths.get(args.length > 1 ? args[1] : ".");
+		final DataAccessObject<Author> authorDAO = new AuthorDataAccessObject(
+				directory.resolve("authors.csv").toString());
+		final DataAccessObject<Publisher> publisherDAO = new PublisherDataAccessObject(
+				directory.resolve("publishers.csv").toString());
+		final DataAccessObject<Book> bookDAO = new BookDataAccessObject(
+				directory.resolve("books.csv").toString(), authorDAO, publisherDAO);
+		final BookSpreadsheetImporter importer = new BookSpreadsheetImporter(
+				new LibraryServiceImpl(bookDAO, authorDAO, publisherDAO));
+		final long start = System.nanoTime();
+		try {
+			final long count = importer.importFile(Paths.get(args[0]));
+			final double seconds = (System.nanoTime() - start) / 1.0e9;
+			System.out.printf("Imported %d books (%d rows rejected) in %.2f s%n", count,
+					importer.getRejectedCount(), seconds);
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE, "Failed to import " + args[0], except);
+		}
+	}
+}
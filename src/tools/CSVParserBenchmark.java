@@ -0,0 +1,136 @@
+package tools;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import dao.CSVHelper;
+
+/**
+ * A rough benchmark comparing the character-at-a-time CSV parser,
+ * {@link CSVHelper#readCSVRecord(PushbackReader)}, with the word-at-a-time one,
+ * {@link CSVHelper#readCSVRecords(byte[], int, int, java.util.function.Consumer)},
+ * on narrow records (like the authors table) and on wide ones with long titles.
+ * Each is run repeatedly to warm up the JIT, and the best time reported.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CSVParserBenchmark {
+	/**
+	 * The logger to use, to report results.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(CSVParserBenchmark.class.getName());
+	/**
+	 * How many times to parse each input with each parser.
+	 */
+	private static final int ROUNDS = 15;
+
+	private CSVParserBenchmark() {
+		// Do not instantiate
+	}
+
+	/**
+	 * Generate a table.
+	 *
+	 * @param records     how many records
+	 * @param titleLength roughly how long each title should be
+	 * @param random      the source of randomness
+	 * @return the table as UTF-8 CSV
+	 */
+	private static byte[] generate(final int records, final int titleLength,
+			final Random random) {
+		final StringBuilder builder = new StringBuilder();
+		final String[] words = { "the", "history", "of", "a", "library", "catalog",
+				"with", "commas,", "and", "\"quotes\"", "caf\u00e9" };
+		for (int i = 0; i < records; i++) {
+			final StringBuilder title = new StringBuilder();
+			while (title.length() < titleLength) {
+				title.append(words[random.nextInt(words.length)]).append(' ');
+			}
+			builder.append(CSVHelper.formatCSVRecord(Arrays.asList(Integer.toString(i),
+					title.toString().trim(), "978" + (1_000_000_000 + i),
+					Integer.toString(random.nextInt(1000)),
+					Integer.toString(random.nextInt(100))))).append('\n');
+		}
+		return builder.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parse the input as the old chunk parser did: decode it all, then read one
+	 * character at a time.
+	 *
+	 * @param data the input
+	 * @return the number of records
+	 * @throws IOException never, in practice
+	 */
+	private static int parseOneAtATime(final byte[] data) throws IOException {
+		int retval = 0;
+		try (PushbackReader in = new PushbackReader(
+				new StringReader(new String(data, StandardCharsets.UTF_8)))) {
+			while (!CSVHelper.readCSVRecord(in).isEmpty()) {
+				retval++;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * @param data the input
+	 * @return the number of records
+	 */
+	private static int parseWordAtATime(final byte[] data) {
+		final List<List<String>> records = new ArrayList<>();
+		CSVHelper.readCSVRecords(data, 0, data.length, records::add);
+		return records.size();
+	}
+
+	/**
+	 * Time both parsers on one input and log the results.
+	 *
+	 * @param label what to call the input
+	 * @param data  the input
+	 * @throws IOException never, in practice
+	 */
+	private static void compare(final String label, final byte[] data) throws IOException {
+		long slow = Long.MAX_VALUE;
+		long fast = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			final int expected = parseOneAtATime(data);
+			slow = Math.min(slow, System.nanoTime() - start);
+			start = System.nanoTime();
+			if (parseWordAtATime(data) != expected) {
+				throw new IllegalStateException("Parsers disagree on " + label);
+			}
+			fast = Math.min(fast, System.nanoTime() - start);
+		}
+		final double megabytes = data.length / 1048576.0;
+		LOGGER.info(String.format(
+				"%s: one at a time %.0f MB/s, word at a time %.0f MB/s (%.1fx)", label,
+				megabytes / (slow / 1e9), megabytes / (fast / 1e9), (double) slow / fast));
+	}
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args ignored
+	 */
+	public static void main(final String... args) {
+		Logger.getLogger(CSVHelper.class.getName()).setLevel(Level.OFF);
+		final Random random = new Random(42);
+		try {
+			compare("narrow records", generate(200_000, 12, random));
+			compare("wide records", generate(20_000, 600, random));
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE, "I/O error", except);
+		}
+	}
+}
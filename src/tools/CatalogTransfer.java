@@ -0,0 +1,658 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import dao.AuthorDataAccessObject;
+import dao.BookDataAccessObject;
+import dao.CSVHelper;
+import dao.DataAccessObject;
+import dao.PublisherDataAccessObject;
+import model.Author;
+import model.Book;
+import model.Publisher;
+import service.LibraryService;
+import service.LibraryServiceImpl;
+import util.LongObjectMap;
+
+/**
+ * A tool to copy a catalog of books between databases, by exporting it as one
+ * CSV file joining each book with its author and publisher, and importing such
+ * a file into (and merging it with) another database.
+ *
+ * <p>Import is pipelined: one thread reads the file and splits it into batches
+ * of records, a pool of workers parses and validates the batches in parallel,
+ * and the calling thread puts the batches back in order and writes them
+ * through {@link LibraryService#importBooks(Stream)}. The stages are connected
+ * by bounded queues, so a file of any size is imported in bounded memory.
+ * Columns are identified by the header row, so the IDs in an exported file are
+ * ignored; a row is rejected if it lacks a title, author, or publisher, or has
+ * an ISBN that fails its check digit. A row whose ISBN is already in the
+ * database, or earlier in the file, is skipped as a duplicate.
+ *
+ * <p>Export streams the books table, so the joined view is never held in
+ * memory as a whole.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class CatalogTransfer {
+	/**
+	 * The logger to use, primarily to log errors.
+	 */
+	private static final Logger LOGGER = Logger
+			.getLogger(CatalogTransfer.class.getName());
+	/**
+	 * The number of records in each batch passed between import stages.
+	 */
+	private static final int BATCH_SIZE = 1000;
+	/**
+	 * The columns of an exported catalog.
+	 */
+	private static final List<String> HEADER = Arrays.asList("id", "title", "isbn",
+			"author", "publisher", "publisher_address", "publisher_phone");
+
+	/**
+	 * The statistics of an import or export.
+	 */
+	public static final class Report {
+		/**
+		 * The number of rows imported or exported.
+		 */
+		private final long rows;
+		/**
+		 * The number of rows rejected as invalid.
+		 */
+		private final long rejected;
+		/**
+		 * The number of rows skipped as duplicates.
+		 */
+		private final long duplicates;
+		/**
+		 * How long the transfer took, in nanoseconds.
+		 */
+		private final long elapsed;
+
+		Report(final long rows, final long rejected, final long duplicates,
+				final long elapsed) {
+			this.rows = rows;
+			this.rejected = rejected;
+			this.duplicates = duplicates;
+			this.elapsed = elapsed;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		public long getRejected() {
+			return rejected;
+		}
+
+		public long getDuplicates() {
+			return duplicates;
+		}
+
+		/**
+		 * @return how long the transfer took, in nanoseconds
+		 */
+		public long getElapsed() {
+			return elapsed;
+		}
+
+		/**
+		 * @return the number of rows transferred per second
+		 */
+		public double getRowsPerSecond() {
+			return elapsed == 0 ? 0 : rows * 1.0e9 / elapsed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%d rows (%d rejected, %d duplicates) in %.2f s: %.0f rows/s", rows,
+					rejected, duplicates, elapsed / 1.0e9, getRowsPerSecond());
+		}
+	}
+
+	/**
+	 * A batch of records passing through the import pipeline.
+	 */
+	private static final class Batch {
+		/**
+		 * Marker telling a stage that the one before it has finished.
+		 */
+		static final Batch END = new Batch(-1, new ArrayList<>());
+		/**
+		 * The position of the batch in the file.
+		 */
+		final long sequence;
+		/**
+		 * The text of each record.
+		 */
+		final List<String> records;
+		/**
+		 * The books parsed from the records, once they have been.
+		 */
+		final List<Book> books = new ArrayList<>();
+		/**
+		 * How many of the records were rejected.
+		 */
+		int rejected;
+
+		Batch(final long sequence, final List<String> records) {
+			this.sequence = sequence;
+			this.records = records;
+		}
+	}
+
+	/**
+	 * The DAO for the books table.
+	 */
+	private final DataAccessObject<Book> bookDAO;
+	/**
+	 * The service to import books through.
+	 */
+	private final LibraryService service;
+	/**
+	 * How many threads to parse and validate records with.
+	 */
+	private final int workers;
+
+	/**
+	 * @param bookDAO      the DAO for the books table
+	 * @param authorDAO    the DAO for the authors table
+	 * @param publisherDAO the DAO for the publishers table
+	 */
+	public CatalogTransfer(final DataAccessObject<Book> bookDAO,
+			final DataAccessObject<Author> authorDAO,
+			final DataAccessObject<Publisher> publisherDAO) {
+		this(bookDAO, authorDAO, publisherDAO,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param bookDAO      the DAO for the books table
+	 * @param authorDAO    the DAO for the authors table
+	 * @param publisherDAO the DAO for the publishers table
+	 * @param workers      how many threads to parse and validate records with
+	 */
+	public CatalogTransfer(final DataAccessObject<Book> bookDAO,
+			final DataAccessObject<Author> authorDAO,
+			final DataAccessObject<Publisher> publisherDAO, final int workers) {
+		this.bookDAO = bookDAO;
+		service = new LibraryServiceImpl(bookDAO, authorDAO, publisherDAO);
+		this.workers = Math.max(1, workers);
+	}
+
+	/**
+	 * Export the catalog, one row per book.
+	 *
+	 * @param destination the file to write
+	 * @return statistics of the export
+	 * @throws IOException on I/O error
+	 */
+	public Report exportCatalog(final Path destination) throws IOException {
+		final long start = System.nanoTime();
+		long rows = 0;
+		try (BufferedWriter out = Files.newBufferedWriter(destination);
+				Stream<Book> books = bookDAO.stream()) {
+			out.write(CSVHelper.formatCSVRecord(HEADER));
+			out.newLine();
+			final Iterator<Book> iterator = books.iterator();
+			while (iterator.hasNext()) {
+				final Book book = iterator.next();
+				out.write(CSVHelper.formatCSVRecord(Arrays.asList(
+						Long.toString(book.getId()), book.getTitle(), book.getIsbn(),
+						book.getAuthor().getName(), book.getPublisher().getName(),
+						book.getPublisher().getAddress(), book.getPublisher().getPhone())));
+				out.newLine();
+				rows++;
+			}
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		return new Report(rows, 0, 0, System.nanoTime() - start);
+	}
+
+	/**
+	 * Read the text of one CSV record, which may span several lines if it has
+	 * quoted fields containing line breaks.
+	 *
+	 * @param in the file to read from
+	 * @return the text of the record, or null at the end of the file
+	 * @throws IOException on I/O error
+	 */
+	private static String readRecord(final BufferedReader in) throws IOException {
+		String line = in.readLine();
+		if (line == null) {
+			return null;
+		}
+		StringBuilder record = null;
+		int quotes = countQuotes(line);
+		while (quotes % 2 != 0) {
+			final String next = in.readLine();
+			if (next == null) {
+				break;
+			}
+			if (record == null) {
+				record = new StringBuilder(line);
+			}
+			record.append('\n').append(next);
+			quotes += countQuotes(next);
+		}
+		return record == null ? line : record.toString();
+	}
+
+	/**
+	 * @param line a line of text
+	 * @return the number of quote characters in it
+	 */
+	private static int countQuotes(final String line) {
+		int retval = 0;
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) == '"') {
+				retval++;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Parse the text of one CSV record.
+	 *
+	 * @param text the text
+	 * @return its fields
+	 * @throws IOException on malformed input
+	 */
+	private static List<String> parse(final String text) throws IOException {
+		try (PushbackReader in = new PushbackReader(new StringReader(text))) {
+			return CSVHelper.readCSVRecord(in);
+		}
+	}
+
+	/**
+	 * Check an ISBN's check digit. Hyphens and spaces are ignored.
+	 *
+	 * @param isbn an ISBN-10 or ISBN-13
+	 * @return whether it is well-formed and its check digit is correct
+	 */
+	static boolean isValidISBN(final String isbn) {
+		final String digits = isbnKey(isbn);
+		if (digits.length() == 10) {
+			int sum = 0;
+			for (int i = 0; i < 10; i++) {
+				final char current = digits.charAt(i);
+				final int value;
+				if (i == 9 && (current == 'X' || current == 'x')) {
+					value = 10;
+				} else if (current >= '0' && current <= '9') {
+					value = current - '0';
+				} else {
+					return false;
+				}
+				sum += value * (10 - i);
+			}
+			return sum % 11 == 0;
+		} else if (digits.length() == 13) {
+			int sum = 0;
+			for (int i = 0; i < 13; i++) {
+				final char current = digits.charAt(i);
+				if (current < '0' || current > '9') {
+					return false;
+				}
+				sum += (current - '0') * (i % 2 == 0 ? 1 : 3);
+			}
+			return sum % 10 == 0;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * @param isbn an ISBN
+	 * @return it without hyphens or spaces, for comparison with others
+	 */
+	private static String isbnKey(final String isbn) {
+		return isbn.replace("-", "").replace(" ", "");
+	}
+
+	/**
+	 * Parse and validate a batch of records.
+	 *
+	 * @param columns the columns of the file
+	 * @param batch   the batch
+	 */
+	private static void parseBatch(final Columns columns, final Batch batch) {
+		for (final String text : batch.records) {
+			final List<String> row;
+			try {
+				row = parse(text);
+			} catch (final IOException except) {
+				batch.rejected++;
+				continue;
+			}
+			final String title = columns.get(row, "title");
+			final String isbn = columns.get(row, "isbn");
+			final String author = columns.get(row, "author", "authorname");
+			final String publisher = columns.get(row, "publisher", "publishername");
+			if (title.isEmpty() || author.isEmpty() || publisher.isEmpty()
+					|| (!isbn.isEmpty() && !isValidISBN(isbn))) {
+				LOGGER.fine(() -> "Rejecting invalid row " + row);
+				batch.rejected++;
+				continue;
+			}
+			batch.books.add(new Book(0, new Author(0, author),
+					new Publisher(0, publisher, columns.get(row, "publisheraddress"),
+							columns.get(row, "publisherphone")),
+					title, isbn));
+		}
+		batch.records.clear();
+	}
+
+	/**
+	 * Import a catalog file, merging it into the database.
+	 *
+	 * @param source the file to import
+	 * @return statistics of the import
+	 * @throws IOException on I/O error, or if the file has no "title" column
+	 */
+	public Report importCatalog(final Path source) throws IOException {
+		final long start = System.nanoTime();
+		final Set<String> isbns = new HashSet<>();
+		try (Stream<Book> books = bookDAO.stream()) {
+			books.map(Book::getIsbn).filter(isbn -> isbn != null && !isbn.isEmpty())
+					.map(CatalogTransfer::isbnKey).forEach(isbns::add);
+		} catch (final UncheckedIOException except) {
+			throw except.getCause();
+		}
+		final BufferedReader in = Files.newBufferedReader(source);
+		final ExecutorService executor = Executors.newFixedThreadPool(workers + 1,
+				runnable -> {
+					final Thread thread = new Thread(runnable, "Catalog import");
+					thread.setDaemon(true);
+					return thread;
+				});
+		try {
+			final String header = readRecord(in);
+			final Columns columns = new Columns(header == null ? new ArrayList<>()
+					: parse(header));
+			if (!columns.has("title")) {
+				throw new IOException("No \"title\" column in " + source);
+			}
+			final BlockingQueue<Batch> parseQueue = new ArrayBlockingQueue<>(workers * 2);
+			final BlockingQueue<Batch> writeQueue = new ArrayBlockingQueue<>(workers * 2);
+			final AtomicReference<Exception> failure = new AtomicReference<>();
+			executor.execute(() -> read(in, parseQueue, failure));
+			for (int i = 0; i < workers; i++) {
+				executor.execute(() -> work(columns, parseQueue, writeQueue, failure));
+			}
+			final OrderedBatches batches = new OrderedBatches(writeQueue, failure, isbns);
+			final long rows = service.importBooks(StreamSupport.stream(
+					Spliterators.spliteratorUnknownSize(batches,
+							Spliterator.ORDERED | Spliterator.NONNULL), false));
+			return new Report(rows, batches.rejected, batches.duplicates,
+					System.nanoTime() - start);
+		} finally {
+			executor.shutdownNow();
+			in.close();
+		}
+	}
+
+	/**
+	 * The reader stage: split the file into batches of records for the workers.
+	 *
+	 * @param in         the file, positioned after the header
+	 * @param parseQueue the queue to the workers
+	 * @param failure    where to record an error
+	 */
+	private void read(final BufferedReader in, final BlockingQueue<Batch> parseQueue,
+			final AtomicReference<Exception> failure) {
+		try {
+			long sequence = 0;
+			List<String> records = new ArrayList<>(BATCH_SIZE);
+			for (String record = readRecord(in); record != null; record = readRecord(in)) {
+				if (!record.trim().isEmpty()) {
+					records.add(record);
+				}
+				if (records.size() >= BATCH_SIZE) {
+					parseQueue.put(new Batch(sequence, records));
+					sequence++;
+					records = new ArrayList<>(BATCH_SIZE);
+				}
+			}
+			if (!records.isEmpty()) {
+				parseQueue.put(new Batch(sequence, records));
+			}
+		} catch (final IOException except) {
+			failure.compareAndSet(null, except);
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		try {
+			for (int i = 0; i < workers; i++) {
+				parseQueue.put(Batch.END);
+			}
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A worker: parse and validate batches until the reader is done.
+	 *
+	 * @param columns    the columns of the file
+	 * @param parseQueue the queue from the reader
+	 * @param writeQueue the queue to the writer
+	 * @param failure    where to record an error
+	 */
+	private static void work(final Columns columns, final BlockingQueue<Batch> parseQueue,
+			final BlockingQueue<Batch> writeQueue, final AtomicReference<Exception> failure) {
+		try {
+			while (true) {
+				final Batch batch = parseQueue.take();
+				if (batch == Batch.END) {
+					break;
+				}
+				try {
+					parseBatch(columns, batch);
+				} catch (final RuntimeException except) {
+					failure.compareAndSet(null, except);
+				}
+				writeQueue.put(batch);
+			}
+			writeQueue.put(Batch.END);
+		} catch (final InterruptedException except) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The writer stage's view of the pipeline: the parsed books, back in the order
+	 * they appeared in the file, less any duplicates.
+	 */
+	private final class OrderedBatches implements Iterator<Book> {
+		/**
+		 * The queue from the workers.
+		 */
+		private final BlockingQueue<Batch> writeQueue;
+		/**
+		 * Where the other stages record errors.
+		 */
+		private final AtomicReference<Exception> failure;
+		/**
+		 * The ISBNs seen so far.
+		 */
+		private final Set<String> isbns;
+		/**
+		 * Batches that arrived before the ones preceding them, by sequence number.
+		 */
+		private final LongObjectMap<Batch> early = new LongObjectMap<>();
+		/**
+		 * The sequence number of the next batch to return books from.
+		 */
+		private long nextSequence;
+		/**
+		 * How many workers have finished.
+		 */
+		private int finished;
+		/**
+		 * Books from the current batch not yet returned.
+		 */
+		private Iterator<Book> current = new ArrayList<Book>().iterator();
+		/**
+		 * The next book to return, if it has been found.
+		 */
+		private Book next;
+		/**
+		 * The number of rows rejected so far.
+		 */
+		long rejected;
+		/**
+		 * The number of rows skipped as duplicates so far.
+		 */
+		long duplicates;
+
+		OrderedBatches(final BlockingQueue<Batch> writeQueue,
+				final AtomicReference<Exception> failure, final Set<String> isbns) {
+			this.writeQueue = writeQueue;
+			this.failure = failure;
+			this.isbns = isbns;
+		}
+
+		/**
+		 * Get the next batch in order, waiting for it if necessary.
+		 *
+		 * @return the batch, or null if there are no more
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private Batch nextBatch() throws InterruptedException {
+			while (!early.containsKey(nextSequence) && finished < workers) {
+				final Batch batch = writeQueue.take();
+				if (batch == Batch.END) {
+					finished++;
+				} else {
+					early.put(batch.sequence, batch);
+				}
+			}
+			final Batch retval = early.remove(nextSequence);
+			if (retval != null) {
+				nextSequence++;
+			}
+			return retval;
+		}
+
+		/**
+		 * Report an error in another stage, if there has been one.
+		 */
+		private void checkFailure() {
+			final Exception except = failure.get();
+			if (except != null) {
+				throw new UncheckedIOException(except instanceof IOException
+						? (IOException) except : new IOException(except));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null) {
+				checkFailure();
+				if (current.hasNext()) {
+					final Book book = current.next();
+					if (book.getIsbn().isEmpty() || isbns.add(isbnKey(book.getIsbn()))) {
+						next = book;
+					} else {
+						duplicates++;
+					}
+					continue;
+				}
+				final Batch batch;
+				try {
+					batch = nextBatch();
+				} catch (final InterruptedException except) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(
+							new InterruptedIOException("Interrupted during import"));
+				}
+				if (batch == null) {
+					checkFailure();
+					return false;
+				}
+				rejected += batch.rejected;
+				current = batch.books.iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Book next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final Book retval = next;
+			next = null;
+			return retval;
+		}
+	}
+
+	/**
+	 * Entry point for the transfer tool.
+	 *
+	 * @param args "import" or "export", the catalog file to read or write, and
+	 *             optionally the directory where the CSV files are stored (by
+	 *             default the current directory)
+	 */
+	public static void main(final String... args) {
+		if (args.length < 2
+				|| !("import".equals(args[0]) || "export".equals(args[0]))) {
+			System.err.println("Usage: CatalogTransfer import|export catalog.csv [directory]");
+			return;
+		}
+		final Path directory = Paths.get(args.length > 2 ? args[2] : ".");
+		final DataAccessObject<Author> authorDAO = new AuthorDataAccessObject(
+				directory.resolve("authors.csv").toString());
+		final DataAccessObject<Publisher> publisherDAO = new PublisherDataAccessObject(
+				directory.resolve("publishers.csv").toString());
+		final DataAccessObject<Book> bookDAO = new BookDataAccessObject(
+				directory.resolve("books.csv").toString(), authorDAO, publisherDAO);
+		final CatalogTransfer transfer = new CatalogTransfer(bookDAO, authorDAO,
+				publisherDAO);
+		try {
+			final Report report;
+			if ("import".equals(args[0])) {
+				report = transfer.importCatalog(Paths.get(args[1]));
+			} else {
+				report = transfer.exportCatalog(Paths.get(args[1]));
+			}
+			System.out.println(args[0] + "ed " + report);
+		} catch (final IOException except) {
+			LOGGER.log(Level.SEVERE, "Failed to " + args[0] + " " + args[1], except);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package tools;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The columns of a table being imported, looked up by heading. Headings are
+ * matched ignoring case, spaces, and underscores, so "publisher_Id" and
+ * "Publisher ID" are the same column; callers should pass headings already in
+ * that normalized form (lower-case, with no spaces or underscores).
+ *
+ * @author Jonathan Lovelace
+ */
+final class Columns {
+	/**
+	 * The index of each column, by normalized heading.
+	 */
+	private final Map<String, Integer> indexes = new HashMap<>();
+
+	/**
+	 * @param headings the table's header row
+	 */
+	Columns(final List<String> headings) {
+		for (int i = 0; i < headings.size(); i++) {
+			indexes.putIfAbsent(normalize(headings.get(i)), i);
+		}
+	}
+
+	/**
+	 * Normalize a column heading for matching.
+	 *
+	 * @param heading the heading
+	 * @return it lower-cased, without spaces or underscores
+	 */
+	static String normalize(final String heading) {
+		return heading.replace("_", "").replace(" ", "").trim()
+				.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @param headings any number of (normalized) headings
+	 * @return whether the table has a column with each of them
+	 */
+	boolean has(final String... headings) {
+		for (final String heading : headings) {
+			if (!indexes.containsKey(heading)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the value in a row of the first of the given columns the table has.
+	 *
+	 * @param row      a row of the table
+	 * @param headings the (normalized) headings of the columns to try
+	 * @return the trimmed value of that column in the row, or the empty string if
+	 *         none of the columns exist or the row doesn't reach them
+	 */
+	String get(final List<String> row, final String... headings) {
+		for (final String heading : headings) {
+			final Integer index = indexes.get(heading);
+			if (index != null) {
+				return index < row.size() ? row.get(index).trim() : "";
+			}
+		}
+		return "";
+	}
+}
@@ -0,0 +1,380 @@
+package tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A minimal streaming reader for the cell values in an Office Open XML
+ * spreadsheet (".xlsx" file). The workbook is read as a zip file, and each
+ * worksheet's XML is read with a StAX pull parser as its rows are consumed, so
+ * only the current row (and the workbook's table of shared strings) is ever in
+ * memory. Formatting, formulas (other than their cached values), and dates are
+ * not interpreted: every cell's value is returned as the text stored for it.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class XLSXReader implements Closeable {
+	/**
+	 * The namespace of relationship-ID attributes in the workbook.
+	 */
+	private static final String RELATIONSHIP_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	/**
+	 * The factory to get XML parsers from.
+	 */
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * The spreadsheet file.
+	 */
+	private final ZipFile zip;
+	/**
+	 * The names of the worksheets, in order, mapped to their entries in the zip
+	 * file.
+	 */
+	private final Map<String, String> sheets;
+	/**
+	 * The workbook's shared strings, which cells refer to by index.
+	 */
+	private final List<String> sharedStrings;
+
+	/**
+	 * Open a spreadsheet and read its list of worksheets and its shared strings.
+	 *
+	 * @param file the spreadsheet file
+	 * @throws IOException on I/O error or if the file is not a valid spreadsheet
+	 */
+	public XLSXReader(final Path file) throws IOException {
+		zip = new ZipFile(file.toFile());
+		try {
+			sheets = readSheetList();
+			sharedStrings = readSharedStrings();
+		} catch (final IOException|RuntimeException except) {
+			zip.close();
+			throw except;
+		}
+	}
+
+	/**
+	 * Open a parser over an entry in the zip file.
+	 *
+	 * @param name the name of the entry
+	 * @return a parser over it, or null if there is no such entry
+	 * @throws IOException on I/O or XML error
+	 */
+	private XMLStreamReader open(final String name) throws IOException {
+		final ZipEntry entry = zip.getEntry(name);
+		if (entry == null) {
+			return null;
+		}
+		final InputStream in = zip.getInputStream(entry);
+		try {
+			return FACTORY.createXMLStreamReader(in);
+		} catch (final XMLStreamException except) {
+			in.close();
+			throw new IOException("Malformed XML in " + name, except);
+		}
+	}
+
+	/**
+	 * Read the workbook's list of sheets, and the relationships that say which
+	 * entry in the zip file holds each sheet.
+	 *
+	 * @return the sheet names, in order, mapped to their zip entries
+	 * @throws IOException on I/O or XML error, or if the workbook is missing
+	 */
+	private Map<String, String> readSheetList() throws IOException {
+		final Map<String, String> targets = new HashMap<>();
+		final XMLStreamReader rels = open("xl/_rels/workbook.xml.rels");
+		if (rels != null) {
+			try {
+				while (rels.hasNext()) {
+					if (rels.next() == XMLStreamConstants.START_ELEMENT
+							&& "Relationship".equals(rels.getLocalName())) {
+						final String target = rels.getAttributeValue(null, "Target");
+						if (target.startsWith("/")) {
+							targets.put(rels.getAttributeValue(null, "Id"), target.substring(1));
+						} else {
+							targets.put(rels.getAttributeValue(null, "Id"), "xl/" + target);
+						}
+					}
+				}
+			} catch (final XMLStreamException except) {
+				throw new IOException("Malformed workbook relationships", except);
+			} finally {
+				close(rels);
+			}
+		}
+		final XMLStreamReader workbook = open("xl/workbook.xml");
+		if (workbook == null) {
+			throw new IOException("Not a spreadsheet: no workbook found");
+		}
+		final Map<String, String> retval = new LinkedHashMap<>();
+		try {
+			int index = 1;
+			while (workbook.hasNext()) {
+				if (workbook.next() == XMLStreamConstants.START_ELEMENT
+						&& "sheet".equals(workbook.getLocalName())) {
+					final String target = targets.get(
+							workbook.getAttributeValue(RELATIONSHIP_NS, "id"));
+					retval.put(workbook.getAttributeValue(null, "name"), target == null
+							? "xl/worksheets/sheet" + index + ".xml" : target);
+					index++;
+				}
+			}
+		} catch (final XMLStreamException except) {
+			throw new IOException("Malformed workbook", except);
+		} finally {
+			close(workbook);
+		}
+		return retval;
+	}
+
+	/**
+	 * Read the workbook's shared strings. A string made up of several
+	 * differently-formatted runs is read as the concatenation of their text;
+	 * phonetic hints are skipped.
+	 *
+	 * @return the shared strings, in order
+	 * @throws IOException on I/O or XML error
+	 */
+	private List<String> readSharedStrings() throws IOException {
+		final XMLStreamReader in = open("xl/sharedStrings.xml");
+		if (in == null) {
+			return Collections.emptyList();
+		}
+		final List<String> retval = new ArrayList<>();
+		try {
+			final StringBuilder current = new StringBuilder();
+			boolean inPhonetic = false;
+			while (in.hasNext()) {
+				switch (in.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					if ("si".equals(in.getLocalName())) {
+						current.setLength(0);
+					} else if ("rPh".equals(in.getLocalName())) {
+						inPhonetic = true;
+					} else if ("t".equals(in.getLocalName()) && !inPhonetic) {
+						current.append(in.getElementText());
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if ("si".equals(in.getLocalName())) {
+						retval.add(current.toString());
+					} else if ("rPh".equals(in.getLocalName())) {
+						inPhonetic = false;
+					}
+					break;
+				default:
+					break;
+				}
+			}
+		} catch (final XMLStreamException except) {
+			throw new IOException("Malformed shared strings", except);
+		} finally {
+			close(in);
+		}
+		return retval;
+	}
+
+	/**
+	 * Close a parser, ignoring errors.
+	 *
+	 * @param in the parser to close
+	 */
+	private static void close(final XMLStreamReader in) {
+		try {
+			in.close();
+		} catch (final XMLStreamException except) {
+			// Nothing useful to do about it
+		}
+	}
+
+	/**
+	 * @return the names of the worksheets in the workbook, in order
+	 */
+	public List<String> getSheetNames() {
+		return new ArrayList<>(sheets.keySet());
+	}
+
+	/**
+	 * Convert a cell reference like "AB12" to the zero-based index of its column.
+	 *
+	 * @param reference the cell reference
+	 * @return the index of its column, or -1 if it has none
+	 */
+	static int columnIndex(final String reference) {
+		int retval = 0;
+		int i = 0;
+		while (i < reference.length() && Character.isLetter(reference.charAt(i))) {
+			retval = retval * 26 + (Character.toUpperCase(reference.charAt(i)) - 'A' + 1);
+			i++;
+		}
+		return retval - 1;
+	}
+
+	/**
+	 * Stream the rows of a worksheet. Each row is a list of the text of its cells,
+	 * with empty strings for cells left out of the file; empty rows the file leaves
+	 * out entirely are skipped. The stream must be closed when no longer needed.
+	 * Errors reading the sheet after the stream is returned are reported as
+	 * {@link UncheckedIOException}.
+	 *
+	 * @param sheet the name of the worksheet
+	 * @return its rows, in order
+	 * @throws IOException on I/O error, or if there is no such worksheet
+	 */
+	public Stream<List<String>> rows(final String sheet) throws IOException {
+		final String entry = sheets.get(sheet);
+		final XMLStreamReader in = entry == null ? null : open(entry);
+		if (in == null) {
+			throw new IOException("No such worksheet: " + sheet);
+		}
+		final Iterator<List<String>> iterator = new RowIterator(in);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(() -> close(in));
+	}
+
+	/**
+	 * An iterator over the rows of a worksheet, parsing each as it is requested.
+	 */
+	private final class RowIterator implements Iterator<List<String>> {
+		/**
+		 * The parser over the worksheet.
+		 */
+		private final XMLStreamReader in;
+		/**
+		 * The next row, if it has been read but not returned yet.
+		 */
+		private List<String> next;
+
+		RowIterator(final XMLStreamReader in) {
+			this.in = in;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = readRow();
+				} catch (final XMLStreamException except) {
+					throw new UncheckedIOException(
+							new IOException("Malformed worksheet", except));
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public List<String> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final List<String> retval = next;
+			next = null;
+			return retval;
+		}
+
+		/**
+		 * Read the next row.
+		 *
+		 * @return the row, or null if there are no more
+		 * @throws XMLStreamException on malformed XML
+		 */
+		private List<String> readRow() throws XMLStreamException {
+			while (in.hasNext()) {
+				if (in.next() == XMLStreamConstants.START_ELEMENT
+						&& "row".equals(in.getLocalName())) {
+					break;
+				}
+			}
+			if (!in.hasNext()) {
+				return null;
+			}
+			final List<String> row = new ArrayList<>();
+			while (in.hasNext()) {
+				final int event = in.next();
+				if (event == XMLStreamConstants.END_ELEMENT
+						&& "row".equals(in.getLocalName())) {
+					return row;
+				} else if (event == XMLStreamConstants.START_ELEMENT
+						&& "c".equals(in.getLocalName())) {
+					final String reference = in.getAttributeValue(null, "r");
+					final int column = reference == null ? row.size()
+							: columnIndex(reference);
+					final String value = readCell(in.getAttributeValue(null, "t"));
+					while (row.size() < column) {
+						row.add("");
+					}
+					row.add(value);
+				}
+			}
+			return row;
+		}
+
+		/**
+		 * Read the value of the cell the parser is at the start of, leaving the
+		 * parser at its end.
+		 *
+		 * @param type the cell's type attribute, if any
+		 * @return the cell's value as text
+		 * @throws XMLStreamException on malformed XML
+		 */
+		private String readCell(final String type) throws XMLStreamException {
+			final StringBuilder value = new StringBuilder();
+			while (in.hasNext()) {
+				final int event = in.next();
+				if (event == XMLStreamConstants.END_ELEMENT
+						&& "c".equals(in.getLocalName())) {
+					break;
+				} else if (event == XMLStreamConstants.START_ELEMENT
+						&& ("v".equals(in.getLocalName()) || "t".equals(in.getLocalName()))) {
+					value.append(in.getElementText());
+				}
+			}
+			if ("s".equals(type) && value.length() > 0) {
+				final int index = Integer.parseInt(value.toString().trim());
+				if (index < 0 || index >= sharedStrings.size()) {
+					throw new XMLStreamException("Shared string index out of range: " + index);
+				}
+				return sharedStrings.get(index);
+			} else if ("b".equals(type)) {
+				return "1".equals(value.toString()) ? "TRUE" : "FALSE";
+			} else {
+				return value.toString();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		zip.close();
+	}
+}
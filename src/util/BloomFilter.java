@@ -0,0 +1,163 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Bloom filter over longs and strings: a compact set that can say for
+ * certain that a value was never added, but may wrongly say that one was. The
+ * filter is sized for an expected number of values and a target rate of such
+ * false positives; adding many more values than expected raises the rate.
+ * Values cannot be removed. Not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class BloomFilter {
+	/**
+	 * The bits, packed into words.
+	 */
+	private final long[] bits;
+	/**
+	 * The number of bits.
+	 */
+	private final long bitCount;
+	/**
+	 * How many bits each value sets.
+	 */
+	private final int hashCount;
+	/**
+	 * How many values the filter was sized for.
+	 */
+	private final int capacity;
+	/**
+	 * How many values have been added (counting repeats).
+	 */
+	private int added;
+
+	/**
+	 * @param expected          how many values are expected to be added
+	 * @param falsePositiveRate the desired rate of false positives once that many
+	 *                          have been, between 0 and 1 exclusive
+	 */
+	public BloomFilter(final int expected, final double falsePositiveRate) {
+		if (falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+			throw new IllegalArgumentException(
+					"False-positive rate must be between 0 and 1");
+		}
+		capacity = Math.max(1, expected);
+		final double ln2 = Math.log(2);
+		final long optimalBits = (long) Math.ceil(
+				-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+		final int words = (int) Math.min(Integer.MAX_VALUE - 8,
+				Math.max(1, (optimalBits + 63) / 64));
+		bits = new long[words];
+		bitCount = words * 64L;
+		hashCount = Math.max(1,
+				(int) Math.round((double) bitCount / capacity * ln2));
+	}
+
+	/**
+	 * A 64-bit mixing function (from SplitMix64), so that nearby inputs give
+	 * unrelated outputs.
+	 *
+	 * @param value a value
+	 * @return its scrambled form
+	 */
+	private static long mix(final long value) {
+		long retval = value + 0x9E3779B97F4A7C15L;
+		retval = (retval ^ (retval >>> 30)) * 0xBF58476D1CE4E5B9L;
+		retval = (retval ^ (retval >>> 27)) * 0x94D049BB133111EBL;
+		return retval ^ (retval >>> 31);
+	}
+
+	/**
+	 * @param value a string
+	 * @return a 64-bit hash of its UTF-8 encoding
+	 */
+	private static long hash(final String value) {
+		long retval = 0xCBF29CE484222325L;
+		for (final byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			retval = (retval ^ (b & 0xFF)) * 0x100000001B3L;
+		}
+		return retval;
+	}
+
+	/**
+	 * Set (or, if not setting, test) the bits for a hashed value. The bit
+	 * positions are derived from two halves of one hash by double hashing.
+	 *
+	 * @param hash the hash of the value
+	 * @param set  whether to set the bits rather than test them
+	 * @return whether all the bits were already set
+	 */
+	private boolean probe(final long hash, final boolean set) {
+		final long first = mix(hash);
+		final long second = mix(first) | 1;
+		boolean retval = true;
+		long combined = first;
+		for (int i = 0; i < hashCount; i++) {
+			final long bit = (combined & Long.MAX_VALUE) % bitCount;
+			final int word = (int) (bit >>> 6);
+			final long mask = 1L << bit;
+			if ((bits[word] & mask) == 0) {
+				if (!set) {
+					return false;
+				}
+				retval = false;
+				bits[word] |= mask;
+			}
+			combined += second;
+		}
+		return retval;
+	}
+
+	/**
+	 * Add a number to the filter.
+	 *
+	 * @param value the number
+	 */
+	public void add(final long value) {
+		probe(value, true);
+		added++;
+	}
+
+	/**
+	 * Add a string to the filter.
+	 *
+	 * @param value the string
+	 */
+	public void add(final String value) {
+		probe(hash(value), true);
+		added++;
+	}
+
+	/**
+	 * @param value a number
+	 * @return false if it was definitely never added, true if it may have been
+	 */
+	public boolean mightContain(final long value) {
+		return probe(value, false);
+	}
+
+	/**
+	 * @param value a string
+	 * @return false if it was definitely never added, true if it may have been
+	 */
+	public boolean mightContain(final String value) {
+		return probe(hash(value), false);
+	}
+
+	/**
+	 * @return whether more values have been added than the filter was sized for,
+	 *         so that its false-positive rate is worse than was asked for
+	 */
+	public boolean isSaturated() {
+		return added > capacity;
+	}
+
+	/**
+	 * @return how many values have been added, counting repeats
+	 */
+	public int getAdded() {
+		return added;
+	}
+}
@@ -0,0 +1,166 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A thread-safe map from primitive long keys (such as IDs) to objects. The keys
+ * are divided among a fixed number of segments, each a {@link LongObjectMap}
+ * with its own lock, so threads working on keys in different segments don't
+ * contend, and no operation on a single key takes time proportional to the
+ * size of the map. Unlike {@link LongObjectMap}, the map as a whole does not
+ * remember the order keys were added in. Null values are not permitted.
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <V> the type of the values
+ */
+public final class ConcurrentLongObjectMap<V> {
+	/**
+	 * The number of segments. A power of two, comfortably more than the number
+	 * of threads we expect to be writing at once.
+	 */
+	private static final int SEGMENTS = 64;
+
+	/**
+	 * The segments. Each is also the lock guarding it.
+	 */
+	private final List<LongObjectMap<V>> segments;
+
+	public ConcurrentLongObjectMap() {
+		this(8);
+	}
+
+	/**
+	 * @param expected the number of entries expected
+	 */
+	public ConcurrentLongObjectMap(final int expected) {
+		segments = new ArrayList<>(SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments.add(new LongObjectMap<>(expected / SEGMENTS));
+		}
+	}
+
+	/**
+	 * Choose the segment for a key. This uses a different multiplier from the
+	 * one the segments use to choose a slot, so that the keys in any one segment
+	 * still spread across all of its slots.
+	 *
+	 * @param key a key
+	 * @return the segment it belongs in
+	 */
+	private LongObjectMap<V> segmentFor(final long key) {
+		final long hash = key * 0xC2B2AE3D27D4EB4FL;
+		return segments.get((int) (hash >>> 58) & (SEGMENTS - 1));
+	}
+
+	/**
+	 * @param key a key
+	 * @return the value associated with it, or null if none
+	 */
+	public V get(final long key) {
+		final LongObjectMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	/**
+	 * @param key a key
+	 * @return whether it has a value
+	 */
+	public boolean containsKey(final long key) {
+		final LongObjectMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+
+	/**
+	 * @param key   a key
+	 * @param value the value to associate with it
+	 * @return the value it was previously associated with, or null if none
+	 */
+	public V put(final long key, final V value) {
+		final LongObjectMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value);
+		}
+	}
+
+	/**
+	 * @param key a key
+	 * @return the value it was associated with, or null if none
+	 */
+	public V remove(final long key) {
+		final LongObjectMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+
+	/**
+	 * Atomically compute a new value for a key from its current value. The
+	 * function is called with the key's segment locked, so it may have side
+	 * effects (such as logging the change) that must happen in the same order as
+	 * the changes themselves; it must not use this map.
+	 *
+	 * @param key       a key
+	 * @param remapping a function from the key's current value (or null if none)
+	 *                  to its new value (or null to remove it)
+	 * @return the key's new value, or null if none
+	 */
+	public V compute(final long key, final Function<? super V, ? extends V> remapping) {
+		final LongObjectMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			final V updated = remapping.apply(segment.get(key));
+			if (updated == null) {
+				segment.remove(key);
+			} else {
+				segment.put(key, updated);
+			}
+			return updated;
+		}
+	}
+
+	/**
+	 * @return the number of entries; if other threads are changing the map, it
+	 *         may not be exact
+	 */
+	public int size() {
+		int retval = 0;
+		for (final LongObjectMap<V> segment : segments) {
+			synchronized (segment) {
+				retval += segment.size();
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Remove every entry.
+	 */
+	public void clear() {
+		for (final LongObjectMap<V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the values, locking one segment at a time; if other
+	 *         threads are changing the map, it may include some of their changes
+	 *         and not others
+	 */
+	public List<V> values() {
+		final List<V> retval = new ArrayList<>();
+		for (final LongObjectMap<V> segment : segments) {
+			synchronized (segment) {
+				retval.addAll(segment.values());
+			}
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,129 @@
+package util;
+
+/**
+ * An approximate count of how often each key has been seen recently: a
+ * count-min sketch of four-bit counters, sixteen to a long. Each key has a
+ * counter in each of four rows, and its estimate is the smallest of them, so
+ * collisions can only make an estimate too high. Once the number of increments
+ * reaches ten times the size of the table, every counter is halved, so that
+ * keys that were popular long ago are gradually forgotten.
+ *
+ * @author Jonathan Lovelace
+ */
+final class FrequencySketch {
+	/**
+	 * Seeds for the four rows' hash functions.
+	 */
+	private static final long[] SEEDS = { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L,
+			0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+	/**
+	 * The bits of each counter but its highest, to halve all sixteen at once.
+	 */
+	private static final long HALF_MASK = 0x7777777777777777L;
+	/**
+	 * The largest value a counter can hold.
+	 */
+	private static final int MAX_COUNT = 15;
+
+	/**
+	 * The counters.
+	 */
+	private long[] table;
+	/**
+	 * The number of increments since the counters were last halved.
+	 */
+	private int additions;
+	/**
+	 * How many increments to allow before halving the counters.
+	 */
+	private int sampleSize;
+
+	/**
+	 * @param expected the number of distinct keys expected to be tracked at once
+	 */
+	FrequencySketch(final int expected) {
+		allocate(expected);
+	}
+
+	/**
+	 * @param expected the number of distinct keys expected to be tracked at once
+	 */
+	private void allocate(final int expected) {
+		int size = 16;
+		while (size < expected && size < LongHashing.MAX_CAPACITY) {
+			size <<= 1;
+		}
+		table = new long[size];
+		sampleSize = size * 10;
+		additions = 0;
+	}
+
+	/**
+	 * Grow the table, forgetting every count, if it is too small to track the
+	 * given number of keys accurately.
+	 *
+	 * @param expected the number of distinct keys now expected
+	 */
+	void ensureCapacity(final int expected) {
+		if (expected > table.length && table.length < LongHashing.MAX_CAPACITY) {
+			allocate(expected);
+		}
+	}
+
+	/**
+	 * @param key a key
+	 * @param row which of the four rows
+	 * @return the index in {@link #table} of the long holding the key's counter
+	 *         in that row, in the upper 32 bits, and the counter's bit offset in
+	 *         that long, in the lower
+	 */
+	private long locate(final long key, final int row) {
+		long hash = (key + SEEDS[row]) * SEEDS[row];
+		hash ^= hash >>> 29;
+		final int index = (int) (hash >>> 32) & (table.length - 1);
+		final int offset = ((int) hash & 15) << 2;
+		return ((long) index << 32) | offset;
+	}
+
+	/**
+	 * @param key a key
+	 * @return an estimate of how often it has been seen recently, at most 15
+	 */
+	int frequency(final long key) {
+		int retval = MAX_COUNT;
+		for (int row = 0; row < SEEDS.length; row++) {
+			final long location = locate(key, row);
+			final int count = (int) (table[(int) (location >>> 32)] >>> (int) location)
+					& MAX_COUNT;
+			retval = Math.min(retval, count);
+		}
+		return retval;
+	}
+
+	/**
+	 * Record that a key has been seen.
+	 *
+	 * @param key a key
+	 */
+	void increment(final long key) {
+		boolean added = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			final long location = locate(key, row);
+			final int index = (int) (location >>> 32);
+			final int offset = (int) location;
+			if (((table[index] >>> offset) & MAX_COUNT) < MAX_COUNT) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+		if (added) {
+			additions++;
+			if (additions >= sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & HALF_MASK;
+				}
+				additions /= 2;
+			}
+		}
+	}
+}
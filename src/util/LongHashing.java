@@ -0,0 +1,43 @@
+package util;
+
+/**
+ * Helpers shared by the open-addressing hash tables in this package.
+ *
+ * @author Jonathan Lovelace
+ */
+final class LongHashing {
+	/**
+	 * The largest table size we will allocate.
+	 */
+	static final int MAX_CAPACITY = 1 << 30;
+
+	private LongHashing() {
+		// Do not instantiate
+	}
+
+	/**
+	 * Spread the bits of a key, so that sequential IDs don't all land in
+	 * neighboring slots.
+	 *
+	 * @param key  a key
+	 * @param mask one less than the (power-of-two) size of the table
+	 * @return the slot the key would ideally occupy
+	 */
+	static int slot(final long key, final int mask) {
+		final long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * @param expected the number of entries expected
+	 * @return a power-of-two table size that can hold that many entries at no
+	 *         more than three-quarters full
+	 */
+	static int capacityFor(final int expected) {
+		int retval = 8;
+		while (retval < MAX_CAPACITY && (long) retval * 3 < (long) expected * 4) {
+			retval <<= 1;
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,208 @@
+package util;
+
+/**
+ * A map from primitive long keys to primitive long values (such as an index
+ * from IDs to offsets or to other IDs), which neither boxes nor allocates on
+ * lookup. Collisions are resolved by linear probing, and removals shift later
+ * entries back rather than leaving tombstones. Iteration order is unspecified.
+ * Not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class LongLongMap {
+	/**
+	 * The keys, by slot.
+	 */
+	private long[] keys;
+	/**
+	 * The values, by slot.
+	 */
+	private long[] values;
+	/**
+	 * Which slots are occupied.
+	 */
+	private boolean[] occupied;
+	/**
+	 * The number of entries.
+	 */
+	private int size;
+
+	public LongLongMap() {
+		this(8);
+	}
+
+	/**
+	 * @param expected the number of entries expected
+	 */
+	public LongLongMap(final int expected) {
+		allocate(LongHashing.capacityFor(expected));
+	}
+
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		occupied = new boolean[capacity];
+		size = 0;
+	}
+
+	/**
+	 * @param key a key
+	 * @return the slot holding it, or the empty slot where it would go
+	 */
+	private int find(final long key) {
+		final int mask = keys.length - 1;
+		int slot = LongHashing.slot(key, mask);
+		while (occupied[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param key          a key
+	 * @param defaultValue what to return if the key is not in the map
+	 * @return the value for that key, or the default if none
+	 */
+	public long get(final long key, final long defaultValue) {
+		final int slot = find(key);
+		return occupied[slot] ? values[slot] : defaultValue;
+	}
+
+	/**
+	 * @param key a key
+	 * @return whether the map has a value for it
+	 */
+	public boolean containsKey(final long key) {
+		return occupied[find(key)];
+	}
+
+	/**
+	 * Store a value for a key, replacing any already stored.
+	 *
+	 * @param key   the key
+	 * @param value the value
+	 */
+	public void put(final long key, final long value) {
+		int slot = find(key);
+		if (!occupied[slot]) {
+			if ((size + 1) * 4L > keys.length * 3L) {
+				grow();
+				slot = find(key);
+			}
+			occupied[slot] = true;
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+
+	/**
+	 * Add to the value stored for a key, treating a missing key as zero.
+	 *
+	 * @param key   the key
+	 * @param delta the amount to add
+	 * @return the new value
+	 */
+	public long addTo(final long key, final long delta) {
+		final long retval = get(key, 0L) + delta;
+		put(key, retval);
+		return retval;
+	}
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param key          the key
+	 * @param defaultValue what to return if the key was not in the map
+	 * @return the value that was stored for it, or the default if none
+	 */
+	public long remove(final long key, final long defaultValue) {
+		int hole = find(key);
+		if (!occupied[hole]) {
+			return defaultValue;
+		}
+		final long retval = values[hole];
+		final int mask = keys.length - 1;
+		int slot = (hole + 1) & mask;
+		while (occupied[slot]) {
+			final int ideal = LongHashing.slot(keys[slot], mask);
+			if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		occupied[hole] = false;
+		size--;
+		return retval;
+	}
+
+	/**
+	 * Double the size of the table.
+	 */
+	private void grow() {
+		if (keys.length >= LongHashing.MAX_CAPACITY) {
+			throw new IllegalStateException("Map is full");
+		}
+		final long[] oldKeys = keys;
+		final long[] oldValues = values;
+		final boolean[] oldOccupied = occupied;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldOccupied[i]) {
+				final int slot = find(oldKeys[i]);
+				occupied[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove every entry.
+	 */
+	public void clear() {
+		allocate(LongHashing.capacityFor(0));
+	}
+
+	/**
+	 * An action to perform on each entry in the map.
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		/**
+		 * @param key   the key of an entry
+		 * @param value its value
+		 */
+		void accept(long key, long value);
+	}
+
+	/**
+	 * Perform an action on each entry. The action must not modify the map.
+	 *
+	 * @param action the action
+	 */
+	public void forEach(final EntryConsumer action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (occupied[i]) {
+				action.accept(keys[i], values[i]);
+			}
+		}
+	}
+}
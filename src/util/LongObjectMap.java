@@ -0,0 +1,301 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A map from primitive long keys (such as IDs) to objects, which neither boxes
+ * its keys nor allocates anything on lookup. Like a
+ * {@link java.util.LinkedHashMap}, it remembers the order in which keys were
+ * first added, and replacing a key's value does not change its position.
+ *
+ * <p>Entries are kept in insertion order in parallel arrays of keys and values;
+ * a separate open-addressing hash table (probed linearly) maps each key to its
+ * entry. Removing a key leaves a gap in the entry arrays, which is squeezed out
+ * the next time they fill up. Null values are not permitted. Not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <V> the type of the values
+ */
+public final class LongObjectMap<V> {
+	/**
+	 * Marks an empty slot in the hash table.
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * The hash table: for each slot, the index of the entry whose key is there,
+	 * or {@link #EMPTY}.
+	 */
+	private int[] table;
+	/**
+	 * The keys of the entries, in insertion order.
+	 */
+	private long[] keys;
+	/**
+	 * The values of the entries, in insertion order; null for removed entries.
+	 */
+	private Object[] values;
+	/**
+	 * The number of entries used in the entry arrays, including removed ones.
+	 */
+	private int used;
+	/**
+	 * The number of live entries.
+	 */
+	private int size;
+
+	public LongObjectMap() {
+		this(8);
+	}
+
+	/**
+	 * @param expected the number of entries expected
+	 */
+	public LongObjectMap(final int expected) {
+		allocate(LongHashing.capacityFor(expected));
+	}
+
+	/**
+	 * @param original a map to copy, including its iteration order
+	 */
+	public LongObjectMap(final LongObjectMap<? extends V> original) {
+		this(original.size);
+		original.forEach(this::put);
+	}
+
+	/**
+	 * Replace the hash table and entry arrays with empty ones.
+	 *
+	 * @param capacity the size of the new hash table
+	 */
+	private void allocate(final int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		keys = new long[capacity / 4 * 3];
+		values = new Object[keys.length];
+		used = 0;
+		size = 0;
+	}
+
+	/**
+	 * @param key a key
+	 * @return the slot in the hash table holding it, or the empty slot where it
+	 *         would go
+	 */
+	private int find(final long key) {
+		final int mask = table.length - 1;
+		int slot = LongHashing.slot(key, mask);
+		while (table[slot] != EMPTY && keys[table[slot]] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param key a key
+	 * @return the value for that key, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(final long key) {
+		final int entry = table[find(key)];
+		return entry == EMPTY ? null : (V) values[entry];
+	}
+
+	/**
+	 * @param key          a key
+	 * @param defaultValue what to return if the key is not in the map
+	 * @return the value for that key, or the default if none
+	 */
+	public V getOrDefault(final long key, final V defaultValue) {
+		final V retval = get(key);
+		return retval == null ? defaultValue : retval;
+	}
+
+	/**
+	 * @param key a key
+	 * @return whether the map has a value for it
+	 */
+	public boolean containsKey(final long key) {
+		return table[find(key)] != EMPTY;
+	}
+
+	/**
+	 * Store a value for a key. If the key was already present, it keeps its place
+	 * in the iteration order.
+	 *
+	 * @param key   the key
+	 * @param value the value; must not be null
+	 * @return the value previously stored for the key, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(final long key, final V value) {
+		Objects.requireNonNull(value, "Null values are not permitted");
+		int slot = find(key);
+		if (table[slot] != EMPTY) {
+			final V retval = (V) values[table[slot]];
+			values[table[slot]] = value;
+			return retval;
+		}
+		if (used == keys.length) {
+			rebuild(size < used / 2 ? table.length : table.length * 2);
+			slot = find(key);
+		}
+		keys[used] = key;
+		values[used] = value;
+		table[slot] = used;
+		used++;
+		size++;
+		return null;
+	}
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param key the key
+	 * @return the value that was stored for it, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(final long key) {
+		int hole = find(key);
+		final int entry = table[hole];
+		if (entry == EMPTY) {
+			return null;
+		}
+		final V retval = (V) values[entry];
+		values[entry] = null;
+		size--;
+		final int mask = table.length - 1;
+		int slot = (hole + 1) & mask;
+		while (table[slot] != EMPTY) {
+			final int ideal = LongHashing.slot(keys[table[slot]], mask);
+			// Move the entry back into the hole unless its home lies cyclically
+			// after the hole and at or before its current slot.
+			if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+				table[hole] = table[slot];
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		table[hole] = EMPTY;
+		return retval;
+	}
+
+	/**
+	 * Rebuild the hash table and entry arrays, squeezing out removed entries.
+	 *
+	 * @param capacity the size of the new hash table
+	 */
+	private void rebuild(final int capacity) {
+		if (capacity > LongHashing.MAX_CAPACITY) {
+			throw new IllegalStateException("Map is full");
+		}
+		final long[] oldKeys = keys;
+		final Object[] oldValues = values;
+		final int oldUsed = used;
+		allocate(capacity);
+		for (int i = 0; i < oldUsed; i++) {
+			if (oldValues[i] != null) {
+				keys[used] = oldKeys[i];
+				values[used] = oldValues[i];
+				table[find(oldKeys[i])] = used;
+				used++;
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether the map is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove every entry.
+	 */
+	public void clear() {
+		allocate(LongHashing.capacityFor(0));
+	}
+
+	/**
+	 * @return the keys in the map, in insertion order
+	 */
+	public long[] keys() {
+		final long[] retval = new long[size];
+		int index = 0;
+		for (int i = 0; i < used; i++) {
+			if (values[i] != null) {
+				retval[index] = keys[i];
+				index++;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * @return a copy of the values in the map, in insertion order
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		final List<V> retval = new ArrayList<>(size);
+		for (int i = 0; i < used; i++) {
+			if (values[i] != null) {
+				retval.add((V) values[i]);
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * An action to perform on each entry in the map.
+	 *
+	 * @param <V> the type of the values
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		/**
+		 * @param key   the key of an entry
+		 * @param value its value
+		 */
+		void accept(long key, V value);
+	}
+
+	/**
+	 * Perform an action on each entry, in insertion order. The action must not
+	 * modify the map.
+	 *
+	 * @param action the action
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(final EntryConsumer<? super V> action) {
+		for (int i = 0; i < used; i++) {
+			if (values[i] != null) {
+				action.accept(keys[i], (V) values[i]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("{");
+		forEach((key, value) -> {
+			if (builder.length() > 1) {
+				builder.append(", ");
+			}
+			builder.append(key).append('=').append(value);
+		});
+		return builder.append('}').toString();
+	}
+}
@@ -0,0 +1,183 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs (such as the IDs in use in a table), which neither
+ * boxes nor allocates on lookup. Collisions are resolved by linear probing, and
+ * removals shift later entries back rather than leaving tombstones. Iteration
+ * order is unspecified. Not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class LongSet {
+	/**
+	 * The members, by slot.
+	 */
+	private long[] members;
+	/**
+	 * Which slots are occupied.
+	 */
+	private boolean[] occupied;
+	/**
+	 * The number of members.
+	 */
+	private int size;
+	/**
+	 * The largest member, or {@link Long#MIN_VALUE} if there has never been one.
+	 * Not lowered when that member is removed.
+	 */
+	private long max = Long.MIN_VALUE;
+
+	public LongSet() {
+		this(8);
+	}
+
+	/**
+	 * @param expected the number of members expected
+	 */
+	public LongSet(final int expected) {
+		allocate(LongHashing.capacityFor(expected));
+	}
+
+	private void allocate(final int capacity) {
+		members = new long[capacity];
+		occupied = new boolean[capacity];
+		size = 0;
+	}
+
+	/**
+	 * @param value a value
+	 * @return the slot holding it, or the empty slot where it would go
+	 */
+	private int find(final long value) {
+		final int mask = members.length - 1;
+		int slot = LongHashing.slot(value, mask);
+		while (occupied[slot] && members[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @param value a value
+	 * @return whether it is in the set
+	 */
+	public boolean contains(final long value) {
+		return occupied[find(value)];
+	}
+
+	/**
+	 * Add a value to the set.
+	 *
+	 * @param value the value
+	 * @return true if it was not already in the set
+	 */
+	public boolean add(final long value) {
+		int slot = find(value);
+		if (occupied[slot]) {
+			return false;
+		}
+		if ((size + 1) * 4L > members.length * 3L) {
+			grow();
+			slot = find(value);
+		}
+		occupied[slot] = true;
+		members[slot] = value;
+		size++;
+		max = Math.max(max, value);
+		return true;
+	}
+
+	/**
+	 * Remove a value from the set.
+	 *
+	 * @param value the value
+	 * @return true if it was in the set
+	 */
+	public boolean remove(final long value) {
+		int hole = find(value);
+		if (!occupied[hole]) {
+			return false;
+		}
+		final int mask = members.length - 1;
+		int slot = (hole + 1) & mask;
+		while (occupied[slot]) {
+			final int ideal = LongHashing.slot(members[slot], mask);
+			if (((slot - ideal) & mask) >= ((slot - hole) & mask)) {
+				members[hole] = members[slot];
+				hole = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		occupied[hole] = false;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Double the size of the table.
+	 */
+	private void grow() {
+		if (members.length >= LongHashing.MAX_CAPACITY) {
+			throw new IllegalStateException("Set is full");
+		}
+		final long[] oldMembers = members;
+		final boolean[] oldOccupied = occupied;
+		allocate(members.length * 2);
+		for (int i = 0; i < oldMembers.length; i++) {
+			if (oldOccupied[i]) {
+				final int slot = find(oldMembers[i]);
+				occupied[slot] = true;
+				members[slot] = oldMembers[i];
+				size++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of members
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether the set is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the largest value ever added to the set (even if since removed), or
+	 *         {@link Long#MIN_VALUE} if none has been
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Remove every member.
+	 */
+	public void clear() {
+		allocate(LongHashing.capacityFor(0));
+		max = Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return the members, in ascending order
+	 */
+	public long[] toSortedArray() {
+		final long[] retval = new long[size];
+		int index = 0;
+		for (int i = 0; i < members.length; i++) {
+			if (occupied[i]) {
+				retval[index] = members[i];
+				index++;
+			}
+		}
+		Arrays.sort(retval);
+		return retval;
+	}
+}
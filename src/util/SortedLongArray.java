@@ -0,0 +1,162 @@
+package util;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * A growable array of distinct primitive longs kept in ascending order, such as
+ * a posting list of the IDs of records containing some term in an index.
+ * Adding values in ascending order (the usual case when IDs are assigned
+ * sequentially) is amortized constant time; other insertions and removals shift
+ * the later elements. Lookups are binary searches. Not thread-safe.
+ *
+ * @author Jonathan Lovelace
+ */
+public final class SortedLongArray {
+	/**
+	 * The elements, in ascending order, followed by unused space.
+	 */
+	private long[] elements;
+	/**
+	 * The number of elements.
+	 */
+	private int size;
+
+	public SortedLongArray() {
+		this(4);
+	}
+
+	/**
+	 * @param expected the number of elements expected
+	 */
+	public SortedLongArray(final int expected) {
+		elements = new long[Math.max(1, expected)];
+	}
+
+	/**
+	 * @param value a value
+	 * @return its index, if present; otherwise (-(insertion point) - 1)
+	 */
+	private int search(final long value) {
+		return Arrays.binarySearch(elements, 0, size, value);
+	}
+
+	/**
+	 * Add a value, if not already present.
+	 *
+	 * @param value the value
+	 * @return true if it was not already present
+	 */
+	public boolean add(final long value) {
+		final int index;
+		if (size == 0 || elements[size - 1] < value) {
+			index = size;
+		} else {
+			final int found = search(value);
+			if (found >= 0) {
+				return false;
+			}
+			index = -found - 1;
+		}
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, Math.max(4, size + (size >> 1)));
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = value;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Remove a value, if present.
+	 *
+	 * @param value the value
+	 * @return true if it was present
+	 */
+	public boolean remove(final long value) {
+		final int index = search(value);
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		size--;
+		return true;
+	}
+
+	/**
+	 * @param value a value
+	 * @return whether it is present
+	 */
+	public boolean contains(final long value) {
+		return search(value) >= 0;
+	}
+
+	/**
+	 * @param index an index
+	 * @return the element at that index
+	 */
+	public long get(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+		return elements[index];
+	}
+
+	/**
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether there are no elements
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return a copy of the elements, in ascending order
+	 */
+	public long[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+	/**
+	 * @return the elements, in ascending order
+	 */
+	public LongStream stream() {
+		return Arrays.stream(elements, 0, size);
+	}
+
+	/**
+	 * Find the elements present in both of two arrays, by merging them.
+	 *
+	 * @param first  one array
+	 * @param second another
+	 * @return the elements in both, in ascending order
+	 */
+	public static SortedLongArray intersect(final SortedLongArray first,
+			final SortedLongArray second) {
+		final SortedLongArray retval = new SortedLongArray(
+				Math.min(first.size, second.size));
+		int i = 0;
+		int j = 0;
+		while (i < first.size && j < second.size) {
+			final long a = first.elements[i];
+			final long b = second.elements[j];
+			if (a < b) {
+				i++;
+			} else if (b < a) {
+				j++;
+			} else {
+				retval.elements[retval.size] = a;
+				retval.size++;
+				i++;
+				j++;
+			}
+		}
+		return retval;
+	}
+}
@@ -0,0 +1,385 @@
+package util;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * A cache of values by primitive long key (such as ID), bounded by the total
+ * estimated size of its values rather than their number, which decides what to
+ * keep by W-TinyLFU: how often each key has been asked for recently, as
+ * estimated by a {@link FrequencySketch}, as well as how recently.
+ *
+ * <p>New entries go into a small LRU "window" (1% of the capacity), so that a
+ * burst of requests for something new can be served. An entry pushed out of
+ * the window is only admitted to the main space if it has been asked for more
+ * often than the entry it would displace; otherwise it is the one evicted, so
+ * that a scan through many keys each asked for once can't flush out popular
+ * ones. The main space is a segmented LRU: entries start in "probation", move
+ * to "protected" (80% of the main space) when asked for again, and are demoted
+ * back to probation when protected overflows; victims come from the
+ * least-recently-used end of probation.
+ *
+ * <p>All methods are synchronized.
+ *
+ * @author Jonathan Lovelace
+ *
+ * @param <V> the type of the values
+ */
+public final class TinyLfuCache<V> {
+	/**
+	 * The queue new entries start in.
+	 */
+	private static final int WINDOW = 0;
+	/**
+	 * The queue of main-space entries asked for only once since admission.
+	 */
+	private static final int PROBATION = 1;
+	/**
+	 * The queue of main-space entries asked for again since admission.
+	 */
+	private static final int PROTECTED = 2;
+
+	/**
+	 * An entry, and its place in one of the queues.
+	 *
+	 * @param <V> the type of the value
+	 */
+	private static final class Node<V> {
+		/**
+		 * The key.
+		 */
+		final long key;
+		/**
+		 * The value.
+		 */
+		V value;
+		/**
+		 * The value's estimated size.
+		 */
+		int weight;
+		/**
+		 * Which queue the entry is in.
+		 */
+		int queue;
+		/**
+		 * The next-less-recently-used entry in its queue, or the queue's sentinel.
+		 */
+		Node<V> previous;
+		/**
+		 * The next-more-recently-used entry in its queue, or the queue's sentinel.
+		 */
+		Node<V> next;
+
+		/**
+		 * @param key   the key
+		 * @param value the value
+		 */
+		Node(final long key, final V value) {
+			this.key = key;
+			this.value = value;
+			previous = this;
+			next = this;
+		}
+	}
+
+	/**
+	 * For each queue, a sentinel node: its next is the least recently used entry
+	 * and its previous the most recently used.
+	 */
+	private final Node<V>[] queues;
+	/**
+	 * The total weight of the entries in each queue.
+	 */
+	private final long[] queueWeights = new long[3];
+	/**
+	 * The entries, by key.
+	 */
+	private final LongObjectMap<Node<V>> entries = new LongObjectMap<>();
+	/**
+	 * How the size of a value is estimated.
+	 */
+	private final ToIntFunction<? super V> weigher;
+	/**
+	 * The recent popularity of keys, including ones not in the cache.
+	 */
+	private final FrequencySketch sketch;
+	/**
+	 * The most the entries may weigh altogether.
+	 */
+	private final long maximumWeight;
+	/**
+	 * The most the window's entries may weigh.
+	 */
+	private final long windowMaximum;
+	/**
+	 * The most the protected entries may weigh.
+	 */
+	private final long protectedMaximum;
+	/**
+	 * The number of lookups that found an entry.
+	 */
+	private long hits;
+	/**
+	 * The number of lookups that didn't.
+	 */
+	private long misses;
+	/**
+	 * The number of entries evicted to make room.
+	 */
+	private long evictions;
+
+	/**
+	 * @param maximumWeight the most the entries may weigh altogether
+	 * @param weigher       how to estimate the size of a value; it must always
+	 *                      give the same result for the same value
+	 */
+	public TinyLfuCache(final long maximumWeight, final ToIntFunction<? super V> weigher) {
+		if (maximumWeight <= 0) {
+			throw new IllegalArgumentException("Cache must have room for something");
+		}
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+		windowMaximum = Math.max(1, maximumWeight / 100);
+		protectedMaximum = (maximumWeight - windowMaximum) * 4 / 5;
+		queues = newQueues(3);
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new Node<>(Long.MIN_VALUE, null);
+		}
+		sketch = new FrequencySketch(256);
+	}
+
+	/**
+	 * @param <V>   the type of the values
+	 * @param count how many queues
+	 * @return an array to hold their sentinels
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> Node<V>[] newQueues(final int count) {
+		return (Node<V>[]) new Node<?>[count];
+	}
+
+	/**
+	 * Remove a node from its queue.
+	 *
+	 * @param node the node
+	 */
+	private void unlink(final Node<V> node) {
+		node.previous.next = node.next;
+		node.next.previous = node.previous;
+		queueWeights[node.queue] -= node.weight;
+	}
+
+	/**
+	 * Add a node at the most-recently-used end of a queue.
+	 *
+	 * @param node  the node
+	 * @param queue the queue
+	 */
+	private void link(final Node<V> node, final int queue) {
+		final Node<V> sentinel = queues[queue];
+		node.queue = queue;
+		node.previous = sentinel.previous;
+		node.next = sentinel;
+		sentinel.previous.next = node;
+		sentinel.previous = node;
+		queueWeights[queue] += node.weight;
+	}
+
+	/**
+	 * @param queue a queue
+	 * @return its least recently used node, or null if it is empty
+	 */
+	private Node<V> eldest(final int queue) {
+		final Node<V> node = queues[queue].next;
+		return node == queues[queue] ? null : node;
+	}
+
+	/**
+	 * @param queue a queue
+	 * @return its most recently used node, or null if it is empty
+	 */
+	private Node<V> youngest(final int queue) {
+		final Node<V> node = queues[queue].previous;
+		return node == queues[queue] ? null : node;
+	}
+
+	/**
+	 * Look up a key, and record that it was asked for.
+	 *
+	 * @param key a key
+	 * @return its cached value, or null if it isn't cached
+	 */
+	public synchronized V get(final long key) {
+		sketch.increment(key);
+		final Node<V> node = entries.get(key);
+		if (node == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		touch(node);
+		return node.value;
+	}
+
+	/**
+	 * Move an entry that has been asked for to the most-recently-used end of its
+	 * queue, promoting it from probation to protected.
+	 *
+	 * @param node the entry
+	 */
+	private void touch(final Node<V> node) {
+		unlink(node);
+		if (node.queue == PROBATION) {
+			link(node, PROTECTED);
+			while (queueWeights[PROTECTED] > protectedMaximum) {
+				final Node<V> demoted = eldest(PROTECTED);
+				unlink(demoted);
+				link(demoted, PROBATION);
+			}
+		} else {
+			link(node, node.queue);
+		}
+	}
+
+	/**
+	 * Cache a value, evicting others as necessary to make room. A value that
+	 * would take up more than the whole cache is not cached.
+	 *
+	 * @param key   its key
+	 * @param value the value
+	 */
+	public synchronized void put(final long key, final V value) {
+		final int weight = weigher.applyAsInt(value);
+		final Node<V> existing = entries.get(key);
+		if (weight > maximumWeight) {
+			if (existing != null) {
+				unlink(existing);
+				entries.remove(key);
+			}
+			return;
+		} else if (existing != null) {
+			unlink(existing);
+			existing.value = value;
+			existing.weight = weight;
+			link(existing, existing.queue);
+			touch(existing);
+		} else {
+			final Node<V> node = new Node<>(key, value);
+			node.weight = weight;
+			entries.put(key, node);
+			link(node, WINDOW);
+			sketch.ensureCapacity(entries.size() * 2);
+		}
+		evict();
+	}
+
+	/**
+	 * Move entries that have aged out of the window to probation, then, while the
+	 * cache is too full, evict either the least recently used entry in
+	 * probation or the newest arrival there, whichever has been asked for less.
+	 */
+	private void evict() {
+		while (queueWeights[WINDOW] > windowMaximum) {
+			final Node<V> aged = eldest(WINDOW);
+			unlink(aged);
+			link(aged, PROBATION);
+		}
+		while (getWeight() > maximumWeight) {
+			final Node<V> victim;
+			final Node<V> candidate = youngest(PROBATION);
+			final Node<V> eldest = eldest(PROBATION);
+			if (eldest == null) {
+				victim = eldest(PROTECTED) == null ? eldest(WINDOW) : eldest(PROTECTED);
+			} else if (eldest == candidate
+					|| sketch.frequency(candidate.key) > sketch.frequency(eldest.key)) {
+				victim = eldest;
+			} else {
+				victim = candidate;
+			}
+			unlink(victim);
+			entries.remove(victim.key);
+			evictions++;
+		}
+	}
+
+	/**
+	 * Remove a key's entry, if any.
+	 *
+	 * @param key the key
+	 */
+	public synchronized void invalidate(final long key) {
+		final Node<V> node = entries.remove(key);
+		if (node != null) {
+			unlink(node);
+		}
+	}
+
+	/**
+	 * Remove every entry. Statistics and frequencies are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		for (int i = 0; i < queues.length; i++) {
+			queues[i].next = queues[i];
+			queues[i].previous = queues[i];
+			queueWeights[i] = 0;
+		}
+	}
+
+	/**
+	 * @return the total estimated size of the entries
+	 */
+	public synchronized long getWeight() {
+		return queueWeights[WINDOW] + queueWeights[PROBATION] + queueWeights[PROTECTED];
+	}
+
+	/**
+	 * @return the most the entries may weigh
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups that found an entry
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that didn't find an entry
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of entries evicted to make room for others
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of lookups that found an entry, or 0 if there have
+	 *         been none
+	 */
+	public synchronized double getHitRate() {
+		final long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions; "
+				+ "%d entries, %d of %d bytes", hits, misses, getHitRate() * 100,
+				evictions, entries.size(), getWeight(), maximumWeight);
+	}
+}
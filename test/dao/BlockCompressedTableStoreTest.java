@@ -0,0 +1,166 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class BlockCompressedTableStoreTest {
+	private Path file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = Files.createTempFile("books", ".csv.z");
+		Files.delete(file);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static List<String> record(final long id) {
+		return Arrays.asList(Long.toString(id), "A rather long and repetitive title " + id,
+				"Line one\nline two, with \"quotes\"");
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final TableStore store = new BlockCompressedTableStore(file);
+		assertEquals(0L, store.records().count(), "Table starts empty");
+		for (long i = 1; i <= 3000; i++) {
+			store.append(record(i));
+		}
+		assertEquals(record(1234), store.find(1234).get(), "Can find a record by ID");
+		assertFalse(store.find(5000).isPresent(), "Missing ID is not found");
+		final TableStore reopened = new BlockCompressedTableStore(file);
+		assertEquals(3000L, reopened.records().parallel().count(),
+				"All records are read back after reopening");
+		assertEquals(record(3000), reopened.find(3000).get(),
+				"Can find a record after reopening");
+		assertTrue(Files.size(file) < 3000L * 40,
+				"Compressed table is smaller than the raw records");
+	}
+
+	@Test
+	public void testUpdateAndDelete() throws IOException {
+		final BlockCompressedTableStore store = new BlockCompressedTableStore(file);
+		for (long i = 1; i <= 3000; i++) {
+			store.append(record(i));
+		}
+		final List<String> changed = Arrays.asList("10", "Changed", "");
+		store.replace(10, changed);
+		store.remove(20);
+		assertEquals(Optional.of(changed), store.find(10), "Record was replaced");
+		assertFalse(store.find(20).isPresent(), "Record was removed");
+		store.compact();
+		final List<List<String>> all = new BlockCompressedTableStore(file).records()
+				.collect(Collectors.toList());
+		assertEquals(2999, all.size(), "One fewer record after removal");
+		assertTrue(all.contains(changed), "Replacement survives compaction");
+	}
+
+	@Test
+	public void testAppendsLeaveExistingDataAlone() throws IOException {
+		final BlockCompressedTableStore store = new BlockCompressedTableStore(file);
+		for (long i = 1; i <= 10; i++) {
+			store.append(record(i));
+		}
+		final byte[] before = Files.readAllBytes(file);
+		store.append(record(11));
+		final byte[] after = Files.readAllBytes(file);
+		assertTrue(after.length > before.length, "Append adds to the file");
+		assertArrayEquals(before, Arrays.copyOf(after, before.length),
+				"Append doesn't rewrite records already saved");
+		assertEquals(11L, new BlockCompressedTableStore(file).records().count(),
+				"Every record read back");
+	}
+
+	@Test
+	public void testStreamSurvivesCompaction() throws IOException {
+		final BlockCompressedTableStore store = new BlockCompressedTableStore(file);
+		for (long i = 1; i <= 200; i++) {
+			store.append(record(i));
+		}
+		store.replace(5, Arrays.asList("5", "Changed", ""));
+		try (Stream<List<String>> records = store.records()) {
+			store.compact();
+			store.remove(6);
+			assertEquals(200L, records.count(), "Stream sees the table as it was opened");
+		}
+	}
+
+	private void overwrite(final long position, final ByteBuffer data) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(data, position);
+		}
+	}
+
+	@Test
+	public void testReplacedBlockLeftLiveByCrash() throws IOException {
+		final BlockCompressedTableStore store = new BlockCompressedTableStore(file);
+		for (long i = 1; i <= 10; i++) {
+			store.append(record(i));
+		}
+		final ByteBuffer marker = ByteBuffer.wrap(Arrays.copyOf(Files.readAllBytes(file), 4));
+		final List<String> changed = Arrays.asList("1", "Changed", "");
+		store.replace(1, changed);
+		// Simulate a crash between writing the new copy and marking the old one dead
+		overwrite(0, marker);
+		final BlockCompressedTableStore reopened = new BlockCompressedTableStore(file);
+		assertEquals(Optional.of(changed), reopened.find(1), "Replacement wins");
+		assertEquals(10L, reopened.records().map(record -> record.get(0)).distinct()
+				.count(), "Every record read");
+		assertEquals(10L, reopened.records().count(), "Old copy not read as well");
+		assertEquals(10L, new BlockCompressedTableStore(file).records().count(),
+				"Old copy marked dead on disk");
+	}
+
+	@Test
+	public void testCorruptionBeforeEndReported() throws IOException {
+		final BlockCompressedTableStore store = new BlockCompressedTableStore(file);
+		for (long i = 1; i <= 10; i++) {
+			store.append(record(i));
+		}
+		Files.write(file, new byte[] { 0x42, 0x4C }, StandardOpenOption.APPEND);
+		assertEquals(10L, new BlockCompressedTableStore(file).records().count(),
+				"Incomplete block at the end discarded");
+		final long size = Files.size(file);
+		overwrite(0, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+		assertThrows(IOException.class,
+				() -> new BlockCompressedTableStore(file).records(),
+				"Corrupt block before the end reported");
+		assertEquals(size, Files.size(file), "File not cut off at the corrupt block");
+	}
+
+	@Test
+	public void testTruncatedBlockReported() throws IOException {
+		new BlockCompressedTableStore(file).append(record(1));
+		final long size = Files.size(file);
+		// Claim less compressed data than the block has, leaving a short tail
+		overwrite(4, ByteBuffer.allocate(4).putInt(0, (int) size - 32 - 8));
+		assertTimeoutPreemptively(Duration.ofSeconds(10),
+				() -> assertThrows(IOException.class,
+						() -> new BlockCompressedTableStore(file).find(1),
+						"Truncated block reported"));
+	}
+}
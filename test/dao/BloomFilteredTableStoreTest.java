@@ -0,0 +1,147 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import util.BloomFilter;
+
+public final class BloomFilteredTableStoreTest {
+	private Path file;
+
+	/**
+	 * A store that counts how often the table is read.
+	 */
+	private static final class CountingTableStore implements TableStore {
+		private final TableStore delegate;
+		int reads;
+
+		CountingTableStore(final TableStore delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Stream<List<String>> records() throws IOException {
+			reads++;
+			return delegate.records();
+		}
+
+		@Override
+		public Optional<List<String>> find(final long id) throws IOException {
+			reads++;
+			return delegate.find(id);
+		}
+
+		@Override
+		public void append(final List<String> record) throws IOException {
+			delegate.append(record);
+		}
+
+		@Override
+		public void replace(final long id, final List<String> record)
+				throws IOException {
+			delegate.replace(id, record);
+		}
+
+		@Override
+		public void remove(final long id) throws IOException {
+			delegate.remove(id);
+		}
+
+		@Override
+		public void rewrite(final List<List<String>> records) throws IOException {
+			delegate.rewrite(records);
+		}
+	}
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = Files.createTempFile("authors", ".csv");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+	}
+
+	@Test
+	public void testMissesSkipIO() throws IOException {
+		final CountingTableStore counting = new CountingTableStore(
+				new CSVTableStore(file));
+		final BloomFilteredTableStore store = new BloomFilteredTableStore(counting, 1);
+		store.appendAll(Arrays.asList(Arrays.asList("1", "Jane Austen"),
+				Arrays.asList("2", "Charlotte Bronte")));
+		assertEquals(Optional.of(Arrays.asList("1", "Jane Austen")), store.find(1),
+				"Present records are found");
+		final int reads = counting.reads;
+		for (long id = 100; id < 200; id++) {
+			store.find(id);
+		}
+		assertTrue(counting.reads - reads < 10, "Most misses cost no I/O");
+		assertTrue(store.mightContain(1, "  JANE austen"),
+				"Names are compared case-insensitively");
+		assertFalse(store.mightContain(1, "Emily Bronte") &&
+				store.mightContain(1, "Anne Bronte") &&
+				store.mightContain(1, "George Eliot"), "Absent names are ruled out");
+		assertTrue(store.mightContain(0, "1"), "Unfiltered fields are never ruled out");
+	}
+
+	@Test
+	public void testMaintained() throws IOException {
+		final BloomFilteredTableStore store = new BloomFilteredTableStore(
+				new CSVTableStore(file), 1);
+		assertFalse(store.find(3).isPresent(), "Empty table has nothing");
+		store.append(Arrays.asList("3", "George Eliot"));
+		assertEquals(Optional.of(Arrays.asList("3", "George Eliot")), store.find(3),
+				"Records added after the filters are built are found");
+		store.replace(3, Arrays.asList("3", "Mary Ann Evans"));
+		assertTrue(store.mightContain(1, "Mary Ann Evans"),
+				"Replacement names are added to the filter");
+		final List<List<String>> many = new ArrayList<>();
+		for (int i = 10; i < 5000; i++) {
+			many.add(Arrays.asList(Integer.toString(i), "Author " + i));
+		}
+		store.rewrite(many);
+		for (int i = 10; i < 5000; i++) {
+			assertTrue(store.mightContain(1, "author " + i),
+					"Filters are rebuilt on rewrite");
+		}
+		store.append(Arrays.asList("6000", "Late"));
+		assertEquals(Optional.of(Arrays.asList("6000", "Late")), store.find(6000),
+				"Records appended after a rewrite are found");
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		final BloomFilter filter = new BloomFilter(20_000, 0.01);
+		for (long i = 0; i < 10_000; i++) {
+			filter.add(i);
+			filter.add("name " + i);
+		}
+		for (long i = 0; i < 10_000; i++) {
+			assertTrue(filter.mightContain(i), "No false negatives");
+		}
+		int falsePositives = 0;
+		for (long i = 10_000; i < 110_000; i++) {
+			if (filter.mightContain(i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 2000, "False-positive rate is bounded");
+		assertTrue(filter.mightContain("name 42"), "Strings are found");
+	}
+}
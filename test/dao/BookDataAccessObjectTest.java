@@ -0,0 +1,130 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+import util.LongObjectMap;
+
+public final class BookDataAccessObjectTest {
+	private Path directory;
+
+	/**
+	 * A store that counts the lookups made of it.
+	 */
+	private static final class CountingTableStore implements TableStore {
+		private final TableStore delegate;
+		final AtomicInteger lookups = new AtomicInteger();
+
+		CountingTableStore(final TableStore delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Stream<List<String>> records() throws IOException {
+			lookups.incrementAndGet();
+			return delegate.records();
+		}
+
+		@Override
+		public Optional<List<String>> find(final long id) throws IOException {
+			lookups.incrementAndGet();
+			return delegate.find(id);
+		}
+
+		@Override
+		public LongObjectMap<List<String>> findByIds(final long[] ids) throws IOException {
+			lookups.incrementAndGet();
+			return delegate.findByIds(ids);
+		}
+
+		@Override
+		public void append(final List<String> record) throws IOException {
+			delegate.append(record);
+		}
+
+		@Override
+		public void replace(final long id, final List<String> record) throws IOException {
+			delegate.replace(id, record);
+		}
+
+		@Override
+		public void remove(final long id) throws IOException {
+			delegate.remove(id);
+		}
+
+		@Override
+		public void rewrite(final List<List<String>> records) throws IOException {
+			delegate.rewrite(records);
+		}
+	}
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testStreamSplits() throws IOException {
+		final CountingTableStore authorStore = new CountingTableStore(
+				new CSVTableStore(directory.resolve("authors.csv")));
+		final AuthorDataAccessObject authors = new AuthorDataAccessObject(authorStore);
+		final PublisherDataAccessObject publishers = new PublisherDataAccessObject(
+				new CSVTableStore(directory.resolve("publishers.csv")));
+		for (int i = 1; i <= 10; i++) {
+			authors.save(new Author(i, "Author " + i));
+		}
+		publishers.save(new Publisher(1, "Penguin"));
+		final List<List<String>> records = new ArrayList<>();
+		for (int i = 1; i <= 10_000; i++) {
+			records.add(Arrays.asList(Integer.toString(i), Integer.toString(i % 10 + 1),
+					"1", "Book " + i, ""));
+		}
+		final CSVTableStore store = new CSVTableStore(directory.resolve("books.csv"));
+		store.appendAll(records);
+		final BookDataAccessObject books = new BookDataAccessObject(store, authors,
+				publishers);
+		try (Stream<Book> stream = books.stream()) {
+			final Spliterator<Book> spliterator = stream.spliterator();
+			authorStore.lookups.set(0);
+			assertNotNull(spliterator.trySplit(), "Stream of books can be split");
+			assertEquals(0, authorStore.lookups.get(),
+					"Splitting splits the records rather than reading the books");
+		}
+		final List<Book> sequential = books.findAll();
+		assertEquals(10_000, sequential.size(), "Every book read");
+		try (Stream<Book> stream = books.stream()) {
+			assertEquals(sequential, stream.parallel().collect(Collectors.toList()),
+					"Parallel stream reads the same books, in order");
+		}
+	}
+}
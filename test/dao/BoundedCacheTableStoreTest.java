@@ -0,0 +1,103 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+public final class BoundedCacheTableStoreTest {
+	@Test
+	public void testCachesLookupsAndInvalidatesChanges() throws IOException {
+		final MemoryTableStore table = new MemoryTableStore();
+		final List<List<String>> records = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			records.add(Arrays.asList(Integer.toString(i), "Author " + i));
+		}
+		table.appendAll(records);
+		final BoundedCacheTableStore store = new BoundedCacheTableStore(table, 1 << 20,
+				"authors");
+		store.find(1);
+		assertEquals(Optional.of(Arrays.asList("1", "Author 1")), store.find(1),
+				"Cached record returned");
+		assertEquals(1, store.getCache().getHitCount(), "Second lookup was a hit");
+		assertEquals(3, store.findByIds(new long[] { 1, 2, 3, 500 }).size(),
+				"Multi-get combines cached and uncached records");
+		assertEquals(2, store.getCache().getHitCount(), "Multi-get uses the cache");
+		store.replace(1, Arrays.asList("1", "Jane Austen"));
+		assertEquals(Optional.of(Arrays.asList("1", "Jane Austen")), store.find(1),
+				"Replaced record not served stale");
+		store.remove(2);
+		assertFalse(store.find(2).isPresent(), "Removed record not served stale");
+		store.rewrite(Arrays.asList(Arrays.asList("3", "Jules Verne")));
+		assertEquals(Optional.of(Arrays.asList("3", "Jules Verne")), store.find(3),
+				"Rewrite empties the cache");
+		store.close();
+	}
+
+	@Test
+	public void testConfiguredSize() {
+		assertEquals(64L << 20, StorageConfiguration.parseSize("64m"), "Megabytes");
+		assertEquals(2048, StorageConfiguration.parseSize("2K"), "Kibibytes");
+		assertEquals(500, StorageConfiguration.parseSize("500"), "Plain bytes");
+		assertThrows(IllegalArgumentException.class,
+				() -> StorageConfiguration.parseSize("lots"), "Nonsense rejected");
+	}
+
+	@Test
+	public void testChangeDuringLookupNotHidden() throws IOException {
+		final MemoryTableStore table = new MemoryTableStore();
+		table.append(Arrays.asList("1", "Jane Austen"));
+		final BoundedCacheTableStore[] store = new BoundedCacheTableStore[1];
+		final boolean[] interfered = { false };
+		final TableStore slow = new TableStore() {
+			@Override
+			public Stream<List<String>> records() throws IOException {
+				return table.records();
+			}
+
+			@Override
+			public Optional<List<String>> find(final long id) throws IOException {
+				final Optional<List<String>> retval = table.find(id);
+				if (!interfered[0]) {
+					// Another writer changes the record after this lookup read it
+					interfered[0] = true;
+					store[0].replace(id, Arrays.asList("1", "Austen, Jane"));
+				}
+				return retval;
+			}
+
+			@Override
+			public void append(final List<String> record) throws IOException {
+				table.append(record);
+			}
+
+			@Override
+			public void replace(final long id, final List<String> record)
+					throws IOException {
+				table.replace(id, record);
+			}
+
+			@Override
+			public void remove(final long id) throws IOException {
+				table.remove(id);
+			}
+
+			@Override
+			public void rewrite(final List<List<String>> records) throws IOException {
+				table.rewrite(records);
+			}
+		};
+		store[0] = new BoundedCacheTableStore(slow, 1 << 20, "authors");
+		store[0].find(1);
+		assertEquals(Optional.of(Arrays.asList("1", "Austen, Jane")), store[0].find(1),
+				"Record read before a change isn't cached after it");
+	}
+}
@@ -0,0 +1,98 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+public final class CSVHelperTest {
+	private static List<List<String>> readOneAtATime(final String text) throws IOException {
+		final List<List<String>> retval = new ArrayList<>();
+		try (PushbackReader in = new PushbackReader(new StringReader(text))) {
+			while (true) {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					return retval;
+				}
+				retval.add(record);
+			}
+		}
+	}
+
+	private static List<List<String>> readFast(final String text) {
+		final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		final List<List<String>> retval = new ArrayList<>();
+		CSVHelper.readCSVRecords(bytes, 0, bytes.length, retval::add);
+		return retval;
+	}
+
+	@Test
+	public void testMatches() {
+		final Random random = new Random(3);
+		final byte[] pattern = { '"', ',', '\n', '\r', 0, (byte) 0x80, (byte) 0xFF, 1 };
+		for (int i = 0; i < 10_000; i++) {
+			final long word = random.nextInt(4) == 0 ? random.nextLong()
+					: random.nextLong() & 0x2D2D2D2D2D2D2D2DL;
+			final byte target = pattern[random.nextInt(pattern.length)];
+			final long found = CSVHelper.matches(word,
+					0x0101010101010101L * (target & 0xFF));
+			for (int b = 0; b < 8; b++) {
+				final boolean expected = (byte) (word >>> (b * 8)) == target;
+				assertEquals(expected, (found >>> (b * 8 + 7) & 1) == 1,
+						"Byte " + b + " of " + Long.toHexString(word) + " vs " + target);
+			}
+		}
+	}
+
+	@Test
+	public void testKnownRecords() throws IOException {
+		final String text = "1,Pride and Prejudice,0141439513\n"
+				+ "2,\"Title, with comma\",\"He said \"\"hi\"\"\"\n"
+				+ "3,\"multi\nline\",\u00e9t\u00e9 \u65e5\u672c\r\n"
+				+ "4,a very long title that spans several eight-byte words,\n" + "5";
+		final List<List<String>> expected = Arrays.asList(
+				Arrays.asList("1", "Pride and Prejudice", "0141439513"),
+				Arrays.asList("2", "Title, with comma", "He said \"hi\""),
+				Arrays.asList("3", "multi\nline", "\u00e9t\u00e9 \u65e5\u672c"),
+				Arrays.asList(""),
+				Arrays.asList("4", "a very long title that spans several eight-byte words",
+						""),
+				Arrays.asList("5"));
+		assertEquals(expected, readOneAtATime(text), "Character-at-a-time parse");
+		assertEquals(expected, readFast(text), "Word-at-a-time parse agrees");
+	}
+
+	@Test
+	public void testRandomInputAgrees() throws IOException {
+		final Logger logger = Logger.getLogger(CSVHelper.class.getName());
+		final Level level = logger.getLevel();
+		// Random input is full of stray quotes, which would each be logged
+		logger.setLevel(Level.OFF);
+		try {
+			final String[] pieces = { "a", "bcdefghij", ",", "\"", "\"\"", "\n", "\r",
+					"\u00e9", "\u65e5", " " };
+			final Random random = new Random(11);
+			for (int i = 0; i < 2000; i++) {
+				final StringBuilder text = new StringBuilder();
+				final int length = random.nextInt(60);
+				for (int j = 0; j < length; j++) {
+					text.append(pieces[random.nextInt(pieces.length)]);
+				}
+				assertEquals(readOneAtATime(text.toString()), readFast(text.toString()),
+						"Parsers agree on " + text);
+			}
+		} finally {
+			logger.setLevel(level);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class CachedTableStoreTest {
+	private Path directory;
+	private Path table;
+	private Path snapshot;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+		table = directory.resolve("books.csv");
+		snapshot = directory.resolve("books.snapshot");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testSnapshotRoundTrip() throws IOException {
+		final List<List<String>> records = Arrays.asList(
+				Arrays.asList("1", "Emma", "-3", "", "x,\"y\"\nz"),
+				Arrays.asList("300000", "Caf\u00e9 \u00fcber \u4e2d\u6587"),
+				Arrays.asList("-7"));
+		TableSnapshot.write(snapshot, 42L, records);
+		assertEquals(Optional.of(records), TableSnapshot.read(snapshot, 42L),
+				"Snapshot reads back what was written");
+		assertFalse(TableSnapshot.read(snapshot, 43L).isPresent(),
+				"Snapshot of a table that has since changed is not used");
+	}
+
+	@Test
+	public void testCorruptSnapshotIgnored() throws IOException {
+		TableSnapshot.write(snapshot, 42L,
+				Arrays.asList(Arrays.asList("1", "Emma"), Arrays.asList("2", "Persuasion")));
+		final byte[] bytes = Files.readAllBytes(snapshot);
+		bytes[bytes.length - 6] ^= 0x20;
+		Files.write(snapshot, bytes);
+		assertFalse(TableSnapshot.read(snapshot, 42L).isPresent(),
+				"Snapshot failing its checksum is not used");
+		assertFalse(TableSnapshot.read(directory.resolve("missing"), 42L).isPresent(),
+				"Missing snapshot is not an error");
+	}
+
+	@Test
+	public void testVarLong() {
+		for (final long value : new long[] { 0, 1, -1, 63, -64, 64, 300, Long.MAX_VALUE,
+				Long.MIN_VALUE }) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TableSnapshot.writeVarLong(out, value);
+			assertEquals(value, TableSnapshot.readVarLong(ByteBuffer.wrap(out.toByteArray())),
+					"Variable-length integer round trip");
+		}
+	}
+
+	@Test
+	public void testWarmStart() throws IOException {
+		final CachedTableStore store = new CachedTableStore(new CSVTableStore(table),
+				snapshot);
+		store.append(Arrays.asList("1", "Emma"));
+		store.append(Arrays.asList("2", "Persuasion"));
+		store.replace(2, Arrays.asList("2", "Persuasion", "1817"));
+		store.close();
+		assertTrue(Files.exists(snapshot), "Snapshot is written on close");
+		final CachedTableStore warm = new CachedTableStore(new CSVTableStore(table),
+				snapshot);
+		assertEquals(Optional.of(Arrays.asList("2", "Persuasion", "1817")), warm.find(2),
+				"Records are loaded from the snapshot");
+		// Change the table behind the cache's back: the snapshot is now stale
+		new CSVTableStore(table).append(Arrays.asList("3", "Mansfield Park"));
+		final CachedTableStore cold = new CachedTableStore(new CSVTableStore(table),
+				snapshot);
+		assertEquals(3L, cold.records().count(),
+				"Stale snapshot is ignored in favor of the table");
+	}
+}
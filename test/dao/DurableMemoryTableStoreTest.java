@@ -0,0 +1,157 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class DurableMemoryTableStoreTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private List<String> logs() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> file.getFileName().toString())
+					.filter(name -> name.endsWith(".wal")).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void testRecoveryFromSnapshotAndLog() throws IOException {
+		final Path file = directory.resolve("authors.mem");
+		final DurableMemoryTableStore store = new DurableMemoryTableStore(file,
+				1000, 60_000);
+		store.appendAll(Arrays.asList(Arrays.asList("1", "Jane Austen"),
+				Arrays.asList("2", "Jules Verne"), Arrays.asList("3", "Dorothy Sayers")));
+		store.snapshot();
+		assertEquals(Arrays.asList("authors.mem.1.wal"), logs(),
+				"Snapshot starts a new log and deletes the old one");
+		store.replace(1, Arrays.asList("1", "J. Austen"));
+		store.remove(2);
+		store.replace(4, Arrays.asList("4", "Nobody"));
+		store.flush();
+		// Read the files as a restart after a crash would, while the first store
+		// is still open
+		final DurableMemoryTableStore recovered = new DurableMemoryTableStore(file);
+		try {
+			assertEquals(Optional.of(Arrays.asList("1", "J. Austen")), recovered.find(1),
+					"Logged replacement replayed over snapshot");
+			assertFalse(recovered.find(2).isPresent(), "Logged removal replayed");
+			assertFalse(recovered.find(4).isPresent(),
+					"Replacing a missing record does nothing");
+			assertEquals(2, recovered.records().count(), "Nothing else recovered");
+		} finally {
+			recovered.close();
+			store.close();
+		}
+		final DurableMemoryTableStore reopened = new DurableMemoryTableStore(file);
+		try {
+			assertEquals(Optional.of(Arrays.asList("3", "Dorothy Sayers")),
+					reopened.find(3), "Data survives a clean close");
+			reopened.rewrite(Arrays.asList(Arrays.asList("5", "G. K. Chesterton")));
+		} finally {
+			reopened.close();
+		}
+		final DurableMemoryTableStore rewritten = new DurableMemoryTableStore(file);
+		try {
+			assertEquals(Arrays.asList(Arrays.asList("5", "G. K. Chesterton")),
+					rewritten.records().collect(Collectors.toList()),
+					"Rewrite is durable");
+			assertEquals(1, logs().size(), "Only the current log is kept");
+		} finally {
+			rewritten.close();
+		}
+	}
+
+	@Test
+	public void testBackgroundSnapshot() throws IOException, InterruptedException {
+		final Path file = directory.resolve("books.mem");
+		final DurableMemoryTableStore store = new DurableMemoryTableStore(file, 10,
+				60_000);
+		try {
+			for (int i = 0; i < 25; i++) {
+				store.append(Arrays.asList(Integer.toString(i), "Book " + i));
+			}
+			for (int i = 0; i < 100 && !Files.exists(file); i++) {
+				Thread.sleep(50);
+			}
+			assertTrue(Files.exists(file), "Snapshot written after enough changes");
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentWriters() throws IOException, InterruptedException {
+		final Path file = directory.resolve("books.mem");
+		final DurableMemoryTableStore store = new DurableMemoryTableStore(file, 500,
+				60_000);
+		final List<Thread> threads = new ArrayList<>();
+		final List<IOException> errors = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t * 10_000;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < 2000; i++) {
+						final String id = Integer.toString(offset + i);
+						store.append(Arrays.asList(id, "Book"));
+						store.replace(offset + i, Arrays.asList(id, "Book " + id));
+						if (i % 4 == 0) {
+							store.remove(offset + i);
+						}
+					}
+				} catch (final IOException except) {
+					synchronized (errors) {
+						errors.add(except);
+					}
+				}
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		store.close();
+		assertTrue(errors.isEmpty(), "No writer failed");
+		final DurableMemoryTableStore reopened = new DurableMemoryTableStore(file);
+		try {
+			assertEquals(6000, reopened.records().count(),
+					"Every change from every thread survives");
+			assertEquals(Optional.of(Arrays.asList("30001", "Book 30001")),
+					reopened.find(30_001), "Latest version of each record kept");
+		} finally {
+			reopened.close();
+		}
+	}
+}
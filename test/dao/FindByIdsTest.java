@@ -0,0 +1,143 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Author;
+import model.Book;
+
+public final class FindByIdsTest {
+	private Path directory;
+
+	/**
+	 * A store that counts the lookups and scans made of it.
+	 */
+	private static final class CountingTableStore implements TableStore {
+		private final TableStore delegate;
+		final AtomicInteger finds = new AtomicInteger();
+		final AtomicInteger scans = new AtomicInteger();
+
+		CountingTableStore(final TableStore delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Stream<List<String>> records() throws IOException {
+			scans.incrementAndGet();
+			return delegate.records();
+		}
+
+		@Override
+		public Optional<List<String>> find(final long id) throws IOException {
+			finds.incrementAndGet();
+			return delegate.find(id);
+		}
+
+		@Override
+		public void append(final List<String> record) throws IOException {
+			delegate.append(record);
+		}
+
+		@Override
+		public void replace(final long id, final List<String> record) throws IOException {
+			delegate.replace(id, record);
+		}
+
+		@Override
+		public void remove(final long id) throws IOException {
+			delegate.remove(id);
+		}
+
+		@Override
+		public void rewrite(final List<List<String>> records) throws IOException {
+			delegate.rewrite(records);
+		}
+	}
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testBatchedLookups() throws IOException {
+		Files.write(directory.resolve("authors.csv"), Arrays.asList("1,Jane Austen",
+				"2,Jules Verne", "3,Dorothy Sayers"));
+		Files.write(directory.resolve("publishers.csv"), Arrays.asList("1,Penguin,,",
+				"2,Hetzel,,"));
+		Files.write(directory.resolve("books.csv"), Arrays.asList(
+				"1,1,1,Persuasion,9781908533081", "2,2,2,Around the World,",
+				"3,1,1,Emma,9780141439587", "4,3,1,Gaudy Night,"));
+		final CountingTableStore authors = new CountingTableStore(
+				new CSVTableStore(directory.resolve("authors.csv")));
+		final CountingTableStore publishers = new CountingTableStore(
+				new CSVTableStore(directory.resolve("publishers.csv")));
+		final AuthorDataAccessObject authorDAO = new AuthorDataAccessObject(authors);
+		final BookDataAccessObject bookDAO = new BookDataAccessObject(
+				new CSVTableStore(directory.resolve("books.csv")), authorDAO,
+				new PublisherDataAccessObject(publishers));
+		assertEquals(Arrays.asList("Jane Austen", "Dorothy Sayers"),
+				authorDAO.findByIds(Arrays.asList(1L, 5L, 3L, 1L)).stream()
+						.map(Author::getName).collect(Collectors.toList()),
+				"Found in the order asked, skipping missing and repeated IDs");
+		assertEquals(1, authors.scans.get(), "Found in one pass");
+		final List<Book> books = bookDAO.findAll();
+		assertEquals(4, books.size(), "All books are read");
+		assertEquals("Dorothy Sayers", books.get(3).getAuthor().getName(),
+				"Authors are resolved");
+		assertEquals("Hetzel", books.get(1).getPublisher().getName(),
+				"Publishers are resolved");
+		assertEquals(0, authors.finds.get() + publishers.finds.get(),
+				"Authors and publishers are not looked up one by one");
+		assertEquals(2, authors.scans.get(), "Authors are looked up in one pass");
+		assertEquals(Arrays.asList("Gaudy Night", "Persuasion"),
+				bookDAO.findByIds(Arrays.asList(4L, 1L)).stream().map(Book::getTitle)
+						.collect(Collectors.toList()), "Books can be found by IDs");
+	}
+
+	@Test
+	public void testIndexedStores() throws IOException {
+		final List<List<String>> records = Arrays.asList(Arrays.asList("1", "a"),
+				Arrays.asList("2", "b"), Arrays.asList("7", "c"));
+		final List<TableStore> stores = Arrays.asList(
+				new SlottedTableStore(directory.resolve("t.slots")),
+				new CachedTableStore(new CSVTableStore(directory.resolve("c.csv")),
+						directory.resolve("c.snapshot")),
+				ShardedTableStore.open(directory, "s", ".csv", 3, CSVTableStore::new),
+				new BloomFilteredTableStore(new CSVTableStore(directory.resolve("b.csv")),
+						-1));
+		for (final TableStore store : stores) {
+			store.rewrite(records);
+			assertEquals(Arrays.asList(Arrays.asList("7", "c"), Arrays.asList("1", "a")),
+					Arrays.asList(store.findByIds(new long[] { 7, 9, 1 }).get(7),
+							store.findByIds(new long[] { 1, 1 }).get(1)),
+					"Found by IDs in " + store.getClass().getSimpleName());
+			assertEquals(2, store.findByIds(new long[] { 2, 7, 8 }).size(),
+					"Missing IDs are skipped by " + store.getClass().getSimpleName());
+		}
+	}
+}
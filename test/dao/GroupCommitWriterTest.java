@@ -0,0 +1,238 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class GroupCommitWriterTest {
+	/**
+	 * A file channel that can be made to stall in its first force, or to fail
+	 * partway through a write.
+	 */
+	static final class ControlledChannel extends FileChannel {
+		private final FileChannel delegate;
+		final CountDownLatch forcing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean failNextWrite;
+
+		ControlledChannel(final FileChannel delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+			return delegate.read(dst);
+		}
+
+		@Override
+		public long read(final ByteBuffer[] dsts, final int offset, final int length)
+				throws IOException {
+			return delegate.read(dsts, offset, length);
+		}
+
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+			return delegate.write(src);
+		}
+
+		@Override
+		public long write(final ByteBuffer[] srcs, final int offset, final int length)
+				throws IOException {
+			if (failNextWrite) {
+				failNextWrite = false;
+				// Tear the write: part of the first buffer reaches the file
+				final ByteBuffer part = srcs[offset].duplicate();
+				part.limit(part.position() + 1);
+				delegate.write(part);
+				throw new IOException("Simulated write failure");
+			}
+			return delegate.write(srcs, offset, length);
+		}
+
+		@Override
+		public long position() throws IOException {
+			return delegate.position();
+		}
+
+		@Override
+		public FileChannel position(final long newPosition) throws IOException {
+			delegate.position(newPosition);
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			return delegate.size();
+		}
+
+		@Override
+		public FileChannel truncate(final long size) throws IOException {
+			delegate.truncate(size);
+			return this;
+		}
+
+		@Override
+		public void force(final boolean metaData) throws IOException {
+			forcing.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException except) {
+				throw new InterruptedIOException();
+			}
+			delegate.force(metaData);
+		}
+
+		@Override
+		public long transferTo(final long position, final long count,
+				final WritableByteChannel target) throws IOException {
+			return delegate.transferTo(position, count, target);
+		}
+
+		@Override
+		public long transferFrom(final ReadableByteChannel src, final long position,
+				final long count) throws IOException {
+			return delegate.transferFrom(src, position, count);
+		}
+
+		@Override
+		public int read(final ByteBuffer dst, final long position) throws IOException {
+			return delegate.read(dst, position);
+		}
+
+		@Override
+		public int write(final ByteBuffer src, final long position) throws IOException {
+			return delegate.write(src, position);
+		}
+
+		@Override
+		public MappedByteBuffer map(final MapMode mode, final long position,
+				final long size) throws IOException {
+			return delegate.map(mode, position, size);
+		}
+
+		@Override
+		public FileLock lock(final long position, final long size, final boolean shared)
+				throws IOException {
+			return delegate.lock(position, size, shared);
+		}
+
+		@Override
+		public FileLock tryLock(final long position, final long size,
+				final boolean shared) throws IOException {
+			return delegate.tryLock(position, size, shared);
+		}
+
+		@Override
+		protected void implCloseChannel() throws IOException {
+			delegate.close();
+		}
+	}
+
+	private Path file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = Files.createTempFile("group", ".log");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testConcurrentWritersShareBatches()
+			throws IOException, InterruptedException, ExecutionException {
+		final int threads = 8;
+		final int writesPerThread = 200;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+				GroupCommitWriter writer = new GroupCommitWriter(channel, "test writer")) {
+			final List<Future<?>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				results.add(executor.submit(() -> {
+					for (int i = 0; i < writesPerThread; i++) {
+						GroupCommitWriter.await(
+								writer.submit(ByteBuffer.wrap(new byte[] { 'x', '\n' })));
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> result : results) {
+				result.get();
+			}
+			writer.sync();
+			assertEquals((long) threads * writesPerThread, writer.getWriteCount(),
+					"Every write was made durable");
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(2L * threads * writesPerThread, Files.size(file),
+				"Every write reached the file");
+	}
+
+	@Test
+	public void testWritesQueuedDuringForceShareBatch()
+			throws IOException, InterruptedException {
+		try (ControlledChannel channel = new ControlledChannel(
+				FileChannel.open(file, StandardOpenOption.WRITE));
+				GroupCommitWriter writer = new GroupCommitWriter(channel, "test writer")) {
+			final List<CompletableFuture<Void>> durable = new ArrayList<>();
+			durable.add(writer.submit(ByteBuffer.wrap(new byte[] { 'x', '\n' })));
+			channel.forcing.await();
+			for (int i = 0; i < 99; i++) {
+				durable.add(writer.submit(ByteBuffer.wrap(new byte[] { 'x', '\n' })));
+			}
+			channel.release.countDown();
+			for (final CompletableFuture<Void> future : durable) {
+				GroupCommitWriter.await(future);
+			}
+			assertEquals(100, writer.getWriteCount(), "Every write was made durable");
+			assertEquals(2, writer.getBatchCount(),
+					"Writes queued while the first was forced went in one batch");
+		}
+		assertEquals(200L, Files.size(file), "Every write reached the file");
+	}
+
+	@Test
+	public void testFailedBatchRemoved() throws IOException {
+		try (ControlledChannel channel = new ControlledChannel(
+				FileChannel.open(file, StandardOpenOption.WRITE));
+				GroupCommitWriter writer = new GroupCommitWriter(channel, "test writer")) {
+			channel.release.countDown();
+			GroupCommitWriter.await(writer.submit(ByteBuffer.wrap(new byte[] { 'a', '\n' })));
+			channel.failNextWrite = true;
+			final CompletableFuture<Void> failed = writer
+					.submit(ByteBuffer.wrap(new byte[] { 'b', 'b', '\n' }));
+			assertThrows(IOException.class, () -> GroupCommitWriter.await(failed),
+					"Failed write reported");
+			GroupCommitWriter.await(writer.submit(ByteBuffer.wrap(new byte[] { 'c', '\n' })));
+		}
+		assertEquals("a\nc\n", new String(Files.readAllBytes(file), StandardCharsets.US_ASCII),
+				"No trace of the failed write before later ones");
+	}
+}
@@ -0,0 +1,143 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dao.GroupCommitWriterTest.ControlledChannel;
+
+public final class LoggedTableStoreTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private LoggedTableStore open(final int interval) {
+		return new LoggedTableStore(new CSVTableStore(directory.resolve("authors.csv")),
+				new WriteAheadLog(directory.resolve("authors.wal")), interval);
+	}
+
+	@Test
+	public void testRecoveryAfterCrash() throws IOException {
+		final LoggedTableStore store = open(100);
+		store.append(Arrays.asList("1", "Jane Austen"));
+		store.append(Arrays.asList("2", "Jules Verne"));
+		store.replace(1, Arrays.asList("1", "J. Austen"));
+		store.remove(2);
+		store.append(Arrays.asList("3", "Dorothy Sayers"));
+		assertFalse(Files.exists(directory.resolve("authors.csv")),
+				"Table is not written before a checkpoint");
+		// Simulate a crash that leaves a partial entry at the end of the log
+		Files.write(directory.resolve("authors.wal"), new byte[] { 0, 0, 0, 40, 1, 2 },
+				StandardOpenOption.APPEND);
+		final LoggedTableStore recovered = open(100);
+		assertEquals(Optional.of(Arrays.asList("1", "J. Austen")), recovered.find(1),
+				"Replacement is recovered from the log");
+		assertEquals(2L, recovered.records().count(), "Removal is recovered from the log");
+		recovered.close();
+		final List<List<String>> table = new CSVTableStore(
+				directory.resolve("authors.csv")).records().collect(Collectors.toList());
+		assertEquals(Arrays.asList(Arrays.asList("1", "J. Austen"),
+				Arrays.asList("3", "Dorothy Sayers")), table,
+				"Closing the store checkpoints the changes into the table");
+	}
+
+	@Test
+	public void testPeriodicCheckpoint() throws IOException {
+		final LoggedTableStore store = open(10);
+		for (int i = 1; i <= 25; i++) {
+			store.append(Arrays.asList(Integer.toString(i), "Author " + i));
+		}
+		assertEquals(20L, new CSVTableStore(directory.resolve("authors.csv")).records()
+				.count(), "Table holds everything up to the last checkpoint");
+		assertTrue(Files.size(directory.resolve("authors.wal")) < 200,
+				"Log only holds changes since the last checkpoint");
+		assertEquals(25L, open(10).records().count(),
+				"Reopening replays only the log tail on top of the table");
+	}
+
+	@Test
+	public void testReplacingMissingRecord() throws IOException {
+		final LoggedTableStore store = open(100);
+		store.append(Arrays.asList("1", "Jane Austen"));
+		store.checkpoint();
+		store.replace(5, Arrays.asList("5", "Nobody"));
+		store.replace(1, Arrays.asList("1", "J. Austen"));
+		assertFalse(store.find(5).isPresent(), "Replacing a missing record adds nothing");
+		store.checkpoint();
+		assertEquals(Arrays.asList(Arrays.asList("1", "J. Austen")),
+				open(100).records().collect(Collectors.toList()),
+				"Only the existing record is changed");
+	}
+
+	@Test
+	public void testFailedChangeUndone() throws IOException {
+		final AtomicReference<ControlledChannel> channel = new AtomicReference<>();
+		final LoggedTableStore store = new LoggedTableStore(
+				new CSVTableStore(directory.resolve("authors.csv")),
+				new WriteAheadLog(directory.resolve("authors.wal"), file -> {
+					final ControlledChannel controlled = new ControlledChannel(file);
+					controlled.release.countDown();
+					channel.set(controlled);
+					return controlled;
+				}), 100);
+		store.append(Arrays.asList("1", "Jane Austen"));
+		store.checkpoint();
+		store.append(Arrays.asList("2", "Jules Verne"));
+		channel.get().failNextWrite = true;
+		assertThrows(IOException.class,
+				() -> store.replace(1, Arrays.asList("1", "J. Austen")),
+				"Failed replacement reported");
+		channel.get().failNextWrite = true;
+		assertThrows(IOException.class,
+				() -> store.appendAll(Arrays.asList(Arrays.asList("2", "J. Verne"))),
+				"Failed batch reported");
+		channel.get().failNextWrite = true;
+		assertThrows(IOException.class,
+				() -> store.append(Arrays.asList("3", "Dorothy Sayers")),
+				"Failed addition reported");
+		assertEquals(Optional.of(Arrays.asList("1", "Jane Austen")), store.find(1),
+				"Failed replacement undone");
+		assertEquals(Optional.of(Arrays.asList("2", "Jules Verne")), store.find(2),
+				"Failed batch undone, leaving the change before it");
+		assertFalse(store.find(3).isPresent(), "Failed addition undone");
+		store.checkpoint();
+		final List<List<String>> expected = Arrays.asList(
+				Arrays.asList("1", "Jane Austen"), Arrays.asList("2", "Jules Verne"));
+		assertEquals(expected, store.records().collect(Collectors.toList()),
+				"Checkpoint holds only the changes that reached the log");
+		assertEquals(expected, new CSVTableStore(directory.resolve("authors.csv"))
+				.records().collect(Collectors.toList()),
+				"Failed changes never reach the table");
+		store.close();
+	}
+}
@@ -0,0 +1,150 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Author;
+
+public final class ObservableDataAccessObjectTest {
+	private ObservableDataAccessObject<Author> dao;
+
+	@BeforeEach
+	public void setUp() {
+		dao = new ObservableDataAccessObject<>(new InMemoryAuthorDAO(), Author::getId);
+	}
+
+	/**
+	 * Wait until a writer has published the given number of changes and is
+	 * waiting to deliver the last of them.
+	 */
+	private void awaitBlockedWriter(final Thread writer, final long sequence)
+			throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (dao.getChangeFeed().getSequence() < sequence
+				|| (writer.getState() != Thread.State.WAITING
+						&& writer.getState() != Thread.State.TIMED_WAITING)) {
+			assertTrue(writer.isAlive(), "Writer waits while the subscriber's queue is full");
+			assertTrue(System.nanoTime() < deadline, "Writer reached the full queue");
+			Thread.sleep(10);
+		}
+		assertEquals(sequence, dao.getChangeFeed().getSequence(),
+				"Writer waits while the subscriber's queue is full");
+	}
+
+	@Test
+	public void testListenerSeesChangesInOrder() throws IOException {
+		final List<ChangeEvent<Author>> events = new ArrayList<>();
+		dao.getChangeFeed().addListener(events::add);
+		final Author austen = new Author(1L, "Jane Austen");
+		dao.save(austen);
+		dao.update(new Author(1L, "J. Austen"));
+		dao.delete(austen);
+		assertEquals(3, events.size(), "Listener is told about every change");
+		assertEquals(ChangeEvent.Type.INSERT, events.get(0).getType(), "First is insert");
+		assertNull(events.get(0).getBefore(), "Insert has no before");
+		assertEquals(austen, events.get(1).getBefore(), "Update knows the old state");
+		assertEquals(new Author(1L, "J. Austen"), events.get(1).getAfter(),
+				"Update knows the new state");
+		assertNull(events.get(2).getAfter(), "Delete has no after");
+		assertTrue(events.get(0).getSequence() < events.get(1).getSequence()
+				&& events.get(1).getSequence() < events.get(2).getSequence(),
+				"Sequence numbers increase");
+	}
+
+	@Test
+	public void testSubscriptionBackpressure() throws Exception {
+		final ChangeFeed.Subscription<Author> subscription = dao.getChangeFeed()
+				.subscribe(2);
+		final Thread writer = new Thread(() -> {
+			try {
+				for (long i = 1; i <= 5; i++) {
+					dao.save(new Author(i, "Author " + i));
+				}
+			} catch (final IOException except) {
+				throw new IllegalStateException(except);
+			}
+		});
+		writer.start();
+		awaitBlockedWriter(writer, 3);
+		for (long i = 1; i <= 5; i++) {
+			assertEquals(i, subscription.poll(5, TimeUnit.SECONDS).getSequence(),
+					"Subscriber receives every event in order");
+		}
+		writer.join(5000);
+		subscription.close();
+		assertEquals(5, dao.findAll().size(), "All writes completed");
+	}
+
+	@Test
+	public void testSaveAllReportsUpdates() throws IOException {
+		final Author austen = new Author(1L, "Jane Austen");
+		dao.save(austen);
+		final List<ChangeEvent<Author>> events = new ArrayList<>();
+		dao.getChangeFeed().addListener(events::add);
+		final Author renamed = new Author(1L, "J. Austen");
+		dao.saveAll(Arrays.asList(renamed, new Author(2L, "Jules Verne")));
+		assertEquals(2, events.size(), "Listener is told about every object saved");
+		assertEquals(ChangeEvent.Type.UPDATE, events.get(0).getType(),
+				"Saving an existing object is an update");
+		assertEquals(austen, events.get(0).getBefore(), "Update knows the old state");
+		assertEquals(renamed, events.get(0).getAfter(), "Update knows the new state");
+		assertEquals(ChangeEvent.Type.INSERT, events.get(1).getType(),
+				"Saving a new object is an insert");
+		assertNull(events.get(1).getBefore(), "Insert has no before");
+	}
+
+	@Test
+	public void testDeleteEventNamesRecord() throws IOException {
+		final List<ChangeEvent<Author>> events = new ArrayList<>();
+		dao.getChangeFeed().addListener(events::add);
+		final Author missing = new Author(9L, "Nobody");
+		dao.delete(missing);
+		assertEquals(missing, events.get(0).getBefore(),
+				"Delete of an unknown record still says which was deleted");
+	}
+
+	@Test
+	public void testSubscriberCanWriteBack() throws Exception {
+		final ChangeFeed.Subscription<Author> subscription = dao.getChangeFeed()
+				.subscribe(1);
+		dao.save(new Author(1L, "Jane Austen"));
+		final Thread writer = new Thread(() -> {
+			try {
+				dao.save(new Author(2L, "Jules Verne"));
+			} catch (final IOException except) {
+				throw new IllegalStateException(except);
+			}
+		});
+		writer.start();
+		awaitBlockedWriter(writer, 2);
+		// The subscriber reacts to the first event by writing to the table
+		final Thread reaction = new Thread(() -> {
+			try {
+				dao.save(new Author(101L, "Mirror of Jane Austen"));
+			} catch (final IOException except) {
+				throw new IllegalStateException(except);
+			}
+		});
+		reaction.start();
+		reaction.join(5000);
+		assertFalse(reaction.isAlive(), "Writing back doesn't wait for the blocked writer");
+		for (long i = 1; i <= 3; i++) {
+			assertEquals(i, subscription.poll(5, TimeUnit.SECONDS).getSequence(),
+					"Every event still delivered in order");
+		}
+		writer.join(5000);
+		subscription.close();
+		assertEquals(3, dao.findAll().size(), "All writes completed");
+	}
+}
@@ -0,0 +1,101 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class OffHeapTableStoreTest {
+	private Path file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = Files.createTempFile("books", ".csv");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+	}
+
+	@Test
+	public void testWriteThrough() throws IOException {
+		final OffHeapTableStore store = new OffHeapTableStore(new CSVTableStore(file));
+		store.append(Arrays.asList("1", "Emma", "\u00e9t\u00e9"));
+		store.appendAll(Arrays.asList(Arrays.asList("2", "Persuasion"),
+				Arrays.asList("3", "Sanditon")));
+		store.replace(1, Arrays.asList("1", "Emma"));
+		store.replace(2, Arrays.asList("2", "Persuasion", "a much longer field"));
+		store.remove(3);
+		assertEquals(Optional.of(Arrays.asList("1", "Emma")), store.find(1),
+				"Shorter replacement is stored in place");
+		assertFalse(store.find(3).isPresent(), "Removed record is gone");
+		final List<List<String>> expected = Arrays.asList(Arrays.asList("1", "Emma"),
+				Arrays.asList("2", "Persuasion", "a much longer field"));
+		assertEquals(expected, store.records().collect(Collectors.toList()),
+				"Live records are streamed");
+		assertEquals(expected, new OffHeapTableStore(new CSVTableStore(file)).records()
+				.collect(Collectors.toList()), "Changes are written through");
+		store.close();
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		final OffHeapTableStore store = new OffHeapTableStore(new CSVTableStore(file));
+		final List<List<String>> records = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			records.add(Arrays.asList(Integer.toString(i), "Book " + i));
+		}
+		store.rewrite(records);
+		final char[] padding = new char[100_000];
+		for (int round = 0; round < 60; round++) {
+			Arrays.fill(padding, 0, round * 1000 + 1000, 'x');
+			store.replace(0, Arrays.asList("0", new String(padding, 0, round * 1000 + 1000)));
+		}
+		assertEquals(60_000, store.find(0).get().get(1).length(),
+				"Growing record is moved rather than overwritten");
+		store.compact();
+		assertEquals(100, store.size(), "Compaction keeps every live record");
+		assertEquals(100L, store.records().count(), "Abandoned slots are not streamed");
+		assertEquals(Optional.of(Arrays.asList("50", "Book 50")), store.find(50),
+				"Records can be found after compaction");
+	}
+
+	@Test
+	public void testIndex() {
+		final OffHeapIndex index = new OffHeapIndex(0);
+		final Map<Long, Long> expected = new HashMap<>();
+		final Random random = new Random(42);
+		for (int i = 0; i < 20_000; i++) {
+			final long key = random.nextInt(5000) - 2500L;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.containsKey(key) ? expected.remove(key)
+						: OffHeapIndex.ABSENT, index.remove(key), "Removal returns old value");
+			} else {
+				final long value = random.nextInt(Integer.MAX_VALUE);
+				expected.put(key, value);
+				index.put(key, value);
+			}
+		}
+		assertEquals(expected.size(), index.size(), "Index tracks its size");
+		for (long key = -2500; key < 2500; key++) {
+			assertEquals(expected.getOrDefault(key, OffHeapIndex.ABSENT).longValue(),
+					index.get(key), "Index agrees with a HashMap");
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.PushbackReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class ParallelCSVScannerTest {
+	private Path file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = Files.createTempFile("books", ".csv");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private List<List<String>> readSequentially() throws IOException {
+		final List<List<String>> retval = new ArrayList<>();
+		try (PushbackReader in = new PushbackReader(Files.newBufferedReader(file))) {
+			while (true) {
+				final List<String> record = CSVHelper.readCSVRecord(in);
+				if (record.isEmpty()) {
+					return retval;
+				}
+				retval.add(record);
+			}
+		}
+	}
+
+	@Test
+	public void testParallelScanMatchesSequential() throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+			for (int i = 0; i < 500; i++) {
+				out.println(Arrays
+						.asList(Integer.toString(i), "Title " + i,
+								i % 3 == 0 ? "line one\nline two, \"quoted\"" : "plain",
+								"\u00dcn\u00efc\u00f6d\u00e9 " + i)
+						.stream().map(CSVHelper::quoteCSV)
+						.collect(Collectors.joining(",")));
+			}
+		}
+		final List<List<String>> expected = readSequentially();
+		assertEquals(500, expected.size(), "Sequential parse sees every record");
+		assertEquals(expected,
+				ParallelCSVScanner.records(file, 16).parallel()
+						.collect(Collectors.toList()),
+				"Parallel scan with tiny chunks gives the same records in the same order");
+		assertEquals(expected,
+				ParallelCSVScanner.records(file).collect(Collectors.toList()),
+				"Sequential use of the scanner gives the same records");
+	}
+
+	@Test
+	public void testMissingFile() throws IOException {
+		Files.delete(file);
+		assertEquals(0L, ParallelCSVScanner.records(file).parallel().count(),
+				"Missing file is treated as an empty table");
+	}
+
+	@Test
+	public void testStreamIsSnapshot() throws IOException {
+		final List<String> lines = IntStream.range(0, 100).mapToObj(i -> i + ",Title " + i)
+				.collect(Collectors.toList());
+		Files.write(file, lines);
+		try (Stream<List<String>> records = ParallelCSVScanner.records(file, 16)) {
+			new CSVTableStore(file).rewrite(Collections.emptyList());
+			Files.write(file, lines, StandardOpenOption.APPEND);
+			assertEquals(100, records.parallel().count(),
+					"Stream unaffected by the table being rewritten and appended to while it is open");
+		}
+		Files.write(file, lines);
+		try (Stream<List<String>> records = ParallelCSVScanner.records(file, 16)) {
+			Files.write(file, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+			assertThrows(UncheckedIOException.class, () -> records.parallel().count(),
+					"Truncating the file in place while it is read is reported");
+		}
+		Files.delete(file);
+		assertEquals(0L, ParallelCSVScanner.records(file).count(), "File can be removed");
+	}
+
+	@Test
+	public void testChunksReadWhenReached() throws IOException {
+		Files.write(file, IntStream.range(0, 100).mapToObj(i -> i + ",Title " + i + "\n")
+				.collect(Collectors.joining()).getBytes(StandardCharsets.UTF_8));
+		try (Stream<List<String>> records = ParallelCSVScanner.records(file, 16)) {
+			final Iterator<List<String>> iterator = records.iterator();
+			assertEquals(Arrays.asList("0", "Title 0"), iterator.next(), "First record read");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap("Novel".getBytes(StandardCharsets.UTF_8)),
+						Files.size(file) - "Title 99\n".length());
+			}
+			List<String> last = null;
+			while (iterator.hasNext()) {
+				last = iterator.next();
+			}
+			assertEquals(Arrays.asList("99", "Novel 99"), last,
+					"Later chunks are read as they are reached, not when the stream is opened");
+		}
+	}
+
+	@Test
+	public void testCarriageReturnsEndRecords() throws IOException {
+		Files.write(file, IntStream.range(0, 100)
+				.mapToObj(i -> i + ",\"Title\rwith a return\",Title " + i + "\r")
+				.collect(Collectors.joining()).getBytes(StandardCharsets.UTF_8));
+		final List<List<String>> expected = readSequentially();
+		assertEquals(100, expected.size(), "Sequential parse sees every record");
+		try (Stream<List<String>> records = ParallelCSVScanner.records(file, 16)) {
+			assertNotNull(records.spliterator().trySplit(),
+					"File with only CRs between records is still split");
+		}
+		assertEquals(expected,
+				ParallelCSVScanner.records(file, 16).parallel()
+						.collect(Collectors.toList()),
+				"Parallel scan splitting at CRs gives the same records in the same order");
+	}
+}
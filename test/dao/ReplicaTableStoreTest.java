@@ -0,0 +1,149 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class ReplicaTableStoreTest {
+	private Path primary;
+	private Path shipped;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		primary = Files.createTempDirectory("primary");
+		shipped = Files.createTempDirectory("replica");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		for (final Path directory : Arrays.asList(primary, shipped)) {
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (final Path file : files.sorted(Comparator.reverseOrder())
+						.collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	private static ReplicaTableStore follow(final Path directory) {
+		return new ReplicaTableStore(new CSVTableStore(directory.resolve("authors.csv")),
+				directory.resolve("authors.wal"));
+	}
+
+	private void ship() throws IOException {
+		for (final String name : Arrays.asList("authors.csv", "authors.wal")) {
+			if (Files.exists(primary.resolve(name))) {
+				Files.copy(primary.resolve(name), shipped.resolve(name),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	private static List<String> names(final TableStore store) throws IOException {
+		return store.records().map(record -> record.get(1)).sorted()
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void testTailsLog() throws IOException {
+		final LoggedTableStore store = new LoggedTableStore(
+				new CSVTableStore(primary.resolve("authors.csv")),
+				new WriteAheadLog(primary.resolve("authors.wal")), 5);
+		final ReplicaTableStore local = follow(primary);
+		final ReplicaTableStore remote = follow(shipped);
+		assertTrue(local.refresh(), "First refresh loads the table");
+		assertEquals(0L, local.records().count(), "Nothing written yet");
+		store.append(Arrays.asList("1", "Jane Austen"));
+		store.append(Arrays.asList("2", "Jules Verne"));
+		store.replace(1, Arrays.asList("1", "J. Austen"));
+		assertTrue(local.refresh(), "Refresh sees logged changes");
+		assertEquals(Arrays.asList("J. Austen", "Jules Verne"), names(local),
+				"Logged changes are applied");
+		assertEquals(3L, local.getAppliedSequence(), "Applied sequence is tracked");
+		assertTrue(local.getAppliedTimestamp() > 0, "Applied timestamp is tracked");
+		assertFalse(local.refresh(), "Nothing new to apply");
+		ship();
+		remote.refresh();
+		assertEquals(names(local), names(remote), "Shipped copy of the log is followed");
+		store.remove(2);
+		store.append(Arrays.asList("3", "Dorothy Sayers"));
+		store.append(Arrays.asList("4", "Agatha Christie"));
+		store.append(Arrays.asList("5", "Ngaio Marsh"));
+		assertTrue(Files.size(primary.resolve("authors.csv")) > 0,
+				"Primary has checkpointed");
+		assertTrue(local.refresh(), "Refresh sees changes across a checkpoint");
+		assertEquals(Arrays.asList("Agatha Christie", "Dorothy Sayers", "J. Austen",
+				"Ngaio Marsh"), names(local), "Checkpointed and later changes are applied");
+		ship();
+		remote.refresh();
+		assertEquals(names(local), names(remote), "Shipped checkpoint is followed");
+		assertEquals(Optional.of(Arrays.asList("3", "Dorothy Sayers")), remote.find(3),
+				"Records can be found by ID");
+		store.close();
+	}
+
+	@Test
+	public void testWithoutLog() throws IOException {
+		final CSVTableStore table = new CSVTableStore(primary.resolve("authors.csv"));
+		table.append(Arrays.asList("1", "Jane Austen"));
+		final ReplicaTableStore replica = follow(primary);
+		assertEquals(Arrays.asList("Jane Austen"), names(replica),
+				"Table is loaded on first use");
+		assertFalse(replica.refresh(), "Unchanged table is not reloaded");
+		table.append(Arrays.asList("2", "Jules Verne"));
+		assertTrue(replica.refresh(), "Changed table is reloaded");
+		assertEquals(Arrays.asList("Jane Austen", "Jules Verne"), names(replica),
+				"Reloaded table has the changes");
+	}
+
+	@Test
+	public void testReadOnly() throws IOException {
+		final ReplicaTableStore replica = follow(primary);
+		assertThrows(UnsupportedOperationException.class,
+				() -> replica.append(Arrays.asList("1", "Jane Austen")),
+				"Replica can't be written to");
+		assertThrows(UnsupportedOperationException.class, () -> replica.remove(1),
+				"Replica can't be written to");
+	}
+
+	@Test
+	public void testPendingSince() throws IOException {
+		final LoggedTableStore store = new LoggedTableStore(
+				new CSVTableStore(primary.resolve("authors.csv")),
+				new WriteAheadLog(primary.resolve("authors.wal")), 100);
+		final ReplicaTableStore local = follow(primary);
+		store.append(Arrays.asList("1", "Jane Austen"));
+		final long refreshed = System.currentTimeMillis();
+		local.refresh();
+		assertEquals(0L, local.getPendingSince(), "Nothing pending after a refresh");
+		final long written = System.currentTimeMillis();
+		store.append(Arrays.asList("2", "Jules Verne"));
+		final long logged = local.getPendingSince();
+		assertTrue(logged >= written && logged <= System.currentTimeMillis(),
+				"Pending since the unapplied change was logged");
+		assertEquals(1L, local.records().count(), "Checking doesn't apply anything");
+		store.checkpoint();
+		final long synced = local.getPendingSince();
+		assertTrue(synced >= refreshed && synced <= written,
+				"Once checkpointed, pending since the last refresh began");
+		local.refresh();
+		assertEquals(0L, local.getPendingSince(), "Refreshing catches up");
+	}
+}
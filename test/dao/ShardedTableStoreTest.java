@@ -0,0 +1,150 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class ShardedTableStoreTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static List<List<String>> books(final int count) {
+		final List<List<String>> retval = new ArrayList<>();
+		for (int i = 1; i <= count; i++) {
+			retval.add(Arrays.asList(Integer.toString(i), "1", "1", "Book " + i, ""));
+		}
+		return retval;
+	}
+
+	private static Set<List<String>> contents(final TableStore store)
+			throws IOException {
+		try (Stream<List<String>> records = store.records()) {
+			return records.collect(Collectors.toSet());
+		}
+	}
+
+	@Test
+	public void testRouting() throws IOException {
+		final ShardedTableStore store = ShardedTableStore.open(directory, "books",
+				".csv", 4, CSVTableStore::new);
+		store.appendAll(books(20));
+		store.append(Arrays.asList("21", "1", "1", "Book 21", ""));
+		for (int i = 0; i < 4; i++) {
+			final Path file = ShardedTableStore.shardFile(directory, "books", ".csv", i, 4);
+			try (Stream<List<String>> records = new CSVTableStore(file).records()) {
+				final int shard = i;
+				assertTrue(records.allMatch(record -> ShardedTableStore
+						.shardOf(Long.parseLong(record.get(0)), 4) == shard),
+						"Each record is in its own shard");
+			}
+		}
+		assertEquals(21, contents(store).size(), "Scans cover every shard");
+		store.replace(6, Arrays.asList("6", "1", "1", "Six", ""));
+		store.remove(7);
+		assertEquals(Optional.of(Arrays.asList("6", "1", "1", "Six", "")),
+				store.find(6), "Replacements are found");
+		assertFalse(store.find(7).isPresent(), "Removed records are gone");
+		assertFalse(store.find(99).isPresent(), "Missing records are not found");
+	}
+
+	@Test
+	public void testResharding() throws IOException {
+		new CSVTableStore(directory.resolve("books.csv")).appendAll(books(30));
+		final Set<List<String>> expected = new HashSet<>(books(30));
+		final ShardedTableStore three = ShardedTableStore.open(directory, "books",
+				".csv", 3, CSVTableStore::new);
+		assertEquals(expected, contents(three), "Unsharded table is re-sharded");
+		assertFalse(Files.exists(directory.resolve("books.csv")),
+				"Unsharded file is removed");
+		three.remove(30);
+		expected.remove(books(30).get(29));
+		final ShardedTableStore five = ShardedTableStore.open(directory, "books",
+				".csv", 5, CSVTableStore::new);
+		assertEquals(expected, contents(five), "Shards can be re-sharded");
+		assertFalse(Files.exists(ShardedTableStore.shardFile(directory, "books", ".csv",
+				0, 3)), "Old shards are removed");
+		assertEquals(expected, contents(ShardedTableStore.open(directory, "books",
+				".csv", 5, CSVTableStore::new)), "Reopening keeps the layout");
+	}
+
+	@Test
+	public void testLayoutChoiceIsDeterministic() throws IOException {
+		new CSVTableStore(directory.resolve("books.csv")).appendAll(books(10));
+		final ShardedTableStore stale = ShardedTableStore.open(directory, "books",
+				".csv", 2, CSVTableStore::new);
+		stale.rewrite(books(3));
+		Files.delete(ShardedTableStore.layoutFile(directory, "books", ".csv"));
+		new CSVTableStore(directory.resolve("books.csv")).appendAll(books(10));
+		final FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+		for (int i = 0; i < 2; i++) {
+			Files.setLastModifiedTime(ShardedTableStore.shardFile(directory, "books",
+					".csv", i, 2), old);
+		}
+		assertEquals(new HashSet<>(books(10)), contents(ShardedTableStore.open(directory,
+				"books", ".csv", 4, CSVTableStore::new)),
+				"Without a recorded layout, the newest files are used");
+		new CSVTableStore(ShardedTableStore.shardFile(directory, "books", ".csv", 0, 3))
+				.rewrite(books(1));
+		new CSVTableStore(ShardedTableStore.shardFile(directory, "books", ".csv", 1, 3))
+				.rewrite(books(1));
+		new CSVTableStore(ShardedTableStore.shardFile(directory, "books", ".csv", 2, 3))
+				.rewrite(books(1));
+		assertEquals(new HashSet<>(books(10)), contents(ShardedTableStore.open(directory,
+				"books", ".csv", 4, CSVTableStore::new)),
+				"Stray shards don't displace the recorded layout");
+		assertEquals(new HashSet<>(books(10)), contents(ShardedTableStore.open(directory,
+				"books", ".csv", 5, CSVTableStore::new)),
+				"The recorded layout is re-sharded, even if other files are newer");
+	}
+
+	@Test
+	public void testFailedRewriteChangesNoShard() throws IOException {
+		final ShardedTableStore store = ShardedTableStore.open(directory, "books",
+				".csv", 3, CSVTableStore::new);
+		store.appendAll(books(9));
+		final Path blocked = ShardedTableStore.shardFile(directory, "books", ".csv", 2, 3)
+				.resolveSibling("books-2-of-3.csv.tmp");
+		Files.createDirectory(blocked);
+		assertThrows(IOException.class, () -> store.rewrite(books(4)),
+				"Failure to write one shard reported");
+		assertEquals(new HashSet<>(books(9)), contents(store), "No shard was rewritten");
+		assertFalse(Files.exists(ShardedTableStore.shardFile(directory, "books", ".csv",
+				0, 3).resolveSibling("books-0-of-3.csv.tmp")), "Staged files discarded");
+		Files.delete(blocked);
+		store.rewrite(books(4));
+		assertEquals(new HashSet<>(books(4)), contents(store), "Rewrites work again");
+	}
+}
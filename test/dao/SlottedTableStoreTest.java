@@ -0,0 +1,112 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class SlottedTableStoreTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static List<List<String>> all(final TableStore store) throws IOException {
+		try (Stream<List<String>> records = store.records()) {
+			return records.collect(Collectors.toList());
+		}
+	}
+
+	@Test
+	public void testInPlaceUpdates() throws IOException {
+		final Path file = directory.resolve("authors.slots");
+		try (SlottedTableStore store = new SlottedTableStore(file, 32)) {
+			store.append(Arrays.asList("2", "Jules Verne"));
+			store.append(Arrays.asList("1", "Jane Austen"));
+			store.append(Arrays.asList("3", "Dorothy Sayers"));
+			assertEquals(Arrays.asList(Arrays.asList("1", "Jane Austen"),
+					Arrays.asList("2", "Jules Verne"), Arrays.asList("3", "Dorothy Sayers")),
+					all(store), "Records are returned in ID order");
+			final long size = Files.size(file);
+			store.replace(1, Arrays.asList("1", "J. Austen"));
+			store.remove(2);
+			store.replace(4, Arrays.asList("4", "Nobody"));
+			assertEquals(size, Files.size(file), "Updates are made in place");
+			assertEquals(Optional.of(Arrays.asList("1", "J. Austen")), store.find(1),
+					"Replacement is visible");
+			assertEquals(Optional.empty(), store.find(2), "Removal is visible");
+			assertEquals(Optional.empty(), store.find(4),
+					"Replacing a missing record does nothing");
+			assertEquals(Optional.empty(), store.find(1000), "IDs past the end are missing");
+			store.append(Arrays.asList("3", "D. L. Sayers"));
+			assertEquals(2L, store.records().count(), "Appending a used ID replaces it");
+		}
+		try (SlottedTableStore reopened = new SlottedTableStore(file, 64)) {
+			assertEquals(32, reopened.getSlotSize(), "Slot size is kept in the file");
+			assertEquals(Arrays.asList(Arrays.asList("1", "J. Austen"),
+					Arrays.asList("3", "D. L. Sayers")), all(reopened),
+					"Contents survive reopening");
+		}
+	}
+
+	@Test
+	public void testOverflow() throws IOException {
+		final Path file = directory.resolve("books.slots");
+		final String longTitle = String.join(" ", Collections.nCopies(20, "Very Long"));
+		try (SlottedTableStore store = new SlottedTableStore(file, 32)) {
+			store.appendAll(IntStream.rangeClosed(1, 50)
+					.mapToObj(i -> Arrays.asList(Integer.toString(i),
+							i % 2 == 0 ? longTitle + " " + i : "Short " + i))
+					.collect(Collectors.toList()));
+			assertEquals(Optional.of(Arrays.asList("10", longTitle + " 10")),
+					store.find(10), "Long records are read from the overflow file");
+			assertEquals(50L, store.records().count(), "All records are scanned");
+			for (int i = 2; i <= 50; i += 2) {
+				store.replace(i, Arrays.asList(Integer.toString(i), longTitle + "!"));
+			}
+			final long before = Files.size(directory.resolve("books.slots.overflow0"));
+			store.compact();
+			assertFalse(Files.exists(directory.resolve("books.slots.overflow0")),
+					"Old overflow file is removed");
+			assertTrue(Files.size(directory.resolve("books.slots.overflow1")) < before,
+					"Compaction reclaims superseded overflow space");
+			assertEquals(Optional.of(Arrays.asList("12", longTitle + "!")),
+					store.find(12), "Records survive compaction");
+			assertEquals(Optional.of(Arrays.asList("13", "Short 13")), store.find(13),
+					"Short records survive compaction");
+		}
+		try (SlottedTableStore reopened = new SlottedTableStore(file)) {
+			assertEquals(50L, reopened.records().count(),
+					"Reopened table uses the new overflow file");
+			assertEquals(Optional.of(Arrays.asList("50", longTitle + "!")),
+					reopened.find(50), "Reopened table reads overflow records");
+		}
+	}
+}
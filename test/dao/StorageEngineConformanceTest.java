@@ -0,0 +1,228 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+
+/**
+ * Tests that every {@link StorageEngine} on the class path behaves as a
+ * {@link TableStore} should, and isn't unreasonably slow.
+ */
+public final class StorageEngineConformanceTest {
+	/**
+	 * How many records the performance smoke test stores.
+	 */
+	private static final int SMOKE_RECORDS = 5_000;
+	/**
+	 * How long any engine may take to store them and look them up, in
+	 * milliseconds. This is generous, to catch only gross regressions.
+	 */
+	private static final long SMOKE_LIMIT = 20_000;
+
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static void close(final TableStore store) throws IOException {
+		if (store instanceof Closeable) {
+			((Closeable) store).close();
+		}
+	}
+
+	/**
+	 * The records in a table, by ID, since engines need not keep them in the
+	 * order they were added.
+	 */
+	private static List<List<String>> contents(final TableStore store) throws IOException {
+		try (Stream<List<String>> records = store.records()) {
+			return records.sorted(Comparator.comparing(record -> Long.parseLong(record.get(0))))
+					.collect(Collectors.toList());
+		}
+	}
+
+	private Path fileFor(final StorageEngine engine, final String table) {
+		return directory.resolve(engine.getName() + '-' + table + engine.getSuffix());
+	}
+
+	@Test
+	public void testStandardEnginesAvailable() {
+		final List<String> names = StorageEngine.available().stream()
+				.map(StorageEngine::getName).collect(Collectors.toList());
+		assertTrue(names.containsAll(Arrays.asList("csv", "compressed", "slotted",
+				"cached", "offheap", "durable", "memory")),
+				"Built-in engines are discovered");
+		assertEquals("slotted", StorageEngine.named("slotted").getName(),
+				"Engines can be looked up by name");
+		assertThrows(IllegalArgumentException.class, () -> StorageEngine.named("nope"),
+				"Unknown engines are rejected");
+	}
+
+	@Test
+	public void testConformance() throws IOException {
+		for (final StorageEngine engine : StorageEngine.available()) {
+			final String name = engine.getName();
+			final Path file = fileFor(engine, "conformance");
+			final TableStore store = engine.open(file);
+			try {
+				try {
+					assertEquals(0, contents(store).size(), name + ": new table is empty");
+				} catch (final NoSuchFileException except) {
+					// Engines may report a table not yet written this way, as CSV does
+				}
+				store.append(Arrays.asList("1", "Jane Austen"));
+				store.appendAll(Arrays.asList(Arrays.asList("2", "Jules Verne"),
+						Arrays.asList("3", "Dorothy Sayers")));
+				assertEquals(Optional.of(Arrays.asList("2", "Jules Verne")), store.find(2),
+						name + ": appended record found");
+				store.replace(2, Arrays.asList("2", "J. Verne"));
+				assertEquals(Optional.of(Arrays.asList("2", "J. Verne")), store.find(2),
+						name + ": record replaced");
+				store.remove(1);
+				assertFalse(store.find(1).isPresent(), name + ": record removed");
+				assertEquals(Arrays.asList(Arrays.asList("2", "J. Verne"),
+						Arrays.asList("3", "Dorothy Sayers")), contents(store),
+						name + ": remaining records listed");
+				assertEquals(2, store.findByIds(new long[] { 3, 4, 2, 1 }).size(),
+						name + ": multi-get finds only what is there");
+				store.rewrite(Arrays.asList(Arrays.asList("5", "G. K. Chesterton"),
+						Arrays.asList("4", "Agatha Christie")));
+				assertEquals(Arrays.asList(Arrays.asList("4", "Agatha Christie"),
+						Arrays.asList("5", "G. K. Chesterton")), contents(store),
+						name + ": rewrite replaces everything");
+			} finally {
+				close(store);
+			}
+			if (engine.isPersistent()) {
+				final TableStore reopened = engine.open(file);
+				try {
+					assertEquals(Optional.of(Arrays.asList("4", "Agatha Christie")),
+							reopened.find(4), name + ": data survives reopening");
+					assertEquals(2, contents(reopened).size(),
+							name + ": nothing extra after reopening");
+				} finally {
+					close(reopened);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPerformanceSmoke() throws IOException {
+		final List<List<String>> records = new ArrayList<>(SMOKE_RECORDS);
+		for (int i = 1; i <= SMOKE_RECORDS; i++) {
+			records.add(Arrays.asList(Integer.toString(i), "Author number " + i));
+		}
+		final long[] ids = new long[SMOKE_RECORDS / 10];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i * 10L + 1;
+		}
+		for (final StorageEngine engine : StorageEngine.available()) {
+			final long start = System.currentTimeMillis();
+			final TableStore store = engine.open(fileFor(engine, "smoke"));
+			try {
+				store.appendAll(records);
+				assertEquals(ids.length, store.findByIds(ids).size(),
+						engine.getName() + ": multi-get finds them all");
+				for (int i = 0; i < 20; i++) {
+					assertTrue(store.find(i * 250L + 1).isPresent(),
+							engine.getName() + ": record found");
+				}
+			} finally {
+				close(store);
+			}
+			final long elapsed = System.currentTimeMillis() - start;
+			assertTrue(elapsed < SMOKE_LIMIT, engine.getName() + " took " + elapsed
+					+ " ms to store and look up " + SMOKE_RECORDS + " records");
+		}
+	}
+
+	@Test
+	public void testPerTableConfiguration() throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty("engine", "slotted");
+		properties.setProperty("books.engine", "csv");
+		properties.setProperty("publishers.engine", "memory");
+		final StorageConfiguration config = new StorageConfiguration(directory, properties);
+		assertEquals("slotted", config.getEngine("authors").getName(),
+				"Default engine applies to tables not otherwise configured");
+		try (Database database = config.open()) {
+			final Author author = new Author(1, "Jane Austen");
+			final Publisher publisher = new Publisher(1, "Penguin");
+			database.getAuthors().save(author);
+			database.getPublishers().save(publisher);
+			database.getBooks().save(new Book(1, author, publisher, "Emma", ""));
+			assertEquals("Emma", database.getBooks().find(1).get().getTitle(),
+					"Books resolve across engines");
+		}
+		assertTrue(Files.exists(directory.resolve("authors.slots")),
+				"Authors kept in slotted file");
+		assertTrue(Files.exists(directory.resolve("books.csv")), "Books kept in CSV");
+		assertFalse(Files.exists(directory.resolve("publishers")),
+				"Publishers kept only in memory");
+		properties.setProperty("publishers.wal", "true");
+		assertThrows(IllegalArgumentException.class,
+				() -> new StorageConfiguration(directory, properties).open(),
+				"In-memory tables can't be logged");
+	}
+
+	@Test
+	public void testInMemoryCopyOverEngine() throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty("engine", "compressed");
+		properties.setProperty("inmemory", "heap");
+		final StorageConfiguration config = new StorageConfiguration(directory, properties);
+		try (Database database = config.open()) {
+			database.getAuthors().save(new Author(1, "Jane Austen"));
+		}
+		assertTrue(Files.exists(directory.resolve("authors.csv.z")),
+				"Table kept by the configured engine");
+		assertTrue(Files.exists(directory.resolve("authors.snapshot")),
+				"In-memory copy saved as a snapshot");
+		assertFalse(Files.exists(directory.resolve("authors.csv")),
+				"In-memory copy doesn't change where the table is kept");
+		try (Database database = config.open()) {
+			assertEquals("Jane Austen", database.getAuthors().find(1).get().getName(),
+					"Table reloaded through the in-memory copy");
+		}
+		properties.setProperty("inmemory", "disk");
+		assertThrows(IllegalArgumentException.class,
+				() -> new StorageConfiguration(directory, properties).open(),
+				"Unknown in-memory setting rejected");
+	}
+}
@@ -0,0 +1,72 @@
+package dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import model.Author;
+
+public final class TableIdsTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Test
+	public void testIdempotentSave() throws IOException {
+		final Path file = directory.resolve("authors.csv");
+		final AuthorDataAccessObject dao = new AuthorDataAccessObject(
+				new CSVTableStore(file));
+		final Author austen = new Author(1, "Jane Austen");
+		dao.save(austen);
+		dao.save(austen);
+		austen.setName("J. Austen");
+		dao.save(austen);
+		dao.saveAll(Arrays.asList(new Author(2, "Jules Verne"), new Author(1, "Austen"),
+				new Author(3, "Dorothy Sayers"), new Author(2, "J. Verne")));
+		assertEquals(Arrays.asList("1,Austen", "2,J. Verne", "3,Dorothy Sayers"),
+				Files.readAllLines(file), "Saving never duplicates a record");
+		dao.delete(austen);
+		dao.save(austen);
+		assertEquals(3, dao.findAll().size(), "Removed IDs can be saved again");
+		final AuthorDataAccessObject reopened = new AuthorDataAccessObject(
+				new CSVTableStore(file));
+		reopened.save(new Author(3, "D. L. Sayers"));
+		assertEquals(3, reopened.findAll().size(), "IDs are loaded from the table");
+	}
+
+	@Test
+	public void testDeduplicate() throws IOException {
+		final Path file = directory.resolve("authors.csv");
+		Files.write(file, Arrays.asList("1,Jane Austen", "2,Jules Verne", "1,J. Austen",
+				"3,Dorothy Sayers", "2,J. Verne", "1,Austen"));
+		final AuthorDataAccessObject dao = new AuthorDataAccessObject(
+				new CSVTableStore(file));
+		assertEquals(3, dao.deduplicate(), "Duplicates are counted");
+		assertEquals(Arrays.asList("1,Austen", "2,J. Verne", "3,Dorothy Sayers"),
+				Files.readAllLines(file), "The last record with each ID is kept");
+		assertEquals(0, dao.deduplicate(), "Nothing more to remove");
+	}
+}
@@ -0,0 +1,135 @@
+package menu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dao.DataAccessObject;
+import dao.InMemoryAuthorDAO;
+import dao.InMemoryBookDAO;
+import dao.InMemoryPublisherDAO;
+import model.Author;
+import model.Book;
+import model.Publisher;
+import service.LibraryServiceImpl;
+
+public final class BatchCommandRunnerTest {
+
+	private DataAccessObject<Book> bookDAO;
+	private DataAccessObject<Author> authorDAO;
+	private DataAccessObject<Publisher> publisherDAO;
+
+	@BeforeEach
+	public void init() {
+		bookDAO = new InMemoryBookDAO();
+		authorDAO = new InMemoryAuthorDAO();
+		publisherDAO = new InMemoryPublisherDAO();
+	}
+
+	private String run(final String script, final long expectedFailures)
+			throws IOException {
+		final StringBuilder out = new StringBuilder();
+		final BatchCommandRunner runner = new BatchCommandRunner(
+				new LibraryServiceImpl(bookDAO, authorDAO, publisherDAO), out);
+		assertEquals(expectedFailures, runner.run(new StringReader(script)),
+				"Failed commands counted: " + out);
+		return out.toString();
+	}
+
+	@Test
+	public void testBatchedAdditions() throws IOException {
+		final String output = run("# A small catalog\n"
+				+ "add book title=Emma isbn=0141439580 author=Jane Austen publisher=Penguin\n"
+				+ "add book title=\"Pride and Prejudice, \"\"annotated\"\"\" "
+				+ "author=Jane Austen publisher=Penguin\n"
+				+ "\n"
+				+ "add book title=Around the World in Eighty Days author=Jules Verne "
+				+ "publisher=Hetzel\n"
+				+ "add author name=Mary Shelley\n", 0);
+		final List<Book> books = bookDAO.findAll();
+		assertEquals(3, books.size(), "Every book added");
+		assertEquals(3, authorDAO.findAll().size(), "Authors created once each");
+		assertEquals(2, publisherDAO.findAll().size(), "Publishers created once each");
+		assertTrue(books.stream()
+				.anyMatch(book -> "Pride and Prejudice, \"annotated\"".equals(book.getTitle())),
+				"Quoted value unquoted");
+		assertTrue(books.stream().anyMatch(
+				book -> "Around the World in Eighty Days".equals(book.getTitle())
+						&& "Jules Verne".equals(book.getAuthor().getName())),
+				"Unquoted values run to the next argument");
+		final String[] lines = output.split("\n");
+		assertEquals(5, lines.length, "A line per command, and a summary");
+		assertTrue(lines[0].matches("2\tok\t\\d+\\.\\d{3} ms\tadded in a batch of 3"),
+				"Report format: " + lines[0]);
+		assertTrue(lines[3].startsWith("6\tok\t"), "Other commands reported: " + lines[3]);
+		assertTrue(lines[4].startsWith("4 commands succeeded, 0 failed"),
+				"Summary: " + lines[4]);
+	}
+
+	@Test
+	public void testErrorsDontStopTheScript() throws IOException {
+		final String output = run("add book title=Emma author=Jane Austen\n"
+				+ "frobnicate book id=1\n"
+				+ "get author id=12\n"
+				+ "add widget name=x\n"
+				+ "add author name=Jules Verne\n", 4);
+		assertEquals(1, authorDAO.findAll().size(), "Later commands still run");
+		assertTrue(bookDAO.findAll().isEmpty(), "Invalid book not added");
+		assertTrue(output.contains("1\terror\t0.000 ms\tMissing publisher="),
+				"Missing argument reported: " + output);
+		assertTrue(output.contains("No author with ID 12"),
+				"Missing record reported: " + output);
+		assertTrue(output.contains("1 commands succeeded, 4 failed"), "Summary: " + output);
+	}
+
+	@Test
+	public void testUpdateAndRemove() throws IOException {
+		run("add book title=Emma author=Jane Austen publisher=Penguin\n"
+				+ "update book id=1 title=\"Emma, a novel\" author=Austen, Jane\n"
+				+ "add publisher name=Hetzel address=Paris\n", 0);
+		final Book book = bookDAO.findAll().get(0);
+		assertEquals("Emma, a novel", book.getTitle(), "Title updated");
+		assertEquals("Austen, Jane", book.getAuthor().getName(),
+				"Author found or created by name");
+		final String output = run("get book id=" + book.getId() + '\n'
+				+ "remove publisher id=" + book.getPublisher().getId() + '\n'
+				+ "get book id=" + book.getId() + '\n', 1);
+		assertTrue(output.startsWith("1\tok\t"), "Get reported: " + output);
+		assertTrue(output.contains("found Emma, a novel"), "Get describes record: " + output);
+		assertFalse(publisherDAO.findAll().stream()
+				.anyMatch(publisher -> "Penguin".equals(publisher.getName())),
+				"Publisher removed");
+		assertTrue(bookDAO.findAll().isEmpty(), "Removing a publisher removes their books");
+	}
+
+	@Test
+	public void testFailedBatchCanBeRerun() throws IOException {
+		final DataAccessObject<Book> working = bookDAO;
+		bookDAO = new InMemoryBookDAO() {
+			@Override
+			public void saveAll(final Collection<? extends Book> entities)
+					throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		final String script = "add book title=Emma author=Jane Austen publisher=Penguin\n"
+				+ "add book title=Persuasion author=Jane Austen publisher=Penguin\n";
+		final String output = run(script, 2);
+		assertTrue(output.startsWith("1\terror\t"), "Unsaved books reported: " + output);
+		assertTrue(output.contains("Disk full"), "Cause reported: " + output);
+		bookDAO = working;
+		run(script, 0);
+		assertEquals(2, bookDAO.findAll().size(), "Books added on the second run");
+		assertEquals(1, authorDAO.findAll().size(), "Author not duplicated by the rerun");
+		assertEquals(1, publisherDAO.findAll().size(),
+				"Publisher not duplicated by the rerun");
+	}
+}
@@ -0,0 +1,198 @@
+package menu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import dao.AuthorDataAccessObject;
+import dao.BookDataAccessObject;
+import dao.InMemoryAuthorDAO;
+import dao.InMemoryBookDAO;
+import dao.InMemoryPublisherDAO;
+import dao.MemoryTableStore;
+import dao.PublisherDataAccessObject;
+import model.Author;
+import service.LibraryServiceImpl;
+import service.SharedLibraryService;
+
+public final class LibraryServerTest {
+	private static Socket connect(final LibraryServer server) throws IOException {
+		return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+	}
+
+	private static void send(final Socket socket, final String input) throws IOException {
+		final Writer out = new OutputStreamWriter(socket.getOutputStream(),
+				StandardCharsets.UTF_8);
+		out.write(input);
+		out.flush();
+	}
+
+	private static String readAll(final Socket socket) throws IOException {
+		final BufferedReader in = new BufferedReader(
+				new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		return in.lines().collect(Collectors.joining("\n"));
+	}
+
+	@Test
+	public void testConcurrentSessionsShareService() throws Exception {
+		final InMemoryAuthorDAO authors = new InMemoryAuthorDAO();
+		final SharedLibraryService service = new SharedLibraryService(
+				new LibraryServiceImpl(new InMemoryBookDAO(), authors,
+						new InMemoryPublisherDAO()));
+		final int users = 8;
+		final ExecutorService clients = Executors.newFixedThreadPool(users);
+		try (LibraryServer server = new LibraryServer(service, 0, users, 5_000)) {
+			final Thread acceptor = new Thread(() -> {
+				try {
+					server.serve();
+				} catch (final IOException except) {
+					throw new IllegalStateException(except);
+				}
+			});
+			acceptor.start();
+			final List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < users; i++) {
+				final int user = i;
+				results.add(clients.submit(() -> {
+					try (Socket socket = connect(server)) {
+						final StringBuilder input = new StringBuilder();
+						for (int j = 0; j < 5; j++) {
+							input.append("a\na\nAuthor ").append(user).append('-').append(j)
+									.append('\n');
+						}
+						send(socket, input.append("q\n").toString());
+						return readAll(socket);
+					}
+				}));
+			}
+			for (final Future<String> result : results) {
+				assertTrue(result.get().startsWith("Add, Update, Delete, or Retrieve"),
+						"Each session sees the menu");
+			}
+			final Set<Long> ids = new HashSet<>();
+			for (final Author author : authors.findAll()) {
+				ids.add(author.getId());
+			}
+			assertEquals(users * 5, authors.findAll().size(), "Every session's authors added");
+			assertEquals(users * 5, ids.size(), "No two sessions were given the same ID");
+		} finally {
+			clients.shutdown();
+		}
+	}
+
+	@Test
+	public void testAdmissionControl() throws Exception {
+		final SharedLibraryService service = new SharedLibraryService(
+				new LibraryServiceImpl(new InMemoryBookDAO(), new InMemoryAuthorDAO(),
+						new InMemoryPublisherDAO()));
+		try (LibraryServer server = new LibraryServer(service, 0, 1, 100)) {
+			final Thread acceptor = new Thread(() -> {
+				try {
+					server.serve();
+				} catch (final IOException except) {
+					throw new IllegalStateException(except);
+				}
+			});
+			acceptor.start();
+			try (Socket first = connect(server); Socket second = connect(server)) {
+				assertEquals("Server busy; try again later", readAll(second),
+						"Connection beyond the limit turned away");
+				assertEquals(1, server.getRejectedCount(), "Rejection counted");
+				send(first, "q\n");
+				assertTrue(readAll(first).startsWith("Add, Update"),
+						"Admitted session unaffected");
+			}
+			try (Socket third = connect(server)) {
+				send(third, "q\n");
+				assertTrue(readAll(third).startsWith("Add, Update"),
+						"Sessions admitted again once one ends");
+			}
+		}
+	}
+
+	@Test
+	public void testWaitingDoesNotBlockAccepting() throws Exception {
+		final SharedLibraryService service = new SharedLibraryService(
+				new LibraryServiceImpl(new InMemoryBookDAO(), new InMemoryAuthorDAO(),
+						new InMemoryPublisherDAO()));
+		try (LibraryServer server = new LibraryServer(service, 0, 1, 30_000)) {
+			final Thread acceptor = new Thread(() -> {
+				try {
+					server.serve();
+				} catch (final IOException except) {
+					throw new IllegalStateException(except);
+				}
+			});
+			acceptor.start();
+			try (Socket first = connect(server); Socket second = connect(server);
+					Socket third = connect(server)) {
+				third.setSoTimeout(5_000);
+				assertEquals("Server busy; try again later", readAll(third),
+						"Connection beyond those waiting turned away at once");
+				assertEquals(1, server.getRejectedCount(), "Only that one turned away");
+				send(first, "q\n");
+				assertTrue(readAll(first).startsWith("Add, Update"),
+						"Admitted session unaffected");
+				send(second, "q\n");
+				assertTrue(readAll(second).startsWith("Add, Update"),
+						"Waiting connection admitted once the session ends");
+			}
+		}
+	}
+
+	@Test
+	public void testSessionLatency() throws Exception {
+		final SharedLibraryService service = new SharedLibraryService(
+				new LibraryServiceImpl(new InMemoryBookDAO(), new InMemoryAuthorDAO(),
+						new InMemoryPublisherDAO()));
+		final SharedLibraryService.Session session = service.openSession();
+		session.createAuthor("Jane Austen");
+		session.getAllAuthors();
+		assertEquals(2, session.getCallCount(), "Calls counted");
+		assertTrue(session.getMaxLatencyMillis() >= session.getMeanLatencyMillis(),
+				"Maximum at least the mean");
+		assertEquals(0, service.openSession().getCallCount(),
+				"Each session counted separately");
+	}
+
+	@Test
+	public void testSessionsDontShareEntities() throws Exception {
+		final AuthorDataAccessObject authors = new AuthorDataAccessObject(
+				new MemoryTableStore());
+		final PublisherDataAccessObject publishers = new PublisherDataAccessObject(
+				new MemoryTableStore());
+		final SharedLibraryService service = new SharedLibraryService(
+				new LibraryServiceImpl(new BookDataAccessObject(new MemoryTableStore(),
+						authors, publishers), authors, publishers,
+						LibraryServiceImpl.DEFAULT_CACHE_CAPACITY));
+		final SharedLibraryService.Session first = service.openSession();
+		final SharedLibraryService.Session second = service.openSession();
+		first.createAuthor("Jane Austen").setName("Created, then edited");
+		for (int i = 0; i < 2; i++) {
+			// The second time round, the query is answered from the cache
+			first.getAllAuthors().get(0).setName("Edited, never saved");
+			assertEquals("Jane Austen", second.getAllAuthors().get(0).getName(),
+					"Another session doesn't see an unsaved edit");
+		}
+		assertEquals("Jane Austen", authors.findAll().get(0).getName(),
+				"The table doesn't see an unsaved edit");
+	}
+}
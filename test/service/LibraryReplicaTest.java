@@ -0,0 +1,150 @@
+package service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dao.AuthorDataAccessObject;
+import dao.BookDataAccessObject;
+import dao.CSVTableStore;
+import dao.LoggedTableStore;
+import dao.PublisherDataAccessObject;
+import dao.TableStore;
+import dao.WriteAheadLog;
+import model.Author;
+import model.Book;
+
+public final class LibraryReplicaTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private TableStore open(final String table) {
+		return new LoggedTableStore(new CSVTableStore(directory.resolve(table + ".csv")),
+				new WriteAheadLog(directory.resolve(table + ".wal")));
+	}
+
+	@Test
+	public void testReplica() throws IOException {
+		final AuthorDataAccessObject authors = new AuthorDataAccessObject(open("authors"));
+		final PublisherDataAccessObject publishers =
+				new PublisherDataAccessObject(open("publishers"));
+		final LibraryService primary = new LibraryServiceImpl(
+				new BookDataAccessObject(open("books"), authors, publishers), authors,
+				publishers);
+		try (LibraryReplica replica = new LibraryReplica(directory, false)) {
+			assertEquals(-1L, replica.getLag(), "No lag reported before first refresh");
+			final LibraryService service = replica.getService();
+			primary.createBook("Persuasion", "9781908533081", "Jane Austen",
+					"TransAtlantic Press");
+			replica.refresh();
+			assertTrue(replica.getLag() >= 0, "Lag is reported after a refresh");
+			assertEquals(1, service.getAllBooks().size(), "Replica sees the book");
+			assertEquals("Jane Austen", service.getAllBooks().get(0).getAuthor().getName(),
+					"Replica sees the book's author");
+			assertEquals(1, service.completeTitles("Pers", 5).size(),
+					"Indexes are built from the replica");
+			final Book emma = primary.createBook("Emma", "9780141439587", "Jane Austen",
+					"Penguin");
+			assertEquals(1, service.getAllBooks().size(),
+					"Replica doesn't see changes until refreshed");
+			replica.refresh();
+			assertEquals(2, service.getAllBooks().size(),
+					"Cached results are dropped after a refresh");
+			assertEquals(1, service.completeTitles("Em", 5).size(),
+					"Indexes are rebuilt after a refresh");
+			primary.removeBook(emma);
+			replica.refresh();
+			assertEquals(1, service.getAllBooks().size(), "Removal is replicated");
+			assertThrows(UnsupportedOperationException.class,
+					() -> service.createAuthor("Jules Verne"), "Replica is read-only");
+		}
+	}
+
+	@Test
+	public void testLagFollowsPrimaryWrites() throws Exception {
+		final AuthorDataAccessObject authors = new AuthorDataAccessObject(open("authors"));
+		try (LibraryReplica replica = new LibraryReplica(directory, false)) {
+			authors.save(new Author(1, "Jane Austen"));
+			// As if the primary had then been idle for an hour
+			final Path log = directory.resolve("authors.wal");
+			Files.setLastModifiedTime(log, FileTime.fromMillis(
+					Files.getLastModifiedTime(log).toMillis() - 3_600_000));
+			replica.refresh();
+			assertEquals(0L, replica.getLag(), "No lag when the copy is up to date");
+			authors.save(new Author(2, "Jules Verne"));
+			Thread.sleep(200);
+			final long lag = replica.getLag();
+			assertTrue(lag >= 200, "Lag is how long ago the unapplied change was made");
+			assertTrue(lag < 60_000, "Lag doesn't include the idle time before it");
+			replica.refresh();
+			assertEquals(0L, replica.getLag(), "Refreshing catches up");
+		}
+	}
+
+	@Test
+	public void testQueriesDuringRefresh() throws Exception {
+		final AuthorDataAccessObject authors = new AuthorDataAccessObject(open("authors"));
+		final PublisherDataAccessObject publishers =
+				new PublisherDataAccessObject(open("publishers"));
+		final LibraryService primary = new LibraryServiceImpl(
+				new BookDataAccessObject(open("books"), authors, publishers), authors,
+				publishers);
+		try (LibraryReplica replica = new LibraryReplica(directory, false)) {
+			replica.refresh();
+			final AtomicBoolean done = new AtomicBoolean();
+			final AtomicReference<Exception> failure = new AtomicReference<>();
+			final Thread reader = new Thread(() -> {
+				final LibraryService service = replica.getService();
+				try {
+					while (!done.get()) {
+						service.getAllBooks();
+					}
+				} catch (final IOException | RuntimeException except) {
+					failure.set(except);
+				}
+			});
+			reader.start();
+			try {
+				for (int i = 0; i < 300; i++) {
+					primary.createBook("Book " + i, "", "Author " + i, "Publisher " + i);
+					replica.refresh();
+				}
+			} finally {
+				done.set(true);
+				reader.join();
+			}
+			assertNull(failure.get(), "No query saw a refresh half done");
+			assertEquals(300, replica.getService().getAllBooks().size(),
+					"Every book replicated");
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import model.Author;
+import model.Book;
+import model.Publisher;
+import service.QueryCache.Table;
+
+public final class QueryCacheTest {
+	private int runs;
+
+	private List<String> run(final String result) {
+		runs++;
+		return Arrays.asList(result, Integer.toString(runs));
+	}
+
+	@Test
+	public void testVersioning() throws IOException {
+		final QueryCache cache = new QueryCache(8);
+		final EnumSet<Table> books = EnumSet.allOf(Table.class);
+		final EnumSet<Table> authors = EnumSet.of(Table.AUTHORS);
+		assertEquals(Arrays.asList("a", "1"), cache.get(authors, () -> run("a"), "q", 1),
+				"First lookup runs the query");
+		assertEquals(Arrays.asList("a", "1"), cache.get(authors, () -> run("a"), "q", 1),
+				"Second lookup is served from the cache");
+		assertEquals(Arrays.asList("b", "2"), cache.get(authors, () -> run("b"), "q", 2),
+				"Arguments are part of the key");
+		cache.get(books, () -> run("c"), "books");
+		cache.invalidate(Table.PUBLISHERS);
+		assertEquals(Arrays.asList("a", "1"), cache.get(authors, () -> run("a"), "q", 1),
+				"Changes to other tables don't invalidate results");
+		assertEquals(Arrays.asList("c", "4"), cache.get(books, () -> run("c"), "books"),
+				"Changes to tables a query depends on do");
+		cache.invalidate(Table.AUTHORS);
+		assertEquals(Arrays.asList("a", "5"), cache.get(authors, () -> run("a"), "q", 1),
+				"Invalidated results are recomputed");
+		assertEquals(2L, cache.getHits(), "Hits are counted");
+		assertEquals(5L, cache.getMisses(), "Misses are counted");
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		final QueryCache cache = new QueryCache(2);
+		final EnumSet<Table> authors = EnumSet.of(Table.AUTHORS);
+		cache.get(authors, () -> run("a"), "a");
+		cache.get(authors, () -> run("b"), "b");
+		cache.get(authors, () -> run("a"), "a");
+		cache.get(authors, () -> run("c"), "c");
+		assertEquals(3, runs, "Cache holds its capacity");
+		cache.get(authors, () -> run("a"), "a");
+		assertEquals(3, runs, "Recently used results are kept");
+		cache.get(authors, () -> run("b"), "b");
+		assertEquals(4, runs, "Least recently used results are evicted");
+		cache.get(authors, () -> run("b"), "b");
+		final QueryCache disabled = new QueryCache(0);
+		disabled.get(authors, () -> run("a"), "a");
+		disabled.get(authors, () -> run("a"), "a");
+		assertEquals(6, runs, "A cache of capacity zero caches nothing");
+	}
+
+	@Test
+	public void testEditsDontReachCache() throws IOException {
+		final QueryCache cache = new QueryCache(8);
+		final EnumSet<Table> books = EnumSet.allOf(Table.class);
+		final List<Book> first = cache.get(books,
+				() -> Arrays.asList(new Book(1, new Author(2, "Jane Austen"),
+						new Publisher(3, "Penguin"), "Emma", "")),
+				"books");
+		first.get(0).setTitle("Unsaved edit");
+		final List<Book> second = cache.get(books, Collections::emptyList, "books");
+		assertEquals("Emma", second.get(0).getTitle(),
+				"Editing a query result doesn't change the cached result");
+		second.get(0).getAuthor().setName("Another unsaved edit");
+		assertEquals("Jane Austen",
+				cache.get(books, Collections::<Book>emptyList, "books").get(0).getAuthor()
+						.getName(),
+				"Nor does editing a cached result's author");
+	}
+}
@@ -1,9 +1,15 @@
 package service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -79,4 +85,108 @@ public final class ServiceTest {
 		assertEquals(1, service.getAllBooks().size(),
 				"Removing an author removed all her books");
 	}
+
+	@Test
+	public void testOrderedIndexes() throws IOException {
+		final Author bujold = service.createAuthor("Lois McMaster Bujold");
+		final Publisher baen = service.createPublisher("Baen Books");
+		service.createBook("A Civil Campaign", "0671578855", bujold, baen);
+		service.createBook("The Curse of Chalion", "0380818604", "Lois McMaster Bujold",
+				"HarperCollins");
+		assertEquals(Arrays.asList("A Civil Campaign"),
+				service.completeTitles("a civ", 10), "Completion is case-insensitive");
+		final Book persuasion = service.createBook("Persuasion", "9781908533081",
+				"Jane Austen", "TransAtlantic Press");
+		service.createBook("Pride and Prejudice", "9780141439518", "Jane Austen",
+				"Penguin");
+		assertEquals(Arrays.asList("Persuasion", "Pride and Prejudice"),
+				service.completeTitles("P", 10), "Index sees books added after it is built");
+		assertEquals(Arrays.asList("Persuasion"), service.completeTitles("P", 1),
+				"Completions are limited");
+		assertEquals(Arrays.asList("Jane Austen"), service.completeAuthorNames("j", 10),
+				"Authors can be completed");
+		assertEquals(Arrays.asList("Persuasion", "Pride and Prejudice", "The Curse of Chalion"),
+				service.getBooksByTitleRange("b", "T").stream().map(Book::getTitle)
+						.collect(Collectors.toList()),
+				"Range includes titles beginning with its upper end, in order");
+		persuasion.setTitle("Northanger Abbey");
+		service.updateBook(persuasion);
+		assertEquals(Arrays.asList("Pride and Prejudice"), service.completeTitles("P", 10),
+				"Index follows renames");
+		service.deleteAuthor(bujold);
+		assertTrue(service.completeTitles("", 10).stream()
+				.noneMatch(title -> title.startsWith("A Civil")), "Index follows removals");
+		assertEquals(Arrays.asList("Jane Austen"),
+				service.getAuthorsByNameRange(null, null).stream().map(Author::getName)
+						.collect(Collectors.toList()), "Open range covers everything");
+	}
+
+	@Test
+	public void testFuzzySearch() throws IOException {
+		service.createBook("The Curse of Chalion", "0380818604", "Lois McMaster Bujold",
+				"HarperCollins");
+		service.createBook("Paladin of Souls", "0380818612", "Lois McMaster Bujold",
+				"HarperCollins");
+		service.createBook("Persuasion", "9781908533081", "Jane Austen",
+				"TransAtlantic Press");
+		service.createBook("Pride and Prejudice", "9780141439518", "Jane Austen",
+				"Penguin");
+		assertEquals(Arrays.asList("Persuasion"),
+				service.searchBooksFuzzy("persuasoin", 10).stream().map(Book::getTitle)
+						.collect(Collectors.toList()), "Transposed letters still match");
+		assertEquals("The Curse of Chalion",
+				service.searchBooksFuzzy("chalion", 10).get(0).getTitle(),
+				"One word of a longer title matches");
+		assertTrue(service.searchBooksFuzzy("xyzzy", 10).isEmpty(),
+				"Unrelated queries match nothing");
+		final Book pride = service.createBook("Pride and Prejudise", "0000000000",
+				"Jane Austen", "Penguin");
+		final List<Book> results = service.searchBooksFuzzy("pride and prejudice", 1);
+		assertEquals(1, results.size(), "Results are limited");
+		assertEquals("Pride and Prejudice", results.get(0).getTitle(),
+				"The best match comes first");
+		service.removeBook(pride);
+		assertEquals("Jane Austen",
+				service.searchAuthorsFuzzy("jane austin", 5).get(0).getName(),
+				"Author names can be searched");
+	}
+
+	@Test
+	public void testPartialImportReported() throws IOException {
+		final InMemoryBookDAO books = new InMemoryBookDAO() {
+			private int batches;
+
+			@Override
+			public void saveAll(final Collection<? extends Book> entities)
+					throws IOException {
+				batches++;
+				if (batches > 1) {
+					throw new IOException("Disk full");
+				}
+				super.saveAll(entities);
+			}
+		};
+		final LibraryService failing = new LibraryServiceImpl(books,
+				new InMemoryAuthorDAO(), new InMemoryPublisherDAO());
+		final PartialImportException except = assertThrows(
+				PartialImportException.class,
+				() -> failing.importBooks(IntStream.range(0, 10_001)
+						.mapToObj(i -> new Book(0, new Author(0, "Author " + i % 10),
+								new Publisher(0, "Penguin"), "Book " + i, ""))),
+				"Failure after the first batch reports partial progress");
+		assertEquals(10_000, except.getImported(), "The first batch was imported");
+		assertEquals(10_000, books.findAll().size(), "Only the first batch is saved");
+	}
+
+	@Test
+	public void testNoCacheByDefault() throws IOException {
+		final InMemoryAuthorDAO authors = new InMemoryAuthorDAO();
+		final LibraryService uncached = new LibraryServiceImpl(new InMemoryBookDAO(),
+				authors, new InMemoryPublisherDAO());
+		uncached.createAuthor("Robin McKinley");
+		assertEquals(1, uncached.getAllAuthors().size(), "Author added");
+		authors.save(new Author(2, "Patricia C. Wrede"));
+		assertEquals(2, uncached.getAllAuthors().size(),
+				"Change made directly to the DAO is seen, since nothing is cached");
+	}
 }
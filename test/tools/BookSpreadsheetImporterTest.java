@@ -0,0 +1,153 @@
+package tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dao.AuthorDataAccessObject;
+import dao.BookDataAccessObject;
+import dao.PublisherDataAccessObject;
+import model.Book;
+import service.LibraryService;
+import service.LibraryServiceImpl;
+
+public final class BookSpreadsheetImporterTest {
+	private static final String MAIN_NS = "xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\""
+			+ " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"";
+
+	private Path directory;
+	private LibraryService service;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+		final AuthorDataAccessObject authorDAO = new AuthorDataAccessObject(
+				directory.resolve("authors.csv").toString());
+		final PublisherDataAccessObject publisherDAO = new PublisherDataAccessObject(
+				directory.resolve("publishers.csv").toString());
+		service = new LibraryServiceImpl(new BookDataAccessObject(
+				directory.resolve("books.csv").toString(), authorDAO, publisherDAO),
+				authorDAO, publisherDAO);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static void entry(final ZipOutputStream zip, final String name,
+			final String contents) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(contents.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+	}
+
+	private static String sheet(final String rows) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><worksheet " + MAIN_NS
+				+ "><sheetData>" + rows + "</sheetData></worksheet>";
+	}
+
+	private Path writeWorkbook() throws IOException {
+		final Path file = directory.resolve("books.xlsx");
+		try (OutputStream out = Files.newOutputStream(file);
+				ZipOutputStream zip = new ZipOutputStream(out)) {
+			entry(zip, "xl/workbook.xml", "<workbook " + MAIN_NS + "><sheets>"
+					+ "<sheet name=\"Books\" sheetId=\"1\" r:id=\"rId1\"/>"
+					+ "<sheet name=\"Authors\" sheetId=\"2\" r:id=\"rId2\"/>"
+					+ "<sheet name=\"Publishers\" sheetId=\"3\" r:id=\"rId3\"/>"
+					+ "</sheets></workbook>");
+			entry(zip, "xl/_rels/workbook.xml.rels",
+					"<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+							+ "<Relationship Id=\"rId1\" Target=\"worksheets/sheet1.xml\"/>"
+							+ "<Relationship Id=\"rId2\" Target=\"worksheets/sheet2.xml\"/>"
+							+ "<Relationship Id=\"rId3\" Target=\"/xl/worksheets/sheet3.xml\"/>"
+							+ "</Relationships>");
+			entry(zip, "xl/sharedStrings.xml", "<sst " + MAIN_NS + ">"
+					+ "<si><t>book_Id</t></si><si><t>Title</t></si>"
+					+ "<si><t>author_Id</t></si><si><t>publisher_Id</t></si>"
+					+ "<si><t>author_name</t></si><si><t>publisher_name</t></si>"
+					+ "<si><r><t>Pride and </t></r><r><t>Prejudice</t></r></si>"
+					+ "<si><t>ISBN</t></si></sst>");
+			entry(zip, "xl/worksheets/sheet1.xml", sheet(
+					"<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c>"
+							+ "<c r=\"C1\" t=\"s\"><v>2</v></c><c r=\"D1\" t=\"s\"><v>3</v></c>"
+							+ "<c r=\"E1\" t=\"s\"><v>7</v></c></row>"
+							+ "<row r=\"2\"><c r=\"A2\"><v>1</v></c><c r=\"B2\" t=\"s\"><v>6</v></c>"
+							+ "<c r=\"C2\"><v>10</v></c><c r=\"D2\"><v>20</v></c>"
+							+ "<c r=\"E2\"><v>9780141439518</v></c></row>"
+							+ "<row r=\"3\"><c r=\"A3\" s=\"1\"/><c r=\"B3\" s=\"1\"/></row>"
+							+ "<row r=\"4\"><c r=\"B4\" t=\"inlineStr\"><is><t>Emma</t></is></c>"
+							+ "<c r=\"C4\"><v>10</v></c><c r=\"D4\"><v>20</v></c></row>"
+							+ "<row r=\"6\"><c r=\"B6\" t=\"inlineStr\"><is><t>Orphan</t></is></c>"
+							+ "<c r=\"C6\"><v>99</v></c><c r=\"D6\"><v>20</v></c></row>"
+							+ "<row r=\"7\"><c r=\"B7\" t=\"inlineStr\"><is><t>Around the World</t></is></c>"
+							+ "<c r=\"C7\"><v>11</v></c><c r=\"D7\"><v>20</v></c></row>"));
+			entry(zip, "xl/worksheets/sheet2.xml", sheet(
+					"<row r=\"1\"><c r=\"A1\" t=\"s\"><v>2</v></c><c r=\"B1\" t=\"s\"><v>4</v></c></row>"
+							+ "<row r=\"2\"><c r=\"A2\"><v>10</v></c>"
+							+ "<c r=\"B2\" t=\"inlineStr\"><is><t>Jane Austen</t></is></c></row>"
+							+ "<row r=\"3\"><c r=\"A3\"><v>11</v></c>"
+							+ "<c r=\"B3\" t=\"inlineStr\"><is><t>Jules Verne</t></is></c></row>"));
+			entry(zip, "xl/worksheets/sheet3.xml", sheet(
+					"<row r=\"1\"><c r=\"A1\" t=\"s\"><v>3</v></c><c r=\"B1\" t=\"s\"><v>5</v></c></row>"
+							+ "<row r=\"2\"><c r=\"A2\"><v>20</v></c>"
+							+ "<c r=\"B2\" t=\"inlineStr\"><is><t>Penguin</t></is></c></row>"));
+		}
+		return file;
+	}
+
+	@Test
+	public void testImport() throws IOException {
+		final BookSpreadsheetImporter importer = new BookSpreadsheetImporter(service);
+		assertEquals(3L, importer.importFile(writeWorkbook()),
+				"Complete rows are imported");
+		assertEquals(1L, importer.getRejectedCount(),
+				"Row with an unknown author is rejected");
+		assertEquals(2, service.getAllAuthors().size(), "Authors are deduplicated");
+		assertEquals(1, service.getAllPublishers().size(), "Publishers are deduplicated");
+		final List<Book> books = service.getAllBooks();
+		assertEquals("Pride and Prejudice", books.get(0).getTitle(),
+				"Rich-text shared strings are read");
+		assertEquals("9780141439518", books.get(0).getIsbn(), "ISBN column is read");
+		assertEquals("Jane Austen", books.get(1).getAuthor().getName(),
+				"Author is resolved through the author sheet");
+		assertEquals("Penguin", books.get(2).getPublisher().getName(),
+				"Publisher is resolved through the publisher sheet");
+		importer.importFile(writeWorkbook());
+		assertEquals(2, service.getAllAuthors().size(),
+				"Authors already in the database are reused");
+		assertEquals(6, service.getAllBooks().size(), "Books are added again");
+	}
+
+	@Test
+	public void testTemplate() throws IOException {
+		final Path template = Paths.get("Book.xlsx");
+		if (Files.exists(template)) {
+			final BookSpreadsheetImporter importer = new BookSpreadsheetImporter(service);
+			assertEquals(0L, importer.importFile(template),
+					"The shipped template has no books in it");
+			assertEquals(0L, importer.getRejectedCount(),
+					"Blank template rows are not rejected");
+		}
+	}
+}
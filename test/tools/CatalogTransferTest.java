@@ -0,0 +1,124 @@
+package tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dao.AuthorDataAccessObject;
+import dao.BookDataAccessObject;
+import dao.PublisherDataAccessObject;
+import model.Book;
+
+public final class CatalogTransferTest {
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("library");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (final Path file : files.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private BookDataAccessObject books(final String database) throws IOException {
+		final Path base = Files.createDirectories(directory.resolve(database));
+		final AuthorDataAccessObject authorDAO = new AuthorDataAccessObject(
+				base.resolve("authors.csv").toString());
+		final PublisherDataAccessObject publisherDAO = new PublisherDataAccessObject(
+				base.resolve("publishers.csv").toString());
+		return new BookDataAccessObject(base.resolve("books.csv").toString(), authorDAO,
+				publisherDAO);
+	}
+
+	private CatalogTransfer transfer(final String database) throws IOException {
+		final Path base = Files.createDirectories(directory.resolve(database));
+		final AuthorDataAccessObject authorDAO = new AuthorDataAccessObject(
+				base.resolve("authors.csv").toString());
+		final PublisherDataAccessObject publisherDAO = new PublisherDataAccessObject(
+				base.resolve("publishers.csv").toString());
+		return new CatalogTransfer(new BookDataAccessObject(
+				base.resolve("books.csv").toString(), authorDAO, publisherDAO), authorDAO,
+				publisherDAO, 4);
+	}
+
+	@Test
+	public void testImportValidatesAndMerges() throws IOException {
+		final Path catalog = directory.resolve("catalog.csv");
+		try (BufferedWriter out = Files.newBufferedWriter(catalog)) {
+			out.write("title,isbn,author,publisher,publisher_address\n");
+			for (int i = 0; i < 5000; i++) {
+				out.write(String.format("Book %d,,Author %d,Publisher %d,\"%d Main St,\nSpringfield\"\n",
+						i, i % 50, i % 7, i));
+			}
+			out.write("Emma,0-14-143951-3,Jane Austen,Penguin,\n");
+			out.write("Emma again,0141439513,Jane Austen,Penguin,\n");
+			out.write("Bad ISBN,0-14-143951-4,Jane Austen,Penguin,\n");
+			out.write(",,Nobody,Penguin,\n");
+		}
+		final CatalogTransfer.Report report = transfer("target").importCatalog(catalog);
+		assertEquals(5001L, report.getRows(), "Valid rows are imported");
+		assertEquals(2L, report.getRejected(), "Invalid rows are rejected");
+		assertEquals(1L, report.getDuplicates(), "Duplicate ISBN is skipped");
+		final List<Book> imported = books("target").findAll();
+		assertEquals(5001, imported.size(), "Every imported book is in the table");
+		for (int i = 0; i < 5000; i++) {
+			assertEquals("Book " + i, imported.get(i).getTitle(), "Import preserves order");
+		}
+		assertEquals(8L, imported.stream().map(book -> book.getPublisher().getId())
+				.distinct().count(), "Publishers are deduplicated by name");
+		assertEquals("1 Main St,\nSpringfield", imported.get(1).getPublisher().getAddress(),
+				"Multi-line fields survive");
+		assertEquals(5000L, transfer("target").importCatalog(catalog).getRows(),
+				"Only rows without ISBNs are re-imported");
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final Path catalog = directory.resolve("catalog.csv");
+		try (BufferedWriter out = Files.newBufferedWriter(catalog)) {
+			out.write("title,isbn,author,publisher,publisher_phone\n");
+			out.write("\"Twenty Thousand Leagues, Under the Sea\",978-0-14-139407-7,Jules Verne,Penguin,555-0100\n");
+			out.write("Persuasion,,Jane Austen,Penguin,555-0100\n");
+		}
+		transfer("source").importCatalog(catalog);
+		final Path exported = directory.resolve("exported.csv");
+		assertEquals(2L, transfer("source").exportCatalog(exported).getRows(),
+				"Every book is exported");
+		final CatalogTransfer.Report report = transfer("target").importCatalog(exported);
+		assertEquals(2L, report.getRows(), "Exported catalog can be imported");
+		final List<Book> copied = books("target").findAll();
+		assertEquals("Twenty Thousand Leagues, Under the Sea", copied.get(0).getTitle(),
+				"Titles are copied");
+		assertEquals("555-0100", copied.get(1).getPublisher().getPhone(),
+				"Publisher details are copied");
+	}
+
+	@Test
+	public void testISBNValidation() {
+		assertTrue(CatalogTransfer.isValidISBN("0-306-40615-2"), "Valid ISBN-10");
+		assertTrue(CatalogTransfer.isValidISBN("080442957X"), "ISBN-10 with X check digit");
+		assertTrue(CatalogTransfer.isValidISBN("978-0-306-40615-7"), "Valid ISBN-13");
+		assertFalse(CatalogTransfer.isValidISBN("978-0-306-40615-8"), "Bad check digit");
+		assertFalse(CatalogTransfer.isValidISBN("12345"), "Wrong length");
+	}
+}
@@ -0,0 +1,176 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+public final class LongCollectionsTest {
+	@Test
+	public void testObjectMap() {
+		final LongObjectMap<String> map = new LongObjectMap<>();
+		final Map<Long, String> expected = new LinkedHashMap<>();
+		final Random random = new Random(42);
+		for (int i = 0; i < 50_000; i++) {
+			final long key = random.nextInt(4000) - 2000L;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key),
+						"Removal returns old value");
+			} else {
+				final String value = Integer.toString(i);
+				assertEquals(expected.put(key, value), map.put(key, value),
+						"Put returns old value");
+			}
+		}
+		assertEquals(expected.size(), map.size(), "Map tracks its size");
+		for (long key = -2000; key < 2000; key++) {
+			assertEquals(expected.get(key), map.get(key), "Map agrees with a HashMap");
+		}
+		assertEquals(new ArrayList<>(expected.values()), map.values(),
+				"Map keeps insertion order");
+		assertArrayEquals(expected.keySet().stream().mapToLong(Long::longValue).toArray(),
+				map.keys(), "Keys are in insertion order");
+		map.clear();
+		assertTrue(map.isEmpty(), "Map can be cleared");
+		assertNull(map.get(5), "Cleared map has nothing in it");
+	}
+
+	@Test
+	public void testObjectMapOrder() {
+		final LongObjectMap<String> map = new LongObjectMap<>();
+		map.put(3, "three");
+		map.put(1, "one");
+		map.put(2, "two");
+		map.put(1, "uno");
+		map.remove(3);
+		map.put(3, "tres");
+		assertEquals(Arrays.asList("uno", "two", "tres"), map.values(),
+				"Replacing keeps position, re-adding goes to the end");
+		assertEquals("{1=uno, 2=two, 3=tres}", new LongObjectMap<>(map).toString(),
+				"Copy keeps order");
+	}
+
+	@Test
+	public void testLongMap() {
+		final LongLongMap map = new LongLongMap();
+		final Map<Long, Long> expected = new HashMap<>();
+		final Random random = new Random(7);
+		for (int i = 0; i < 50_000; i++) {
+			final long key = random.nextInt(4000) * 1024L;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.containsKey(key) ? expected.remove(key) : -1L,
+						map.remove(key, -1L), "Removal returns old value");
+			} else {
+				final long value = random.nextLong();
+				expected.put(key, value);
+				map.put(key, value);
+			}
+		}
+		assertEquals(expected.size(), map.size(), "Map tracks its size");
+		for (long key = 0; key < 4000 * 1024L; key += 1024) {
+			assertEquals(expected.getOrDefault(key, 0L).longValue(), map.get(key, 0L),
+					"Map agrees with a HashMap");
+			assertEquals(expected.containsKey(key), map.containsKey(key),
+					"Map agrees with a HashMap");
+		}
+		final long[] total = new long[1];
+		map.forEach((key, value) -> total[0] += value);
+		assertEquals(expected.values().stream().mapToLong(Long::longValue).sum(),
+				total[0], "forEach visits every entry");
+		assertEquals(3L, new LongLongMap().addTo(9, 3), "addTo treats missing as zero");
+	}
+
+	@Test
+	public void testSet() {
+		final LongSet set = new LongSet();
+		final TreeSet<Long> expected = new TreeSet<>();
+		final Random random = new Random(11);
+		for (int i = 0; i < 50_000; i++) {
+			final long value = random.nextInt(4000) - 2000L;
+			if (random.nextBoolean()) {
+				assertEquals(expected.remove(value), set.remove(value),
+						"Removal reports presence");
+			} else {
+				assertEquals(expected.add(value), set.add(value),
+						"Addition reports absence");
+			}
+		}
+		assertEquals(expected.size(), set.size(), "Set tracks its size");
+		assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(),
+				set.toSortedArray(), "Set agrees with a TreeSet");
+		assertEquals(1999L, set.getMax(), "Set remembers its largest member");
+	}
+
+	@Test
+	public void testSortedArray() {
+		final SortedLongArray array = new SortedLongArray();
+		final TreeSet<Long> expected = new TreeSet<>();
+		final Random random = new Random(13);
+		for (int i = 0; i < 5000; i++) {
+			final long value = random.nextInt(3) == 0 ? random.nextInt(10_000) : i * 3L;
+			assertEquals(expected.add(value), array.add(value),
+					"Addition reports absence");
+			if (random.nextInt(10) == 0) {
+				final long victim = random.nextInt(10_000);
+				assertEquals(expected.remove(victim), array.remove(victim),
+						"Removal reports presence");
+			}
+		}
+		assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(),
+				array.toArray(), "Array stays sorted and distinct");
+		final SortedLongArray other = new SortedLongArray();
+		final List<Long> both = new ArrayList<>();
+		for (long value = 0; value < 15_000; value += 5) {
+			other.add(value);
+			if (expected.contains(value)) {
+				both.add(value);
+			}
+		}
+		assertArrayEquals(both.stream().mapToLong(Long::longValue).toArray(),
+				SortedLongArray.intersect(array, other).toArray(),
+				"Intersection finds common elements");
+		assertFalse(array.contains(-1), "Absent values are not found");
+	}
+
+	@Test
+	public void testConcurrentObjectMap() throws InterruptedException {
+		final ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+		final List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final long offset = t * 100_000L;
+			threads.add(new Thread(() -> {
+				for (long i = 0; i < 10_000; i++) {
+					map.put(offset + i, "v" + i);
+					map.compute(offset + i, old -> old + "!");
+					if (i % 2 == 0) {
+						map.remove(offset + i);
+					}
+				}
+			}));
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(20_000, map.size(), "Concurrent changes are all applied");
+		assertEquals(20_000, map.values().size(), "Values are all copied");
+		assertEquals("v1!", map.get(300_001), "Compute sees the current value");
+		assertNull(map.get(300_002), "Removed keys are gone");
+		assertNull(map.compute(300_001, old -> null), "Compute to null removes");
+		assertFalse(map.containsKey(300_001), "Computed removal applied");
+	}
+}
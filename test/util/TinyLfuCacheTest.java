@@ -0,0 +1,109 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public final class TinyLfuCacheTest {
+	/**
+	 * Draw keys from a Zipf distribution, in which the k-th most popular of n
+	 * keys is asked for in proportion to 1/k.
+	 */
+	private static final class Zipf {
+		private final double[] cumulative;
+		private final Random random;
+
+		Zipf(final int keys, final long seed) {
+			cumulative = new double[keys];
+			double total = 0;
+			for (int i = 0; i < keys; i++) {
+				total += 1.0 / (i + 1);
+				cumulative[i] = total;
+			}
+			for (int i = 0; i < keys; i++) {
+				cumulative[i] /= total;
+			}
+			random = new Random(seed);
+		}
+
+		long next() {
+			final int index = Arrays.binarySearch(cumulative, random.nextDouble());
+			return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+		}
+	}
+
+	@Test
+	public void testSkewedHitRate() {
+		final int keys = 10_000;
+		// Room for a tenth of the keys
+		final TinyLfuCache<String> cache = new TinyLfuCache<>(keys / 10 * 100L,
+				value -> 100);
+		final Zipf zipf = new Zipf(keys, 42);
+		for (int i = 0; i < 200_000; i++) {
+			final long key = zipf.next();
+			if (cache.get(key) == null) {
+				cache.put(key, Long.toString(key));
+			}
+		}
+		// The most popular tenth of the keys gets about 76% of the requests
+		assertTrue(cache.getHitRate() > 0.7,
+				"Most requests served from a small cache: " + cache);
+		assertTrue(cache.getWeight() <= cache.getMaximumWeight(), "Cache stays in bounds");
+		assertEquals(200_000, cache.getHitCount() + cache.getMissCount(),
+				"Every lookup counted");
+		assertTrue(cache.getEvictionCount() > 0, "Evictions counted");
+	}
+
+	@Test
+	public void testScanResistance() {
+		final TinyLfuCache<String> cache = new TinyLfuCache<>(100, value -> 1);
+		for (int round = 0; round < 10; round++) {
+			for (long key = 0; key < 50; key++) {
+				if (cache.get(key) == null) {
+					cache.put(key, "hot");
+				}
+			}
+		}
+		for (long key = 1000; key < 11_000; key++) {
+			if (cache.get(key) == null) {
+				cache.put(key, "cold");
+			}
+		}
+		int survivors = 0;
+		for (long key = 0; key < 50; key++) {
+			if ("hot".equals(cache.get(key))) {
+				survivors++;
+			}
+		}
+		assertTrue(survivors >= 45, "Scan doesn't flush popular entries: " + survivors);
+	}
+
+	@Test
+	public void testWeights() {
+		final TinyLfuCache<String> cache = new TinyLfuCache<>(1000, String::length);
+		final Random random = new Random(7);
+		for (int i = 0; i < 5000; i++) {
+			final char[] value = new char[random.nextInt(200) + 1];
+			Arrays.fill(value, 'x');
+			cache.put(random.nextInt(500), new String(value));
+			assertTrue(cache.getWeight() <= 1000, "Weight stays within the maximum");
+		}
+		cache.put(1, "small");
+		assertEquals("small", cache.get(1), "Updated value returned");
+		final char[] huge = new char[1001];
+		Arrays.fill(huge, 'x');
+		cache.put(1, new String(huge));
+		assertNull(cache.get(1), "Values bigger than the cache aren't cached");
+		cache.put(2, "two");
+		cache.invalidate(2);
+		assertNull(cache.get(2), "Invalidated entries are gone");
+		cache.clear();
+		assertEquals(0, cache.size(), "Cleared cache is empty");
+		assertEquals(0, cache.getWeight(), "Cleared cache weighs nothing");
+	}
+}